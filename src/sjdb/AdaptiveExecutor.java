@@ -0,0 +1,458 @@
+package sjdb;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class executes a query adaptively, re-optimising the rest of the
+ * query where the estimate of an intermediate result proves wrong.
+ *
+ * The build side of each hash join, and the buffered side of each
+ * product, is a pipeline breaker: it is read in full before any tuple
+ * leaves the operator. These inputs are checkpoints. They are executed
+ * one at a time, in the order the Executor would finish them, and their
+ * results are kept in temporary tables. A checkpoint whose actual tuple
+ * count is off from its estimate by a q-error (as in ExplainAnalyzer)
+ * above the threshold makes the rest of the query suspect. The query is
+ * then planned again by the Optimiser, with each result kept so far
+ * standing in as a named relation, with exact statistics, for the
+ * relations it joins and the predicates it applied.
+ *
+ * Results within the threshold are kept too, and read in place of the
+ * subplan that produced them, so no work is done twice. The query is
+ * re-optimised at most MAX_REOPTIMISATIONS times; after that, the
+ * current plan runs to completion. Only inputs built from Scans, Selects,
+ * Projects, Joins and Products are checkpoints, and only when they are
+ * not bare Scans, whose sizes are known.
+ *
+ * Temporary relations are added to the storage but not to the catalogue,
+ * and are dropped once the query has run.
+ */
+public class AdaptiveExecutor {
+	/**
+	 * The q-error of a checkpoint above which the query is re-optimised
+	 */
+	public static final double DEFAULT_THRESHOLD = 4;
+
+	/**
+	 * The largest number of times a query is re-optimised
+	 */
+	private static final int MAX_REOPTIMISATIONS = 3;
+
+	private static final AtomicInteger TEMPORARIES = new AtomicInteger();
+
+	private Optimiser optimiser;
+	private Storage storage;
+	private double threshold;
+
+	private IdentityHashMap<Operator, Table> materialised;
+	private LinkedHashMap<NamedRelation, Set<String>> covered;
+	private HashMap<String, NamedRelation> temporaries;
+	private int checkpoints;
+	private int reoptimisations;
+
+	/**
+	 * Create a new adaptive executor
+	 * @param optimiser Optimiser for the query and its remainders
+	 * @param storage Stored data for the named relations
+	 */
+	public AdaptiveExecutor(Optimiser optimiser, Storage storage) {
+		this.optimiser = optimiser;
+		this.storage = storage;
+		this.threshold = DEFAULT_THRESHOLD;
+	}
+
+	/**
+	 * Set the q-error of a checkpoint above which the query is re-optimised
+	 * @param threshold Q-error, at least 1
+	 */
+	public void setThreshold(double threshold) {
+		this.threshold = threshold;
+	}
+
+	/**
+	 * Return the number of checkpoints reached by the last query executed
+	 * @return Checkpoint count
+	 */
+	public int getCheckpointCount() {
+		return this.checkpoints;
+	}
+
+	/**
+	 * Return the number of times the last query executed was re-optimised
+	 * @return Re-optimisation count
+	 */
+	public int getReoptimisationCount() {
+		return this.reoptimisations;
+	}
+
+	/**
+	 * Optimise a query and execute it to completion, re-optimising it at
+	 * checkpoints whose estimates prove wrong.
+	 * @param canonical Canonical query plan
+	 * @return Result tuples
+	 */
+	public List<Tuple> execute(Operator canonical) {
+		Query query = new Query(canonical);
+		Operator plan = this.optimiser.optimise(canonical);
+
+		this.materialised = new IdentityHashMap<Operator, Table>();
+		this.covered = new LinkedHashMap<NamedRelation, Set<String>>();
+		this.temporaries = new HashMap<String, NamedRelation>();
+		this.checkpoints = 0;
+		this.reoptimisations = 0;
+
+		try {
+			Operator checkpoint;
+			while (this.reoptimisations < MAX_REOPTIMISATIONS && (checkpoint = nextCheckpoint(plan)) != null) {
+				Table table = materialise(checkpoint);
+				this.checkpoints++;
+
+				if (qError(checkpoint.getOutput().getTupleCount(), table.size()) > this.threshold) {
+					Operator remainder = query.remainder(this.covered);
+					if (remainder != null) {
+						plan = this.optimiser.optimise(remainder);
+						this.materialised.clear();
+						this.reoptimisations++;
+					}
+				}
+			}
+
+			return executor().execute(plan);
+		} finally {
+			for (String name : this.temporaries.keySet()) {
+				this.storage.dropTable(name);
+			}
+		}
+	}
+
+	/**
+	 * Return the first checkpoint of a plan, in the order the Executor
+	 * finishes them, that has not yet been materialised; or null if there
+	 * is none. The build side of a join is finished before its probe side
+	 * is opened.
+	 */
+	private Operator nextCheckpoint(Operator plan) {
+		Deque<Operator> stack = new ArrayDeque<Operator>();
+		// true marks an input to be checked once it is finished
+		Deque<Boolean> finished = new ArrayDeque<Boolean>();
+
+		stack.push(plan);
+		finished.push(false);
+		while (!stack.isEmpty()) {
+			Operator op = stack.pop();
+
+			if (finished.pop()) {
+				if (!this.materialised.containsKey(op) && isCheckpoint(op)) {
+					return op;
+				}
+				continue;
+			}
+			if (this.materialised.containsKey(op)) {
+				continue;
+			}
+			if (op instanceof Join || op instanceof Product) {
+				boolean breaker = !(op instanceof Join) || Partition.coPartitions((Join) op) == 0;
+
+				stack.push(op.inputs[0]);
+				finished.push(false);
+				if (breaker) {
+					stack.push(op.inputs[1]);
+					finished.push(true);
+				}
+				stack.push(op.inputs[1]);
+				finished.push(false);
+			} else {
+				for (int i = op.inputs.length - 1; i >= 0; i--) {
+					stack.push(op.inputs[i]);
+					finished.push(false);
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Return true if an input of a pipeline breaker is worth checking: it
+	 * is built from Scans, Selects, Projects, Joins and Products, and
+	 * joins relations or selects from a named relation of the catalogue.
+	 */
+	private boolean isCheckpoint(Operator op) {
+		boolean uncertain = false;
+		Deque<Operator> stack = new ArrayDeque<Operator>();
+
+		stack.push(op);
+		while (!stack.isEmpty()) {
+			Operator next = stack.pop();
+
+			if (next instanceof Join || next instanceof Product) {
+				uncertain = true;
+			} else if (next instanceof Select) {
+				Operator input = next.inputs[0];
+				while (input instanceof Select) {
+					input = input.inputs[0];
+				}
+				// predicates over a temporary relation may only be implied by those it applied
+				uncertain |= !(input instanceof Scan) || !this.temporaries.containsKey(input.toString());
+			} else if (!(next instanceof Scan || next instanceof Project)) {
+				return false;
+			}
+			for (Operator input : next.inputs) {
+				stack.push(input);
+			}
+		}
+		return uncertain;
+	}
+
+	/**
+	 * Execute a checkpoint and keep its result in a temporary relation,
+	 * whose statistics are exact; record the relations of the query it
+	 * stands for, in place of any kept results it read.
+	 */
+	private Table materialise(Operator checkpoint) {
+		Executor executor = executor();
+		TupleIterator iter = executor.compile(checkpoint);
+		List<Attribute> attrs = iter.getAttributes();
+		List<Tuple> tuples = new ArrayList<Tuple>();
+
+		try {
+			iter.open();
+			Tuple tuple;
+			while ((tuple = iter.next()) != null) {
+				tuples.add(tuple);
+			}
+			iter.close();
+		} finally {
+			executor.getMemoryArena().close();
+		}
+
+		NamedRelation reln = new NamedRelation("tmp$" + TEMPORARIES.incrementAndGet(), tuples.size());
+		Relation estimate = checkpoint.getOutput();
+		for (int i = 0; i < attrs.size(); i++) {
+			Set<String> values = new HashSet<String>();
+			for (Tuple t : tuples) {
+				values.add(t.get(i));
+			}
+			reln.addAttribute(new Attribute(estimate.getAttribute(attrs.get(i)), values.size()));
+		}
+
+		Table table = this.storage.createTable(reln);
+		for (Tuple t : tuples) {
+			table.addTuple(t);
+		}
+		this.materialised.put(checkpoint, table);
+
+		Set<String> names = new HashSet<String>();
+		for (String name : scannedRelations(checkpoint)) {
+			NamedRelation kept = this.temporaries.get(name);
+			if (kept != null) {
+				names.addAll(this.covered.remove(kept));
+			} else {
+				names.add(name);
+			}
+		}
+		this.temporaries.put(reln.toString(), reln);
+		this.covered.put(reln, names);
+		return table;
+	}
+
+	/**
+	 * Return the names of the relations of the query scanned by a subplan,
+	 * including the base relations of the views and the temporary
+	 * relations it reads, and those below the kept results it reads
+	 */
+	private List<String> scannedRelations(Operator op) {
+		List<String> names = new ArrayList<String>();
+		Deque<Operator> stack = new ArrayDeque<Operator>();
+
+		stack.push(op);
+		while (!stack.isEmpty()) {
+			Operator next = stack.pop();
+
+			if (next instanceof Scan) {
+				Relation reln = ((Scan) next).getRelation();
+				if (reln instanceof MaterializedView) {
+					names.addAll(((MaterializedView) reln).getBaseRelations());
+				} else {
+					names.add(reln.toString());
+				}
+			}
+			Table table = this.materialised.get(next);
+			if (table != null && next != op) {
+				names.add(table.getRelation().toString());
+				continue;
+			}
+			for (Operator input : next.inputs) {
+				stack.push(input);
+			}
+		}
+		return names;
+	}
+
+	private Executor executor() {
+		Executor executor = new Executor(this.storage);
+		for (Map.Entry<Operator, Table> entry : this.materialised.entrySet()) {
+			executor.materialise(entry.getKey(), entry.getValue());
+		}
+		return executor;
+	}
+
+	private static double qError(int estimated, int actual) {
+		double est = Math.max(1, estimated);
+		double act = Math.max(1, actual);
+		return Math.max(est / act, act / est);
+	}
+
+	/**
+	 * The parts of a canonical query: the relations it scans, the
+	 * predicates it applies, and the operators above its predicates
+	 */
+	private static class Query implements PlanVisitor {
+		private LinkedHashMap<String, NamedRelation> relations = new LinkedHashMap<String, NamedRelation>();
+		private List<Predicate> predicates = new ArrayList<Predicate>();
+		private Project project;
+		private Limit limit;
+		private TopN topN;
+		private Aggregate aggregate;
+
+		private Query(Operator canonical) {
+			canonical.accept(this);
+		}
+
+		/**
+		 * Return a canonical plan for the rest of the query, in which each
+		 * temporary relation stands for the relations it covers and the
+		 * predicates over them; or null if a temporary relation lacks an
+		 * attribute still needed.
+		 */
+		private Operator remainder(Map<NamedRelation, Set<String>> covered) {
+			Set<String> names = new HashSet<String>();
+			for (Set<String> coveredNames : covered.values()) {
+				names.addAll(coveredNames);
+			}
+
+			List<NamedRelation> scanned = new ArrayList<NamedRelation>(covered.keySet());
+			Set<Attribute> all = new HashSet<Attribute>();
+			Set<Attribute> coveredAttrs = new HashSet<Attribute>();
+			for (NamedRelation reln : this.relations.values()) {
+				all.addAll(reln.getAttributes());
+				if (names.contains(reln.toString())) {
+					coveredAttrs.addAll(reln.getAttributes());
+				} else {
+					scanned.add(reln);
+				}
+			}
+
+			List<Predicate> remaining = new ArrayList<Predicate>();
+			List<Attribute> needed = new ArrayList<Attribute>();
+			for (Predicate pred : this.predicates) {
+				if (!coveredAttrs.contains(pred.getLeftAttribute())
+						|| (pred.equalsAttribute() && !coveredAttrs.contains(pred.getRightAttribute()))) {
+					remaining.add(pred);
+					needed.add(pred.getLeftAttribute());
+					if (pred.equalsAttribute()) {
+						needed.add(pred.getRightAttribute());
+					}
+				}
+			}
+			if (this.project != null) {
+				needed.addAll(this.project.getAttributes());
+			}
+			if (this.topN != null) {
+				needed.addAll(this.topN.getAttributes());
+			}
+			if (this.aggregate != null) {
+				needed.addAll(this.aggregate.getGroupBy());
+				for (Aggregation agg : this.aggregate.getAggregations()) {
+					if (agg.getArgument() != null) {
+						needed.add(agg.getArgument());
+					}
+					if (agg.getWeight() != null) {
+						needed.add(agg.getWeight());
+					}
+				}
+			}
+
+			// attributes of no relation are computed above the joins
+			Set<Attribute> available = new HashSet<Attribute>();
+			for (NamedRelation reln : scanned) {
+				available.addAll(reln.getAttributes());
+			}
+			for (Attribute attr : needed) {
+				if (all.contains(attr) && !available.contains(attr)) {
+					return null;
+				}
+			}
+
+			Operator op = null;
+			for (NamedRelation reln : scanned) {
+				op = (op == null) ? new Scan(reln) : new Product(op, new Scan(reln));
+			}
+			for (Predicate pred : remaining) {
+				op = new Select(op, pred);
+			}
+			if (this.aggregate != null) {
+				op = new Aggregate(op, this.aggregate.getGroupBy(), this.aggregate.getAggregations());
+			}
+			if (this.topN != null) {
+				List<Boolean> descending = new ArrayList<Boolean>();
+				for (int i = 0; i < this.topN.getAttributes().size(); i++) {
+					descending.add(this.topN.isDescending(i));
+				}
+				op = new TopN(op, this.topN.getAttributes(), descending, this.topN.getLimit());
+			} else if (this.limit != null) {
+				op = new Limit(op, this.limit.getLimit());
+			}
+			if (this.project != null) {
+				op = new Project(op, this.project.getAttributes());
+			}
+			return op;
+		}
+
+		public void visit(Scan op) {
+			NamedRelation reln = (NamedRelation) op.getRelation();
+			this.relations.put(reln.toString(), reln);
+		}
+
+		public void visit(Project op) {
+			this.project = op;
+		}
+
+		public void visit(Select op) {
+			this.predicates.add(op.getPredicate());
+		}
+
+		public void visit(Product op) {
+			// the relations are joined afresh
+		}
+
+		public void visit(Join op) {
+			this.predicates.addAll(op.getPredicates());
+		}
+
+		public void visit(Limit op) {
+			this.limit = op;
+		}
+
+		public void visit(TopN op) {
+			this.topN = op;
+		}
+
+		public void visit(Aggregate op) {
+			this.aggregate = op;
+		}
+
+		public void visit(Exchange op) {
+			// a canonical plan has no Exchanges
+		}
+	}
+}
@@ -0,0 +1,73 @@
+package sjdb;
+
+import java.util.List;
+
+/**
+ * This class represents an Aggregate operator, which groups the tuples of
+ * its input by the values of a list of attributes and produces one tuple
+ * per group: the grouping attributes followed by the result of each
+ * aggregation. With no grouping attributes, the whole input is one group.
+ */
+public class Aggregate extends UnaryOperator {
+	private List<Attribute> groupBy;
+	private List<Aggregation> aggregations;
+
+	/**
+	 * Create a new aggregate operator.
+	 * @param input Child operator
+	 * @param groupBy Attributes to group by
+	 * @param aggregations Aggregate functions computed for each group
+	 */
+	public Aggregate(Operator input, List<Attribute> groupBy, List<Aggregation> aggregations) {
+		super(input);
+		this.groupBy = groupBy;
+		this.aggregations = aggregations;
+	}
+
+	/**
+	 * Return the attributes grouped by
+	 * @return Grouping attributes
+	 */
+	public List<Attribute> getGroupBy() {
+		return this.groupBy;
+	}
+
+	/**
+	 * Return the aggregate functions computed for each group
+	 * @return Aggregations
+	 */
+	public List<Aggregation> getAggregations() {
+		return this.aggregations;
+	}
+
+	/* (non-Javadoc)
+	 * @see sjdb.Operator#dispatch(sjdb.PlanVisitor)
+	 */
+	protected void dispatch(PlanVisitor visitor) {
+		visitor.visit(this);
+	}
+
+	/**
+	 * Render the grouping attributes and aggregations of this operator
+	 * @return
+	 */
+	public String renderAggregations() {
+		String ret = "";
+
+		for (Attribute attr : this.groupBy) {
+			ret += (ret.isEmpty() ? "" : ",") + attr.getName();
+		}
+		ret += ";";
+		for (int i = 0; i < this.aggregations.size(); i++) {
+			ret += (i == 0 ? "" : ",") + this.aggregations.get(i).toString();
+		}
+		return ret;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		return "AGGREGATE [" + renderAggregations() + "] (" + getInput().toString() + ")";
+	}
+}
@@ -0,0 +1,109 @@
+package sjdb;
+
+/**
+ * This class represents an aggregate function computed by an Aggregate
+ * operator over each group of its input: COUNT(*), COUNT(attr),
+ * SUM(attr), MIN(attr), MAX(attr) or AVG(attr). The result is given as a
+ * new attribute of the output of the Aggregate.
+ *
+ * SUM and AVG treat values as numbers; MIN and MAX order values as by
+ * Predicate.compare.
+ *
+ * An aggregation may be weighted by another attribute, as when it
+ * combines partial aggregates computed below a join: COUNT then sums the
+ * weights, and AVG divides the sum of its argument by the sum of the
+ * weights.
+ */
+public class Aggregation {
+	/**
+	 * The aggregate functions
+	 */
+	public enum Function {
+		COUNT, SUM, MIN, MAX, AVG
+	}
+
+	private Function function;
+	private Attribute argument;
+	private Attribute weight;
+	private Attribute output;
+
+	/**
+	 * Create a new aggregation
+	 * @param function Aggregate function
+	 * @param argument Attribute aggregated, or null for COUNT(*)
+	 * @param output Attribute holding the result
+	 */
+	public Aggregation(Function function, Attribute argument, Attribute output) {
+		this(function, argument, null, output);
+	}
+
+	/**
+	 * Create a new weighted aggregation
+	 * @param function Aggregate function
+	 * @param argument Attribute aggregated, or null for COUNT(*)
+	 * @param weight Attribute giving the number of input tuples that each
+	 * tuple stands for, or null if each stands for one
+	 * @param output Attribute holding the result
+	 */
+	public Aggregation(Function function, Attribute argument, Attribute weight, Attribute output) {
+		if (argument == null && function != Function.COUNT) {
+			throw new IllegalArgumentException(function.name() + " needs an attribute");
+		}
+		this.function = function;
+		this.argument = argument;
+		this.weight = weight;
+		this.output = output;
+	}
+
+	/**
+	 * Return the default name of the attribute holding the result of an
+	 * aggregation: the function in lower case, followed by the name of the
+	 * attribute aggregated
+	 * @param function Aggregate function
+	 * @param argument Attribute aggregated, or null for COUNT(*)
+	 * @return Attribute name
+	 */
+	public static String defaultName(Function function, Attribute argument) {
+		String name = function.name().toLowerCase();
+		return (argument == null) ? name : name + "_" + argument.getName();
+	}
+
+	public Function getFunction() {
+		return this.function;
+	}
+
+	/**
+	 * Return the attribute aggregated, or null for COUNT(*)
+	 * @return
+	 */
+	public Attribute getArgument() {
+		return this.argument;
+	}
+
+	/**
+	 * Return the attribute weighting each tuple, or null if unweighted
+	 * @return
+	 */
+	public Attribute getWeight() {
+		return this.weight;
+	}
+
+	/**
+	 * Return the attribute holding the result
+	 * @return
+	 */
+	public Attribute getOutput() {
+		return this.output;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		String ret = this.function.name() + "(" + ((this.argument == null) ? "*" : this.argument.getName());
+		if (this.weight != null) {
+			ret += "/" + this.weight.getName();
+		}
+		return ret + ")=" + this.output.getName();
+	}
+}
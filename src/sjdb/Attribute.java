@@ -9,25 +9,71 @@ package sjdb;
  */
 public class Attribute {
 
+	/**
+	 * The average width assumed for attributes with no recorded width, in bytes
+	 */
+	public static final int DEFAULT_WIDTH = 8;
+
 	private String name;
 	private int values;
+	private int width;
+	private double min = Double.NaN;
+	private double max = Double.NaN;
 
 	public Attribute(String name) {
 		this.name = name;
 		this.values = 0;
+		this.width = DEFAULT_WIDTH;
 	}
 	/**
 	 * @param name
 	 * @param values
 	 */
 	public Attribute(String name, int values) {
+		this(name, values, DEFAULT_WIDTH);
+	}
+	
+	/**
+	 * @param name
+	 * @param values
+	 * @param width
+	 */
+	public Attribute(String name, int values, int width) {
 		this.name = name;
 		this.values = values;
+		this.width = width;
 	}
 	
 	public Attribute(Attribute attr) {
 		this.name = attr.name;
 		this.values = attr.values;
+		this.width = attr.width;
+		this.min = attr.min;
+		this.max = attr.max;
+	}
+	
+	/**
+	 * Create a copy of an attribute with a revised number of distinct values
+	 * @param attr
+	 * @param values
+	 */
+	public Attribute(Attribute attr, int values) {
+		this(attr);
+		this.values = values;
+	}
+	
+	/**
+	 * Create a copy of an attribute with a revised number of distinct values
+	 * and revised bounds on its (numeric) values
+	 * @param attr
+	 * @param values
+	 * @param min
+	 * @param max
+	 */
+	public Attribute(Attribute attr, int values, double min, double max) {
+		this(attr, values);
+		this.min = min;
+		this.max = max;
 	}
 	
 	/**
@@ -44,6 +90,34 @@ public class Attribute {
 		return values;
 	}
 	
+	/**
+	 * @return the average width of a value of this attribute, in bytes
+	 */
+	public int getWidth() {
+		return width;
+	}
+	
+	/**
+	 * @return true if the bounds of the values of this attribute are known
+	 */
+	public boolean hasRange() {
+		return !Double.isNaN(min) && !Double.isNaN(max);
+	}
+	
+	/**
+	 * @return the smallest value taken by this attribute, or NaN if unknown
+	 */
+	public double getMin() {
+		return min;
+	}
+	
+	/**
+	 * @return the largest value taken by this attribute, or NaN if unknown
+	 */
+	public double getMax() {
+		return max;
+	}
+	
 	
 	@Override
 	public int hashCode() {
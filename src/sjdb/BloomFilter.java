@@ -0,0 +1,121 @@
+package sjdb;
+
+/**
+ * This class implements a Bloom filter over attribute values, used to
+ * pass information sideways from the build side of a hash join to a Scan
+ * on its probe side. The filter is sized when it is built, for the number
+ * of values added and a target false positive rate. Until it has been
+ * built it passes every value, so a Scan that is read before the join has
+ * built its hash table is not filtered.
+ *
+ * The filter counts the values it tests and passes, from which the
+ * fraction of probe tuples it let through can be recovered.
+ */
+public class BloomFilter {
+	/**
+	 * The false positive rate filters are sized for
+	 */
+	public static final double FALSE_POSITIVE_RATE = 0.01;
+
+	private long[] bits;
+	private int size;
+	private int hashes;
+	private long tested;
+	private long passed;
+
+	public BloomFilter() {
+		// empty until built
+	}
+
+	/**
+	 * Empty the filter and size it for a number of values
+	 * @param expected Number of values to be added
+	 */
+	public void reset(int expected) {
+		int n = Math.max(1, expected);
+		double m = -n * Math.log(FALSE_POSITIVE_RATE) / (Math.log(2) * Math.log(2));
+
+		this.size = (int) Math.min(Integer.MAX_VALUE - 63, Math.max(64, Math.ceil(m)));
+		this.hashes = Math.max(1, (int) Math.round(this.size / (double) n * Math.log(2)));
+		this.bits = new long[(this.size + 63) / 64];
+	}
+
+	/**
+	 * Add a value to the filter
+	 * @param value Attribute value
+	 */
+	public void add(String value) {
+		long hash = mix(value.hashCode());
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32);
+
+		for (int i = 0; i < this.hashes; i++) {
+			int bit = Math.floorMod(h1 + i * h2, this.size);
+			this.bits[bit >>> 6] |= 1L << bit;
+		}
+	}
+
+	/**
+	 * Return false if a value was definitely not added to the filter
+	 * @param value Attribute value
+	 * @return
+	 */
+	public boolean mightContain(String value) {
+		if (this.bits == null) {
+			return true;
+		}
+		this.tested++;
+
+		long hash = mix(value.hashCode());
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32);
+
+		for (int i = 0; i < this.hashes; i++) {
+			int bit = Math.floorMod(h1 + i * h2, this.size);
+			if ((this.bits[bit >>> 6] & (1L << bit)) == 0) {
+				return false;
+			}
+		}
+
+		this.passed++;
+		return true;
+	}
+
+	/**
+	 * Return the fraction of the values tested that the filter passed, or
+	 * 1 if none have been tested
+	 * @return
+	 */
+	public double getPassRatio() {
+		return (this.tested == 0) ? 1 : this.passed / (double) this.tested;
+	}
+
+	/**
+	 * Return the number of bytes held by the filter
+	 * @return
+	 */
+	public long getByteSize() {
+		return (this.bits == null) ? 0 : this.bits.length * 8L;
+	}
+
+	/**
+	 * Spread the bits of a hash code over a long, as in the finaliser of
+	 * MurmurHash3
+	 */
+	private static long mix(int hashCode) {
+		long h = hashCode * 0x9E3779B97F4A7C15L;
+		h ^= h >>> 33;
+		h *= 0xFF51AFD7ED558CCDL;
+		h ^= h >>> 33;
+		h *= 0xC4CEB93FE1A85EC5L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		return "BLOOM(" + this.size + " bits, " + this.hashes + " hashes)";
+	}
+}
@@ -0,0 +1,167 @@
+package sjdb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * This class records the output sizes of Select and Join operators
+ * observed while executing query plans, so that later estimates can be
+ * corrected where the uniformity and independence assumptions of the
+ * Estimator's formulae do not hold.
+ *
+ * Observations are keyed by SubplanKey (relation set and predicate set),
+ * and the output size of a subplan is the same whichever plan computes it,
+ * so it is recorded as the tuple count observed, including none. A count is
+ * not recorded where execution made it smaller than the subplan's result:
+ * where the operator was closed before producing all of its tuples, as
+ * below a Limit; where a Scan in the subplan was given runtime filters by a
+ * Join above the subplan; or where a Scan skipped blocks or pruned
+ * partitions for predicates of Selects above the subplan.
+ * Repeated observations are combined as an exponentially decaying average,
+ * so recent executions dominate. The store is bounded, and evicts the
+ * least recently used observation when full.
+ */
+public class CardinalityFeedback {
+	private static final int DEFAULT_CAPACITY = 1024;
+	private static final double DEFAULT_DECAY = 0.5;
+
+	private LinkedHashMap<SubplanKey, Double> tupleCounts;
+	private double decay;
+
+	/**
+	 * Create a new feedback store
+	 * @param capacity Maximum number of observations retained
+	 * @param decay Weight given to the existing tuple count when a new
+	 * observation is recorded, between 0 (keep only the latest) and 1
+	 */
+	public CardinalityFeedback(final int capacity, double decay) {
+		this.decay = decay;
+		this.tupleCounts = new LinkedHashMap<SubplanKey, Double>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<SubplanKey, Double> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	public CardinalityFeedback() {
+		this(DEFAULT_CAPACITY, DEFAULT_DECAY);
+	}
+
+	/**
+	 * Return the observed output size of a subplan, or null if none has
+	 * been observed.
+	 * @param key Subplan
+	 * @return Tuple count
+	 */
+	public synchronized Double getTupleCount(SubplanKey key) {
+		return this.tupleCounts.get(key);
+	}
+
+	/**
+	 * Record an observed output size for a subplan
+	 * @param key Subplan
+	 * @param tupleCount Observed tuple count
+	 */
+	public synchronized void record(SubplanKey key, double tupleCount) {
+		Double previous = this.tupleCounts.get(key);
+
+		if (previous != null) {
+			tupleCount = this.decay * previous + (1 - this.decay) * tupleCount;
+		}
+		this.tupleCounts.put(key, tupleCount);
+	}
+
+	/**
+	 * Return the number of observations retained
+	 * @return
+	 */
+	public synchronized int size() {
+		return this.tupleCounts.size();
+	}
+
+	/**
+	 * Record the output sizes of the Select and Join operators of a plan
+	 * that has been executed with profiling enabled.
+	 * @param plan Executed plan
+	 * @param executor Executor that profiled the plan
+	 */
+	public void observe(Operator plan, Executor executor) {
+		observeSubplan(plan, executor, Collections.newSetFromMap(new IdentityHashMap<BloomFilter, Boolean>()));
+	}
+
+	/**
+	 * Record the output sizes of the operators of a subplan, adding to a
+	 * set the runtime filters applied to its Scans by Joins above it
+	 */
+	private SubplanKey observeSubplan(Operator op, Executor executor, Set<BloomFilter> filters) {
+		if (op instanceof Scan) {
+			filters.addAll(executor.getRuntimeFilters(op));
+			return SubplanKey.of(((Scan) op).getRelation());
+		}
+
+		SubplanKey key = null;
+
+		for (Operator input : op.inputs) {
+			Set<BloomFilter> inputFilters = Collections.newSetFromMap(new IdentityHashMap<BloomFilter, Boolean>());
+			SubplanKey inputKey = observeSubplan(input, executor, inputFilters);
+			key = (key == null) ? inputKey : key.union(inputKey);
+			filters.addAll(inputFilters);
+		}
+
+		if (op instanceof Aggregate) {
+			// keyed apart from the subplan it aggregates, as by the Estimator
+			return key.aggregate((Aggregate) op);
+		}
+
+		List<Predicate> preds = new ArrayList<Predicate>();
+		if (op instanceof Select) {
+			preds.add(((Select) op).getPredicate());
+		} else if (op instanceof Join) {
+			preds.addAll(((Join) op).getPredicates());
+			// the filters a join built only dropped probe tuples it would not have matched
+			filters.removeAll(executor.getRuntimeFilters(op));
+		}
+
+		if (!preds.isEmpty()) {
+			for (Predicate pred : preds) {
+				key = key.with(pred);
+			}
+
+			ProfilingIterator profile = executor.getProfile(op);
+
+			if (filters.isEmpty() && !skippedAbove(op, executor) && profile != null && profile.wasExhausted()) {
+				record(key, profile.getTupleCount());
+			}
+		}
+
+		return key;
+	}
+
+	/**
+	 * Return true if the Scan at the bottom of a chain of Selects skipped
+	 * blocks or pruned partitions for predicates of Selects above the
+	 * given one, which may have held tuples satisfying those below.
+	 */
+	private static boolean skippedAbove(Operator op, Executor executor) {
+		Set<Predicate> chain = new HashSet<Predicate>();
+		Operator base = op;
+
+		while (base instanceof Select) {
+			chain.add(((Select) base).getPredicate());
+			base = ((Select) base).getInput();
+		}
+
+		return base instanceof Scan
+				&& (executor.getTuplesSkipped(base) > 0 || executor.getPartitionsPruned(base) > 0)
+				&& !chain.containsAll(executor.getPushedPredicates(base));
+	}
+}
@@ -1,6 +1,11 @@
 package sjdb;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
+import java.util.TreeMap;
 
 /**
  * This class contains the system catalogue for the database; it
@@ -8,13 +13,22 @@ import java.util.HashMap;
  * 
  * - creating new NamedRelations
  * - creating new Attributes
+ * - registering materialized views
+ * - creating the partitions of named relations
+ * - creating column groups and functional dependencies over the
+ *   attributes of named relations
+ * - recording samples of the stored tuples of named relations
  * 
  * The catalogue maintains a directory of NamedRelations and
  * Attributes, indexed by name.
  * 
  * Note that any statistical information about named relations or
  * the attributes therein is stored on the relations or attributes,
- * and not in the catalogue.
+ * and not in the catalogue. The catalogue does, however, keep a version
+ * number that changes whenever relations or attributes are created, so
+ * that estimates derived from older statistics can be recognised, and
+ * a fingerprint of its contents, by which plans kept across restarts of
+ * the database can be recognised as made for the same statistics.
  * 
  * @author nmg
  *
@@ -23,11 +37,16 @@ public class Catalogue {
 	
 	private HashMap<String, NamedRelation> relations;
 	private HashMap<String, Attribute> attributes;
+	private List<MaterializedView> views;
+	private volatile int version;
+	private int fingerprintVersion = -1;
+	private long fingerprint;
 
 
 	public Catalogue() {
 		this.relations = new HashMap<String, NamedRelation>();
 		this.attributes = new HashMap<String, Attribute>();
+		this.views = new ArrayList<MaterializedView>();
 	}
 	
 	/**
@@ -40,9 +59,29 @@ public class Catalogue {
 	public NamedRelation createRelation(String relName, int size) {
 		NamedRelation reln = new NamedRelation(relName, size);
 		relations.put(relName, reln);
+		version++;
 		return reln;
 	}
 	
+	/**
+	 * Register a new MaterializedView with the specified name, size and
+	 * defining query, and add it to the directory of named relations. The
+	 * attributes of its backing relation are then created as for any
+	 * other named relation.
+	 * 
+	 * @param viewName
+	 * @param size
+	 * @param definition Canonical plan of the defining query
+	 * @return
+	 */
+	public MaterializedView createView(String viewName, int size, Operator definition) {
+		MaterializedView view = new MaterializedView(viewName, size, definition);
+		relations.put(viewName, view);
+		views.add(view);
+		version++;
+		return view;
+	}
+	
 	/**
 	 * Create a new Attribute with the specified name and number of distinct
 	 * values, add it to the directory and associate it with the specified 
@@ -54,12 +93,278 @@ public class Catalogue {
 	 * @return
 	 */
 	public Attribute createAttribute(String relName, String attName, int values) {
-		Attribute attr = new Attribute(attName, values);
-		attributes.put(attName, attr);
-		relations.get(relName).addAttribute(attr);
+		return createAttribute(relName, attName, values, Attribute.DEFAULT_WIDTH);
+	}
+	
+	/**
+	 * Create a new Attribute with the specified name, number of distinct
+	 * values and average width in bytes, add it to the directory and 
+	 * associate it with the specified NamedRelation.
+	 * 
+	 * @param relName
+	 * @param attName
+	 * @param values
+	 * @param width
+	 * @return
+	 */
+	public Attribute createAttribute(String relName, String attName, int values, int width) {
+		return createAttribute(relName, attName, values, width, Double.NaN, Double.NaN);
+	}
+	
+	/**
+	 * Create a new numeric Attribute with the specified name, number of
+	 * distinct values, average width in bytes and bounds on its values, 
+	 * add it to the directory and associate it with the specified 
+	 * NamedRelation.
+	 * 
+	 * @param relName
+	 * @param attName
+	 * @param values
+	 * @param width
+	 * @param min
+	 * @param max
+	 * @return
+	 */
+	public Attribute createAttribute(String relName, String attName, int values, int width,
+			double min, double max) {
+		Attribute attr = new Attribute(new Attribute(attName, values, width), values, min, max);
+		NamedRelation reln = relations.get(relName);
+		// the attributes of a view are those of its base relations, whose statistics stand
+		if (!(reln instanceof MaterializedView)) {
+			attributes.put(attName, attr);
+		}
+		reln.addAttribute(attr);
+		version++;
 		return attr;
 	}
 	
+	/**
+	 * Create a new Partition of the specified NamedRelation, on one of its
+	 * attributes. The attributes of the partition initially have the
+	 * statistics of those of the relation, with value counts capped by the
+	 * size of the partition and, for a numeric range partition, the bounds
+	 * of the partitioning attribute narrowed to those of the range.
+	 * 
+	 * @param relName
+	 * @param partName
+	 * @param method
+	 * @param attName Partitioning attribute
+	 * @param bounds Bounds of the partition, as for Partition
+	 * @param size
+	 * @return
+	 */
+	public Partition createPartition(String relName, String partName, Partition.Method method,
+			String attName, List<String> bounds, int size) throws DatabaseException {
+		NamedRelation reln = getRelation(relName);
+		Attribute attr = new Attribute(attName);
+
+		if (!reln.getAttributes().contains(attr)) {
+			throw new DatabaseException("Attribute " + attName + " not found in " + relName);
+		}
+
+		Partition partition = new Partition(partName, method, reln.getAttribute(attr), bounds, size);
+		for (Attribute relAttr : reln.getAttributes()) {
+			// a numeric range partition narrows the bounds of its attribute
+			if (method == Partition.Method.RANGE && relAttr.equals(attr) && relAttr.hasRange()) {
+				Double low = Predicate.toNumber(bounds.get(0));
+				Double high = Predicate.toNumber(bounds.get(1));
+
+				if (low != null && high != null) {
+					relAttr = new Attribute(relAttr, relAttr.getValueCount(),
+							Math.max(relAttr.getMin(), low), Math.min(relAttr.getMax(), high));
+				}
+			}
+			partition.addAttribute(relAttr);
+		}
+		reln.addPartition(partition);
+		version++;
+		return partition;
+	}
+	
+	/**
+	 * Revise the statistics of an attribute of a partition of the
+	 * specified NamedRelation.
+	 * 
+	 * @param relName
+	 * @param partName
+	 * @param attName
+	 * @param values
+	 * @param width
+	 * @param min
+	 * @param max
+	 * @return
+	 */
+	public Attribute createPartitionAttribute(String relName, String partName, String attName, int values,
+			int width, double min, double max) throws DatabaseException {
+		NamedRelation reln = getRelation(relName);
+		Partition partition = null;
+
+		for (Partition p : reln.getPartitions()) {
+			if (p.getName().equals(partName)) {
+				partition = p;
+			}
+		}
+		if (partition == null) {
+			throw new DatabaseException("Partition " + partName + " of " + relName + " not found");
+		}
+
+		List<Attribute> attrs = partition.getAttributes();
+		int index = attrs.indexOf(new Attribute(attName));
+		if (index < 0) {
+			throw new DatabaseException("Attribute " + attName + " not found in " + relName);
+		}
+
+		values = Math.min(values, partition.getTupleCount());
+		Attribute attr = new Attribute(new Attribute(attName, values, width), values, min, max);
+		attrs.set(index, attr);
+		version++;
+		return attr;
+	}
+	
+	/**
+	 * Create a column group over attributes of the specified NamedRelation,
+	 * with the given number of distinct combinations of their values. The
+	 * count is kept between the largest value count of the attributes and
+	 * the smaller of their product and the size of the relation.
+	 * 
+	 * @param relName
+	 * @param attNames
+	 * @param values
+	 * @return
+	 */
+	public ColumnGroup createColumnGroup(String relName, List<String> attNames, int values)
+			throws DatabaseException {
+		NamedRelation reln = getRelation(relName);
+		List<Attribute> attrs = getAttributes(reln, attNames);
+		double product = 1;
+		int largest = 1;
+
+		for (Attribute attr : attrs) {
+			product *= Math.max(1, attr.getValueCount());
+			largest = Math.max(largest, attr.getValueCount());
+		}
+		values = (int) Math.min(values, Math.min(product, reln.getTupleCount()));
+		values = Math.max(values, Math.min(largest, reln.getTupleCount()));
+
+		ColumnGroup group = new ColumnGroup(attrs, values);
+		reln.addColumnGroup(group);
+		version++;
+		return group;
+	}
+	
+	/**
+	 * Declare a functional dependency between attributes of the specified
+	 * NamedRelation.
+	 * 
+	 * @param relName
+	 * @param determinant Names of the determining attributes
+	 * @param dependent Name of the dependent attribute
+	 * @return
+	 */
+	public FunctionalDependency createDependency(String relName, List<String> determinant, String dependent)
+			throws DatabaseException {
+		NamedRelation reln = getRelation(relName);
+		List<Attribute> attrs = getAttributes(reln, determinant);
+		Attribute attr = getAttributes(reln, Collections.singletonList(dependent)).get(0);
+
+		FunctionalDependency dependency = new FunctionalDependency(attrs, attr);
+		reln.addDependency(dependency);
+		version++;
+		return dependency;
+	}
+	
+	private static List<Attribute> getAttributes(NamedRelation reln, List<String> attNames)
+			throws DatabaseException {
+		List<Attribute> attrs = new ArrayList<Attribute>();
+
+		for (String attName : attNames) {
+			int index = reln.getAttributes().indexOf(new Attribute(attName));
+			if (index < 0) {
+				throw new DatabaseException("Attribute " + attName + " not found in " + reln);
+			}
+			attrs.add(reln.getAttributes().get(index));
+		}
+		return attrs;
+	}
+	
+	/**
+	 * Record a sample of the stored tuples of the specified NamedRelation.
+	 * Estimates made before the sample was taken are then out of date, so
+	 * this changes the version of the catalogue, though not its
+	 * fingerprint, as a sample is drawn afresh whenever the relation is
+	 * loaded.
+	 * 
+	 * @param relName
+	 * @param sample
+	 */
+	public void setSample(String relName, Sample sample) throws DatabaseException {
+		getRelation(relName).setSample(sample);
+		version++;
+	}
+	
+	/**
+	 * Return the version of the catalogue, which changes whenever its
+	 * contents do.
+	 * 
+	 * @return
+	 */
+	public int getVersion() {
+		return version;
+	}
+	
+	/**
+	 * Return a fingerprint of the contents of the catalogue: its relations,
+	 * partitions and views, the statistics of their attributes, and their
+	 * column groups and functional dependencies. Unlike
+	 * the version, the fingerprint is the same for the same contents
+	 * however they were created, so it survives reloading the catalogue.
+	 * 
+	 * @return
+	 */
+	public synchronized long getFingerprint() {
+		if (fingerprintVersion == version) {
+			return fingerprint;
+		}
+
+		TreeMap<String, NamedRelation> sorted = new TreeMap<String, NamedRelation>(relations);
+		StringBuilder contents = new StringBuilder();
+		for (NamedRelation reln : sorted.values()) {
+			render(contents.append(reln.toString()), reln);
+			for (Partition part : reln.getPartitions()) {
+				render(contents.append(part.render()), part);
+			}
+			for (ColumnGroup group : reln.getColumnGroups()) {
+				contents.append(":").append(group);
+			}
+			for (FunctionalDependency dependency : reln.getDependencies()) {
+				contents.append(":").append(dependency);
+			}
+			if (reln instanceof MaterializedView) {
+				contents.append("=").append(((MaterializedView) reln).getDefinition());
+			}
+			contents.append("\n");
+		}
+
+		// 64-bit FNV-1a
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < contents.length(); i++) {
+			hash = (hash ^ contents.charAt(i)) * 0x100000001b3L;
+		}
+		fingerprintVersion = version;
+		fingerprint = hash;
+		return hash;
+	}
+	
+	private static void render(StringBuilder contents, Relation reln) {
+		contents.append(":").append(reln.getTupleCount());
+		for (Attribute attr : reln.getAttributes()) {
+			contents.append(":").append(attr.render()).append(",").append(attr.getWidth());
+			if (attr.hasRange()) {
+				contents.append(",").append(attr.getMin()).append(",").append(attr.getMax());
+			}
+		}
+	}
+	
 	/**
 	 * Return the NamedRelation with the specified name.
 	 * 
@@ -76,6 +381,24 @@ public class Catalogue {
 		return reln;
 	}
 	
+	/**
+	 * Return all of the NamedRelations in the directory.
+	 * 
+	 * @return
+	 */
+	public Collection<NamedRelation> getRelations() {
+		return relations.values();
+	}
+	
+	/**
+	 * Return all of the MaterializedViews in the directory.
+	 * 
+	 * @return
+	 */
+	public List<MaterializedView> getViews() {
+		return views;
+	}
+	
 	/**
 	 * Return the Attribute with the specified name.
 	 * 
@@ -1,5 +1,7 @@
 package sjdb;
 import java.io.*;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * This class parses a serialised system catalogue, and uses the
@@ -10,6 +12,47 @@ import java.io.*;
  * 
  * <relation name>:<tuple count>:<attr name>,<value count>:<attr name>,<value count>
  * 
+ * An attribute may optionally also give the average width of its values
+ * in bytes, as <attr name>,<value count>,<width>; attributes without a
+ * width are assumed to be Attribute.DEFAULT_WIDTH bytes wide. Numeric
+ * attributes may further give the bounds of their values, as
+ * <attr name>,<value count>,<width>,<min>,<max>.
+ * 
+ * A materialized view is described by a line of the same form prefixed
+ * by VIEW, giving the statistics of its backing relation, followed by its
+ * defining query in the syntax accepted by QueryParser:
+ * 
+ * VIEW <view name>:<tuple count>:<attr name>,<value count>:...
+ * SELECT <attribute name>,...
+ * FROM <relation name>,...
+ * WHERE <predicate>,...
+ * 
+ * The relations read by a view must be described before it.
+ * 
+ * A partition of a relation is described, after the relation, by a line
+ * of the form
+ * 
+ * PARTITION <relation name>:<partition name>:<bounds>:<tuple count>:<attr name>,<value count>:...
+ * 
+ * where <bounds> is one of
+ * 
+ * RANGE <attr name> <low> <high>      (low inclusive, high exclusive)
+ * LIST <attr name> <value>,...,<value>
+ * HASH <attr name> <modulus> <remainder>
+ * 
+ * The attributes listed give the statistics of the partition; those not
+ * listed take the statistics of the relation, and a listed attribute
+ * without a width or bounds takes those of the relation's attribute; the
+ * bounds of the partitioning attribute of a range partition are first
+ * narrowed to those of the partition.
+ * 
+ * The number of distinct combinations of the values of a group of
+ * attributes of a relation, and a functional dependency between its
+ * attributes, are described after the relation by lines of the form
+ * 
+ * GROUP <relation name>:<attr name>,...,<attr name>:<value count>
+ * FD <relation name>:<attr name>,...,<attr name>-><attr name>
+ * 
  * @author nmg
  */
 public class CatalogueParser {
@@ -31,17 +74,59 @@ public class CatalogueParser {
 	}
 	
 	public void parse() {
-		String line;
+		String line = null;
 
 		try {
-			while ((line = this.read.readLine()) != null) {
-				parseRelation(line.split(":", 0));
+			line = this.read.readLine();
+			while (line != null) {
+				if (line.startsWith("VIEW ")) {
+					String header = line.substring(5);
+					StringBuilder definition = new StringBuilder();
+					
+					while ((line = this.read.readLine()) != null && isQueryLine(line)) {
+						definition.append(line).append("\n");
+					}
+					parseView(header.split(":", 0), definition.toString());
+				} else if (line.startsWith("GROUP ")) {
+					String[] parts = line.substring(6).split(":", 0);
+					catalogue.createColumnGroup(parts[0], Arrays.asList(parts[1].split(",", 0)),
+							Integer.decode(parts[2]).intValue());
+					line = this.read.readLine();
+				} else if (line.startsWith("FD ")) {
+					String[] parts = line.substring(3).split(":", 0);
+					String[] sides = parts[1].split("->", 0);
+					catalogue.createDependency(parts[0], Arrays.asList(sides[0].split(",", 0)), sides[1]);
+					line = this.read.readLine();
+				} else if (line.startsWith("PARTITION ")) {
+					parsePartition(line.substring(10).split(":", 0));
+					line = this.read.readLine();
+				} else {
+					parseRelation(line.split(":", 0));
+					line = this.read.readLine();
+				}
 			}
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
 	}
 	
+	private boolean isQueryLine(String line) {
+		return line.startsWith("SELECT") || line.startsWith("FROM")
+				|| line.startsWith("JOIN") || line.startsWith("WHERE");
+	}
+	
+	private void parseView(String[] parts, String definition) throws Exception {
+		String view = parts[0];
+		int size = Integer.decode(parts[1]).intValue();
+		
+		QueryParser parser = new QueryParser(catalogue, new StringReader(definition));
+		catalogue.createView(view, size, parser.parse());
+		
+		for (int i = 2; i < parts.length; i++) {
+			parseAttribute(view, parts[i].split(",", 0));
+		}
+	}
+	
 	private void parseRelation(String[] parts) {
 		String reln = parts[0];
 		int size = Integer.decode(parts[1]).intValue();
@@ -53,10 +138,40 @@ public class CatalogueParser {
 		}
 	}
 
+	private void parsePartition(String[] parts) throws Exception {
+		String reln = parts[0];
+		String partition = parts[1];
+		String[] bounds = parts[2].trim().split("\\s+", 3);
+		int size = Integer.decode(parts[3]).intValue();
+
+		Partition.Method method = Partition.Method.valueOf(bounds[0]);
+		List<String> values = (method == Partition.Method.LIST) ?
+				Arrays.asList(bounds[2].split("\\s*,\\s*")) : Arrays.asList(bounds[2].split("\\s+"));
+
+		Partition part = catalogue.createPartition(reln, partition, method, bounds[1], values, size);
+
+		for (int i = 4; i < parts.length; i++) {
+			String[] attr = parts[i].split(",", 0);
+			Attribute base = part.getAttribute(new Attribute(attr[0]));
+
+			int width = (attr.length > 2) ? Integer.decode(attr[2]).intValue() : base.getWidth();
+			double min = (attr.length > 4) ? Double.parseDouble(attr[3]) : base.getMin();
+			double max = (attr.length > 4) ? Double.parseDouble(attr[4]) : base.getMax();
+
+			catalogue.createPartitionAttribute(reln, partition, attr[0],
+					Integer.decode(attr[1]).intValue(), width, min, max);
+		}
+	}
+
 	private void parseAttribute(String reln, String[] parts) {
 		String attr = parts[0];
 		int values = Integer.decode(parts[1]).intValue();
+		int width = (parts.length > 2) ? 
+				Integer.decode(parts[2]).intValue() : Attribute.DEFAULT_WIDTH;
+		
+		double min = (parts.length > 4) ? Double.parseDouble(parts[3]) : Double.NaN;
+		double max = (parts.length > 4) ? Double.parseDouble(parts[4]) : Double.NaN;
 		
-		catalogue.createAttribute(reln, attr, values);
+		catalogue.createAttribute(reln, attr, values, width, min, max);
 	}
 }
@@ -0,0 +1,331 @@
+package sjdb;
+
+import java.io.IOException;
+import java.nio.channels.Pipe;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class simulates a number of nodes executing a distributed plan
+ * within one process. Every stored table is split over the nodes, tuple
+ * by tuple in turn (partition by partition, for a partitioned relation),
+ * and each node runs the whole plan in a thread of its own, over its own
+ * share of the tables. The Exchange operators of the plan move tuples
+ * between the nodes as serialised batches over operating system pipes,
+ * one per exchange, source node and destination node (see
+ * ExchangeIterator).
+ *
+ * The plan is shipped to each node as a worker would receive it, in the
+ * form written by PlanSerializer, so each node executes a copy of its
+ * own. The Exchanges of the copies are matched with those of the plan by
+ * their position in it.
+ *
+ * Each node's share of a table keeps the dictionary encoding of the
+ * table, but has no zone maps, as those on the named relation describe
+ * the whole table. The result of the plan is that produced on the first
+ * node.
+ *
+ * The memory arena of each node is closed only once the node and every
+ * thread sending tuples for its Exchanges have finished, those threads
+ * being stopped first if the plan failed.
+ */
+public class Cluster {
+	private int nodes;
+	private Storage[] storages;
+	private IdentityHashMap<Operator, Integer> exchanges;
+	private List<Pipe[][]> pipes;
+	private List<AtomicLong> bytesSent;
+	private int planBytes;
+	private List<RuntimeException> failures;
+	private List<Thread> senders;
+
+	/**
+	 * Create a new cluster, splitting the stored tables over its nodes
+	 * @param storage Stored data for the named relations
+	 * @param nodes Number of nodes
+	 */
+	public Cluster(Storage storage, int nodes) {
+		this.nodes = nodes;
+		this.storages = new Storage[nodes];
+		this.exchanges = new IdentityHashMap<Operator, Integer>();
+		this.pipes = new ArrayList<Pipe[][]>();
+		this.bytesSent = new ArrayList<AtomicLong>();
+		this.failures = new ArrayList<RuntimeException>();
+		this.senders = new ArrayList<Thread>();
+
+		for (int i = 0; i < nodes; i++) {
+			this.storages[i] = new Storage();
+		}
+		for (Table table : storage.getTables()) {
+			split(table);
+		}
+	}
+
+	/**
+	 * Return the number of nodes
+	 * @return Node count
+	 */
+	public int getNodes() {
+		return this.nodes;
+	}
+
+	/**
+	 * Return the share of the stored data held by a node
+	 * @param node Number of the node
+	 * @return Storage of the node
+	 */
+	public Storage getStorage(int node) {
+		return this.storages[node];
+	}
+
+	/**
+	 * Execute a distributed plan on every node to completion.
+	 * @param plan Query plan whose Exchanges are for this number of nodes
+	 * @return Result tuples, as produced on the first node
+	 */
+	public List<Tuple> execute(Operator plan) {
+		this.exchanges.clear();
+		this.pipes.clear();
+		this.bytesSent.clear();
+		this.failures.clear();
+		openPipes(plan);
+
+		byte[] shipped = PlanSerializer.serialize(plan);
+		List<Operator> copies = new ArrayList<Operator>();
+		this.planBytes = shipped.length;
+		for (int i = 0; i < this.nodes; i++) {
+			try {
+				copies.add(PlanSerializer.deserialize(shipped, this.storages[i]));
+			} catch (DatabaseException e) {
+				throw new IllegalArgumentException(e.getMessage(), e);
+			}
+			number(copies.get(i), new int[1]);
+		}
+
+		ExecutorService pool = Executors.newFixedThreadPool(this.nodes);
+		CompletionService<List<Tuple>> completion = new ExecutorCompletionService<List<Tuple>>(pool);
+		List<Future<List<Tuple>>> results = new ArrayList<Future<List<Tuple>>>();
+		List<Executor> executors = new ArrayList<Executor>();
+		boolean completed = false;
+
+		try {
+			for (int i = 0; i < this.nodes; i++) {
+				final Executor executor = new Executor(this.storages[i], this, i);
+				final Operator copy = copies.get(i);
+				executors.add(executor);
+				results.add(completion.submit(() -> executor.execute(copy)));
+			}
+
+			// a node that fails stops the others, which would wait for its tuples
+			for (int i = 0; i < this.nodes; i++) {
+				completion.take().get();
+			}
+			List<Tuple> result = results.get(0).get();
+			completed = true;
+
+			synchronized (this.failures) {
+				if (!this.failures.isEmpty()) {
+					throw this.failures.get(0);
+				}
+			}
+			return result;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted during execution", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException(e.getCause().getMessage(), e.getCause());
+		} finally {
+			pool.shutdownNow();
+			finish(pool, executors, !completed);
+		}
+	}
+
+	/**
+	 * Return the number of bytes an Exchange sent between nodes in the last
+	 * execution, including those each node sent to itself
+	 * @param op Exchange of the last plan executed
+	 * @return Byte count
+	 */
+	public long getBytesSent(Operator op) {
+		Integer index = this.exchanges.get(op);
+		return (index == null) ? 0 : this.bytesSent.get(index).get();
+	}
+
+	/**
+	 * Return the number of bytes all Exchanges sent in the last execution
+	 * @return Byte count
+	 */
+	public long getBytesSent() {
+		long total = 0;
+
+		for (AtomicLong bytes : this.bytesSent) {
+			total += bytes.get();
+		}
+		return total;
+	}
+
+	/**
+	 * Return the size of the serialised plan shipped to each node in the
+	 * last execution
+	 * @return Byte count
+	 */
+	public int getPlanBytes() {
+		return this.planBytes;
+	}
+
+	/**
+	 * Build the iterator executing an Exchange on a node
+	 * @param op Exchange
+	 * @param node Number of the node
+	 * @param input Iterator producing the node's share of the input
+	 * @return Iterator producing the tuples sent to the node
+	 */
+	TupleIterator exchange(Exchange op, int node, TupleIterator input) {
+		return new ExchangeIterator(input, op, node, this.pipes.get(this.exchanges.get(op)), this);
+	}
+
+	void recordBytesSent(Operator op, long bytes) {
+		this.bytesSent.get(this.exchanges.get(op)).addAndGet(bytes);
+	}
+
+	void recordSender(Thread sender) {
+		synchronized (this.senders) {
+			this.senders.add(sender);
+		}
+	}
+
+	void recordFailure(RuntimeException e) {
+		synchronized (this.failures) {
+			this.failures.add(e);
+		}
+	}
+
+	/**
+	 * Wait for the nodes and the threads sending for their Exchanges to
+	 * finish, interrupting them if the plan failed, and then close the
+	 * memory arenas of the nodes, from which those threads allocate
+	 */
+	private void finish(ExecutorService pool, List<Executor> executors, boolean stop) {
+		boolean interrupted = false;
+
+		while (true) {
+			try {
+				if (pool.awaitTermination(1, TimeUnit.SECONDS)) {
+					break;
+				}
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+
+		// a sender may open an Exchange below it, starting further senders
+		List<Thread> senders;
+		while (true) {
+			synchronized (this.senders) {
+				senders = new ArrayList<Thread>(this.senders);
+				this.senders.clear();
+			}
+			if (senders.isEmpty()) {
+				break;
+			}
+			for (Thread sender : senders) {
+				if (stop) {
+					sender.interrupt();
+				}
+				while (sender.isAlive()) {
+					try {
+						sender.join();
+					} catch (InterruptedException e) {
+						interrupted = true;
+						sender.interrupt();
+					}
+				}
+			}
+		}
+
+		for (Executor executor : executors) {
+			if (executor.getMemoryArena() != null) {
+				executor.getMemoryArena().close();
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void openPipes(Operator op) {
+		for (Operator input : op.inputs) {
+			openPipes(input);
+		}
+		if (!(op instanceof Exchange)) {
+			return;
+		}
+		if (((Exchange) op).getNodes() != this.nodes) {
+			throw new IllegalArgumentException("Plan is for " + ((Exchange) op).getNodes() + " nodes, not "
+					+ this.nodes);
+		}
+
+		Pipe[][] pipes = new Pipe[this.nodes][this.nodes];
+		try {
+			for (int i = 0; i < this.nodes; i++) {
+				for (int j = 0; j < this.nodes; j++) {
+					pipes[i][j] = Pipe.open();
+				}
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("Cannot open pipes for exchange", e);
+		}
+		this.exchanges.put(op, this.pipes.size());
+		this.pipes.add(pipes);
+		this.bytesSent.add(new AtomicLong());
+	}
+
+	/**
+	 * Number the Exchanges of a copy of the plan in the order openPipes()
+	 * numbered those of the plan
+	 */
+	private void number(Operator op, int[] next) {
+		for (Operator input : op.inputs) {
+			number(input, next);
+		}
+		if (op instanceof Exchange) {
+			this.exchanges.put(op, next[0]++);
+		}
+	}
+
+	/**
+	 * Deal the tuples of a table out to the nodes in turn
+	 */
+	private void split(Table table) {
+		Table[] shares = new Table[this.nodes];
+		List<Tuple> tuples = table.getTuples();
+
+		for (int i = 0; i < this.nodes; i++) {
+			shares[i] = this.storages[i].createTable(table.getRelation());
+		}
+
+		int partitions = table.isPartitioned() ? table.getRelation().getPartitions().size() : 1;
+		for (int p = 0; p < partitions; p++) {
+			int start = table.isPartitioned() ? table.getPartitionStart(p) : 0;
+			int end = table.isPartitioned() ? table.getPartitionEnd(p) : tuples.size();
+
+			for (int i = start; i < end; i++) {
+				shares[i % this.nodes].addTuple(tuples.get(i));
+			}
+			if (table.isPartitioned()) {
+				for (Table share : shares) {
+					share.endPartition();
+				}
+			}
+		}
+	}
+}
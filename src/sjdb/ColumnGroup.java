@@ -0,0 +1,64 @@
+package sjdb;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * This class records the number of distinct combinations of values taken
+ * together by a group of attributes of a named relation, such as
+ * (dept, deptname). Where attributes are correlated this is smaller than
+ * the product of their value counts, which the Estimator would otherwise
+ * assume.
+ */
+public class ColumnGroup {
+	private List<Attribute> attributes;
+	private int values;
+
+	/**
+	 * Create a new column group
+	 * @param attributes Attributes of the group, of one named relation
+	 * @param values Number of distinct combinations of their values
+	 */
+	public ColumnGroup(List<Attribute> attributes, int values) {
+		this.attributes = new ArrayList<Attribute>(attributes);
+		this.values = values;
+	}
+
+	/**
+	 * Return the attributes of this group
+	 * @return Attributes
+	 */
+	public List<Attribute> getAttributes() {
+		return this.attributes;
+	}
+
+	/**
+	 * Return the number of distinct combinations of the values of the
+	 * attributes of this group
+	 * @return Value count
+	 */
+	public int getValueCount() {
+		return this.values;
+	}
+
+	/**
+	 * Return true if every attribute of this group is among the given ones
+	 * @param attrs Attributes
+	 * @return
+	 */
+	public boolean within(Collection<Attribute> attrs) {
+		return attrs.containsAll(this.attributes);
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		List<String> names = new ArrayList<String>();
+		for (Attribute attr : this.attributes) {
+			names.add(attr.getName());
+		}
+		return "(" + String.join(",", names) + ")," + this.values;
+	}
+}
@@ -0,0 +1,290 @@
+package sjdb;
+
+/**
+ * This class estimates the cost of executing a query plan whose operator
+ * outputs have been estimated by the Estimator.
+ *
+ * Cost is measured in bytes: every operator is charged for the bytes of
+ * the relation it produces (tuple count times average tuple width), and a
+ * Join is charged again for its right input, which the executor holds in
+ * memory as the build side of a hash join. Narrow intermediate results are
+ * therefore cheaper than wide ones with the same number of tuples. A Join
+ * of two relations partitioned alike on its key is executed one partition
+ * pair at a time, and is charged for only one partition of its right input.
+ *
+ * Unless runtime filters are disabled, the executor passes a Bloom filter
+ * on the build-side key of each Join down to the Scans of its left input,
+ * so every operator on the probe side produces only the fraction of its
+ * tuples that may join. The cost of the left input of a Join is scaled by
+ * that fraction, estimated for each key attribute as the value count on
+ * the build side over that on the probe side, plus the false positive
+ * rate of the filter.
+ *
+ * A Scan under a chain of Selects reads only the blocks of its table
+ * that the zone maps of the selected attributes do not rule out, so its
+ * cost is scaled by that fraction of blocks. Plans that filter stored
+ * relations on the attributes they are clustered by are thus cheaper.
+ *
+ * In a distributed plan, an Exchange is charged NETWORK_WEIGHT for each
+ * byte it sends between nodes: for a broadcast, every node's share of its
+ * input goes to every other node; for a shuffle or gather, all but the
+ * share each node keeps. A Join whose right input is broadcast builds a
+ * hash table of the whole input on every node, and is charged for each.
+ * Runtime filters do not cross an Exchange.
+ *
+ * Below a Limit, pipelined operators are charged only for the fraction of
+ * their output that is pulled, while build sides and the inputs of Top-N
+ * and Aggregate operators are charged in full, as they are consumed before
+ * the first tuple is produced.
+ *
+ * Separately from its cost, the memory a plan holds while it runs is
+ * estimated for the MemoryBroker: the buffered tuples and hash tables of
+ * its Joins, Products and Aggregates.
+ */
+public class CostModel {
+	/**
+	 * The cost of sending a byte between nodes, relative to that of
+	 * producing it
+	 */
+	public static final double NETWORK_WEIGHT = 2;
+
+	private boolean runtimeFilters;
+
+	public CostModel() {
+		this.runtimeFilters = true;
+	}
+
+	/**
+	 * Enable or disable the costing of runtime filters, to match the
+	 * executor
+	 * @param enabled True if joins pass runtime filters to their probe side
+	 */
+	public void setRuntimeFilters(boolean enabled) {
+		this.runtimeFilters = enabled;
+	}
+
+	/**
+	 * Return the estimated cost of a plan
+	 * @param plan Estimated query plan
+	 * @return Cost in bytes
+	 */
+	public double cost(Operator plan) {
+		double cost = operatorCost(plan);
+
+		if (plan instanceof Join) {
+			Join join = (Join) plan;
+			return cost + filterRatio(join) * cost(join.getLeft()) + cost(join.getRight());
+		}
+
+		if (plan instanceof Select) {
+			return cost + costWithBlockFraction(((Select) plan).getInput(), Estimator.blockFraction(plan));
+		}
+		if (plan instanceof Limit) {
+			return cost + cost(((Limit) plan).getInput(), (long) ((Limit) plan).getLimit());
+		}
+
+		for (Operator input : plan.inputs) {
+			cost += cost(input);
+		}
+
+		return cost;
+	}
+
+	/**
+	 * Return the estimated cost of producing only the first tuples of a
+	 * plan, as when it is pulled by a Limit. Pipelined operators do work in
+	 * proportion to the tuples pulled from them, but the right input of a
+	 * Join or Product is always read in full into memory, as is the input
+	 * of a Top-N.
+	 * @param plan Estimated query plan
+	 * @param rows Number of tuples pulled from the plan
+	 * @return Cost in bytes
+	 */
+	public double cost(Operator plan, long rows) {
+		double size = Math.max(1, plan.getOutput().getTupleCount());
+		if (rows >= size) {
+			return cost(plan);
+		}
+		double fraction = rows / size;
+
+		if (plan instanceof Join) {
+			Join join = (Join) plan;
+			return fraction * bytes(plan.getOutput()) + (operatorCost(plan) - bytes(plan.getOutput()))
+					+ filterRatio(join) * cost(join.getLeft(), needed(join.getLeft(), fraction))
+					+ cost(join.getRight());
+		}
+		if (plan instanceof Product) {
+			Product product = (Product) plan;
+			return fraction * bytes(plan.getOutput())
+					+ cost(product.getLeft(), needed(product.getLeft(), fraction))
+					+ cost(product.getRight());
+		}
+		if (plan instanceof TopN || plan instanceof Aggregate) {
+			return fraction * operatorCost(plan) + cost(((UnaryOperator) plan).getInput());
+		}
+		if (plan instanceof Limit) {
+			return fraction * operatorCost(plan) + cost(((Limit) plan).getInput(), rows);
+		}
+		if (plan instanceof Scan || (plan instanceof Select && Estimator.blockFraction(plan) < 1)) {
+			// a Scan, perhaps skipping blocks for the Selects above it, reads blocks in order
+			return fraction * cost(plan);
+		}
+
+		double cost = fraction * operatorCost(plan);
+		for (Operator input : plan.inputs) {
+			cost += cost(input, needed(input, fraction));
+		}
+		return cost;
+	}
+
+	/**
+	 * Return the number of tuples pulled from an input of an operator that
+	 * produces a fraction of its output
+	 */
+	private static long needed(Operator input, double fraction) {
+		return (long) Math.ceil(fraction * input.getOutput().getTupleCount());
+	}
+
+	/**
+	 * Return the estimated cost of the input of a chain of Selects, with
+	 * the Scan at the bottom of the chain scaled by the fraction of blocks
+	 * it reads
+	 */
+	private double costWithBlockFraction(Operator op, double blockFraction) {
+		if (op instanceof Select) {
+			return operatorCost(op) + costWithBlockFraction(((Select) op).getInput(), blockFraction);
+		}
+		return (op instanceof Scan) ? blockFraction * operatorCost(op) : cost(op);
+	}
+
+	/**
+	 * Return the estimated fraction of the probe side of a Join passed by
+	 * its runtime filters, or 1 if they are disabled
+	 * @param join Estimated Join
+	 * @return Fraction of left input tuples that are produced
+	 */
+	public double filterRatio(Join join) {
+		if (!this.runtimeFilters || join.getLeft() instanceof Exchange) {
+			return 1;
+		}
+
+		Relation left = join.getLeft().getOutput();
+		Relation right = join.getRight().getOutput();
+		double ratio = 1;
+
+		for (Predicate pred : join.getPredicates()) {
+			Attribute probe = find(left, pred.getLeftAttribute());
+			Attribute build = find(right, pred.getRightAttribute());
+
+			if (probe == null || build == null) {
+				probe = find(left, pred.getRightAttribute());
+				build = find(right, pred.getLeftAttribute());
+			}
+			if (probe != null && build != null && probe.getValueCount() > 0) {
+				ratio *= Math.min(1, build.getValueCount() / (double) probe.getValueCount());
+			}
+		}
+
+		return Math.min(1, ratio + BloomFilter.FALSE_POSITIVE_RATE);
+	}
+
+	private static Attribute find(Relation reln, Attribute attr) {
+		return reln.getAttributes().contains(attr) ? reln.getAttribute(attr) : null;
+	}
+
+	/**
+	 * Return the smallest fraction by which the cost of the left input of a
+	 * Join may be scaled, so that a search may bound the cost of a Join by
+	 * the cost of its inputs before costing it
+	 * @return Smallest filter ratio
+	 */
+	public double getMinimumFilterRatio() {
+		return this.runtimeFilters ? BloomFilter.FALSE_POSITIVE_RATE : 1;
+	}
+
+	/**
+	 * Return the estimated cost of a single operator, excluding its inputs
+	 * @param op Estimated operator
+	 * @return Cost in bytes
+	 */
+	public double operatorCost(Operator op) {
+		double cost = bytes(op.getOutput());
+
+		if (op instanceof Join) {
+			Operator right = ((Join) op).getRight();
+			int partitions = Math.max(1, Partition.coPartitions((Join) op));
+			int copies = (right instanceof Exchange && ((Exchange) right).getKind() == Exchange.Kind.BROADCAST) ?
+					((Exchange) right).getNodes() : 1;
+			cost += copies * bytes(right.getOutput()) / partitions;
+		}
+		if (op instanceof Exchange) {
+			cost = NETWORK_WEIGHT * networkBytes((Exchange) op);
+		}
+
+		return cost;
+	}
+
+	/**
+	 * Return the estimated off-heap memory a plan holds while it runs: the
+	 * build side of each Join (one partition of it, for a partition-wise
+	 * Join) and its hash table, the right input of each Product, and the
+	 * groups of each Aggregate with their hash table and running
+	 * aggregates, each buffer taking at least a page of a TupleBuffer.
+	 * These are summed, as the executor builds each when the plan is
+	 * opened and holds it until the plan is closed.
+	 * @param plan Estimated query plan
+	 * @return Size in bytes
+	 */
+	public long memory(Operator plan) {
+		long memory = 0;
+
+		if (plan instanceof Join) {
+			int partitions = Math.max(1, Partition.coPartitions((Join) plan));
+			Relation build = ((Join) plan).getRight().getOutput();
+			memory = buffer(bytes(build) / partitions) + HashIndex.bytes(build.getTupleCount() / partitions);
+		} else if (plan instanceof Product) {
+			memory = buffer(bytes(((Product) plan).getRight().getOutput()));
+		} else if (plan instanceof Aggregate) {
+			long groups = plan.getOutput().getTupleCount();
+			int aggregations = Math.max(1, ((Aggregate) plan).getAggregations().size());
+			memory = buffer(bytes(plan.getOutput())) + 2 * HashIndex.bytes(groups) + 24L * aggregations * groups;
+		}
+
+		for (Operator input : plan.inputs) {
+			memory += memory(input);
+		}
+		return memory;
+	}
+
+	/**
+	 * Return the memory of a TupleBuffer holding a number of bytes
+	 */
+	private static long buffer(double bytes) {
+		return Math.max(TupleBuffer.PAGE_SIZE, (long) Math.ceil(bytes));
+	}
+
+	/**
+	 * Return the estimated number of bytes an Exchange sends between nodes,
+	 * with its input spread evenly over them
+	 * @param op Estimated Exchange
+	 * @return Size in bytes
+	 */
+	public static double networkBytes(Exchange op) {
+		double bytes = bytes(op.getInput().getOutput());
+		int nodes = op.getNodes();
+
+		if (op.getKind() == Exchange.Kind.BROADCAST) {
+			return bytes * (nodes - 1);
+		}
+		return bytes * (nodes - 1) / nodes;
+	}
+
+	/**
+	 * Return the estimated size of a relation
+	 * @param reln Relation
+	 * @return Size in bytes
+	 */
+	public static double bytes(Relation reln) {
+		return (double) reln.getTupleCount() * reln.getTupleWidth();
+	}
+}
@@ -0,0 +1,213 @@
+package sjdb;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * This class populates storage with synthetic tuples that match the
+ * statistics recorded in the system catalogue: each named relation gets
+ * its tuple count, and each attribute takes exactly its value count of
+ * distinct values.
+ *
+ * Values are the decimal strings "0" to "V-1", so attributes with the
+ * same value count share a domain and equi-joins between them produce
+ * matches. Attributes with known bounds instead take V values spread
+ * evenly between their min and max. The first V tuples take each value
+ * once; the remainder are drawn uniformly at random, as the Estimator
+ * assumes.
+ *
+ * The tuples of a partitioned relation are stored partition by partition,
+ * each taking its tuple count of tuples whose partitioning attribute takes
+ * those values of the attribute's domain that fall within the partition.
+ *
+ * A functional dependency declared on a relation is honoured by deriving
+ * the value of its dependent attribute from a hash of the values of its
+ * determinant, so that attribute may take fewer than its value count of
+ * values. Dependencies are applied in the order declared.
+ *
+ * Materialized views are not generated, but computed by executing their
+ * defining queries over the generated base relations.
+ *
+ * Every column is dictionary-encoded. Attributes with the same value count
+ * and bounds take the same values, and so share a dictionary, which lets
+ * joins between them compare codes; a column of a view shares the
+ * dictionary of the base column of the same name. Zone maps are built for
+ * every table once it is encoded, and a sample of its tuples is recorded
+ * in the catalogue (see Sample).
+ */
+public class DataGenerator {
+	private Catalogue catalogue;
+	private Random random;
+	private Random sampling;
+	private HashMap<String, Dictionary> domains;
+	private HashMap<Attribute, Dictionary> columns;
+
+	/**
+	 * Create a generator over the given catalogue
+	 * @param catalogue System catalogue
+	 * @param seed Seed for the random number generator
+	 */
+	public DataGenerator(Catalogue catalogue, long seed) {
+		this.catalogue = catalogue;
+		this.random = new Random(seed);
+		this.sampling = new Random(seed);
+		this.domains = new HashMap<String, Dictionary>();
+		this.columns = new HashMap<Attribute, Dictionary>();
+	}
+
+	public DataGenerator(Catalogue catalogue) {
+		this(catalogue, 0L);
+	}
+
+	/**
+	 * Create and fill a table in storage for every named relation in
+	 * the catalogue.
+	 * @param storage Storage to populate
+	 */
+	public void populate(Storage storage) {
+		for (NamedRelation reln : catalogue.getRelations()) {
+			if (!(reln instanceof MaterializedView)) {
+				Table table = storage.createTable(reln);
+				generate(table);
+				encode(table);
+			}
+		}
+		for (MaterializedView view : catalogue.getViews()) {
+			encode(materialise(storage, view));
+		}
+	}
+
+	/**
+	 * Dictionary-encode every column of a table, sharing the dictionary of
+	 * the domain of each attribute (or, for a view, of its base column),
+	 * and build its zone maps and sample.
+	 */
+	private void encode(Table table) {
+		List<Attribute> attrs = table.getAttributes();
+		Dictionary[] dictionaries = new Dictionary[attrs.size()];
+
+		for (int i = 0; i < dictionaries.length; i++) {
+			Attribute attr = attrs.get(i);
+			Dictionary dictionary = this.columns.get(attr);
+
+			if (dictionary == null) {
+				String domain = attr.getValueCount() + ":" + attr.getMin() + ":" + attr.getMax();
+				dictionary = this.domains.computeIfAbsent(domain, k -> new Dictionary());
+				this.columns.put(attr, dictionary);
+			}
+			dictionaries[i] = dictionary;
+		}
+
+		table.encode(dictionaries);
+		table.buildZoneMaps();
+
+		try {
+			this.catalogue.setSample(table.getRelation().toString(),
+					new Sample(table.getTuples(), attrs, Sample.DEFAULT_SIZE, this.sampling));
+		} catch (DatabaseException e) {
+			// every table populated is of a relation in the catalogue
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Create a table for a materialized view and fill it with the result
+	 * of its defining query, with attributes in the order of the view.
+	 * @param storage Storage holding the relations read by the view
+	 * @param view Materialized view
+	 * @return Table holding the view
+	 */
+	public static Table materialise(Storage storage, MaterializedView view) {
+		Operator plan = new Project(view.getDefinition(), view.getAttributes());
+		List<Tuple> tuples = new Executor(storage).execute(plan);
+		Table table = storage.createTable(view);
+
+		for (Tuple tuple : tuples) {
+			table.addTuple(tuple);
+		}
+		return table;
+	}
+
+	private void generate(Table table) {
+		List<Attribute> attrs = table.getAttributes();
+		NamedRelation reln = table.getRelation();
+
+		if (!reln.isPartitioned()) {
+			for (int i = 0; i < reln.getTupleCount(); i++) {
+				table.addTuple(generate(reln, i, -1, null));
+			}
+			return;
+		}
+
+		int i = 0;
+		for (Partition partition : reln.getPartitions()) {
+			int key = attrs.indexOf(partition.getPartitionAttribute());
+			Attribute attr = attrs.get(key);
+			int count = Math.max(1, attr.getValueCount());
+			List<String> candidates = new ArrayList<String>();
+
+			for (int value = 0; value < count; value++) {
+				String candidate = value(attr, value, count);
+				if (partition.contains(candidate)) {
+					candidates.add(candidate);
+				}
+			}
+
+			// a partition that no value of the domain falls in stays empty
+			for (int j = 0; j < partition.getTupleCount() && !candidates.isEmpty(); j++, i++) {
+				String value = candidates.get((j < candidates.size()) ? j : random.nextInt(candidates.size()));
+				table.addTuple(generate(reln, i, key, value));
+			}
+			table.endPartition();
+		}
+	}
+
+	/**
+	 * Generate the i-th tuple of a relation, with a given value at the
+	 * position of the partitioning attribute, if any
+	 */
+	private Tuple generate(NamedRelation reln, int i, int key, String keyValue) {
+		List<Attribute> attrs = reln.getAttributes();
+		String[] values = new String[attrs.size()];
+
+		for (int j = 0; j < values.length; j++) {
+			Attribute attr = attrs.get(j);
+			int count = Math.max(1, attr.getValueCount());
+			values[j] = (j == key) ? keyValue : value(attr, (i < count) ? i : random.nextInt(count), count);
+		}
+
+		for (FunctionalDependency dependency : reln.getDependencies()) {
+			int j = attrs.indexOf(dependency.getDependent());
+			if (j == key) {
+				continue;
+			}
+
+			int hash = 0;
+			for (Attribute attr : dependency.getDeterminant()) {
+				hash = 31 * hash + values[attrs.indexOf(attr)].hashCode();
+			}
+			int count = Math.max(1, attrs.get(j).getValueCount());
+			values[j] = value(attrs.get(j), Math.floorMod(hash, count), count);
+		}
+
+		return new Tuple(values);
+	}
+
+	/**
+	 * Return the value-th of the count values of an attribute
+	 */
+	private String value(Attribute attr, int value, int count) {
+		return attr.hasRange() ? spread(attr, value, count) : Integer.toString(value);
+	}
+
+	/**
+	 * Return the value-th of count values spread evenly over the bounds of
+	 * an attribute
+	 */
+	private String spread(Attribute attr, int value, int count) {
+		double step = (count > 1) ? (attr.getMax() - attr.getMin()) / (count - 1) : 0;
+		return Long.toString(Math.round(attr.getMin() + value * step));
+	}
+}
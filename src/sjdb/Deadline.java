@@ -0,0 +1,42 @@
+package sjdb;
+
+/**
+ * This class represents a deadline for query optimisation, which may also
+ * be cancelled outright from another thread. The optimiser checks it
+ * cooperatively, between costing alternatives, and when it has expired
+ * returns the best complete plan found so far.
+ */
+public class Deadline {
+	private long expiry;
+	private volatile boolean cancelled;
+
+	/**
+	 * Create a deadline that expires after the given time
+	 * @param millis Time allowed, in milliseconds
+	 */
+	public Deadline(long millis) {
+		this.expiry = System.nanoTime() + millis * 1000000L;
+	}
+
+	/**
+	 * Create a deadline that only expires when cancelled
+	 */
+	public Deadline() {
+		this(Long.MAX_VALUE / 1000000L);
+	}
+
+	/**
+	 * Cancel optimisation; this may be called from any thread.
+	 */
+	public void cancel() {
+		this.cancelled = true;
+	}
+
+	/**
+	 * Return true if the deadline has passed or been cancelled
+	 * @return
+	 */
+	public boolean isExpired() {
+		return this.cancelled || System.nanoTime() - this.expiry >= 0;
+	}
+}
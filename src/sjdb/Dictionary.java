@@ -0,0 +1,65 @@
+package sjdb;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * This class holds the dictionary of a dictionary-encoded column: each
+ * distinct value is stored once and replaced in tuples by an int code.
+ * Columns over the same domain may share a dictionary, so that values of
+ * those columns are equal exactly when their codes are.
+ */
+public class Dictionary {
+	private HashMap<String, Integer> codes;
+	private List<String> values;
+
+	public Dictionary() {
+		this.codes = new HashMap<String, Integer>();
+		this.values = new ArrayList<String>();
+	}
+
+	/**
+	 * Return the code of a value, adding the value if necessary
+	 * @param value Value to be encoded
+	 * @return Code
+	 */
+	public int encode(String value) {
+		Integer code = this.codes.get(value);
+
+		if (code == null) {
+			code = this.values.size();
+			this.codes.put(value, code);
+			this.values.add(value);
+		}
+		return code;
+	}
+
+	/**
+	 * Return the code of a value, or -1 if the value is not in the
+	 * dictionary
+	 * @param value Value to be looked up
+	 * @return Code
+	 */
+	public int lookup(String value) {
+		Integer code = this.codes.get(value);
+		return (code == null) ? -1 : code;
+	}
+
+	/**
+	 * Return the value with the given code
+	 * @param code Code
+	 * @return Value
+	 */
+	public String decode(int code) {
+		return this.values.get(code);
+	}
+
+	/**
+	 * Return the number of distinct values in the dictionary
+	 * @return
+	 */
+	public int size() {
+		return this.values.size();
+	}
+}
@@ -0,0 +1,265 @@
+package sjdb;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * This class turns an estimated query plan into a plan for a number of
+ * nodes, each holding a share of every stored relation, by placing
+ * Exchange operators where the inputs of an operator are not distributed
+ * as it requires. The Distribution of every subplan is tracked on the way
+ * up the plan:
+ *
+ * Scans read relations spread over the nodes with no known key; Selects
+ * and Projects keep the distribution of their input.
+ *
+ * A Join is executed on each node over the tuples there, which finds
+ * every match if either input is replicated, or both are hashed on the
+ * keys the Join equates. Otherwise its right input is either broadcast to
+ * every node, or both inputs are shuffled on their join keys (an input
+ * hashed on its key already stays where it is), whichever the CostModel
+ * finds cheaper. Broadcasts suit small build sides; shuffles suit large
+ * ones, which broadcasting would send and hold on every node. A Product is
+ * executed by broadcasting its right input.
+ *
+ * An Aggregate shuffles its input on the grouping attributes, unless
+ * tuples of a group are on the same node already, or gathers it to the
+ * first node if there are none. A Limit or Top-N is applied on each node
+ * and again after gathering its input to the first node. The result of the
+ * plan is gathered to the first node below its final Project.
+ *
+ * The order of joins is left as the Optimiser chose it for a single node.
+ * All operators of the distributed plan are created afresh, and carry the
+ * estimated outputs of the operators they copy.
+ */
+public class DistributedPlanner implements PlanVisitor {
+	private CostModel costModel;
+	private int nodes;
+	private Deque<Operator> stack;
+	private IdentityHashMap<Operator, Distribution> distributions;
+
+	/**
+	 * Create a new planner
+	 * @param costModel Cost model by which joins are planned
+	 * @param nodes Number of nodes executing the plan
+	 */
+	public DistributedPlanner(CostModel costModel, int nodes) {
+		this.costModel = costModel;
+		this.nodes = nodes;
+		this.stack = new ArrayDeque<Operator>();
+		this.distributions = new IdentityHashMap<Operator, Distribution>();
+	}
+
+	/**
+	 * Produce a distributed plan equivalent to an estimated plan, whose
+	 * result is on the first node.
+	 * @param plan Estimated query plan
+	 * @return Distributed plan, with the estimated outputs of the plan
+	 */
+	public Operator distribute(Operator plan) {
+		this.stack.clear();
+		this.distributions.clear();
+		plan.accept(this);
+		Operator result = this.stack.pop();
+
+		if (!getDistribution(result).isComplete()) {
+			if (result instanceof Project) {
+				Project project = (Project) result;
+				result = copy(new Project(gather(project.getInput()), project.getAttributes()), project,
+						Distribution.single());
+			} else {
+				result = gather(result);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Return the distribution of an operator of the last plan distributed
+	 * @param op Operator of a distributed plan
+	 * @return Distribution
+	 */
+	public Distribution getDistribution(Operator op) {
+		return this.distributions.get(op);
+	}
+
+	public void visit(Scan op) {
+		push(new Scan((NamedRelation) op.getRelation()), op, Distribution.partitioned());
+	}
+
+	public void visit(Project op) {
+		Operator input = this.stack.pop();
+		push(new Project(input, op.getAttributes()), op, getDistribution(input).restrict(op.getAttributes()));
+	}
+
+	public void visit(Select op) {
+		Operator input = this.stack.pop();
+		push(new Select(input, op.getPredicate()), op, getDistribution(input));
+	}
+
+	public void visit(Product op) {
+		Operator right = this.stack.pop();
+		Operator left = this.stack.pop();
+		Distribution local = local(getDistribution(left), getDistribution(right));
+
+		if (local != null) {
+			push(new Product(left, right), op, local);
+		} else {
+			push(new Product(left, broadcast(right)), op, getDistribution(left));
+		}
+	}
+
+	public void visit(Join op) {
+		Operator right = this.stack.pop();
+		Operator left = this.stack.pop();
+		Distribution leftDist = getDistribution(left);
+		Distribution rightDist = getDistribution(right);
+		Distribution local = local(leftDist, rightDist);
+		List<Attribute> leftKey = new ArrayList<Attribute>();
+		List<Attribute> rightKey = new ArrayList<Attribute>();
+		List<Attribute> leftAttrs = left.getOutput().getAttributes();
+
+		// the keys of the hash join, as in Executor.visit(Join)
+		for (Predicate pred : op.getPredicates()) {
+			if (leftAttrs.contains(pred.getLeftAttribute()) && leftAttrs.contains(pred.getRightAttribute())) {
+				continue;
+			} else if (leftAttrs.contains(pred.getLeftAttribute())) {
+				leftKey.add(pred.getLeftAttribute());
+				rightKey.add(pred.getRightAttribute());
+			} else {
+				leftKey.add(pred.getRightAttribute());
+				rightKey.add(pred.getLeftAttribute());
+			}
+		}
+
+		if (local != null) {
+			push(new Join(left, right, op.getPredicates()), op, local);
+			return;
+		}
+		if (!leftKey.isEmpty() && leftDist.isHashedOn(leftKey) && rightDist.isHashedOn(rightKey)) {
+			push(new Join(left, right, op.getPredicates()), op, leftDist.and(rightDist));
+			return;
+		}
+
+		Join broadcast = copy(new Join(left, broadcast(right), op.getPredicates()), op, leftDist);
+		if (leftKey.isEmpty()) {
+			this.stack.push(broadcast);
+			return;
+		}
+
+		Operator shuffledLeft = leftDist.isHashedOn(leftKey) ? left : shuffle(left, leftKey);
+		Operator shuffledRight = rightDist.isHashedOn(rightKey) ? right : shuffle(right, rightKey);
+		Join shuffle = copy(new Join(shuffledLeft, shuffledRight, op.getPredicates()), op,
+				getDistribution(shuffledLeft).and(getDistribution(shuffledRight)));
+
+		this.stack.push(this.costModel.cost(broadcast) <= this.costModel.cost(shuffle) ? broadcast : shuffle);
+	}
+
+	public void visit(Limit op) {
+		Operator input = this.stack.pop();
+
+		if (!getDistribution(input).isComplete()) {
+			input = gather(copy(new Limit(input, op.getLimit()), op, getDistribution(input)));
+		}
+		push(new Limit(input, op.getLimit()), op, getDistribution(input));
+	}
+
+	public void visit(TopN op) {
+		Operator input = this.stack.pop();
+		List<Boolean> descending = new ArrayList<Boolean>();
+
+		for (int i = 0; i < op.getAttributes().size(); i++) {
+			descending.add(op.isDescending(i));
+		}
+
+		if (!getDistribution(input).isComplete()) {
+			if (op.hasLimit()) {
+				input = copy(new TopN(input, op.getAttributes(), descending, op.getLimit()), op,
+						getDistribution(input));
+			}
+			input = gather(input);
+		}
+		push(new TopN(input, op.getAttributes(), descending, op.getLimit()), op, getDistribution(input));
+	}
+
+	public void visit(Aggregate op) {
+		Operator input = this.stack.pop();
+		Distribution dist = getDistribution(input);
+
+		if (dist.isComplete() || (!op.getGroupBy().isEmpty() && dist.isGroupedBy(op.getGroupBy()))) {
+			// every group is on one node already
+		} else if (op.getGroupBy().isEmpty()) {
+			input = gather(input);
+		} else {
+			input = shuffle(input, op.getGroupBy());
+		}
+
+		push(new Aggregate(input, op.getGroupBy(), op.getAggregations()), op,
+				getDistribution(input).restrict(op.getOutput().getAttributes()));
+	}
+
+	public void visit(Exchange op) {
+		Operator input = this.stack.pop();
+		Distribution dist;
+
+		switch (op.getKind()) {
+		case BROADCAST:
+			dist = Distribution.replicated();
+			break;
+		case SHUFFLE:
+			dist = Distribution.hashed(op.getKey());
+			break;
+		default:
+			dist = Distribution.single();
+			break;
+		}
+		push(new Exchange(input, op.getKind(), op.getKey(), op.getNodes()), op, dist);
+	}
+
+	/**
+	 * Return the distribution of the output of a binary operator executed
+	 * on each node over the tuples of its inputs there, or null if that
+	 * would not pair every left tuple with every right tuple exactly once
+	 */
+	private static Distribution local(Distribution left, Distribution right) {
+		if (left.getKind() == Distribution.Kind.REPLICATED) {
+			return right;
+		}
+		if (right.getKind() == Distribution.Kind.REPLICATED) {
+			return left;
+		}
+		if (left.getKind() == Distribution.Kind.SINGLE && right.getKind() == Distribution.Kind.SINGLE) {
+			return left;
+		}
+		return null;
+	}
+
+	private Operator broadcast(Operator input) {
+		return copy(new Exchange(input, Exchange.Kind.BROADCAST, this.nodes), input, Distribution.replicated());
+	}
+
+	private Operator shuffle(Operator input, List<Attribute> key) {
+		return copy(new Exchange(input, Exchange.Kind.SHUFFLE, key, this.nodes), input, Distribution.hashed(key));
+	}
+
+	private Operator gather(Operator input) {
+		return copy(new Exchange(input, Exchange.Kind.GATHER, this.nodes), input, Distribution.single());
+	}
+
+	/**
+	 * Give a new operator the estimated output of the operator it copies
+	 * (or, for an Exchange, of its input) and record its distribution
+	 */
+	private <T extends Operator> T copy(T op, Operator original, Distribution dist) {
+		op.setOutput(original.getOutput());
+		this.distributions.put(op, dist);
+		return op;
+	}
+
+	private void push(Operator op, Operator original, Distribution dist) {
+		this.stack.push(copy(op, original, dist));
+	}
+}
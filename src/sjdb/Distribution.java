@@ -0,0 +1,164 @@
+package sjdb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * This class describes how the output of a subplan is spread over the
+ * nodes executing a distributed plan:
+ *
+ * SINGLE: every tuple is on the first node;
+ * REPLICATED: every node holds every tuple;
+ * PARTITIONED: every tuple is on exactly one node.
+ *
+ * A partitioned output may further be hashed on a key, so that tuples with
+ * equal values of the key are on the same node. After an equi-join on
+ * hashed inputs, the output is hashed on the key of either side, so a
+ * distribution may record several equivalent keys.
+ *
+ * Distributions are immutable.
+ */
+public class Distribution {
+	/**
+	 * The ways a subplan may be distributed
+	 */
+	public enum Kind {
+		SINGLE, REPLICATED, PARTITIONED
+	}
+
+	private static final Distribution SINGLE = new Distribution(Kind.SINGLE,
+			Collections.<List<Attribute>>emptyList());
+	private static final Distribution REPLICATED = new Distribution(Kind.REPLICATED,
+			Collections.<List<Attribute>>emptyList());
+	private static final Distribution PARTITIONED = new Distribution(Kind.PARTITIONED,
+			Collections.<List<Attribute>>emptyList());
+
+	private Kind kind;
+	private List<List<Attribute>> keys;
+
+	private Distribution(Kind kind, List<List<Attribute>> keys) {
+		this.kind = kind;
+		this.keys = keys;
+	}
+
+	/**
+	 * Return the distribution of a subplan held on the first node only
+	 * @return
+	 */
+	public static Distribution single() {
+		return SINGLE;
+	}
+
+	/**
+	 * Return the distribution of a subplan held in full on every node
+	 * @return
+	 */
+	public static Distribution replicated() {
+		return REPLICATED;
+	}
+
+	/**
+	 * Return the distribution of a subplan spread over the nodes with no
+	 * known key, as stored relations are
+	 * @return
+	 */
+	public static Distribution partitioned() {
+		return PARTITIONED;
+	}
+
+	/**
+	 * Return the distribution of a subplan spread over the nodes by the
+	 * hash of a key
+	 * @param key Attributes hashed, in order
+	 * @return
+	 */
+	public static Distribution hashed(List<Attribute> key) {
+		return new Distribution(Kind.PARTITIONED, Collections.singletonList(key));
+	}
+
+	public Kind getKind() {
+		return this.kind;
+	}
+
+	/**
+	 * Return true if every tuple may be found on the first node, as for a
+	 * single or replicated subplan
+	 * @return
+	 */
+	public boolean isComplete() {
+		return this.kind != Kind.PARTITIONED;
+	}
+
+	/**
+	 * Return true if tuples with equal values of a key are on the same
+	 * node, having been hashed on that key or on an equivalent one
+	 * @param key Attributes, in order
+	 * @return
+	 */
+	public boolean isHashedOn(List<Attribute> key) {
+		return this.keys.contains(key);
+	}
+
+	/**
+	 * Return true if tuples with equal values of the given attributes are
+	 * on the same node, having been hashed on some of them
+	 * @param attrs Attributes
+	 * @return
+	 */
+	public boolean isGroupedBy(List<Attribute> attrs) {
+		for (List<Attribute> key : this.keys) {
+			if (attrs.containsAll(key)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Return this distribution with the keys of another as equivalent keys,
+	 * as after an equi-join on inputs hashed on the keys it equates
+	 * @param other Distribution of the other input
+	 * @return
+	 */
+	public Distribution and(Distribution other) {
+		List<List<Attribute>> keys = new ArrayList<List<Attribute>>(this.keys);
+
+		for (List<Attribute> key : other.keys) {
+			if (!keys.contains(key)) {
+				keys.add(key);
+			}
+		}
+		return new Distribution(this.kind, keys);
+	}
+
+	/**
+	 * Return this distribution as seen by an operator that keeps only some
+	 * attributes: keys with attributes it drops are forgotten
+	 * @param attrs Attributes kept
+	 * @return
+	 */
+	public Distribution restrict(List<Attribute> attrs) {
+		List<List<Attribute>> keys = new ArrayList<List<Attribute>>();
+
+		for (List<Attribute> key : this.keys) {
+			if (attrs.containsAll(key)) {
+				keys.add(key);
+			}
+		}
+		return (keys.size() == this.keys.size()) ? this : new Distribution(this.kind, keys);
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		String ret = this.kind.name();
+
+		for (List<Attribute> key : this.keys) {
+			ret += " " + key.toString();
+		}
+		return ret;
+	}
+}
@@ -0,0 +1,111 @@
+package sjdb;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class caches the output Relations estimated for subplans, so that
+ * queries sharing sub-joins need not estimate them again. Estimates are
+ * keyed by SubplanKey (relation set and predicate set) and tagged with the
+ * version of the catalogue they were derived from; an estimate made
+ * against an older version of the catalogue is discarded when looked up.
+ *
+ * The cache holds the estimates of the Estimator's formulae, before any
+ * correction by CardinalityFeedback, so that later observations still take
+ * effect. It may be shared by optimisers on different threads, is bounded,
+ * and evicts the least recently used estimate when full.
+ */
+public class EstimateCache {
+	private static final int DEFAULT_CAPACITY = 4096;
+
+	private Catalogue catalogue;
+	private LinkedHashMap<SubplanKey, Entry> estimates;
+	private long hits;
+	private long misses;
+
+	private static class Entry {
+		private int version;
+		private Relation output;
+
+		private Entry(int version, Relation output) {
+			this.version = version;
+			this.output = output;
+		}
+	}
+
+	/**
+	 * Create a new cache
+	 * @param catalogue Catalogue the estimates are derived from
+	 * @param capacity Maximum number of estimates retained
+	 */
+	public EstimateCache(Catalogue catalogue, final int capacity) {
+		this.catalogue = catalogue;
+		this.estimates = new LinkedHashMap<SubplanKey, Entry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<SubplanKey, Entry> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	public EstimateCache(Catalogue catalogue) {
+		this(catalogue, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Return the estimated output of a subplan, or null if there is none
+	 * for the current version of the catalogue. The Relation returned must
+	 * not be modified.
+	 * @param key Subplan
+	 * @return Estimated output
+	 */
+	public synchronized Relation get(SubplanKey key) {
+		Entry entry = this.estimates.get(key);
+
+		if (entry != null && entry.version != this.catalogue.getVersion()) {
+			this.estimates.remove(key);
+			entry = null;
+		}
+		if (entry == null) {
+			this.misses++;
+			return null;
+		}
+		this.hits++;
+		return entry.output;
+	}
+
+	/**
+	 * Record the estimated output of a subplan
+	 * @param key Subplan
+	 * @param output Estimated output, which must not be modified afterwards
+	 */
+	public synchronized void put(SubplanKey key, Relation output) {
+		this.estimates.put(key, new Entry(this.catalogue.getVersion(), output));
+	}
+
+	/**
+	 * Return the number of estimates retained
+	 * @return
+	 */
+	public synchronized int size() {
+		return this.estimates.size();
+	}
+
+	/**
+	 * Return the number of lookups that found an estimate
+	 * @return
+	 */
+	public synchronized long getHits() {
+		return this.hits;
+	}
+
+	/**
+	 * Return the number of lookups that found no estimate
+	 * @return
+	 */
+	public synchronized long getMisses() {
+		return this.misses;
+	}
+}
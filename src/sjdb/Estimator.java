@@ -6,11 +6,83 @@ import java.util.*;
 
 public class Estimator implements PlanVisitor {
 
+    /**
+     * Time allowed by default for evaluating a conjunction against a sample, in milliseconds
+     */
+    public static final long DEFAULT_SAMPLE_MILLIS = 50;
+
+    private CardinalityFeedback feedback;
+
+    private long sampleMillis = DEFAULT_SAMPLE_MILLIS;
+
+    private EstimateCache cache;
+
+    private IdentityHashMap<Operator, SubplanKey> keys = new IdentityHashMap<>();
+
+    // Selects whose sample ran out of time, so that estimates resting on the formulae instead are not cached
+    private Set<Operator> provisional = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    // named relation of each attribute scanned, for its column groups and functional dependencies
+    private HashMap<String, NamedRelation> owners = new HashMap<>();
+
+    // relations scanned that are not named, whose subplans have no observed output sizes
+    private Set<String> unnamed = new HashSet<>();
 
 	public Estimator() {
 		// empty constructor
 	}
 
+    /**
+     * @param feedback observed output sizes, consulted before the catalogue formulae
+     */
+    public Estimator(CardinalityFeedback feedback) {
+        this.feedback = feedback;
+    }
+
+    /**
+     * @param feedback observed output sizes, consulted before the catalogue formulae
+     * @param cache estimates shared with other estimators, consulted before the formulae
+     */
+    public Estimator(CardinalityFeedback feedback, EstimateCache cache) {
+        this.feedback = feedback;
+        this.cache = cache;
+    }
+
+    /**
+     * @param millis time allowed for evaluating the predicates over one relation against its
+     *     sample, after which the formulae are used instead; 0 never uses samples
+     */
+    public void setSampleTimeLimit(long millis) {
+        this.sampleMillis = millis;
+    }
+
+    /**
+     * @param op operator visited by this estimator
+     * @return relation set and predicate set of the subplan rooted at op
+     */
+    public SubplanKey getKey(Operator op) {
+        return keys.get(op);
+    }
+
+    /**
+     * @param op operator of a plan
+     * @return fraction of the blocks of its table that a Scan must read when op is a chain
+     *     of Selects directly above it, whose predicates the Scan skips blocks by; 1 otherwise
+     */
+    public static double blockFraction(Operator op) {
+        List<Predicate> preds = new ArrayList<>();
+
+        while (op instanceof Select) {
+            preds.add(((Select) op).getPredicate());
+            op = ((Select) op).getInput();
+        }
+
+        if (preds.isEmpty() || !(op instanceof Scan) || !(((Scan) op).getRelation() instanceof NamedRelation)) {
+            return 1;
+        }
+        return ZoneMap.blockFraction((NamedRelation) ((Scan) op).getRelation(), preds);
+    }
+
 	/* 
 	 * Create output relation on Scan operator
 	 *
@@ -28,6 +100,13 @@ public class Estimator implements PlanVisitor {
 		}
 		
 		op.setOutput(output);
+        keys.put(op, SubplanKey.of(input));
+
+        if(input instanceof NamedRelation) {
+            for(Attribute attr: input.getAttributes()) { owners.put(attr.getName(), (NamedRelation) input); }
+        } else {
+            unnamed.add(input.toString());
+        }
 	}
 
 	public void visit(Project op) {
@@ -54,27 +133,339 @@ public class Estimator implements PlanVisitor {
         }
 
         op.setOutput(output);
+        keys.put(op, keys.get(input));
 	}
 
 	public void visit(Select op) {
         Predicate pred = op.getPredicate();
-        Relation output;
+        Operator input = op.getInput();
+        SubplanKey key = keys.get(input).with(pred);
+        keys.put(op, key);
+
+        Relation output = lookup(key, input.getOutput().getAttributes());
+        if(output != null) {
+            // estimated already, by another plan containing this subplan
+        } else if((output = visitSelectBySample(op)) != null) {
+            store(op, key, output);
+        } else if(partitionedScan(op) != null) {
+            output = store(op, key, correlate(op, visitSelectByPartition(op)));
+        } else {
+            output = store(op, key, correlate(op, select(input.getOutput(), pred)));
+        }
+
+        op.setOutput(applyFeedback(key, output));
+    }
+
+    private Relation select(Relation input, Predicate pred) {
         if(pred.equalsValue()) {
-            output = visitSelectByVal(op);  // attr = val
+            return visitSelectByVal(input, pred);  // attr = val
+        } else if(pred.equalsAttribute()) {
+            return visitSelectByAttr(input, pred);  // attr = attr
         } else {
-            output = visitSelectByAttr(op);  // attr = attr
+            return visitSelectByComparison(input, pred);  // attr != val, attr < val, attr IN (...), etc.
         }
-        op.setOutput(output);
     }
 
-    private Relation visitSelectByAttr(Select op) {
+    /**
+     * @param op Select operator
+     * @return Scan of a partitioned relation at the bottom of the chain of Selects above it, or null
+     */
+    private static Scan partitionedScan(Select op) {
+        Operator base = op;
+        while(base instanceof Select) base = ((Select) base).getInput();
+
+        return (base instanceof Scan && base == Partition.partitionedScan(base)) ? (Scan) base : null;
+    }
+
+    /**
+     * Estimate a chain of Selects over a partitioned relation partition by partition, from
+     * the statistics of each, so that skew between partitions is captured. Partitions whose
+     * bounds rule out a predicate contribute nothing; the estimates of the rest are summed,
+     * with value counts capped by the total and bounds taken over the partitions that remain
+     */
+    private Relation visitSelectByPartition(Select op) {
+        List<Predicate> preds = new ArrayList<>();
+        Operator base = op;
+
+        while(base instanceof Select) {
+            preds.add(0, ((Select) base).getPredicate());
+            base = ((Select) base).getInput();
+        }
+
+        List<Relation> estimates = new ArrayList<>();
+
+        for(Partition partition: ((NamedRelation) ((Scan) base).getRelation()).getPartitions()) {
+            Relation estimate = partition;
+
+            for(Predicate pred: preds) {
+                if(estimate.getTupleCount() == 0 || !partition.mightMatch(pred)) {
+                    estimate = null;
+                    break;
+                }
+                estimate = select(estimate, pred);
+            }
+
+            if(estimate != null && estimate.getTupleCount() > 0) estimates.add(estimate);
+        }
+
+        int TR = 0;
+        for(Relation estimate: estimates) TR += estimate.getTupleCount();
+
+        Relation output = new Relation(TR);
+
+        for(Attribute attr: op.getInput().getOutput().getAttributes()) {
+            int values = 0;
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            boolean ranged = !estimates.isEmpty();
+
+            for(Relation estimate: estimates) {
+                Attribute part = estimate.getAttribute(attr);
+                values += part.getValueCount();
+                min = Math.min(min, part.getMin());
+                max = Math.max(max, part.getMax());
+                ranged &= part.hasRange();
+            }
+
+            values = Math.max(1, Math.min(values, TR));
+            output.addAttribute(ranged ? new Attribute(attr, values, min, max) : new Attribute(attr, values));
+        }
+
+        return output;
+    }
+
+    /**
+     * Estimate a chain of two or more Selects directly above a Scan from the fraction of the
+     * relation's sample satisfying all of their predicates, rather than multiplying their
+     * selectivities, which assumes the attributes independent. Where no sampled tuple
+     * matches, fewer than one in the sample size do, which caps the estimate of the formulae.
+     * Value counts are those of the formulae, capped by the tuple count. Returns null if the
+     * relation has no sample or the time allowed runs out
+     */
+    private Relation visitSelectBySample(Select op) {
+        if(sampleMillis <= 0) return null;
+
+        List<Predicate> preds = new ArrayList<>();
+        Operator base = op;
+
+        while(base instanceof Select) {
+            preds.add(((Select) base).getPredicate());
+            base = ((Select) base).getInput();
+        }
+
+        if(preds.size() < 2 || !(base instanceof Scan) || !(((Scan) base).getRelation() instanceof NamedRelation)) return null;
+
+        Sample sample = ((NamedRelation) ((Scan) base).getRelation()).getSample();
+        if(sample == null || sample.size() == 0) return null;
+
+        Deadline deadline = new Deadline(sampleMillis);
+        int matches = sample.count(preds, deadline);
+        if(matches < 0) {
+            if(deadline.isExpired()) provisional.add(op);
+            return null;
+        }
+
+        Relation formula = (partitionedScan(op) != null) ?
+                visitSelectByPartition(op) : select(op.getInput().getOutput(), op.getPredicate());
+        double TR = base.getOutput().getTupleCount();
+        int size = (matches > 0) ?
+                (int) Math.max(1, Math.round(TR * matches / sample.size())) :
+                (int) Math.min(formula.getTupleCount(), TR / sample.size());
+
+        Relation output = new Relation(size);
+
+        for(Attribute attr: formula.getAttributes()) {
+            output.addAttribute(new Attribute(attr, Math.max(1, Math.min(attr.getValueCount(), size))));
+        }
+
+        return output;
+    }
+
+    /**
+     * Correct the estimate of an attr = value Select below which other Selects fix attributes
+     * of the same relation by value. The formulae assume the attributes independent, dividing
+     * by V(R,A) for each; where a column group or functional dependency makes fewer distinct
+     * combinations than that, the estimate is scaled up by their ratio, so with a = x fixed
+     * below, b = y estimates T(R)/V(R,{a,b}), and T(R)/V(R,a) if a determines b
+     */
+    private Relation correlate(Select op, Relation output) {
+        Predicate pred = op.getPredicate();
+        NamedRelation owner = owners.get(pred.getLeftAttribute().getName());
+
+        if(!pred.equalsValue() || owner == null) return output;
+
+        List<String> fixed = new ArrayList<>();
+
+        for(Operator below = op.getInput(); below instanceof Select; below = ((Select) below).getInput()) {
+            Predicate other = ((Select) below).getPredicate();
+            String name = other.getLeftAttribute().getName();
+
+            if(other.equalsValue() && owners.get(name) == owner && !name.equals(pred.getLeftAttribute().getName())) {
+                fixed.add(name);
+            }
+        }
+
+        if(fixed.isEmpty()) return output;
+
+        List<String> all = new ArrayList<>(fixed);
+        all.add(pred.getLeftAttribute().getName());
+
+        double ratio = distinct(owner, fixed) * Math.max(1, owner.getAttribute(pred.getLeftAttribute()).getValueCount())
+                / distinct(owner, all);
+
+        if(ratio <= 1) return output;
+
+        int TR = op.getInput().getOutput().getTupleCount();
+        Relation corrected = new Relation((int) Math.min(TR, Math.round(output.getTupleCount() * ratio)));
+
+        for(Attribute attr: output.getAttributes()) { corrected.addAttribute(attr); }
+
+        return corrected;
+    }
+
+    /**
+     * Number of distinct combinations of values of some attributes of an (estimated) relation:
+     * the product of their value counts, except that an attribute functionally determined by
+     * others of them counts once, and the attributes of a column group count together, by the
+     * group's value count or the product of their own, whichever is smaller
+     *
+     * @param input relation holding the attributes
+     * @param names names of the attributes
+     */
+    private double distinct(Relation input, Collection<String> names) {
+        Set<Attribute> remaining = new LinkedHashSet<>();
+        for(Attribute attr: input.getAttributes()) {
+            if(names.contains(attr.getName())) remaining.add(attr);
+        }
+
+        Set<NamedRelation> relations = new LinkedHashSet<>();
+        for(Attribute attr: remaining) {
+            if(owners.get(attr.getName()) != null) relations.add(owners.get(attr.getName()));
+        }
+
+        boolean changed = true;
+        while(changed) {
+            changed = false;
+            for(NamedRelation reln: relations) {
+                for(FunctionalDependency dependency: reln.getDependencies()) {
+                    Set<Attribute> others = new HashSet<>(remaining);
+                    others.remove(dependency.getDependent());
+
+                    if(remaining.contains(dependency.getDependent()) && dependency.determinedBy(others)) {
+                        remaining.remove(dependency.getDependent());
+                        changed = true;
+                    }
+                }
+            }
+        }
+
+        double values = 1;
+        Set<Attribute> covered = new HashSet<>();
+
+        for(NamedRelation reln: relations) {
+            for(ColumnGroup group: reln.getColumnGroups()) {
+                if(!group.within(remaining) || !Collections.disjoint(group.getAttributes(), covered)) continue;
+
+                double members = 1;
+                for(Attribute attr: remaining) {
+                    if(group.getAttributes().contains(attr)) members *= Math.max(1, attr.getValueCount());
+                }
+
+                values *= Math.min(group.getValueCount(), members);
+                covered.addAll(group.getAttributes());
+            }
+        }
+
+        for(Attribute attr: remaining) {
+            if(!covered.contains(attr)) values *= Math.max(1, attr.getValueCount());
+        }
+
+        return values;
+    }
+
+    /**
+     * Return the cached estimate of a subplan's output, restricted to the given
+     * attributes, or null if there is none covering all of them. Narrowing
+     * Projects drop attributes without changing the key, so the cached output
+     * may have more attributes than are needed here
+     *
+     * @param key subplan producing the output
+     * @param attrs attributes of the inputs to the subplan's root
+     */
+    private Relation lookup(SubplanKey key, List<Attribute> attrs) {
+        if(cache == null) return null;
+
+        Relation cached = cache.get(key);
+        if(cached == null) return null;
+
+        HashMap<String, Attribute> cachedAttrs = new HashMap<>();
+        for(Attribute attr: cached.getAttributes()) { cachedAttrs.put(attr.getName(), attr); }
+
+        Relation output = new Relation(cached.getTupleCount());
+
+        for(Attribute attr: attrs) {
+            Attribute estimated = cachedAttrs.get(attr.getName());
+            if(estimated == null) return null;
+
+            output.addAttribute(estimated);
+        }
+
+        return output;
+    }
+
+    /**
+     * Cache the estimate of a subplan's output, unless it rests on the formulae in place of a
+     * sample that ran out of time, which another estimator given more time might use
+     *
+     * @return output
+     */
+    private Relation store(Operator op, SubplanKey key, Relation output) {
+        if(cache != null && !isProvisional(op)) cache.put(key, output);
 
-        String leftAttrName = op.getPredicate().getLeftAttribute().getName();
-        String rightAttrName = op.getPredicate().getRightAttribute().getName();
+        return output;
+    }
 
-        Relation output = op.getInputs().get(0).getOutput();
+    /**
+     * @param op operator visited by this estimator
+     * @return true if a Select in the subplan rooted at op ran out of time on its sample
+     */
+    private boolean isProvisional(Operator op) {
+        if(provisional.contains(op)) return true;
 
-        return buildNewSelectByAttr(output, leftAttrName, rightAttrName);
+        for(Operator input: op.inputs) {
+            if(isProvisional(input)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Replace the tuple count of an estimated output with the output size
+     * observed for the subplan, if it has been observed
+     *
+     * @param key subplan producing the output
+     * @param output output estimated from the catalogue formulae
+     * @return corrected output
+     */
+    private Relation applyFeedback(SubplanKey key, Relation output) {
+        if(feedback == null || key.readsAny(unnamed)) return output;
+
+        Double tupleCount = feedback.getTupleCount(key);
+        if(tupleCount == null) return output;
+
+        // never estimate an empty result, as value counts of 0 would break the formulae above
+        Relation corrected = new Relation((int) Math.max(1, Math.round(tupleCount)));
+
+        for(Attribute attr: output.getAttributes()) { corrected.addAttribute(attr); }
+
+        return corrected;
+    }
+
+    private Relation visitSelectByAttr(Relation input, Predicate pred) {
+
+        String leftAttrName = pred.getLeftAttribute().getName();
+        String rightAttrName = pred.getRightAttribute().getName();
+
+        return buildNewSelectByAttr(input, leftAttrName, rightAttrName);
     }
 
     private Relation buildNewSelectByAttr(Relation output, String leftAttrName, String rightAttrName) {
@@ -107,28 +498,24 @@ public class Estimator implements PlanVisitor {
         // create new output
         Relation newOutput = new Relation(TR / maxVal);
 
-        newAttrs.put(leftAttrName, new Attribute(leftAttrName, minVal)); // update left attr with min value
+        newAttrs.put(leftAttrName, new Attribute(newAttrs.get(leftAttrName), minVal)); // update left attr with min value
 
-        newAttrs.put(rightAttrName, new Attribute(leftAttrName, minVal)); // update right attr with min value
+        newAttrs.put(rightAttrName, new Attribute(newAttrs.get(rightAttrName), minVal)); // update right attr with min value
 
         for(Attribute attr: newAttrs.values()) { newOutput.addAttribute(attr); }
 
         return newOutput;
     }
 
-    private Relation visitSelectByVal(Select op) {
+    private Relation visitSelectByVal(Relation input, Predicate pred) {
 
-        String leftAttrName = op.getPredicate().getLeftAttribute().getName();
-
-        // Assume there will only be single input,
-        // the single input can only be a Product or Scan
-        Operator input = op.getInputs().get(0);
+        String leftAttrName = pred.getLeftAttribute().getName();
 
         Integer VR = null;
 
         HashMap<String, Attribute> newAttrs = new HashMap<>();
 
-        for(Attribute attr: input.getOutput().getAttributes()) {
+        for(Attribute attr: input.getAttributes()) {
             // search attribute with same name
             if(leftAttrName.equals(attr.getName())) VR = attr.getValueCount();
 
@@ -136,30 +523,147 @@ public class Estimator implements PlanVisitor {
         }
 
         if(VR == null) throw new NullPointerException(
-                "Attribute: "+ leftAttrName + " Not Found In " + op.toString());
+                "Attribute: "+ leftAttrName + " Not Found In " + input.render());
 
-        int TR = input.getOutput().getTupleCount(); // get tuple count from Scan or Product
+        int TR = input.getTupleCount(); // get tuple count from Scan or Product
 
         Relation output = new Relation(TR / VR);
 
-        newAttrs.put(leftAttrName, new Attribute(leftAttrName, 1)); // update attr with value 1
+        newAttrs.put(leftAttrName, new Attribute(newAttrs.get(leftAttrName), 1)); // update attr with value 1
+
+        for(Attribute attr: newAttrs.values()) { output.addAttribute(attr); }
+
+        return output;
+    }
+
+    private Relation visitSelectByComparison(Relation input, Predicate pred) {
+
+        String leftAttrName = pred.getLeftAttribute().getName();
+
+        Attribute target = null;
+
+        HashMap<String, Attribute> newAttrs = new HashMap<>();
+
+        for(Attribute attr: input.getAttributes()) {
+            if(leftAttrName.equals(attr.getName())) target = attr;
+
+            newAttrs.put(attr.getName(), new Attribute(attr));
+        }
+
+        if(target == null) throw new NullPointerException(
+                "Attribute: "+ leftAttrName + " Not Found In " + input.render());
+
+        int TR = input.getTupleCount();
+        double selectivity = selectivity(pred, target);
+
+        Relation output = new Relation(TR == 0 ? 0 : (int) Math.max(1, Math.round(TR * selectivity)));
+
+        newAttrs.put(leftAttrName, restrict(pred, target, selectivity)); // update attr values and bounds
 
         for(Attribute attr: newAttrs.values()) { output.addAttribute(attr); }
 
         return output;
     }
 
+    /**
+     * Selectivity of a predicate comparing an attribute with values. Equality
+     * uses 1/V(R,A); ranges use the fraction of [min, max] they cover where the
+     * bounds and values are numeric, and otherwise the System R defaults of 1/3
+     * (open ranges) and 1/4 (BETWEEN)
+     *
+     * @param pred predicate comparing attr with values
+     * @param attr attribute statistics
+     * @return estimated fraction of tuples satisfying pred
+     */
+    static double selectivity(Predicate pred, Attribute attr) {
+        double VR = Math.max(1, attr.getValueCount());
+        List<String> values = pred.getValues();
+
+        switch(pred.getComparison()) {
+            case EQ: return 1 / VR;
+            case NE: return 1 - 1 / VR;
+            case IN: return Math.min(1, new HashSet<>(values).size() / VR);
+            case LT: return rangeFraction(attr, null, values.get(0), 0, 1.0 / 3);
+            case LE: return rangeFraction(attr, null, values.get(0), 1 / VR, 1.0 / 3);
+            case GT: return rangeFraction(attr, values.get(0), null, 0, 1.0 / 3);
+            case GE: return rangeFraction(attr, values.get(0), null, 1 / VR, 1.0 / 3);
+            case BETWEEN: return rangeFraction(attr, values.get(0), values.get(1), 1 / VR, 1.0 / 4);
+        }
+        return 1;
+    }
+
+    /**
+     * @param low lower bound of the range, or null if unbounded below
+     * @param high upper bound of the range, or null if unbounded above
+     * @param endpoint extra fraction for an inclusive bound
+     * @param fallback selectivity used if the range cannot be interpolated
+     */
+    private static double rangeFraction(Attribute attr, String low, String high,
+                                        double endpoint, double fallback) {
+        Double lo = (low == null) ? Double.valueOf(attr.getMin()) : Predicate.toNumber(low);
+        Double hi = (high == null) ? Double.valueOf(attr.getMax()) : Predicate.toNumber(high);
+
+        if(!attr.hasRange() || lo == null || hi == null) return fallback;
+
+        lo = Math.max(lo, attr.getMin());
+        hi = Math.min(hi, attr.getMax());
+
+        if(lo > hi) return 0;
+        if(attr.getMax() == attr.getMin()) return 1;
+
+        return Math.min(1, (hi - lo) / (attr.getMax() - attr.getMin()) + endpoint);
+    }
+
+    /**
+     * Revise the statistics of an attribute after a comparison with values
+     */
+    private static Attribute restrict(Predicate pred, Attribute attr, double selectivity) {
+        int values = Math.max(1, (int) Math.round(attr.getValueCount() * selectivity));
+        double min = attr.getMin();
+        double max = attr.getMax();
+
+        if(pred.getComparison() == Predicate.Comparison.IN) {
+            values = Math.min(attr.getValueCount(), new HashSet<>(pred.getValues()).size());
+        } else if(pred.getComparison() == Predicate.Comparison.NE) {
+            values = Math.max(1, attr.getValueCount() - 1);
+        }
+
+        if(attr.hasRange()) {
+            Double bound = Predicate.toNumber(pred.getRightValue());
+            switch(pred.getComparison()) {
+                case LT: case LE:
+                    if(bound != null) max = Math.min(max, bound);
+                    break;
+                case GT: case GE:
+                    if(bound != null) min = Math.max(min, bound);
+                    break;
+                case BETWEEN:
+                    Double upper = Predicate.toNumber(pred.getValues().get(1));
+                    if(bound != null) min = Math.max(min, bound);
+                    if(upper != null) max = Math.min(max, upper);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        return new Attribute(attr, values, min, max);
+    }
+
     /**
      * @param op Product operator to be visited
      */
     public void visit(Product op) {
 	    List<Operator> scans = op.getInputs();
 
-	    int updatedTupleCount = 1;
+	    long updatedTupleCount = 1;
 
-        for(Operator scan: scans) updatedTupleCount *= scan.getOutput().getTupleCount();
+        // products of many relations are capped rather than overflowing
+        for(Operator scan: scans) {
+            updatedTupleCount = Math.min(Integer.MAX_VALUE, updatedTupleCount * scan.getOutput().getTupleCount());
+        }
 
-        Relation output  = new Relation(updatedTupleCount);
+        Relation output  = new Relation((int) updatedTupleCount);
 
         // update new relation with attributes of the scans
         for(Operator scan: scans) {
@@ -169,16 +673,13 @@ public class Estimator implements PlanVisitor {
         }
 
 	    op.setOutput(output);
+        keys.put(op, keys.get(op.getLeft()).union(keys.get(op.getRight())));
 	}
 	
 	public void visit(Join op) {
         // Join uses Binary Operator - two inputs
-        Operator base = op.inputs.get(0);
-        Operator scan = op.inputs.get(1);
-        Predicate pred = op.getPredicate();
-
-        String leftPredAttrName = pred.getLeftAttribute().getName();
-        String rightPredAttrName = pred.getRightAttribute().getName();
+        Operator base = op.inputs[0];
+        Operator scan = op.inputs[1];
 
         HashMap<String, Attribute> baseAttrMap = new HashMap<>();
         for(Attribute attr: base.getOutput().getAttributes()) {
@@ -190,74 +691,177 @@ public class Estimator implements PlanVisitor {
             scanAttrMap.put(attr.getName(), attr);
         }
 
-        Relation relation;
+        Relation baseOutput = base.getOutput();
+        List<String> baseKey = new ArrayList<>(); // composite join key on base
+        List<String> scanKey = new ArrayList<>(); // composite join key on scan
+        SubplanKey key = keys.get(base).union(keys.get(scan));
 
-        // case 1, when left and right attr already existed in base i.e. no need to join
-        if(baseAttrMap.containsKey(leftPredAttrName)
-                && baseAttrMap.containsKey(rightPredAttrName)) {
+        for(Predicate pred: op.getPredicates()) {
 
-            relation = buildNewSelectByAttr(base.output, leftPredAttrName, rightPredAttrName);
+            String leftPredAttrName = pred.getLeftAttribute().getName();
+            String rightPredAttrName = pred.getRightAttribute().getName();
 
-        } else if(baseAttrMap.containsKey(leftPredAttrName)
-                    && scanAttrMap.containsKey(rightPredAttrName) ) {
+            // case 1, when left and right attr already existed in base i.e. no need to join
+            if(baseAttrMap.containsKey(leftPredAttrName)
+                    && baseAttrMap.containsKey(rightPredAttrName)) {
 
-            relation = buildJoin(base.getOutput(), scan.getOutput(), leftPredAttrName, rightPredAttrName);
+                baseOutput = buildNewSelectByAttr(baseOutput, leftPredAttrName, rightPredAttrName);
 
-        } else if(baseAttrMap.containsKey(rightPredAttrName)
-                    && scanAttrMap.containsKey(leftPredAttrName) ) {
-            relation = buildJoin(base.getOutput(), scan.getOutput(), rightPredAttrName, leftPredAttrName);
+            } else if(baseAttrMap.containsKey(leftPredAttrName)
+                        && scanAttrMap.containsKey(rightPredAttrName) ) {
 
-        } else {
-            throw new IllegalArgumentException("Invalid Attributes in Join " + op.toString());
+                baseKey.add(leftPredAttrName);
+                scanKey.add(rightPredAttrName);
+
+            } else if(baseAttrMap.containsKey(rightPredAttrName)
+                        && scanAttrMap.containsKey(leftPredAttrName) ) {
+
+                baseKey.add(rightPredAttrName);
+                scanKey.add(leftPredAttrName);
+
+            } else {
+                throw new IllegalArgumentException("Invalid Attributes in Join " + op.toString());
+            }
+
+            key = key.with(pred);
+        }
+
+        keys.put(op, key);
+
+        List<Attribute> inputAttrs = new ArrayList<>(base.getOutput().getAttributes());
+        inputAttrs.addAll(scan.getOutput().getAttributes());
+
+        Relation relation = lookup(key, inputAttrs);
+
+        if(relation == null) {
+            relation = store(op, key, baseKey.isEmpty() ?
+                    baseOutput : buildJoin(baseOutput, scan.getOutput(), baseKey, scanKey));
         }
 
-        op.setOutput(relation);
+        op.setOutput(applyFeedback(key, relation));
 	}
 
-	private Relation buildJoin(Relation baseOuput,
-                               Relation scanOutput,
-                               String baseAttrName,
-                               String scanAttrName) {
+    public void visit(Limit op) {
+        op.setOutput(buildLimit(op.getInput().getOutput(), op.getLimit()));
+        keys.put(op, keys.get(op.getInput()));
+    }
 
-        int maxVal = Integer.MIN_VALUE;
-        int minVal = Integer.MAX_VALUE;
+    public void visit(TopN op) {
+        Relation input = op.getInput().getOutput();
+        op.setOutput(buildLimit(input, op.hasLimit() ? op.getLimit() : input.getTupleCount()));
+        keys.put(op, keys.get(op.getInput()));
+    }
 
-        HashMap<String, Attribute> newAttrs = new HashMap<>();
+    /**
+     * An Exchange moves tuples between nodes without changing them, so its output is
+     * estimated as its input, over all nodes
+     */
+    public void visit(Exchange op) {
+        op.setOutput(buildLimit(op.getInput().getOutput(), op.getInput().getOutput().getTupleCount()));
+        keys.put(op, keys.get(op.getInput()));
+    }
 
-        for(Attribute attr: baseOuput.getAttributes()) {
+    /**
+     * T(aggregate) = min(T(R), distinct combinations of the grouping attributes), or 1 with no
+     * grouping; each aggregate result takes at most one value per group
+     */
+    public void visit(Aggregate op) {
+        Relation input = op.getInput().getOutput();
+        HashMap<String, Attribute> inputAttrs = new HashMap<>();
+        for(Attribute attr: input.getAttributes()) {
+            inputAttrs.put(attr.getName(), attr);
+        }
 
-            if(baseAttrName.equals(attr.getName())) {
-                if(attr.getValueCount() > maxVal) maxVal = attr.getValueCount();
-                if(attr.getValueCount() < minVal) minVal = attr.getValueCount();
+        List<String> groupBy = new ArrayList<>();
+        for(Attribute attr: op.getGroupBy()) {
+            Attribute inputAttr = inputAttrs.get(attr.getName());
+            if(inputAttr == null) {
+                throw new IllegalArgumentException("Attribute " + attr + " Not Found In " + input.render());
             }
+            groupBy.add(attr.getName());
+        }
+        double groups = distinct(input, groupBy);
+        if(!op.getGroupBy().isEmpty()) {
+            groups = Math.min(groups, input.getTupleCount());
+        }
 
-            newAttrs.put(attr.getName(), new Attribute(attr));
+        int size = (int) groups;
+        Relation output = new Relation(size);
+
+        for(Attribute attr: op.getGroupBy()) {
+            Attribute inputAttr = inputAttrs.get(attr.getName());
+            output.addAttribute(new Attribute(inputAttr, Math.min(inputAttr.getValueCount(), size)));
+        }
+        for(Aggregation agg: op.getAggregations()) {
+            Attribute arg = (agg.getArgument() == null) ? null : inputAttrs.get(agg.getArgument().getName());
+            boolean extreme = agg.getFunction() == Aggregation.Function.MIN
+                    || agg.getFunction() == Aggregation.Function.MAX;
+            int values = (extreme && arg != null) ? Math.min(arg.getValueCount(), size) : size;
+            output.addAttribute(new Attribute(agg.getOutput().getName(), values));
         }
 
-        for(Attribute attr: scanOutput.getAttributes()) {
+        op.setOutput(output);
+        keys.put(op, keys.get(op.getInput()).aggregate(op));
+    }
 
-            if(scanAttrName.equals(attr.getName())) {
-                if(attr.getValueCount() > maxVal) maxVal = attr.getValueCount();
-                if(attr.getValueCount() < minVal) minVal = attr.getValueCount();
-            }
+    /**
+     * T(limit) = min(limit, T(R)); a value count cannot exceed the tuples kept, V = min(V(R,A), T)
+     */
+    private Relation buildLimit(Relation input, int limit) {
+        int size = Math.min(limit, input.getTupleCount());
+        Relation output = new Relation(size);
 
-            newAttrs.put(attr.getName(), new Attribute(attr));
+        for(Attribute attr: input.getAttributes()) {
+            output.addAttribute(new Attribute(attr, Math.min(attr.getValueCount(), size)));
         }
 
-        if(maxVal == Integer.MIN_VALUE || minVal == Integer.MAX_VALUE)
-            throw new IllegalArgumentException(
-                    "Attributes "+ baseAttrName + " or " + scanAttrName +
-                            " Not Found In \n" + baseOuput.render() +
-                            "\nor\n" + scanOutput.render());
+        return output;
+    }
+
+    /**
+     * Estimate an equi-join on a (possibly composite) key as T(R)T(S)/max(V(R,key),V(S,key)),
+     * where V(R,key) is the distinct combinations of the key attributes (see distinct()), capped
+     * by T(R). For a single attribute this is the usual T(R)T(S)/max(V(R,A),V(S,B)); for several,
+     * all predicates are estimated together rather than multiplying independent selectivities.
+     */
+	private Relation buildJoin(Relation baseOuput,
+                               Relation scanOutput,
+                               List<String> baseAttrNames,
+                               List<String> scanAttrNames) {
+
+        HashMap<String, Attribute> newAttrs = new HashMap<>();
 
-        int TR = baseOuput.getTupleCount() * scanOutput.getTupleCount();
+        for(Attribute attr: baseOuput.getAttributes()) { newAttrs.put(attr.getName(), new Attribute(attr)); }
 
-        // create new output
-        Relation newOutput = new Relation(TR / maxVal);
+        for(Attribute attr: scanOutput.getAttributes()) { newAttrs.put(attr.getName(), new Attribute(attr)); }
+
+        List<Attribute> revised = new ArrayList<>();
 
-        newAttrs.put(baseAttrName, new Attribute(baseAttrName, minVal)); // update left attr with min value
+        for(int i = 0; i < baseAttrNames.size(); i++) {
+            Attribute baseAttr = newAttrs.get(baseAttrNames.get(i));
+            Attribute scanAttr = newAttrs.get(scanAttrNames.get(i));
+
+            if(baseAttr == null || scanAttr == null)
+                throw new IllegalArgumentException(
+                        "Attributes "+ baseAttrNames.get(i) + " or " + scanAttrNames.get(i) +
+                                " Not Found In \n" + baseOuput.render() +
+                                "\nor\n" + scanOutput.render());
+
+            int minVal = Math.min(baseAttr.getValueCount(), scanAttr.getValueCount());
+
+            revised.add(new Attribute(baseAttr, minVal)); // update left attr with min value
+            revised.add(new Attribute(scanAttr, minVal)); // update right attr with min value
+        }
+
+        double baseKeyValues = Math.min(distinct(baseOuput, baseAttrNames), baseOuput.getTupleCount());
+        double scanKeyValues = Math.min(distinct(scanOutput, scanAttrNames), scanOutput.getTupleCount());
+
+        double TR = (double) baseOuput.getTupleCount() * scanOutput.getTupleCount();
+
+        // create new output
+        Relation newOutput = new Relation((int) (TR / Math.max(1, Math.max(baseKeyValues, scanKeyValues))));
 
-        newAttrs.put(scanAttrName, new Attribute(scanAttrName, minVal)); // update right attr with min value
+        for(Attribute attr: revised) { newAttrs.put(attr.getName(), attr); }
 
         for(Attribute attr: newAttrs.values()) { newOutput.addAttribute(attr); }
 
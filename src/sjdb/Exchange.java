@@ -0,0 +1,101 @@
+package sjdb;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * This class represents an Exchange operator, which moves the tuples of
+ * its input between the nodes executing a distributed plan. It is the
+ * boundary between the fragments of the plan that each node runs.
+ *
+ * BROADCAST: every node sends its tuples to every node, so that each
+ * holds the whole input;
+ * SHUFFLE: every node sends each tuple to the node given by the hash of
+ * its values of a key;
+ * GATHER: every node sends its tuples to the first node.
+ *
+ * On a single node, an Exchange passes its input on unchanged.
+ */
+public class Exchange extends UnaryOperator {
+	/**
+	 * The ways tuples may be moved between nodes
+	 */
+	public enum Kind {
+		BROADCAST, SHUFFLE, GATHER
+	}
+
+	private Kind kind;
+	private List<Attribute> key;
+	private int nodes;
+
+	/**
+	 * Create a new exchange operator.
+	 * @param input Child operator
+	 * @param kind How tuples are moved
+	 * @param key Attributes hashed by a SHUFFLE, in order; empty otherwise
+	 * @param nodes Number of nodes executing the plan
+	 */
+	public Exchange(Operator input, Kind kind, List<Attribute> key, int nodes) {
+		super(input);
+		this.kind = kind;
+		this.key = key;
+		this.nodes = nodes;
+	}
+
+	/**
+	 * Create a new exchange operator that broadcasts or gathers its input.
+	 * @param input Child operator
+	 * @param kind How tuples are moved
+	 * @param nodes Number of nodes executing the plan
+	 */
+	public Exchange(Operator input, Kind kind, int nodes) {
+		this(input, kind, Collections.<Attribute>emptyList(), nodes);
+	}
+
+	public Kind getKind() {
+		return this.kind;
+	}
+
+	/**
+	 * Return the attributes hashed by a SHUFFLE
+	 * @return Key, empty for other kinds
+	 */
+	public List<Attribute> getKey() {
+		return this.key;
+	}
+
+	/**
+	 * Return the number of nodes executing the plan
+	 * @return Node count
+	 */
+	public int getNodes() {
+		return this.nodes;
+	}
+
+	/**
+	 * Return the kind of this exchange, with its key if it has one
+	 * @return
+	 */
+	public String renderKind() {
+		String ret = this.kind.name();
+
+		for (int i = 0; i < this.key.size(); i++) {
+			ret += ((i == 0) ? " " : ",") + this.key.get(i).getName();
+		}
+		return ret;
+	}
+
+	/* (non-Javadoc)
+	 * @see sjdb.Operator#dispatch(sjdb.PlanVisitor)
+	 */
+	protected void dispatch(PlanVisitor visitor) {
+		visitor.visit(this);
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		return "EXCHANGE [" + renderKind() + "] (" + getInput().toString() + ")";
+	}
+}
@@ -0,0 +1,295 @@
+package sjdb;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.Pipe;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * This class executes an Exchange operator on one node of a Cluster. The
+ * node's share of the input is produced by a sending thread, which routes
+ * each tuple to its destination nodes and writes them out in batches over
+ * a pipe to each node. A receiving thread per source node reads the
+ * batches sent to this node and queues them for next(); the exchange is
+ * exhausted once every source node has closed its pipe.
+ *
+ * Tuples are sent as their decoded values, so dictionary codes do not
+ * cross nodes. Every node must open the exchange, or the other nodes
+ * will wait for its tuples; as every operator opens all of its inputs,
+ * this holds when every node runs the whole plan. An exchange can only be
+ * opened once.
+ *
+ * The sending thread may outlast the exchange on its own node, serving
+ * the other nodes, and allocates from the node's MemoryArena; the Cluster
+ * waits for it before closing the arena. It stops early once every node
+ * has stopped reading, as above a Limit.
+ */
+public class ExchangeIterator implements TupleIterator {
+	/**
+	 * The number of tuples sent to a node at a time
+	 */
+	public static final int BATCH_SIZE = 256;
+
+	private static final List<Tuple> END = Collections.emptyList();
+
+	private TupleIterator input;
+	private Exchange op;
+	private int node;
+	private Pipe[][] pipes;
+	private Cluster cluster;
+	private BlockingQueue<List<Tuple>> queue;
+	private List<Tuple> batch;
+	private int position;
+	private int finished;
+
+	/**
+	 * Create a new exchange on a node
+	 * @param input Iterator producing the node's share of the input
+	 * @param op Exchange operator
+	 * @param node Number of this node
+	 * @param pipes Pipes of the exchange, indexed by source and then
+	 * destination node
+	 * @param cluster Cluster executing the plan, which counts the bytes
+	 * sent and any failure to produce them
+	 */
+	public ExchangeIterator(TupleIterator input, Exchange op, int node, Pipe[][] pipes, Cluster cluster) {
+		this.input = input;
+		this.op = op;
+		this.node = node;
+		this.pipes = pipes;
+		this.cluster = cluster;
+	}
+
+	public void open() {
+		this.queue = new LinkedBlockingQueue<List<Tuple>>();
+		this.batch = END;
+		this.position = 0;
+		this.finished = 0;
+
+		for (int source = 0; source < this.pipes.length; source++) {
+			final Pipe.SourceChannel channel = this.pipes[source][this.node].source();
+			start(() -> receive(channel), "receive");
+		}
+		this.cluster.recordSender(start(this::send, "send"));
+	}
+
+	public Tuple next() {
+		while (this.position == this.batch.size()) {
+			if (this.finished == this.pipes.length) {
+				return null;
+			}
+			try {
+				this.batch = this.queue.take();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted during exchange", e);
+			}
+			this.position = 0;
+			if (this.batch == END) {
+				this.finished++;
+			}
+		}
+		return this.batch.get(this.position++);
+	}
+
+	public void close() {
+		// the sending thread keeps serving the other nodes
+		for (int source = 0; source < this.pipes.length; source++) {
+			try {
+				this.pipes[source][this.node].source().close();
+			} catch (IOException e) {
+				// already closed
+			}
+		}
+	}
+
+	public List<Attribute> getAttributes() {
+		return this.input.getAttributes();
+	}
+
+	private Thread start(Runnable task, String role) {
+		Thread thread = new Thread(task, "node-" + this.node + "-" + role);
+		thread.setDaemon(true);
+		thread.start();
+		return thread;
+	}
+
+	/**
+	 * Produce this node's share of the input and send each tuple to the
+	 * nodes it is destined for
+	 */
+	private void send() {
+		int nodes = this.pipes.length;
+		List<List<Tuple>> batches = new ArrayList<List<Tuple>>();
+		DataOutputStream[] outs = new DataOutputStream[nodes];
+		boolean[] closed = new boolean[nodes];
+		int[] key = new int[this.op.getKey().size()];
+
+		for (int i = 0; i < nodes; i++) {
+			batches.add(new ArrayList<Tuple>());
+			outs[i] = new DataOutputStream(Channels.newOutputStream(this.pipes[this.node][i].sink()));
+		}
+		for (int i = 0; i < key.length; i++) {
+			key[i] = SelectIterator.indexOf(this.input.getAttributes(), this.op.getKey().get(i));
+		}
+
+		try {
+			this.input.open();
+			Tuple tuple;
+
+			while (!allClosed(closed) && (tuple = this.input.next()) != null) {
+				switch (this.op.getKind()) {
+				case BROADCAST:
+					for (int i = 0; i < nodes; i++) {
+						add(outs, batches, closed, i, tuple);
+					}
+					break;
+				case SHUFFLE:
+					add(outs, batches, closed, destination(tuple, key, nodes), tuple);
+					break;
+				default:
+					add(outs, batches, closed, 0, tuple);
+					break;
+				}
+			}
+			this.input.close();
+
+			for (int i = 0; i < nodes; i++) {
+				flush(outs, batches, closed, i);
+			}
+		} catch (RuntimeException e) {
+			this.cluster.recordFailure(e);
+		} finally {
+			for (int i = 0; i < nodes; i++) {
+				try {
+					this.pipes[this.node][i].sink().close();
+				} catch (IOException e) {
+					// already closed
+				}
+			}
+		}
+	}
+
+	private static boolean allClosed(boolean[] closed) {
+		for (boolean c : closed) {
+			if (!c) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Return the node a tuple is shuffled to, by the hash of its key
+	 */
+	static int destination(Tuple tuple, int[] key, int nodes) {
+		int hash = 0;
+
+		for (int position : key) {
+			String value = tuple.get(position);
+			hash = 31 * hash + ((value == null) ? 0 : value.hashCode());
+		}
+		return Math.floorMod(hash, nodes);
+	}
+
+	private void add(DataOutputStream[] outs, List<List<Tuple>> batches, boolean[] closed, int node, Tuple tuple) {
+		List<Tuple> batch = batches.get(node);
+
+		batch.add(tuple);
+		if (batch.size() == BATCH_SIZE) {
+			flush(outs, batches, closed, node);
+		}
+	}
+
+	private void flush(DataOutputStream[] outs, List<List<Tuple>> batches, boolean[] closed, int node) {
+		List<Tuple> batch = batches.get(node);
+
+		if (!closed[node] && !batch.isEmpty()) {
+			try {
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				writeBatch(new DataOutputStream(bytes), batch);
+				bytes.writeTo(outs[node]);
+				outs[node].flush();
+				this.cluster.recordBytesSent(this.op, bytes.size());
+			} catch (IOException e) {
+				// the node has stopped reading, as above a Limit
+				closed[node] = true;
+			}
+		}
+		batch.clear();
+	}
+
+	/**
+	 * Read the batches sent to this node by one source node, until it
+	 * closes its pipe or this exchange is closed
+	 */
+	private void receive(Pipe.SourceChannel channel) {
+		DataInputStream in = new DataInputStream(Channels.newInputStream(channel));
+
+		try {
+			List<Tuple> batch;
+			while ((batch = readBatch(in)) != null) {
+				this.queue.add(batch);
+			}
+		} catch (IOException e) {
+			// closed by close()
+		} finally {
+			this.queue.add(END);
+		}
+	}
+
+	/**
+	 * Serialise a batch of tuples, as a tuple count followed by each
+	 * tuple's arity and values
+	 * @param out Output
+	 * @param batch Tuples
+	 * @throws IOException
+	 */
+	public static void writeBatch(DataOutputStream out, List<Tuple> batch) throws IOException {
+		out.writeInt(batch.size());
+
+		for (Tuple tuple : batch) {
+			out.writeShort(tuple.size());
+			for (int i = 0; i < tuple.size(); i++) {
+				String value = tuple.get(i);
+				out.writeBoolean(value != null);
+				if (value != null) {
+					out.writeUTF(value);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Deserialise a batch of tuples written by writeBatch()
+	 * @param in Input
+	 * @return Tuples, or null at the end of the input
+	 * @throws IOException
+	 */
+	public static List<Tuple> readBatch(DataInputStream in) throws IOException {
+		int count;
+		try {
+			count = in.readInt();
+		} catch (EOFException e) {
+			return null;
+		}
+
+		List<Tuple> batch = new ArrayList<Tuple>(count);
+		for (int i = 0; i < count; i++) {
+			String[] values = new String[in.readShort()];
+			for (int j = 0; j < values.length; j++) {
+				values[j] = in.readBoolean() ? in.readUTF() : null;
+			}
+			batch.add(new Tuple(values));
+		}
+		return batch;
+	}
+}
@@ -0,0 +1,515 @@
+package sjdb;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * This class executes a query plan over stored data.
+ *
+ * Executor implements the PlanVisitor interface; the depth-first traversal
+ * of the plan builds one TupleIterator per operator, with the iterators of
+ * an operator's children on a stack when the operator itself is visited.
+ * Joins are executed as hash joins on their (possibly composite) key, with
+ * the right input as the build side.
+ *
+ * Stored tables may be dictionary-encoded; tuples then carry codes through
+ * the plan, Selects and Joins compare codes where they can, and values
+ * are decoded only by the final Project.
+ *
+ * A Limit stops pulling from its input once it has passed on enough
+ * tuples, so the pipelined operators below it stop early too; a Top-N
+ * holds only as many tuples as its limit in a heap. Aggregates are
+ * executed by hashing on the grouping attributes.
+ *
+ * Unless disabled, each hash join passes Bloom filters on the values of
+ * its build-side key sideways to the Scans on its probe side that produce
+ * the corresponding attributes, which then drop tuples that cannot join
+ * before they reach any operator above.
+ *
+ * Unless disabled, the predicates of a chain of Selects directly above a
+ * Scan are also pushed down to it, and the Scan skips the blocks of the
+ * table that its zone maps show cannot hold a tuple satisfying them, and
+ * the partitions whose bounds do.
+ *
+ * A Join of two relations partitioned alike on its key is executed
+ * partition-wise: one partition pair at a time, so that the build side
+ * holds a single partition.
+ *
+ * An executor may run as one node of a Cluster, over the node's share of
+ * the stored data; Exchanges then move tuples between the nodes, and
+ * runtime filters are not passed below them, as they hold only the
+ * node's share of the build side. On its own, an executor passes the
+ * input of an Exchange on unchanged.
+ *
+ * If given a PipelineCompiler, and unless profiling, the executor runs
+ * each chain of Selects directly above a Scan, with a Project above them,
+ * as a single PipelineIterator, whose predicates are compiled together
+ * and evaluated in one step per tuple.
+ *
+ * The result of an operator may already be held in a table, as by an
+ * AdaptiveExecutor; the operator is then executed by scanning the table,
+ * and the operators below it are not executed.
+ *
+ * The hash tables of joins and aggregates, and the tuples they and
+ * products buffer, are held off the heap in a MemoryArena created for
+ * each compiled plan, and closed once execute() has run it; the off-heap
+ * memory of the last plan is reported by getOffHeapBytes() and
+ * getPeakOffHeapBytes(). On a node of a Cluster, the cluster closes the
+ * arena once the threads sending the node's share of each Exchange have
+ * finished with it.
+ *
+ * If given a MemoryBroker, execute() waits for the broker to grant the
+ * plan a budget before running it, and the tuples buffered by the plan
+ * spill to disk beyond the budget. The executors of the nodes of a
+ * Cluster are not brokered, as every node must run for the exchanges
+ * between them to make progress.
+ */
+public class Executor implements PlanVisitor {
+	private Storage storage;
+	private Deque<TupleIterator> stack;
+	private IdentityHashMap<Operator, ProfilingIterator> profiles;
+	private IdentityHashMap<Operator, ScanIterator> scans;
+	private IdentityHashMap<Operator, List<BloomFilter>> filters;
+	private IdentityHashMap<Operator, Table> materialised;
+	private PipelineCompiler compiler;
+	private MemoryArena arena;
+	private MemoryBroker broker;
+	private MemoryBroker.Grant grant;
+	private boolean runtimeFilters;
+	private boolean zoneMaps;
+	private Operator root;
+	private Cluster cluster;
+	private int node;
+
+	/**
+	 * Create a new executor over the given storage
+	 * @param storage Stored data for the named relations
+	 */
+	public Executor(Storage storage) {
+		this.storage = storage;
+		this.stack = new ArrayDeque<TupleIterator>();
+		this.scans = new IdentityHashMap<Operator, ScanIterator>();
+		this.filters = new IdentityHashMap<Operator, List<BloomFilter>>();
+		this.materialised = new IdentityHashMap<Operator, Table>();
+		this.runtimeFilters = true;
+		this.zoneMaps = true;
+	}
+
+	/**
+	 * Create a new executor for one node of a cluster
+	 * @param storage The node's share of the stored data
+	 * @param cluster Cluster executing distributed plans
+	 * @param node Number of the node
+	 */
+	public Executor(Storage storage, Cluster cluster, int node) {
+		this(storage);
+		this.cluster = cluster;
+		this.node = node;
+	}
+
+	/**
+	 * Enable or disable the Bloom filters passed from hash joins to the
+	 * Scans on their probe side, for subsequently compiled plans.
+	 * @param enabled True to use runtime filters
+	 */
+	public void setRuntimeFilters(boolean enabled) {
+		this.runtimeFilters = enabled;
+	}
+
+	/**
+	 * Enable or disable the pushing of Select predicates to the Scans
+	 * below them, for subsequently compiled plans.
+	 * @param enabled True to skip blocks using zone maps
+	 */
+	public void setZoneMaps(boolean enabled) {
+		this.zoneMaps = enabled;
+	}
+
+	/**
+	 * Execute the Selects and Projects over each Scan as compiled
+	 * pipelines, for subsequently compiled plans that are not profiled.
+	 * @param compiler Compiler of the pipelines, which may be shared with
+	 * other executors; null to interpret every operator
+	 */
+	public void setCodeGeneration(PipelineCompiler compiler) {
+		this.compiler = compiler;
+	}
+
+	/**
+	 * Execute plans within budgets granted by a memory broker, which may
+	 * be shared with other executors
+	 * @param broker Broker of the memory of concurrent queries; null to
+	 * execute plans at once and without a budget
+	 */
+	public void setMemoryBroker(MemoryBroker broker) {
+		this.broker = broker;
+	}
+
+	/**
+	 * Read the result of an operator from a table in subsequently compiled
+	 * plans, rather than executing the operator and those below it.
+	 * @param op Operator
+	 * @param table Table holding the result, with the attributes of the
+	 * operator's iterator in the same order
+	 */
+	public void materialise(Operator op, Table table) {
+		this.materialised.put(op, table);
+	}
+
+	/**
+	 * Return the predicates pushed to a Scan, by which it skips blocks
+	 * @param op Scan of a compiled plan
+	 * @return Predicates, possibly empty
+	 */
+	public List<Predicate> getPushedPredicates(Operator op) {
+		ScanIterator scan = this.scans.get(op);
+		return (scan == null) ? Collections.<Predicate>emptyList() : scan.getPredicates();
+	}
+
+	/**
+	 * Return the number of tuples that a Scan skipped without reading, as
+	 * no tuple in their blocks could satisfy the predicates pushed to it.
+	 * @param op Scan of an executed plan
+	 * @return Skipped tuple count, 0 for other operators
+	 */
+	public int getTuplesSkipped(Operator op) {
+		ScanIterator scan = this.scans.get(op);
+		return (scan == null) ? 0 : scan.getTuplesSkipped();
+	}
+
+	/**
+	 * Return the number of partitions a Scan pruned, as no tuple in them
+	 * could satisfy the predicates pushed to it
+	 * @param op Scan of an executed plan
+	 * @return Pruned partition count, 0 for other operators
+	 */
+	public int getPartitionsPruned(Operator op) {
+		ScanIterator scan = this.scans.get(op);
+		return (scan == null) ? 0 : scan.getPartitionsPruned();
+	}
+
+	/**
+	 * Return the number of partitions a Scan reached, whether read or pruned
+	 * @param op Scan of an executed plan
+	 * @return Partition count, 0 for other operators
+	 */
+	public int getPartitionCount(Operator op) {
+		ScanIterator scan = this.scans.get(op);
+		return (scan == null) ? 0 : scan.getPartitionCount();
+	}
+
+	/**
+	 * Return the fraction of the blocks reached by a Scan that it skipped
+	 * @param op Scan of an executed plan
+	 * @return Block skip ratio, 0 if the Scan reached no blocks
+	 */
+	public double getBlockSkipRatio(Operator op) {
+		ScanIterator scan = this.scans.get(op);
+		if (scan == null || scan.getBlockCount() == 0) {
+			return 0;
+		}
+		return scan.getBlocksSkipped() / (double) scan.getBlockCount();
+	}
+
+	/**
+	 * Return the runtime filters of an operator: for a Scan, those applied
+	 * to it; for a Join, those it built.
+	 * @param op Operator of a compiled plan
+	 * @return Filters, possibly empty
+	 */
+	public List<BloomFilter> getRuntimeFilters(Operator op) {
+		return this.filters.getOrDefault(op, Collections.<BloomFilter>emptyList());
+	}
+
+	/**
+	 * Return the fraction of tuples passed by the runtime filters of an
+	 * operator: for a Scan, those applied to it; for a Join, those it built.
+	 * The fraction is 1 if the operator has no filters, or has not run.
+	 * @param op Operator of an executed plan
+	 * @return Pass ratio
+	 */
+	public double getRuntimeFilterPassRatio(Operator op) {
+		double ratio = 1;
+
+		for (BloomFilter filter : getRuntimeFilters(op)) {
+			ratio *= filter.getPassRatio();
+		}
+		return ratio;
+	}
+
+	/**
+	 * Record tuple counts, byte counts and timings for each operator of
+	 * subsequently executed plans, to be retrieved using getProfile().
+	 */
+	public void enableProfiling() {
+		this.profiles = new IdentityHashMap<Operator, ProfilingIterator>();
+	}
+
+	/**
+	 * Return the profile recorded for an operator, or null if profiling is
+	 * disabled or the operator has not been executed.
+	 * @param op Operator
+	 * @return Profile
+	 */
+	public ProfilingIterator getProfile(Operator op) {
+		return (this.profiles == null) ? null : this.profiles.get(op);
+	}
+
+	/**
+	 * Return the memory arena of the last compiled plan, which the caller
+	 * closes once it has run the plan's iterators, unless executed by
+	 * execute(), which closes it itself
+	 * @return Arena, or null if no plan has been compiled
+	 */
+	public MemoryArena getMemoryArena() {
+		return this.arena;
+	}
+
+	/**
+	 * Return the number of off-heap bytes held by the last compiled plan
+	 * @return Byte count
+	 */
+	public long getOffHeapBytes() {
+		return (this.arena == null) ? 0 : this.arena.getAllocatedBytes();
+	}
+
+	/**
+	 * Return the largest number of off-heap bytes held at once by the last
+	 * compiled plan
+	 * @return Byte count
+	 */
+	public long getPeakOffHeapBytes() {
+		return (this.arena == null) ? 0 : this.arena.getPeakBytes();
+	}
+
+	/**
+	 * Return the number of bytes the tuples buffered by the last compiled
+	 * plan spilled to disk
+	 * @return Byte count
+	 */
+	public long getSpilledBytes() {
+		return (this.arena == null) ? 0 : this.arena.getSpilledBytes();
+	}
+
+	/**
+	 * Return the budget granted by the memory broker to the last executed
+	 * plan
+	 * @return Grant, or null if no broker is set
+	 */
+	public MemoryBroker.Grant getGrant() {
+		return this.grant;
+	}
+
+	/**
+	 * Build the iterator tree that executes a plan, without opening it.
+	 * @param plan Query plan
+	 * @return Root iterator
+	 */
+	public TupleIterator compile(Operator plan) {
+		this.arena = new MemoryArena();
+		this.stack.clear();
+		this.scans.clear();
+		this.filters.clear();
+		this.root = plan;
+		plan.accept(this);
+		return this.stack.pop();
+	}
+
+	/**
+	 * Execute a plan to completion and return its result.
+	 * @param plan Query plan
+	 * @return Result tuples
+	 */
+	public List<Tuple> execute(Operator plan) {
+		this.grant = null;
+		if (this.broker != null) {
+			try {
+				this.grant = this.broker.acquire(plan);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted waiting for memory", e);
+			}
+		}
+
+		List<Tuple> result = new ArrayList<Tuple>();
+		try {
+			TupleIterator iter = compile(plan);
+			if (this.grant != null) {
+				this.arena.setBudget(this.grant.getBytes());
+			}
+
+			iter.open();
+			Tuple tuple;
+			while ((tuple = iter.next()) != null) {
+				result.add(tuple);
+			}
+			iter.close();
+		} finally {
+			// on a node of a cluster, exchanges may still be sending from the arena
+			if (this.arena != null && this.cluster == null) {
+				this.arena.close();
+			}
+			if (this.grant != null) {
+				this.grant.release();
+			}
+		}
+
+		return result;
+	}
+
+	public void visit(Scan op) {
+		try {
+			ScanIterator scan = new ScanIterator(this.storage.getTable(op.getRelation().toString()));
+			this.scans.put(op, scan);
+			push(op, scan);
+		} catch (DatabaseException e) {
+			throw new IllegalStateException(e.getMessage(), e);
+		}
+	}
+
+	public void visit(Project op) {
+		TupleIterator input = this.stack.pop();
+		PipelineIterator pipeline = pipeline(input);
+
+		// dictionary-encoded values are decoded only by the final Project
+		push(op, (pipeline != null) ? pipeline.project(op.getAttributes(), op == this.root)
+				: new ProjectIterator(input, op.getAttributes(), op == this.root));
+	}
+
+	public void visit(Select op) {
+		Operator input = op.getInput();
+		while (input instanceof Select) {
+			input = ((Select) input).getInput();
+		}
+		if (this.zoneMaps && input instanceof Scan) {
+			this.scans.get(input).addPredicate(op.getPredicate());
+		}
+
+		TupleIterator iter = this.stack.pop();
+		PipelineIterator pipeline = pipeline(iter);
+		push(op, (pipeline != null) ? pipeline.addPredicate(op.getPredicate())
+				: new SelectIterator(iter, op.getPredicate()));
+	}
+
+	public void visit(Product op) {
+		TupleIterator right = this.stack.pop();
+		TupleIterator left = this.stack.pop();
+		push(op, new ProductIterator(left, right, this.arena));
+	}
+
+	public void visit(Join op) {
+		TupleIterator right = this.stack.pop();
+		TupleIterator left = this.stack.pop();
+		List<Attribute> leftAttrs = left.getAttributes();
+		List<Attribute> leftKey = new ArrayList<Attribute>();
+		List<Attribute> rightKey = new ArrayList<Attribute>();
+
+		for (Predicate pred : op.getPredicates()) {
+			Attribute leftAttr = pred.getLeftAttribute();
+			Attribute rightAttr = pred.getRightAttribute();
+
+			if (leftAttrs.contains(leftAttr) && leftAttrs.contains(rightAttr)) {
+				// both attributes already joined below, as in Estimator.visit(Join)
+				left = new SelectIterator(left, pred);
+			} else if (leftAttrs.contains(leftAttr)) {
+				leftKey.add(leftAttr);
+				rightKey.add(rightAttr);
+			} else {
+				leftKey.add(rightAttr);
+				rightKey.add(leftAttr);
+			}
+		}
+
+		if (leftKey.isEmpty()) {
+			push(op, left);
+			return;
+		}
+
+		HashJoinIterator join = new HashJoinIterator(left, right, leftKey, rightKey, this.arena);
+		if (this.runtimeFilters) {
+			for (int i = 0; i < leftKey.size(); i++) {
+				pushFilter(op.getLeft(), leftKey.get(i), join.getFilters().get(i), op);
+			}
+		}
+
+		int partitions = Partition.coPartitions(op);
+		if (partitions > 0) {
+			push(op, new PartitionWiseJoinIterator(join, this.scans.get(Partition.partitionedScan(op.getLeft())),
+					this.scans.get(Partition.partitionedScan(op.getRight())), partitions));
+		} else {
+			push(op, join);
+		}
+	}
+
+	public void visit(Limit op) {
+		push(op, new LimitIterator(this.stack.pop(), op.getLimit()));
+	}
+
+	public void visit(TopN op) {
+		push(op, new TopNIterator(this.stack.pop(), op));
+	}
+
+	public void visit(Aggregate op) {
+		push(op, new HashAggregateIterator(this.stack.pop(), op, this.arena));
+	}
+
+	public void visit(Exchange op) {
+		TupleIterator input = this.stack.pop();
+		push(op, (this.cluster == null) ? input : this.cluster.exchange(op, this.node, input));
+	}
+
+	/**
+	 * Return the pipeline that an operator directly above the given
+	 * iterator may join, or null if it is to be executed on its own
+	 */
+	private PipelineIterator pipeline(TupleIterator input) {
+		if (this.compiler == null || this.profiles != null) {
+			return null;
+		}
+		if (input instanceof ScanIterator) {
+			return new PipelineIterator((ScanIterator) input, this.compiler);
+		}
+		if (input instanceof PipelineIterator && !((PipelineIterator) input).isProjected()) {
+			return (PipelineIterator) input;
+		}
+		return null;
+	}
+
+	/**
+	 * Apply a runtime filter on an attribute to the Scans in a subplan that
+	 * produce the attribute
+	 */
+	private void pushFilter(Operator op, Attribute attr, BloomFilter filter, Join join) {
+		if ((op instanceof Exchange && this.cluster != null) || this.materialised.containsKey(op)) {
+			return;
+		}
+		if (op instanceof Scan) {
+			if (op.getOutput().getAttributes().contains(attr)) {
+				this.scans.get(op).addFilter(attr, filter);
+				this.filters.computeIfAbsent(op, k -> new ArrayList<BloomFilter>()).add(filter);
+				this.filters.computeIfAbsent(join, k -> new ArrayList<BloomFilter>()).add(filter);
+			}
+			return;
+		}
+		for (Operator input : op.inputs) {
+			pushFilter(input, attr, filter, join);
+		}
+	}
+
+	private void push(Operator op, TupleIterator iter) {
+		Table table = this.materialised.get(op);
+		if (table != null) {
+			iter = new ScanIterator(table);
+		}
+		if (this.profiles != null) {
+			ProfilingIterator profile = new ProfilingIterator(iter);
+			this.profiles.put(op, profile);
+			iter = profile;
+		}
+		this.stack.push(iter);
+	}
+}
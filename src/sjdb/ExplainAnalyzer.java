@@ -0,0 +1,258 @@
+package sjdb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * This class implements EXPLAIN ANALYZE: it estimates a query plan with
+ * the Estimator, executes it over stored data, and reports for every
+ * operator the estimated and actual tuple counts, the elapsed time and
+ * the bytes produced.
+ *
+ * The quality of each estimate is given by its q-error,
+ * max(est/act, act/est), with both counts taken to be at least 1. The
+ * operators with the largest q-errors are marked in the report, as these
+ * are the estimates most likely to have driven a bad join order. Scans
+ * that skipped blocks using zone maps report the fraction skipped, Scans
+ * of partitioned relations report the partitions pruned, and operators
+ * that a Limit stopped early report no q-error. The report ends with the
+ * most off-heap memory the plan's hash tables and buffers held at once.
+ *
+ * If a CardinalityFeedback store is supplied, it is used for the estimates
+ * and receives the output sizes observed during execution.
+ */
+public class ExplainAnalyzer {
+	/**
+	 * The number of operators highlighted in a report
+	 */
+	private static final int HIGHLIGHTED = 3;
+
+	private Storage storage;
+	private CardinalityFeedback feedback;
+	private Executor executor;
+	private List<Operator> operators;
+	private List<Integer> depths;
+	private Set<Operator> stopped;
+
+	/**
+	 * Create a new analyzer over the given storage
+	 * @param storage Stored data for the named relations
+	 */
+	public ExplainAnalyzer(Storage storage) {
+		this(storage, null);
+	}
+
+	/**
+	 * Create a new analyzer that records observed output sizes
+	 * @param storage Stored data for the named relations
+	 * @param feedback Observed output sizes
+	 */
+	public ExplainAnalyzer(Storage storage, CardinalityFeedback feedback) {
+		this.storage = storage;
+		this.feedback = feedback;
+	}
+
+	/**
+	 * Estimate and execute a plan, and render the report.
+	 * @param plan Query plan
+	 * @return Report, one line per operator followed by a summary
+	 */
+	public String explain(Operator plan) {
+		plan.accept(new Estimator(this.feedback));
+
+		this.executor = new Executor(this.storage);
+		this.executor.enableProfiling();
+		this.executor.execute(plan);
+
+		if (this.feedback != null) {
+			this.feedback.observe(plan, this.executor);
+		}
+
+		this.operators = new ArrayList<Operator>();
+		this.depths = new ArrayList<Integer>();
+		this.stopped = Collections.newSetFromMap(new IdentityHashMap<Operator, Boolean>());
+		collect(plan, 0, false);
+
+		List<Operator> worst = worstEstimates();
+		StringBuilder ret = new StringBuilder();
+
+		for (int i = 0; i < this.operators.size(); i++) {
+			Operator op = this.operators.get(i);
+			ProfilingIterator profile = this.executor.getProfile(op);
+
+			for (int j = 0; j < this.depths.get(i); j++) {
+				ret.append("  ");
+			}
+			ret.append(describe(op));
+			ret.append("  (est=").append(op.getOutput().getTupleCount());
+
+			if (profile.wasOpened()) {
+				ret.append(" act=").append(profile.getTupleCount());
+				ret.append(String.format(" time=%.3fms", profile.getElapsedNanos() / 1e6));
+				ret.append(" bytes=").append(profile.getByteCount());
+				if (op instanceof Scan && this.executor.getRuntimeFilterPassRatio(op) < 1) {
+					ret.append(String.format(" filter-pass=%.1f%%",
+							100 * this.executor.getRuntimeFilterPassRatio(op)));
+				}
+				if (op instanceof Scan && this.executor.getBlockSkipRatio(op) > 0) {
+					ret.append(String.format(" blocks-skipped=%.1f%%",
+							100 * this.executor.getBlockSkipRatio(op)));
+				}
+				if (op instanceof Scan && this.executor.getPartitionsPruned(op) > 0) {
+					ret.append(" partitions-pruned=").append(this.executor.getPartitionsPruned(op))
+							.append("/").append(this.executor.getPartitionCount(op));
+				}
+				ret.append(this.stopped.contains(op) ? " stopped early)" : String.format(" q-error=%.2f)", qError(op)));
+			} else {
+				ret.append(" never executed)");
+			}
+
+			if (worst.contains(op)) {
+				ret.append("  <<");
+			}
+			ret.append("\n");
+		}
+
+		ret.append("Largest q-errors:\n");
+		if (worst.isEmpty()) {
+			ret.append("  none\n");
+		}
+		for (Operator op : worst) {
+			ret.append(String.format("  %.2f  %s\n", qError(op), describe(op)));
+		}
+		ret.append("Peak off-heap bytes: ").append(this.executor.getPeakOffHeapBytes()).append("\n");
+
+		return ret.toString();
+	}
+
+	/**
+	 * Return the q-error of the estimate for an executed operator. The
+	 * actual size is taken as if no runtime filters had been applied below
+	 * the operator, as the Estimator does not model them.
+	 * @param op Executed operator
+	 * @return q-error, at least 1
+	 */
+	public double qError(Operator op) {
+		if (this.stopped.contains(op)) {
+			// a count cut short by a Limit says nothing of the estimate
+			return 1;
+		}
+		double est = Math.max(1, op.getOutput().getTupleCount());
+		double act = this.executor.getProfile(op).getTupleCount();
+		double passed = passed(op);
+		if (passed == 0) {
+			// the runtime filters dropped every input, so the estimate cannot be checked
+			return 1;
+		}
+		// the blocks and partitions a Scan skipped are counted, as the Estimator does not model them
+		act = act / passed + this.executor.getTuplesSkipped(op);
+		act = Math.max(1, act);
+		return Math.max(est / act, act / est);
+	}
+
+	/**
+	 * Return the fraction of the output of an operator that was passed by
+	 * runtime filters: those applied to the Scans below it by Joins above
+	 * it. The filters of a Join below the operator drop only tuples that
+	 * the Join would not have produced, and so are not counted.
+	 */
+	private double passed(Operator op) {
+		Set<BloomFilter> applied = Collections.newSetFromMap(new IdentityHashMap<BloomFilter, Boolean>());
+		collectFilters(op, applied);
+
+		double passed = 1;
+		for (BloomFilter filter : applied) {
+			passed *= filter.getPassRatio();
+		}
+		return passed;
+	}
+
+	private void collectFilters(Operator op, Set<BloomFilter> applied) {
+		if (op instanceof Scan) {
+			applied.addAll(this.executor.getRuntimeFilters(op));
+			return;
+		}
+		for (Operator input : op.inputs) {
+			collectFilters(input, applied);
+		}
+		if (op instanceof Join) {
+			applied.removeAll(this.executor.getRuntimeFilters(op));
+		}
+	}
+
+	private List<Operator> worstEstimates() {
+		List<Operator> worst = new ArrayList<Operator>();
+
+		for (Operator op : this.operators) {
+			if (this.executor.getProfile(op).wasOpened() && qError(op) > 1) {
+				worst.add(op);
+			}
+		}
+
+		worst.sort((a, b) -> Double.compare(qError(b), qError(a)));
+		return worst.subList(0, Math.min(HIGHLIGHTED, worst.size()));
+	}
+
+	/**
+	 * Collect the operators of a plan in depth-first order, noting those
+	 * that a Limit above them stopped pulling from before they were
+	 * exhausted
+	 */
+	private void collect(Operator op, int depth, boolean limited) {
+		this.operators.add(op);
+		this.depths.add(depth);
+
+		if (limited) {
+			this.stopped.add(op);
+		}
+		if (op instanceof Limit) {
+			limited = this.executor.getProfile(op).getTupleCount() >= ((Limit) op).getLimit();
+		} else if (op instanceof TopN || op instanceof Aggregate) {
+			limited = false;
+		}
+
+		for (Operator input : op.inputs) {
+			// the build side of a join, and the buffered side of a product, are read in full
+			collect(input, depth + 1, limited && input == op.inputs[0]);
+		}
+	}
+
+	/**
+	 * Return a one-line description of an operator, without its inputs
+	 * @param op Operator
+	 * @return Description
+	 */
+	static String describe(Operator op) {
+		if (op instanceof Scan) {
+			return "SCAN " + ((Scan) op).getRelation().toString();
+		} else if (op instanceof Select) {
+			return "SELECT [" + ((Select) op).getPredicate().toString() + "]";
+		} else if (op instanceof Join) {
+			return "JOIN [" + ((Join) op).renderPredicates() + "]";
+		} else if (op instanceof Product) {
+			return "TIMES";
+		} else if (op instanceof Limit) {
+			return "LIMIT [" + ((Limit) op).getLimit() + "]";
+		} else if (op instanceof Aggregate) {
+			return "AGGREGATE [" + ((Aggregate) op).renderAggregations() + "]";
+		} else if (op instanceof TopN) {
+			return "TOPN [" + ((TopN) op).renderOrder() + "]";
+		} else if (op instanceof Exchange) {
+			return "EXCHANGE [" + ((Exchange) op).renderKind() + "]";
+		} else if (op instanceof Project) {
+			String ret = "PROJECT [";
+			Iterator<Attribute> iter = ((Project) op).getAttributes().iterator();
+
+			ret += iter.next().getName();
+			while (iter.hasNext()) {
+				ret += "," + iter.next().getName();
+			}
+			return ret + "]";
+		}
+		return op.getClass().getSimpleName().toUpperCase();
+	}
+}
@@ -0,0 +1,65 @@
+package sjdb;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * This class represents a functional dependency declared on a named
+ * relation, such as projid -> dept: tuples that agree on the attributes
+ * of the determinant agree on the dependent attribute. The dependency
+ * holds on every subset of the tuples of the relation, so a dependent
+ * attribute adds nothing to the distinct values of a group of attributes
+ * that includes its determinant.
+ */
+public class FunctionalDependency {
+	private List<Attribute> determinant;
+	private Attribute dependent;
+
+	/**
+	 * Create a new functional dependency
+	 * @param determinant Attributes determining the dependent attribute
+	 * @param dependent Dependent attribute
+	 */
+	public FunctionalDependency(List<Attribute> determinant, Attribute dependent) {
+		this.determinant = new ArrayList<Attribute>(determinant);
+		this.dependent = dependent;
+	}
+
+	/**
+	 * Return the attributes of the determinant
+	 * @return Attributes
+	 */
+	public List<Attribute> getDeterminant() {
+		return this.determinant;
+	}
+
+	/**
+	 * Return the dependent attribute
+	 * @return Attribute
+	 */
+	public Attribute getDependent() {
+		return this.dependent;
+	}
+
+	/**
+	 * Return true if the given attributes include the determinant of this
+	 * dependency
+	 * @param attrs Attributes
+	 * @return
+	 */
+	public boolean determinedBy(Collection<Attribute> attrs) {
+		return attrs.containsAll(this.determinant);
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		List<String> names = new ArrayList<String>();
+		for (Attribute attr : this.determinant) {
+			names.add(attr.getName());
+		}
+		return String.join(",", names) + "->" + this.dependent.getName();
+	}
+}
@@ -0,0 +1,101 @@
+package sjdb;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * This class represents a group in the Memo: a set of logically equivalent
+ * expressions that all join the same set of leaf subplans. Once the group
+ * has been optimised, it also holds its winner, the cheapest operator tree
+ * that implements it, so that a subplan shared by many alternatives is
+ * costed only once.
+ */
+public class Group {
+	private BitSet leaves;
+	private List<GroupExpression> expressions;
+	private HashSet<GroupExpression> members;
+
+	/**
+	 * The cheapest implementation found, or null
+	 */
+	Operator winner;
+	/**
+	 * The cost of the winner
+	 */
+	double winnerCost = Double.POSITIVE_INFINITY;
+	/**
+	 * The largest cost bound under which no implementation was found
+	 */
+	double failedBound = 0;
+	/**
+	 * True once the transformation rules have been applied to every
+	 * expression in this group
+	 */
+	boolean explored;
+
+	/**
+	 * Create a new, empty group
+	 * @param leaves Indices of the leaf subplans joined by the group
+	 */
+	public Group(BitSet leaves) {
+		this.leaves = leaves;
+		this.expressions = new ArrayList<GroupExpression>();
+		this.members = new HashSet<GroupExpression>();
+	}
+
+	/**
+	 * Return the indices of the leaf subplans joined by this group
+	 * @return Leaf indices
+	 */
+	public BitSet getLeaves() {
+		return this.leaves;
+	}
+
+	/**
+	 * Return the expressions in this group
+	 * @return Equivalent expressions
+	 */
+	public List<GroupExpression> getExpressions() {
+		return this.expressions;
+	}
+
+	/**
+	 * Add an expression to this group, unless it is already present
+	 * @param expr Expression
+	 * @return True if the expression was added
+	 */
+	boolean add(GroupExpression expr) {
+		if (!this.members.add(expr)) {
+			return false;
+		}
+		this.expressions.add(expr);
+		this.explored = false;
+		return true;
+	}
+
+	/**
+	 * Return the cheapest implementation of this group, with its output
+	 * estimated, or null if the group has not been optimised
+	 * @return Winning operator tree
+	 */
+	public Operator getWinner() {
+		return this.winner;
+	}
+
+	/**
+	 * Return the cost of the winner
+	 * @return Cost under the CostModel
+	 */
+	public double getWinnerCost() {
+		return this.winnerCost;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		return "G" + this.leaves;
+	}
+}
@@ -0,0 +1,92 @@
+package sjdb;
+
+import java.util.HashSet;
+
+/**
+ * This class represents an expression in a Memo group. An expression is
+ * either a leaf, a fixed subplan such as a filtered Scan, or a join of
+ * two child groups; the predicates of a join are not stored but derived
+ * from the groups it joins, so that every way of forming a group yields
+ * the same result.
+ */
+public class GroupExpression {
+	private Operator leaf;
+	private Group left;
+	private Group right;
+	private HashSet<TransformationRule> applied;
+
+	/**
+	 * Create a leaf expression
+	 * @param leaf Fixed subplan, with its output estimated
+	 */
+	public GroupExpression(Operator leaf) {
+		this.leaf = leaf;
+		this.applied = new HashSet<TransformationRule>();
+	}
+
+	/**
+	 * Create an expression joining two groups
+	 * @param left Left child group
+	 * @param right Right child group
+	 */
+	public GroupExpression(Group left, Group right) {
+		this.left = left;
+		this.right = right;
+		this.applied = new HashSet<TransformationRule>();
+	}
+
+	/**
+	 * Return true if this expression is a leaf
+	 * @return
+	 */
+	public boolean isLeaf() {
+		return this.leaf != null;
+	}
+
+	public Operator getLeaf() {
+		return this.leaf;
+	}
+
+	public Group getLeft() {
+		return this.left;
+	}
+
+	public Group getRight() {
+		return this.right;
+	}
+
+	/**
+	 * Record that a rule has been applied to this expression, returning
+	 * false if it already had been
+	 * @param rule Transformation rule
+	 * @return
+	 */
+	boolean markApplied(TransformationRule rule) {
+		return this.applied.add(rule);
+	}
+
+	@Override
+	public int hashCode() {
+		if (isLeaf()) {
+			return System.identityHashCode(this.leaf);
+		}
+		return 31 * System.identityHashCode(this.left) + System.identityHashCode(this.right);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof GroupExpression)) {
+			return false;
+		}
+		GroupExpression rhs = (GroupExpression) obj;
+
+		return this.leaf == rhs.leaf && this.left == rhs.left && this.right == rhs.right;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		return isLeaf() ? this.leaf.toString() : "JOIN(" + this.left + "," + this.right + ")";
+	}
+}
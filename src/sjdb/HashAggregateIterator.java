@@ -0,0 +1,513 @@
+package sjdb;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * This class executes an Aggregate operator by hashing: it reads its
+ * whole input on open, assigning each tuple to a group and updating the
+ * running aggregates of that group, and then produces one tuple per group.
+ *
+ * Where the tuples are grouped by one or two dictionary-encoded
+ * attributes, the group of a tuple is found by its codes, packed into a
+ * long and looked up in a HashIndex, so no key objects are created per
+ * tuple. Otherwise, or for a value missing from the dictionary, groups
+ * are found by the hash of their values in a second HashIndex, and their
+ * values compared.
+ *
+ * The state of the aggregate is held off the heap, in the MemoryArena of
+ * the query, until the aggregate is closed: the values of the grouping
+ * attributes of each group in a TupleBuffer, and its running aggregates
+ * in a buffer of fixed-width records, one per group. The record of a
+ * MIN or MAX refers to its current value in a second TupleBuffer, to
+ * which a value is added only when it replaces the extreme of a group,
+ * and which is compacted once most of its values have been replaced.
+ *
+ * Once the arena holds more than its budget, the aggregate creates no
+ * more groups: the tuples of groups it already holds are still
+ * aggregated, but any other tuple is written to one of a few partitions,
+ * by the hash of its grouping values, which spill to disk in order as
+ * they grow. Once the groups held have been produced, each partition is
+ * aggregated in the same way in turn, with its own groups. Every pass
+ * creates at least one group, so every tuple is aggregated in the end.
+ */
+public class HashAggregateIterator implements TupleIterator {
+	private static final int INITIAL_CAPACITY = 64;
+
+	/**
+	 * The number of partitions into which a pass spills the tuples of the
+	 * groups it does not hold
+	 */
+	private static final int PARTITIONS = 8;
+
+	/**
+	 * The size of a page of the buffers of a pass and of its partitions,
+	 * small so that a pass holds little beyond its groups
+	 */
+	private static final int PARTITION_PAGE_SIZE = 1 << 12;
+
+	/**
+	 * The bytes of the running state of one aggregation of one group: a
+	 * sum or count, a weight, and the position of an extreme value
+	 */
+	private static final int SLOT_SIZE = 24;
+
+	private TupleIterator input;
+	private Aggregate op;
+	private List<Attribute> attributes;
+	private int[] groupPositions;
+	private int[] argumentPositions;
+	private int[] weightPositions;
+	private MemoryArena arena;
+
+	private Dictionary[] dictionaries;
+	private HashIndex packed;
+	private HashIndex hashed;
+
+	private TupleBuffer groups;
+	private TupleBuffer extremes;
+	private ByteBuffer state;
+	private int capacity;
+	private boolean keyed;
+
+	private TupleBuffer[] partitions;
+	private Deque<TupleBuffer> pending;
+	private Deque<Integer> depths;
+	private int depth;
+
+	private int position;
+
+	/**
+	 * Create a new aggregate over an input iterator, holding its state in
+	 * a memory arena of its own
+	 * @param input Child iterator
+	 * @param op Aggregate operator giving the groups and aggregations
+	 */
+	public HashAggregateIterator(TupleIterator input, Aggregate op) {
+		this(input, op, new MemoryArena());
+	}
+
+	/**
+	 * Create a new aggregate over an input iterator
+	 * @param input Child iterator
+	 * @param op Aggregate operator giving the groups and aggregations
+	 * @param arena Memory arena of the query
+	 */
+	public HashAggregateIterator(TupleIterator input, Aggregate op, MemoryArena arena) {
+		this.input = input;
+		this.op = op;
+		this.arena = arena;
+
+		List<Attribute> attrs = input.getAttributes();
+		List<Aggregation> aggs = op.getAggregations();
+
+		this.attributes = new ArrayList<Attribute>(op.getGroupBy());
+		this.groupPositions = new int[op.getGroupBy().size()];
+		for (int i = 0; i < this.groupPositions.length; i++) {
+			this.groupPositions[i] = SelectIterator.indexOf(attrs, op.getGroupBy().get(i));
+		}
+
+		this.argumentPositions = new int[aggs.size()];
+		this.weightPositions = new int[aggs.size()];
+		for (int i = 0; i < aggs.size(); i++) {
+			Aggregation agg = aggs.get(i);
+			this.argumentPositions[i] = (agg.getArgument() == null) ? -1 : SelectIterator.indexOf(attrs, agg.getArgument());
+			this.weightPositions[i] = (agg.getWeight() == null) ? -1 : SelectIterator.indexOf(attrs, agg.getWeight());
+			this.attributes.add(agg.getOutput());
+		}
+	}
+
+	public void open() {
+		this.pending = new ArrayDeque<TupleBuffer>();
+		this.depths = new ArrayDeque<Integer>();
+		this.depth = 0;
+		startPass();
+
+		this.input.open();
+		Tuple tuple;
+		while ((tuple = this.input.next()) != null) {
+			add(tuple);
+		}
+		this.input.close();
+		endPass();
+
+		// with no grouping attributes there is one group, even over no tuples
+		if (this.groupPositions.length == 0 && this.groups.size() == 0) {
+			newGroup(new Tuple(new String[0]));
+		}
+
+		this.position = 0;
+	}
+
+	public Tuple next() {
+		while (this.position >= this.groups.size()) {
+			if (this.pending.isEmpty()) {
+				return null;
+			}
+
+			TupleBuffer spilled = this.pending.poll();
+			this.depth = this.depths.poll();
+			releasePass();
+			startPass();
+			for (int i = 0; i < spilled.size(); i++) {
+				add(spilled.get(i));
+			}
+			spilled.release();
+			endPass();
+			this.position = 0;
+		}
+
+		int group = this.position++;
+		List<Aggregation> aggs = this.op.getAggregations();
+		String[] results = new String[aggs.size()];
+
+		for (int i = 0; i < results.length; i++) {
+			results[i] = result(aggs.get(i), i, group);
+		}
+		return this.groups.get(group).concat(new Tuple(results));
+	}
+
+	public void close() {
+		releasePass();
+		if (this.partitions != null) {
+			for (TupleBuffer partition : this.partitions) {
+				partition.release();
+			}
+		}
+		if (this.pending != null) {
+			for (TupleBuffer spilled : this.pending) {
+				spilled.release();
+			}
+			this.pending.clear();
+		}
+		this.partitions = null;
+	}
+
+	public List<Attribute> getAttributes() {
+		return this.attributes;
+	}
+
+	/**
+	 * Create the empty state of a pass over the input or a partition
+	 */
+	private void startPass() {
+		this.dictionaries = null;
+		this.keyed = false;
+		this.packed = new HashIndex(this.arena, INITIAL_CAPACITY);
+		this.hashed = new HashIndex(this.arena, 0);
+		this.groups = new TupleBuffer(this.arena, PARTITION_PAGE_SIZE).pin();
+		this.extremes = new TupleBuffer(this.arena, PARTITION_PAGE_SIZE).pin();
+		this.capacity = INITIAL_CAPACITY;
+		this.state = this.arena.allocate(this.capacity * recordSize());
+	}
+
+	/**
+	 * Queue the partitions spilled by a pass to be aggregated in turn
+	 */
+	private void endPass() {
+		if (this.partitions == null) {
+			return;
+		}
+		for (TupleBuffer partition : this.partitions) {
+			if (partition.size() > 0) {
+				// the last partition spilled is aggregated first, so that few are held at once
+				this.pending.push(partition);
+				this.depths.push(this.depth + 1);
+			} else {
+				partition.release();
+			}
+		}
+		this.partitions = null;
+	}
+
+	private void releasePass() {
+		if (this.groups != null) {
+			this.packed.release();
+			this.hashed.release();
+			this.groups.release();
+			this.extremes.release();
+			this.arena.release(this.state);
+		}
+		this.packed = null;
+		this.hashed = null;
+		this.groups = null;
+		this.extremes = null;
+		this.state = null;
+	}
+
+	/**
+	 * Aggregate a tuple into its group, or spill it to its partition if the
+	 * group is not held and no more may be created
+	 */
+	private void add(Tuple tuple) {
+		if (!this.keyed) {
+			this.dictionaries = primitiveKeys(tuple);
+			this.keyed = true;
+		}
+
+		int group = group(tuple);
+		if (group >= 0) {
+			accumulate(group, tuple);
+			return;
+		}
+
+		if (this.partitions == null) {
+			this.partitions = new TupleBuffer[PARTITIONS];
+			for (int i = 0; i < PARTITIONS; i++) {
+				this.partitions[i] = new TupleBuffer(this.arena, PARTITION_PAGE_SIZE);
+			}
+		}
+		this.partitions[partition(tuple)].add(tuple);
+	}
+
+	/**
+	 * Return the partition of a tuple, by the hash of its grouping values,
+	 * taking different bits of the hash at each depth of partitioning
+	 */
+	private int partition(Tuple tuple) {
+		List<String> values = new ArrayList<String>(this.groupPositions.length);
+		for (int p : this.groupPositions) {
+			values.add(tuple.get(p));
+		}
+		long hash = values.hashCode() * 0x9e3779b97f4a7c15L;
+		return (int) (Long.rotateLeft(hash, 3 * this.depth) >>> 61);
+	}
+
+	/**
+	 * Return true if a group may be created: the first of a pass, or any
+	 * while the arena holds no more than its budget
+	 */
+	private boolean mayCreate() {
+		return this.groups.size() == 0 || this.arena.hasRoom(0);
+	}
+
+	/**
+	 * Return the dictionaries of the grouping attributes if the groups can
+	 * be found by packing their codes into a long, or null otherwise
+	 */
+	private Dictionary[] primitiveKeys(Tuple tuple) {
+		if (this.groupPositions.length == 0 || this.groupPositions.length > 2) {
+			return null;
+		}
+
+		Dictionary[] dicts = new Dictionary[this.groupPositions.length];
+		for (int i = 0; i < dicts.length; i++) {
+			dicts[i] = tuple.getDictionary(this.groupPositions[i]);
+			if (dicts[i] == null) {
+				return null;
+			}
+		}
+		return dicts;
+	}
+
+	/**
+	 * Return the group of a tuple, creating it if necessary and allowed, or
+	 * -1 if it is not held
+	 */
+	private int group(Tuple tuple) {
+		if (this.groupPositions.length == 0) {
+			return (this.groups.size() == 0) ? newGroup(new Tuple(new String[0])) : 0;
+		}
+
+		if (this.dictionaries != null) {
+			long key = 0;
+			boolean coded = true;
+
+			for (int i = 0; i < this.groupPositions.length && coded; i++) {
+				int p = this.groupPositions[i];
+				int code = (tuple.getDictionary(p) == this.dictionaries[i]) ?
+						tuple.getCode(p) : this.dictionaries[i].lookup(tuple.get(p));
+				coded = code >= 0;
+				key = (key << 32) | (code & 0xffffffffL);
+			}
+			if (coded) {
+				int slot = this.packed.first(key);
+				if (slot >= 0) {
+					return this.packed.get(slot);
+				}
+				if (!mayCreate()) {
+					return -1;
+				}
+				int group = newGroup(tuple.project(this.groupPositions, false));
+				this.packed.put(key, group);
+				return group;
+			}
+		}
+
+		List<String> values = new ArrayList<String>(this.groupPositions.length);
+		for (int p : this.groupPositions) {
+			values.add(tuple.get(p));
+		}
+
+		long hash = values.hashCode();
+		for (int slot = this.hashed.first(hash); slot >= 0; slot = this.hashed.next(hash, slot)) {
+			int group = this.hashed.get(slot);
+			if (sameValues(this.groups.get(group), values)) {
+				return group;
+			}
+		}
+
+		if (!mayCreate()) {
+			return -1;
+		}
+		int group = newGroup(tuple.project(this.groupPositions, false));
+		this.hashed.put(hash, group);
+		return group;
+	}
+
+	private static boolean sameValues(Tuple group, List<String> values) {
+		for (int i = 0; i < values.size(); i++) {
+			String value = group.get(i);
+			if (value == null ? values.get(i) != null : !value.equals(values.get(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Add a group, holding the values of its grouping attributes, and make
+	 * room for its running aggregates
+	 */
+	private int newGroup(Tuple values) {
+		int group = this.groups.add(values);
+
+		if (group == this.capacity) {
+			ByteBuffer grown = this.arena.allocate(2 * this.capacity * recordSize());
+			this.state.clear();
+			grown.put(this.state);
+			this.arena.release(this.state);
+			this.state = grown;
+			this.capacity *= 2;
+		}
+		return group;
+	}
+
+	/**
+	 * Return the size of the record of the running aggregates of a group
+	 */
+	private int recordSize() {
+		return Math.max(1, this.op.getAggregations().size()) * SLOT_SIZE;
+	}
+
+	/**
+	 * Return the offset of the running state of an aggregation of a group
+	 */
+	private int slot(int i, int group) {
+		return group * recordSize() + i * SLOT_SIZE;
+	}
+
+	private double getSum(int i, int group) {
+		return this.state.getDouble(slot(i, group));
+	}
+
+	private double getWeight(int i, int group) {
+		return this.state.getDouble(slot(i, group) + 8);
+	}
+
+	/**
+	 * Return the extreme value of an aggregation of a group, or null if
+	 * it has none
+	 */
+	private String getExtreme(int i, int group) {
+		// positions are stored plus one, so a zeroed record has none
+		long extreme = this.state.getLong(slot(i, group) + 16);
+		return (extreme == 0) ? null : this.extremes.get((int) extreme - 1).get(0);
+	}
+
+	private void setExtreme(int i, int group, String value) {
+		int extreme = this.extremes.add(new Tuple(new String[] { value }));
+		this.state.putLong(slot(i, group) + 16, extreme + 1);
+
+		if (this.extremes.size() > 2 * this.groups.size() * this.op.getAggregations().size() + INITIAL_CAPACITY) {
+			compactExtremes();
+		}
+	}
+
+	/**
+	 * Copy the current extremes to a new buffer, dropping those replaced
+	 */
+	private void compactExtremes() {
+		TupleBuffer compacted = new TupleBuffer(this.arena, PARTITION_PAGE_SIZE).pin();
+
+		for (int group = 0; group < this.groups.size(); group++) {
+			for (int i = 0; i < this.op.getAggregations().size(); i++) {
+				int slot = slot(i, group) + 16;
+				long extreme = this.state.getLong(slot);
+				if (extreme != 0) {
+					this.state.putLong(slot, compacted.add(this.extremes.get((int) extreme - 1)) + 1);
+				}
+			}
+		}
+		this.extremes.release();
+		this.extremes = compacted;
+	}
+
+	private void accumulate(int group, Tuple tuple) {
+		List<Aggregation> aggs = this.op.getAggregations();
+
+		for (int i = 0; i < aggs.size(); i++) {
+			double weight = 1;
+			if (this.weightPositions[i] >= 0) {
+				Double w = Predicate.toNumber(tuple.get(this.weightPositions[i]));
+				weight = (w == null) ? 0 : w;
+			}
+			String value = (this.argumentPositions[i] < 0) ? null : tuple.get(this.argumentPositions[i]);
+
+			int slot = slot(i, group);
+			String extreme;
+
+			switch (aggs.get(i).getFunction()) {
+			case COUNT:
+				this.state.putDouble(slot, getSum(i, group) + weight);
+				break;
+			case SUM:
+			case AVG:
+				Double number = Predicate.toNumber(value);
+				if (number != null) {
+					this.state.putDouble(slot, getSum(i, group) + number);
+					this.state.putDouble(slot + 8, getWeight(i, group) + weight);
+				}
+				break;
+			case MIN:
+				extreme = getExtreme(i, group);
+				if (extreme == null || Predicate.compare(value, extreme) < 0) {
+					setExtreme(i, group, value);
+				}
+				break;
+			case MAX:
+				extreme = getExtreme(i, group);
+				if (extreme == null || Predicate.compare(value, extreme) > 0) {
+					setExtreme(i, group, value);
+				}
+				break;
+			}
+		}
+	}
+
+	private String result(Aggregation agg, int i, int group) {
+		switch (agg.getFunction()) {
+		case COUNT:
+			return format(getSum(i, group));
+		case SUM:
+			return (getWeight(i, group) == 0) ? null : format(getSum(i, group));
+		case AVG:
+			return (getWeight(i, group) == 0) ? null : format(getSum(i, group) / getWeight(i, group));
+		default:
+			return getExtreme(i, group);
+		}
+	}
+
+	/**
+	 * Format a number, without a fractional part if it is whole
+	 */
+	static String format(double number) {
+		if (number == Math.rint(number) && Math.abs(number) < 1e15) {
+			return Long.toString((long) number);
+		}
+		return Double.toString(number);
+	}
+}
@@ -0,0 +1,179 @@
+package sjdb;
+
+import java.nio.ByteBuffer;
+
+/**
+ * This class is an open-addressing hash table from long keys to int
+ * values, held off the heap in buffers from a MemoryArena. A key may be
+ * added more than once; the values of a key are found by stepping through
+ * its slots. The table is kept at most half full, doubling as it grows,
+ * up to 2^27 slots.
+ *
+ * The hash joins and aggregates key it by the hash of a join or grouping
+ * key, or by codes packed into a long, with the position of a tuple in a
+ * TupleBuffer as the value.
+ */
+public class HashIndex {
+	private static final int MIN_CAPACITY = 16;
+
+	/**
+	 * The largest number of slots, whose keys fit in one buffer
+	 */
+	private static final int MAX_CAPACITY = Integer.highestOneBit(Integer.MAX_VALUE / 8);
+
+	private MemoryArena arena;
+	private ByteBuffer keys;
+	private ByteBuffer values;
+	private int capacity;
+	private int size;
+
+	/**
+	 * Create a new, empty index
+	 * @param arena Arena of the table
+	 * @param expected Number of entries expected
+	 * @throws IllegalArgumentException if more entries are expected than
+	 * an index may hold
+	 */
+	public HashIndex(MemoryArena arena, int expected) {
+		if (capacity(expected) > MAX_CAPACITY) {
+			throw new IllegalArgumentException("Hash index cannot hold " + expected + " entries, only "
+					+ MAX_CAPACITY / 2);
+		}
+		this.arena = arena;
+		this.capacity = (int) capacity(expected);
+		allocate();
+	}
+
+	/**
+	 * Return the number of bytes an index of a number of entries takes
+	 * @param expected Number of entries
+	 * @return Byte count
+	 */
+	public static long bytes(long expected) {
+		return 12L * capacity(expected);
+	}
+
+	private static long capacity(long expected) {
+		long capacity = MIN_CAPACITY;
+		while (capacity < 2 * expected) {
+			capacity *= 2;
+		}
+		return capacity;
+	}
+
+	/**
+	 * Add an entry
+	 * @param key Key
+	 * @param value Value, at least 0
+	 * @throws IllegalStateException if the index holds as many entries as
+	 * it may
+	 */
+	public void put(long key, int value) {
+		if (2 * (this.size + 1) > this.capacity) {
+			if (this.capacity == MAX_CAPACITY) {
+				throw new IllegalStateException("Hash index is full at " + this.size + " entries");
+			}
+			grow();
+		}
+		insert(key, value);
+		this.size++;
+	}
+
+	/**
+	 * Return the first slot holding a key, or -1 if there is none
+	 * @param key Key
+	 * @return Slot
+	 */
+	public int first(long key) {
+		return find(key, mix(key) & (this.capacity - 1));
+	}
+
+	/**
+	 * Return the next slot after the given one holding a key, or -1 if
+	 * there is none
+	 * @param key Key
+	 * @param slot Slot holding the key
+	 * @return Slot
+	 */
+	public int next(long key, int slot) {
+		return find(key, (slot + 1) & (this.capacity - 1));
+	}
+
+	/**
+	 * Return the value in a slot
+	 * @param slot Slot returned by first() or next()
+	 * @return Value
+	 */
+	public int get(int slot) {
+		return this.values.getInt(4 * slot) - 1;
+	}
+
+	/**
+	 * Return the number of entries
+	 * @return Entry count
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * Return the table to its arena; the index may not be used again.
+	 */
+	public void release() {
+		this.arena.release(this.keys);
+		this.arena.release(this.values);
+		this.keys = null;
+		this.values = null;
+	}
+
+	private int find(long key, int slot) {
+		int mask = this.capacity - 1;
+
+		// values are stored plus one, so a zeroed slot is empty
+		while (this.values.getInt(4 * slot) != 0) {
+			if (this.keys.getLong(8 * slot) == key) {
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+	private void insert(long key, int value) {
+		int mask = this.capacity - 1;
+		int slot = mix(key) & mask;
+
+		while (this.values.getInt(4 * slot) != 0) {
+			slot = (slot + 1) & mask;
+		}
+		this.keys.putLong(8 * slot, key);
+		this.values.putInt(4 * slot, value + 1);
+	}
+
+	private void allocate() {
+		this.keys = this.arena.allocate(Math.toIntExact(8L * this.capacity));
+		this.values = this.arena.allocate(Math.toIntExact(4L * this.capacity));
+	}
+
+	private void grow() {
+		ByteBuffer oldKeys = this.keys;
+		ByteBuffer oldValues = this.values;
+		int oldCapacity = this.capacity;
+
+		this.capacity *= 2;
+		allocate();
+		for (int slot = 0; slot < oldCapacity; slot++) {
+			int value = oldValues.getInt(4 * slot);
+			if (value != 0) {
+				insert(oldKeys.getLong(8 * slot), value - 1);
+			}
+		}
+		this.arena.release(oldKeys);
+		this.arena.release(oldValues);
+	}
+
+	private static int mix(long key) {
+		key *= 0x9e3779b97f4a7c15L;
+		return (int) (key ^ (key >>> 32));
+	}
+}
@@ -0,0 +1,384 @@
+package sjdb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * This class executes an equi-join as a hash join. The right input is the
+ * build side: it is read in full into a hash table on its join key, which
+ * is then probed with each tuple of the left input. The join key may be
+ * composite, in which case all of its attributes are matched in a single
+ * pass.
+ *
+ * The build side is held off the heap, in a TupleBuffer, and the hash
+ * table is a HashIndex from the hash of each build tuple's key to its
+ * position in the buffer, both in the MemoryArena of the query; they are
+ * released when the join is closed. A probe reads back the build tuples
+ * whose key has the same hash, and keeps those whose key is equal.
+ *
+ * If the build side outgrows the budget of the arena, spilling to disk,
+ * or its hash table would, the join falls back to a grace hash join: the
+ * build side is read back in order and partitioned by the hash of its
+ * key, as many ways as needed for a partition to fit in the budget, the
+ * whole probe side is partitioned likewise, and each pair of partitions
+ * is then joined in turn, with the build partition loaded whole. Every
+ * spilled partition is written and read in order, and the tuples are
+ * produced partition by partition rather than in the order of the left
+ * input.
+ *
+ * Where every build tuple holds a key attribute encoded in one dictionary,
+ * that attribute is hashed by code. Probe values in the same dictionary
+ * are then matched by code too; others are looked up in the dictionary
+ * first, so values absent from it are rejected without hashing strings.
+ *
+ * Once the hash table is built, and before the left input is opened, the
+ * join fills a Bloom filter with the values of each attribute of its key
+ * on the build side; the Executor pushes these filters down to the Scans
+ * that produce the key on the probe side.
+ */
+public class HashJoinIterator implements TupleIterator {
+	/**
+	 * The greatest number of partitions of a grace hash join
+	 */
+	private static final int MAX_PARTITIONS = 64;
+
+	/**
+	 * The size of a page of a partition, small as every partition has
+	 * a page in memory
+	 */
+	private static final int PARTITION_PAGE_SIZE = 1 << 12;
+
+	private TupleIterator left;
+	private TupleIterator right;
+	private List<Attribute> leftKey;
+	private List<Attribute> rightKey;
+	private List<Attribute> attributes;
+	private MemoryArena arena;
+	private TupleBuffer build;
+	private HashIndex table;
+	private int[] buildPositions;
+	private int[] probePositions;
+	private Tuple current;
+	private List<Tuple> matches;
+	private int position;
+	private List<BloomFilter> filters;
+	private Dictionary[] dictionaries;
+	private TupleBuffer[] buildPartitions;
+	private TupleBuffer[] probePartitions;
+	private int partition;
+	private int probed;
+
+	/**
+	 * Create a new hash join of two input iterators
+	 * @param left Left (probe) child iterator
+	 * @param right Right (build) child iterator
+	 * @param leftAttr Join attribute on the left input
+	 * @param rightAttr Join attribute on the right input
+	 */
+	public HashJoinIterator(TupleIterator left, TupleIterator right,
+			Attribute leftAttr, Attribute rightAttr) {
+		this(left, right, Collections.singletonList(leftAttr), Collections.singletonList(rightAttr));
+	}
+
+	/**
+	 * Create a new hash join of two input iterators on a composite key,
+	 * holding its build side in a memory arena of its own
+	 * @param left Left (probe) child iterator
+	 * @param right Right (build) child iterator
+	 * @param leftKey Join key on the left input
+	 * @param rightKey Join key on the right input, matched positionally
+	 */
+	public HashJoinIterator(TupleIterator left, TupleIterator right,
+			List<Attribute> leftKey, List<Attribute> rightKey) {
+		this(left, right, leftKey, rightKey, new MemoryArena());
+	}
+
+	/**
+	 * Create a new hash join of two input iterators on a composite key
+	 * @param left Left (probe) child iterator
+	 * @param right Right (build) child iterator
+	 * @param leftKey Join key on the left input
+	 * @param rightKey Join key on the right input, matched positionally
+	 * @param arena Memory arena of the query
+	 */
+	public HashJoinIterator(TupleIterator left, TupleIterator right,
+			List<Attribute> leftKey, List<Attribute> rightKey, MemoryArena arena) {
+		this.left = left;
+		this.right = right;
+		this.leftKey = leftKey;
+		this.rightKey = rightKey;
+		this.arena = arena;
+		this.matches = new ArrayList<Tuple>();
+		this.attributes = new ArrayList<Attribute>(left.getAttributes());
+		this.attributes.addAll(right.getAttributes());
+		this.filters = new ArrayList<BloomFilter>();
+		for (int i = 0; i < rightKey.size(); i++) {
+			this.filters.add(new BloomFilter());
+		}
+	}
+
+	/**
+	 * Return the runtime filters on the values of the build side of the
+	 * join, one per attribute of the left join key, in key order
+	 * @return Filters, built when the join is opened
+	 */
+	public List<BloomFilter> getFilters() {
+		return this.filters;
+	}
+
+	public void open() {
+		this.buildPositions = positions(this.right.getAttributes(), this.rightKey);
+		this.probePositions = positions(this.left.getAttributes(), this.leftKey);
+		this.build = new TupleBuffer(this.arena);
+		this.dictionaries = null;
+
+		this.right.open();
+		Tuple tuple;
+		while ((tuple = this.right.next()) != null) {
+			shareDictionaries(tuple);
+			this.build.add(tuple);
+		}
+		this.right.close();
+		if (this.dictionaries == null) {
+			this.dictionaries = new Dictionary[this.buildPositions.length];
+		}
+
+		for (BloomFilter filter : this.filters) {
+			filter.reset(this.build.size());
+		}
+		boolean grace = this.build.isSpilled() || !this.arena.hasRoom((int) Math.min(Integer.MAX_VALUE,
+				HashIndex.bytes(this.build.size())));
+
+		if (grace) {
+			int count = partitionCount(this.build.getByteCount() + HashIndex.bytes(this.build.size()));
+			this.buildPartitions = newPartitions(count);
+			this.probePartitions = newPartitions(count);
+		} else {
+			this.buildPartitions = null;
+			this.probePartitions = null;
+			this.table = new HashIndex(this.arena, this.build.size());
+		}
+
+		for (int i = 0; i < this.build.size(); i++) {
+			Tuple t = this.build.get(i);
+			long hash = key(t, this.buildPositions).hashCode();
+
+			if (grace) {
+				this.buildPartitions[partition(hash)].add(t);
+			} else {
+				this.table.put(hash, i);
+			}
+			for (int j = 0; j < this.buildPositions.length; j++) {
+				this.filters.get(j).add(t.get(this.buildPositions[j]));
+			}
+		}
+
+		this.left.open();
+		this.matches.clear();
+		this.position = 0;
+
+		if (grace) {
+			this.build.release();
+			this.build = null;
+
+			// probe tuples whose key cannot match are dropped here
+			while ((tuple = this.left.next()) != null) {
+				Object key = key(tuple, this.probePositions);
+				if (key != null) {
+					this.probePartitions[partition(key.hashCode())].add(tuple);
+				}
+			}
+			this.partition = -1;
+			this.probed = 0;
+		}
+	}
+
+	public Tuple next() {
+		while (this.position == this.matches.size()) {
+			this.current = nextProbe();
+
+			if (this.current == null) {
+				return null;
+			}
+
+			this.matches.clear();
+			this.position = 0;
+
+			Object key = key(this.current, this.probePositions);
+			if (key != null) {
+				long hash = key.hashCode();
+				for (int slot = this.table.first(hash); slot >= 0; slot = this.table.next(hash, slot)) {
+					Tuple candidate = this.build.get(this.table.get(slot));
+					if (key.equals(key(candidate, this.buildPositions))) {
+						this.matches.add(candidate);
+					}
+				}
+			}
+		}
+
+		return this.current.concat(this.matches.get(this.position++));
+	}
+
+	public void close() {
+		this.left.close();
+		releasePartition();
+		if (this.buildPartitions != null) {
+			for (int i = 0; i < this.buildPartitions.length; i++) {
+				this.buildPartitions[i].release();
+				this.probePartitions[i].release();
+			}
+		}
+		this.buildPartitions = null;
+		this.probePartitions = null;
+		this.matches.clear();
+	}
+
+	public List<Attribute> getAttributes() {
+		return this.attributes;
+	}
+
+	/**
+	 * Return the next probe tuple: from the left input, or from each probe
+	 * partition in turn, with its build partition loaded and indexed
+	 */
+	private Tuple nextProbe() {
+		if (this.probePartitions == null) {
+			return this.left.next();
+		}
+
+		while (this.partition < this.probePartitions.length) {
+			if (this.partition >= 0 && this.probed < this.probePartitions[this.partition].size()) {
+				return this.probePartitions[this.partition].get(this.probed++);
+			}
+
+			releasePartition();
+			if (this.partition >= 0) {
+				this.probePartitions[this.partition].release();
+			}
+			if (++this.partition < this.probePartitions.length) {
+				loadPartition();
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Load the build partition of the current partition, unless there is
+	 * nothing to probe it with, and index it
+	 */
+	private void loadPartition() {
+		this.probed = 0;
+		if (this.probePartitions[this.partition].size() == 0) {
+			return;
+		}
+
+		this.build = this.buildPartitions[this.partition];
+		this.build.load();
+		this.table = new HashIndex(this.arena, this.build.size());
+		for (int i = 0; i < this.build.size(); i++) {
+			this.table.put(key(this.build.get(i), this.buildPositions).hashCode(), i);
+		}
+	}
+
+	/**
+	 * Release the build side, or build partition, and its hash table
+	 */
+	private void releasePartition() {
+		if (this.build != null) {
+			this.build.release();
+			this.table.release();
+		}
+		this.build = null;
+		this.table = null;
+	}
+
+	/**
+	 * Return the number of partitions into which to divide a number of
+	 * bytes, for each to hold about half the budget of the arena
+	 */
+	private int partitionCount(long bytes) {
+		long budget = Math.max(this.arena.getBudget(), TupleBuffer.PAGE_SIZE);
+		int count = 2;
+
+		while (count < MAX_PARTITIONS && bytes / count > budget / 2) {
+			count *= 2;
+		}
+		return count;
+	}
+
+	private TupleBuffer[] newPartitions(int count) {
+		TupleBuffer[] partitions = new TupleBuffer[count];
+		for (int i = 0; i < count; i++) {
+			partitions[i] = new TupleBuffer(this.arena, PARTITION_PAGE_SIZE);
+		}
+		return partitions;
+	}
+
+	/**
+	 * Return the partition of a key hash, from bits of its mix that the
+	 * HashIndex of the partition does not use alone
+	 */
+	private int partition(long hash) {
+		return (int) ((hash * 0x9e3779b97f4a7c15L) >>> 40) & (this.buildPartitions.length - 1);
+	}
+
+	private static int[] positions(List<Attribute> attrs, List<Attribute> key) {
+		int[] positions = new int[key.size()];
+		for (int i = 0; i < positions.length; i++) {
+			positions[i] = SelectIterator.indexOf(attrs, key.get(i));
+		}
+		return positions;
+	}
+
+	/**
+	 * Keep, for each key position, the dictionary shared by the values of
+	 * all build tuples so far at that position, or null if there is none
+	 */
+	private void shareDictionaries(Tuple tuple) {
+		boolean first = (this.dictionaries == null);
+
+		if (first) {
+			this.dictionaries = new Dictionary[this.buildPositions.length];
+		}
+		for (int i = 0; i < this.buildPositions.length; i++) {
+			Dictionary dict = tuple.getDictionary(this.buildPositions[i]);
+
+			if (first) {
+				this.dictionaries[i] = dict;
+			} else if (this.dictionaries[i] != dict) {
+				this.dictionaries[i] = null;
+			}
+		}
+	}
+
+	/**
+	 * Return the join key of a tuple: the value itself for a single
+	 * attribute, or the list of values for a composite key, where a value
+	 * at a position with a shared dictionary is given by its code in that
+	 * dictionary. Return null if a value is absent from the dictionary,
+	 * and so cannot match.
+	 */
+	private Object key(Tuple tuple, int[] positions) {
+		Object[] values = new Object[positions.length];
+
+		for (int i = 0; i < values.length; i++) {
+			Dictionary shared = this.dictionaries[i];
+
+			if (shared == null) {
+				values[i] = tuple.get(positions[i]);
+			} else if (tuple.getDictionary(positions[i]) == shared) {
+				values[i] = tuple.getCode(positions[i]);
+			} else {
+				int code = shared.lookup(tuple.get(positions[i]));
+				if (code < 0) {
+					return null;
+				}
+				values[i] = code;
+			}
+		}
+
+		return (values.length == 1) ? values[0] : Arrays.asList(values);
+	}
+}
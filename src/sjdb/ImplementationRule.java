@@ -0,0 +1,18 @@
+package sjdb;
+
+/**
+ * This is an interface for the implementation rules applied while
+ * searching a Memo. An implementation rule turns a join expression into
+ * an executable operator tree over the winners of its child groups.
+ */
+public interface ImplementationRule {
+	/**
+	 * Return an operator tree implementing a join expression, with its
+	 * output estimated, or null if this rule does not apply.
+	 * @param expr Join expression
+	 * @param left Winner of the left child group
+	 * @param right Winner of the right child group
+	 * @return Implementation
+	 */
+	public Operator implement(GroupExpression expr, Operator left, Operator right);
+}
@@ -47,4 +47,32 @@ public class Inspector implements PlanVisitor {
 		System.out.println("  inr: " + op.getRight().getOutput().render());
 		System.out.println("  out: " + op.getOutput().render());
 	}
+
+	@Override
+	public void visit(Limit op) {
+		System.out.println(op.toString());
+		System.out.println("  in:  " + op.getInput().getOutput().render());
+		System.out.println("  out: " + op.getOutput().render());
+	}
+
+	@Override
+	public void visit(Aggregate op) {
+		System.out.println(op.toString());
+		System.out.println("  in:  " + op.getInput().getOutput().render());
+		System.out.println("  out: " + op.getOutput().render());
+	}
+
+	@Override
+	public void visit(Exchange op) {
+		System.out.println(op.toString());
+		System.out.println("  in:  " + op.getInput().getOutput().render());
+		System.out.println("  out: " + op.getOutput().render());
+	}
+
+	@Override
+	public void visit(TopN op) {
+		System.out.println(op.toString());
+		System.out.println("  in:  " + op.getInput().getOutput().render());
+		System.out.println("  out: " + op.getOutput().render());
+	}
 }
@@ -1,11 +1,17 @@
 package sjdb;
 
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
 /**
- * This class represents a join operator.
+ * This class represents a join operator. A join may carry several
+ * predicates of the form attr=attr, which together equate a composite key
+ * on its left input with one on its right input.
  * @author nmg
  */
 public class Join extends BinaryOperator {
-	private Predicate predicate;
+	private List<Predicate> predicates;
 	/**
 	 * Create a new join operator.
 	 * @param left Left child operator
@@ -13,28 +19,66 @@ public class Join extends BinaryOperator {
 	 * @param predicate Join predicate
 	 */
 	public Join(Operator left, Operator right, Predicate predicate) {
+		this(left, right, Collections.singletonList(predicate));
+	}
+
+	/**
+	 * Create a new join operator on a conjunction of predicates.
+	 * @param left Left child operator
+	 * @param right Right child operator
+	 * @param predicates Join predicates
+	 */
+	public Join(Operator left, Operator right, List<Predicate> predicates) {
 		super(left, right);
-		this.predicate = predicate;
+		if (predicates.isEmpty()) {
+			throw new IllegalArgumentException("Join requires at least one predicate");
+		}
+		this.predicates = predicates;
 	}
 
+	/**
+	 * Return the first (or only) join predicate
+	 * @return Join predicate
+	 */
 	public Predicate getPredicate() {
-		return this.predicate;
+		return this.predicates.get(0);
+	}
+	
+	/**
+	 * Return the conjunction of join predicates
+	 * @return Join predicates
+	 */
+	public List<Predicate> getPredicates() {
+		return this.predicates;
 	}
 	
 	/* (non-Javadoc)
-	 * @see sjdb.BinaryOperator#accept(sjdb.OperatorVisitor)
+	 * @see sjdb.Operator#dispatch(sjdb.PlanVisitor)
 	 */
-	public void accept(PlanVisitor visitor) {
-		super.accept(visitor);
+	protected void dispatch(PlanVisitor visitor) {
 		visitor.visit(this);
 	}
 	
+	/**
+	 * Return the join predicates, separated by commas
+	 * @return
+	 */
+	public String renderPredicates() {
+		Iterator<Predicate> iter = this.predicates.iterator();
+		String ret = iter.next().toString();
+		
+		while (iter.hasNext()) {
+			ret += "," + iter.next().toString();
+		}
+		return ret;
+	}
+	
 	/* (non-Javadoc)
 	 * @see java.lang.Object#toString()
 	 */
 	public String toString() {
 		return "(" + this.getLeft().toString() + ") JOIN [" + 
-				this.getPredicate().toString() +
+				this.renderPredicates() +
 				"] (" + this.getRight().toString() + ")";
 	}
 	
@@ -0,0 +1,35 @@
+package sjdb;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+
+/**
+ * This transformation rule reassociates joins: JOIN(JOIN(A,B),C) becomes
+ * JOIN(A,JOIN(B,C)), for every join expression JOIN(A,B) in the left
+ * child group. Together with JoinCommuteRule this reaches bushy as well as
+ * left-deep join orders. The new inner join is only formed if a join
+ * predicate connects B and C, so no new Cartesian products are introduced.
+ */
+public class JoinAssociateRule implements TransformationRule {
+
+	public boolean matches(GroupExpression expr) {
+		return !expr.isLeaf();
+	}
+
+	public void apply(GroupExpression expr, Group group, Memo memo) {
+		Group c = expr.getRight();
+
+		for (GroupExpression inner : new ArrayList<GroupExpression>(expr.getLeft().getExpressions())) {
+			if (inner.isLeaf() || !memo.connected(inner.getRight(), c)) {
+				continue;
+			}
+
+			BitSet leaves = (BitSet) inner.getRight().getLeaves().clone();
+			leaves.or(c.getLeaves());
+
+			Group bc = memo.getGroup(leaves);
+			memo.add(bc, new GroupExpression(inner.getRight(), c));
+			memo.add(group, new GroupExpression(inner.getLeft(), bc));
+		}
+	}
+}
@@ -0,0 +1,17 @@
+package sjdb;
+
+/**
+ * This transformation rule swaps the inputs of a join: JOIN(A,B) becomes
+ * JOIN(B,A). Since the right input is the build side of a hash join, this
+ * chooses which input is held in memory.
+ */
+public class JoinCommuteRule implements TransformationRule {
+
+	public boolean matches(GroupExpression expr) {
+		return !expr.isLeaf();
+	}
+
+	public void apply(GroupExpression expr, Group group, Memo memo) {
+		memo.add(group, new GroupExpression(expr.getRight(), expr.getLeft()));
+	}
+}
@@ -0,0 +1,42 @@
+package sjdb;
+
+/**
+ * This class represents a Limit operator, which passes on only the first
+ * tuples produced by its input, in the order they are produced. Once the
+ * limit is reached, no more tuples are pulled from the input.
+ */
+public class Limit extends UnaryOperator {
+	private int limit;
+
+	/**
+	 * Create a new limit operator.
+	 * @param input Child operator
+	 * @param limit Number of tuples to be passed on
+	 */
+	public Limit(Operator input, int limit) {
+		super(input);
+		this.limit = limit;
+	}
+
+	/**
+	 * Return the number of tuples passed on by this operator
+	 * @return Limit
+	 */
+	public int getLimit() {
+		return this.limit;
+	}
+
+	/* (non-Javadoc)
+	 * @see sjdb.Operator#dispatch(sjdb.PlanVisitor)
+	 */
+	protected void dispatch(PlanVisitor visitor) {
+		visitor.visit(this);
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		return "LIMIT [" + this.limit + "] (" + getInput().toString() + ")";
+	}
+}
@@ -0,0 +1,49 @@
+package sjdb;
+
+import java.util.List;
+
+/**
+ * This class executes a Limit operator. It stops pulling tuples from its
+ * input as soon as the limit is reached, so pipelined operators below it
+ * do only as much work as the limit requires.
+ */
+public class LimitIterator implements TupleIterator {
+	private TupleIterator input;
+	private int limit;
+	private int count;
+
+	/**
+	 * Create a new limit over an input iterator
+	 * @param input Child iterator
+	 * @param limit Number of tuples to be passed on
+	 */
+	public LimitIterator(TupleIterator input, int limit) {
+		this.input = input;
+		this.limit = limit;
+	}
+
+	public void open() {
+		this.count = 0;
+		this.input.open();
+	}
+
+	public Tuple next() {
+		if (this.count >= this.limit) {
+			return null;
+		}
+
+		Tuple tuple = this.input.next();
+		if (tuple != null) {
+			this.count++;
+		}
+		return tuple;
+	}
+
+	public void close() {
+		this.input.close();
+	}
+
+	public List<Attribute> getAttributes() {
+		return this.input.getAttributes();
+	}
+}
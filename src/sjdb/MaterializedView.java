@@ -0,0 +1,110 @@
+package sjdb;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * This class represents a materialized view: a named relation whose
+ * tuples are the result of a defining query over other named relations,
+ * computed in advance. The statistics of the view are those of its
+ * backing relation, as recorded in the catalogue.
+ *
+ * The defining query is a canonical plan in the form produced by
+ * QueryParser: Scans of distinct named relations, combined by Products
+ * and Joins, filtered by Selects and topped by an optional Project; it
+ * may not be aggregated, ordered or limited. The
+ * optimiser may read the view in place of the part of a query that scans
+ * the same relations, if the query applies every predicate the view does.
+ */
+public class MaterializedView extends NamedRelation {
+	private Operator definition;
+	private Set<String> baseRelations;
+	private List<Predicate> predicates;
+	private List<Attribute> projection;
+
+	/**
+	 * Create a new materialized view
+	 * @param name The name of the view
+	 * @param size The tuple count of the view
+	 * @param definition Canonical plan of the defining query
+	 */
+	public MaterializedView(String name, int size, Operator definition) {
+		super(name, size);
+		this.definition = definition;
+		this.baseRelations = new LinkedHashSet<String>();
+		this.predicates = new ArrayList<Predicate>();
+
+		definition.accept(new PlanVisitor() {
+			public void visit(Scan op) {
+				baseRelations.add(op.getRelation().toString());
+			}
+
+			public void visit(Project op) {
+				projection = op.getAttributes();
+			}
+
+			public void visit(Select op) {
+				predicates.add(op.getPredicate());
+			}
+
+			public void visit(Product op) {
+			}
+
+			public void visit(Join op) {
+				predicates.addAll(op.getPredicates());
+			}
+
+			public void visit(Limit op) {
+				// a view holding only some of its result could not stand in for a query
+				throw new IllegalArgumentException("View " + name + " may not be limited");
+			}
+
+			public void visit(TopN op) {
+				throw new IllegalArgumentException("View " + name + " may not be ordered");
+			}
+
+			public void visit(Aggregate op) {
+				throw new IllegalArgumentException("View " + name + " may not be aggregated");
+			}
+
+			public void visit(Exchange op) {
+				throw new IllegalArgumentException("View " + name + " may not be distributed");
+			}
+		});
+	}
+
+	/**
+	 * Return the canonical plan of the defining query
+	 * @return Defining query
+	 */
+	public Operator getDefinition() {
+		return this.definition;
+	}
+
+	/**
+	 * Return the names of the named relations read by the defining query
+	 * @return Relation names
+	 */
+	public Set<String> getBaseRelations() {
+		return this.baseRelations;
+	}
+
+	/**
+	 * Return the predicates applied by the defining query
+	 * @return Predicates
+	 */
+	public List<Predicate> getPredicates() {
+		return this.predicates;
+	}
+
+	/**
+	 * Return the attributes projected by the defining query, or null if
+	 * it keeps all attributes
+	 * @return Projected attributes
+	 */
+	public List<Attribute> getProjection() {
+		return this.projection;
+	}
+}
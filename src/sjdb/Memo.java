@@ -0,0 +1,148 @@
+package sjdb;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * This class represents the Memo of a Cascades-style optimiser: a compact
+ * store of the alternative join orders of a query. Each group collects the
+ * logically equivalent expressions that join one set of leaf subplans,
+ * and each join expression refers to its inputs by group rather than by
+ * operator, so that the alternatives for a shared subexpression are stored,
+ * and later costed, only once.
+ *
+ * The leaves are fixed subplans, such as filtered Scans, that are joined
+ * as units. Whether two groups are connected by a join predicate is
+ * decided by the PredicateClosure of the query.
+ */
+public class Memo {
+	private List<Operator> leaves;
+	private List<Set<Attribute>> leafAttrs;
+	private PredicateClosure closure;
+	private HashMap<BitSet, Group> groups;
+
+	/**
+	 * Create a new memo over a list of leaves
+	 * @param leaves Leaf subplans, with their outputs estimated
+	 * @param closure Predicates of the query
+	 */
+	public Memo(List<Operator> leaves, PredicateClosure closure) {
+		this.leaves = leaves;
+		this.leafAttrs = new ArrayList<Set<Attribute>>();
+		this.closure = closure;
+		this.groups = new HashMap<BitSet, Group>();
+
+		for (int i = 0; i < leaves.size(); i++) {
+			BitSet bits = new BitSet();
+			bits.set(i);
+			add(getGroup(bits), new GroupExpression(leaves.get(i)));
+			this.leafAttrs.add(new HashSet<Attribute>(leaves.get(i).getOutput().getAttributes()));
+		}
+	}
+
+	/**
+	 * Return the group that joins a set of leaves, creating it if necessary
+	 * @param leaves Leaf indices
+	 * @return Group
+	 */
+	public Group getGroup(BitSet leaves) {
+		Group group = this.groups.get(leaves);
+
+		if (group == null) {
+			group = new Group(leaves);
+			this.groups.put(leaves, group);
+		}
+		return group;
+	}
+
+	/**
+	 * Add an expression to a group, unless it is already present
+	 * @param group Group
+	 * @param expr Expression
+	 * @return True if the expression was added
+	 */
+	public boolean add(Group group, GroupExpression expr) {
+		return group.add(expr);
+	}
+
+	/**
+	 * Return true if a join predicate connects two groups
+	 * @param left Group
+	 * @param right Group
+	 * @return
+	 */
+	public boolean connected(Group left, Group right) {
+		return !this.closure.getJoinPredicates(getAttributes(left), getAttributes(right)).isEmpty();
+	}
+
+	/**
+	 * Return the attributes of the leaves joined by a group
+	 * @param group Group
+	 * @return Attributes
+	 */
+	public Set<Attribute> getAttributes(Group group) {
+		Set<Attribute> attrs = new HashSet<Attribute>();
+		BitSet bits = group.getLeaves();
+
+		for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)) {
+			attrs.addAll(this.leafAttrs.get(i));
+		}
+		return attrs;
+	}
+
+	/**
+	 * Return the number of groups in this memo
+	 * @return
+	 */
+	public int size() {
+		return this.groups.size();
+	}
+
+	/**
+	 * Add an initial left-deep join of all leaves, taking at each step the
+	 * first leaf connected to those already joined, and return its group.
+	 * @return Root group
+	 */
+	public Group seed() {
+		List<Integer> remaining = new ArrayList<Integer>();
+		for (int i = 1; i < this.leaves.size(); i++) {
+			remaining.add(i);
+		}
+
+		BitSet bits = new BitSet();
+		bits.set(0);
+		Group result = getGroup(bits);
+
+		while (!remaining.isEmpty()) {
+			Integer next = remaining.get(0);
+
+			for (Integer i : remaining) {
+				if (connected(result, getGroup(leaf(i)))) {
+					next = i;
+					break;
+				}
+			}
+			remaining.remove(next);
+
+			Group right = getGroup(leaf(next));
+			BitSet joined = (BitSet) result.getLeaves().clone();
+			joined.set(next);
+
+			Group group = getGroup(joined);
+			add(group, new GroupExpression(result, right));
+			result = group;
+		}
+
+		return result;
+	}
+
+	private BitSet leaf(int i) {
+		BitSet bits = new BitSet();
+		bits.set(i);
+		return bits;
+	}
+}
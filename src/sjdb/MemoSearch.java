@@ -0,0 +1,214 @@
+package sjdb;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class searches a Memo for the cheapest plan, in the manner of the
+ * Cascades optimiser. The search is top-down: optimising a group first
+ * explores it, applying the transformation rules to each of its
+ * expressions (and, recursively, to those of its child groups) until no
+ * new expressions appear, and then costs each expression by optimising its
+ * child groups and applying the implementation rules to their winners.
+ *
+ * Costs are those of the CostModel, over outputs sized by the Estimator.
+ * The search is pruned by branch-and-bound: a child group is optimised
+ * under the cost still available to its parent, and an expression is
+ * abandoned as soon as its inputs alone cost more than the cheapest
+ * alternative found so far (allowing for the largest discount that
+ * runtime filters may give the left input). A group remembers both its winner and the
+ * largest bound under which it failed, so it is never searched twice for
+ * the same purpose.
+ *
+ * If a Deadline is set, it is checked before each expression is explored
+ * or costed; once it has expired the search stops, and the winner of the
+ * root group is the best complete plan found so far, if any.
+ */
+public class MemoSearch {
+	private Memo memo;
+	private CostModel costModel;
+	private List<TransformationRule> rules;
+	private List<ImplementationRule> implementations;
+	private Deadline deadline;
+	private boolean truncated;
+
+	/**
+	 * Create a new search with no rules
+	 * @param memo Memo to be searched
+	 * @param costModel Cost model
+	 */
+	public MemoSearch(Memo memo, CostModel costModel) {
+		this.memo = memo;
+		this.costModel = costModel;
+		this.rules = new ArrayList<TransformationRule>();
+		this.implementations = new ArrayList<ImplementationRule>();
+	}
+
+	/**
+	 * Add a transformation rule
+	 * @param rule Transformation rule
+	 */
+	public void addRule(TransformationRule rule) {
+		this.rules.add(rule);
+	}
+
+	/**
+	 * Add an implementation rule
+	 * @param rule Implementation rule
+	 */
+	public void addImplementation(ImplementationRule rule) {
+		this.implementations.add(rule);
+	}
+
+	/**
+	 * Set the deadline after which the search stops
+	 * @param deadline Deadline, or null for none
+	 */
+	public void setDeadline(Deadline deadline) {
+		this.deadline = deadline;
+	}
+
+	/**
+	 * Return true if the search was stopped by its deadline
+	 * @return
+	 */
+	public boolean isTruncated() {
+		return this.truncated;
+	}
+
+	/**
+	 * Return the cheapest implementation of a group
+	 * @param group Root group
+	 * @return Cheapest plan, with its outputs estimated, or null if no
+	 * implementation rule applies
+	 */
+	public Operator optimise(Group group) {
+		return optimise(group, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Return the cheapest implementation of a group from which only the
+	 * first tuples are pulled. The implementations of the root group are
+	 * costed for producing those tuples only, and those of its child
+	 * groups in full.
+	 * @param group Root group
+	 * @param rows Number of tuples pulled from the root group
+	 * @return Cheapest plan, with its outputs estimated, or null if no
+	 * implementation rule applies
+	 */
+	public Operator optimise(Group group, long rows) {
+		optimise(group, Double.POSITIVE_INFINITY, rows);
+		return group.getWinner();
+	}
+
+	/**
+	 * Optimise a group, looking only for implementations that cost less
+	 * than a bound, and return the cost of its winner (or infinity if
+	 * there is none within the bound).
+	 */
+	private double optimise(Group group, double bound) {
+		return optimise(group, bound, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Optimise a group from which only the given number of tuples are
+	 * pulled
+	 */
+	private double optimise(Group group, double bound, long rows) {
+		if (group.winner != null) {
+			return group.winnerCost;
+		}
+		if (bound <= group.failedBound) {
+			return Double.POSITIVE_INFINITY;
+		}
+
+		explore(group);
+
+		double limit = bound;
+
+		for (GroupExpression expr : group.getExpressions()) {
+			if (expired()) {
+				break;
+			}
+			if (expr.isLeaf()) {
+				double cost = this.costModel.cost(expr.getLeaf(), rows);
+				if (cost < limit) {
+					group.winner = expr.getLeaf();
+					group.winnerCost = limit = cost;
+				}
+				continue;
+			}
+
+			// runtime filters may discount the left input by up to this factor,
+			// and a limit may leave it unread
+			double discount = (rows == Long.MAX_VALUE) ? this.costModel.getMinimumFilterRatio() : 0;
+
+			double leftCost = optimise(expr.getLeft(), limit / discount);
+			if (leftCost * discount >= limit) {
+				continue;
+			}
+			double rightCost = optimise(expr.getRight(), limit - leftCost * discount);
+			if (leftCost * discount + rightCost >= limit) {
+				continue;
+			}
+
+			Operator left = expr.getLeft().getWinner();
+			Operator right = expr.getRight().getWinner();
+
+			for (ImplementationRule rule : this.implementations) {
+				Operator op = rule.implement(expr, left, right);
+				if (op == null) {
+					continue;
+				}
+
+				double cost = this.costModel.cost(op, rows);
+				if (cost < limit) {
+					group.winner = op;
+					group.winnerCost = limit = cost;
+				}
+			}
+		}
+
+		if (group.winner == null) {
+			group.failedBound = Math.max(group.failedBound, bound);
+			return Double.POSITIVE_INFINITY;
+		}
+		return group.winnerCost;
+	}
+
+	/**
+	 * Apply the transformation rules to the expressions of a group, and of
+	 * its child groups, until no new expressions appear.
+	 */
+	private void explore(Group group) {
+		while (!group.explored) {
+			group.explored = true;
+
+			// expressions added while exploring are visited by this loop too
+			for (int i = 0; i < group.getExpressions().size(); i++) {
+				if (expired()) {
+					return;
+				}
+				GroupExpression expr = group.getExpressions().get(i);
+
+				if (!expr.isLeaf()) {
+					explore(expr.getLeft());
+					explore(expr.getRight());
+				}
+
+				for (TransformationRule rule : this.rules) {
+					if (rule.matches(expr) && expr.markApplied(rule)) {
+						rule.apply(expr, group, this.memo);
+					}
+				}
+			}
+		}
+	}
+
+	private boolean expired() {
+		if (!this.truncated && this.deadline != null && this.deadline.isExpired()) {
+			this.truncated = true;
+		}
+		return this.truncated;
+	}
+}
@@ -0,0 +1,149 @@
+package sjdb;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/**
+ * This class holds the off-heap memory of one execution of a query plan:
+ * the hash tables of its joins and aggregates and the tuples they and its
+ * products hold, in direct buffers outside the garbage-collected heap.
+ *
+ * Each iterator releases its buffers when it is closed, and the Executor
+ * closes the arena when the plan has run, releasing whatever is left; a
+ * closed arena allocates nothing more. The arena records the bytes it
+ * holds, and the most it held at once, so the off-heap memory of each
+ * query can be reported.
+ *
+ * An arena may be given a budget, as granted by a MemoryBroker. Hash
+ * tables and running aggregates are allocated regardless, but a
+ * TupleBuffer asks whether the arena has room for another page, and
+ * spills a page to disk when it has not; the arena records the bytes
+ * spilled.
+ *
+ * Direct buffers cannot be freed explicitly: a released buffer is no
+ * longer referenced by the arena or its owner, and its memory is returned
+ * once the buffer is collected, which costs the collector one object per
+ * buffer rather than one per tuple.
+ */
+public class MemoryArena {
+	private Set<ByteBuffer> buffers;
+	private long allocated;
+	private long peak;
+	private long budget;
+	private long spilled;
+	private boolean closed;
+
+	/**
+	 * Create a new arena without a budget
+	 */
+	public MemoryArena() {
+		this(Long.MAX_VALUE);
+	}
+
+	/**
+	 * Create a new arena
+	 * @param budget Number of bytes the arena may hold before buffers spill
+	 */
+	public MemoryArena(long budget) {
+		this.buffers = Collections.newSetFromMap(new IdentityHashMap<ByteBuffer, Boolean>());
+		this.budget = budget;
+	}
+
+	/**
+	 * Set the number of bytes the arena may hold before buffers spill
+	 * @param budget Byte count
+	 */
+	public synchronized void setBudget(long budget) {
+		this.budget = budget;
+	}
+
+	/**
+	 * Return the number of bytes the arena may hold before buffers spill
+	 * @return Byte count
+	 */
+	public synchronized long getBudget() {
+		return this.budget;
+	}
+
+	/**
+	 * Return true if the arena may allocate a buffer within its budget
+	 * @param bytes Capacity in bytes
+	 * @return
+	 */
+	public synchronized boolean hasRoom(int bytes) {
+		return this.allocated + bytes <= this.budget;
+	}
+
+	/**
+	 * Record bytes written to disk by a buffer over the budget
+	 * @param bytes Byte count
+	 */
+	public synchronized void recordSpill(long bytes) {
+		this.spilled += bytes;
+	}
+
+	/**
+	 * Allocate a zeroed off-heap buffer, in native byte order
+	 * @param bytes Capacity in bytes
+	 * @return Buffer
+	 * @throws IllegalStateException if the arena is closed
+	 */
+	public synchronized ByteBuffer allocate(int bytes) {
+		if (this.closed) {
+			throw new IllegalStateException("Memory arena is closed");
+		}
+
+		ByteBuffer buffer = ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+		this.buffers.add(buffer);
+		this.allocated += bytes;
+		this.peak = Math.max(this.peak, this.allocated);
+		return buffer;
+	}
+
+	/**
+	 * Release a buffer allocated by this arena; releasing it again, or
+	 * after the arena is closed, does nothing.
+	 * @param buffer Buffer, which its owner must no longer use
+	 */
+	public synchronized void release(ByteBuffer buffer) {
+		if (buffer != null && this.buffers.remove(buffer)) {
+			this.allocated -= buffer.capacity();
+		}
+	}
+
+	/**
+	 * Release every buffer still held, and allocate nothing more
+	 */
+	public synchronized void close() {
+		this.buffers.clear();
+		this.allocated = 0;
+		this.closed = true;
+	}
+
+	/**
+	 * Return the number of off-heap bytes currently held
+	 * @return Byte count
+	 */
+	public synchronized long getAllocatedBytes() {
+		return this.allocated;
+	}
+
+	/**
+	 * Return the largest number of off-heap bytes held at once
+	 * @return Byte count
+	 */
+	public synchronized long getPeakBytes() {
+		return this.peak;
+	}
+
+	/**
+	 * Return the number of bytes spilled to disk
+	 * @return Byte count
+	 */
+	public synchronized long getSpilledBytes() {
+		return this.spilled;
+	}
+}
@@ -0,0 +1,213 @@
+package sjdb;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * This class shares a pool of memory between queries executed
+ * concurrently, so that a few large joins cannot take it all. Before an
+ * Executor runs a plan, the broker grants the plan a budget for its
+ * MemoryArena from the memory the CostModel estimates it holds, capped at
+ * the size of the pool; the budget returns to the pool when the plan has
+ * run.
+ *
+ * A plan is granted its whole estimate if that much of the pool is free
+ * and no query is waiting. Otherwise, if at least the minimum fraction of
+ * its estimate is free, it is admitted degraded: granted what is free, so
+ * that its buffered tuples spill to disk once they outgrow the grant.
+ * Failing that, the query waits in a queue, and waiting queries are
+ * admitted in the order they arrived as memory is returned. A plan
+ * estimated to hold no memory is admitted at once.
+ *
+ * The broker reports the depth of its queue and the memory granted, with
+ * counts of the queries admitted, degraded and queued.
+ */
+public class MemoryBroker {
+	/**
+	 * The fraction of its estimate below which a query waits rather than
+	 * being admitted degraded
+	 */
+	public static final double DEFAULT_MINIMUM_FRACTION = 0.25;
+
+	/**
+	 * A budget granted to a query, returned to the pool by release()
+	 */
+	public class Grant {
+		private long bytes;
+		private long estimate;
+		private boolean released;
+
+		private Grant(long bytes, long estimate) {
+			this.bytes = bytes;
+			this.estimate = estimate;
+		}
+
+		/**
+		 * Return the number of bytes granted
+		 * @return Byte count
+		 */
+		public long getBytes() {
+			return this.bytes;
+		}
+
+		/**
+		 * Return the estimated memory of the plan
+		 * @return Byte count
+		 */
+		public long getEstimate() {
+			return this.estimate;
+		}
+
+		/**
+		 * Return true if the query was granted less than its estimate
+		 * @return
+		 */
+		public boolean isDegraded() {
+			return this.bytes < this.estimate;
+		}
+
+		/**
+		 * Return the budget to the pool; releasing it again does nothing.
+		 */
+		public void release() {
+			synchronized (MemoryBroker.this) {
+				if (!this.released) {
+					this.released = true;
+					MemoryBroker.this.granted -= this.bytes;
+					MemoryBroker.this.notifyAll();
+				}
+			}
+		}
+	}
+
+	private long pool;
+	private double minimumFraction;
+	private CostModel costModel;
+	private Deque<Object> queue;
+	private long granted;
+	private long admitted;
+	private long degraded;
+	private long queued;
+
+	/**
+	 * Create a new broker
+	 * @param pool Number of bytes shared by the queries
+	 * @param costModel Cost model estimating the memory of each plan
+	 */
+	public MemoryBroker(long pool, CostModel costModel) {
+		this.pool = pool;
+		this.costModel = costModel;
+		this.minimumFraction = DEFAULT_MINIMUM_FRACTION;
+		this.queue = new ArrayDeque<Object>();
+	}
+
+	public MemoryBroker(long pool) {
+		this(pool, new CostModel());
+	}
+
+	/**
+	 * Set the fraction of its estimate below which a query waits rather
+	 * than being admitted degraded
+	 * @param fraction Fraction, from 0 to 1; 1 never degrades a query
+	 */
+	public synchronized void setMinimumFraction(double fraction) {
+		this.minimumFraction = fraction;
+	}
+
+	/**
+	 * Grant a budget to a plan, waiting until enough of the pool is free.
+	 * A plan that has not been estimated is estimated first.
+	 * @param plan Query plan
+	 * @return Grant, to be released once the plan has run
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public Grant acquire(Operator plan) throws InterruptedException {
+		if (plan.getOutput() == null) {
+			plan.accept(new Estimator());
+		}
+		long estimate = this.costModel.memory(plan);
+
+		synchronized (this) {
+			long wanted = Math.min(estimate, this.pool);
+			long least = (long) Math.ceil(this.minimumFraction * wanted);
+			Object ticket = new Object();
+
+			if (wanted > 0) {
+				this.queue.add(ticket);
+				try {
+					if (!admissible(ticket, least)) {
+						this.queued++;
+						do {
+							wait();
+						} while (!admissible(ticket, least));
+					}
+				} finally {
+					this.queue.remove(ticket);
+					// the next query may now be admissible, or this one has given up
+					notifyAll();
+				}
+			}
+
+			Grant grant = new Grant(Math.min(wanted, this.pool - this.granted), estimate);
+			this.granted += grant.getBytes();
+			this.admitted++;
+			if (grant.getBytes() < wanted) {
+				this.degraded++;
+			}
+			return grant;
+		}
+	}
+
+	/**
+	 * Return the number of bytes shared by the queries
+	 * @return Byte count
+	 */
+	public long getPoolBytes() {
+		return this.pool;
+	}
+
+	/**
+	 * Return the number of bytes currently granted
+	 * @return Byte count
+	 */
+	public synchronized long getGrantedBytes() {
+		return this.granted;
+	}
+
+	/**
+	 * Return the number of queries waiting for memory
+	 * @return Queue depth
+	 */
+	public synchronized int getQueueDepth() {
+		return this.queue.size();
+	}
+
+	/**
+	 * Return the number of queries admitted
+	 * @return Query count
+	 */
+	public synchronized long getAdmittedCount() {
+		return this.admitted;
+	}
+
+	/**
+	 * Return the number of queries admitted with less memory than they
+	 * were estimated to hold, up to the size of the pool
+	 * @return Query count
+	 */
+	public synchronized long getDegradedCount() {
+		return this.degraded;
+	}
+
+	/**
+	 * Return the number of queries that waited for memory
+	 * @return Query count
+	 */
+	public synchronized long getQueuedCount() {
+		return this.queued;
+	}
+
+	private boolean admissible(Object ticket, long least) {
+		return this.queue.peek() == ticket && this.pool - this.granted >= least;
+	}
+}
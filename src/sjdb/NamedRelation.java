@@ -3,6 +3,11 @@
  */
 package sjdb;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 /**
  * This class represents a named relation which is fed into a query plan
  * @author nmg
@@ -12,6 +17,32 @@ public class NamedRelation extends Relation {
 	 * The name of the named relation
 	 */
 	private String name;
+
+	/**
+	 * The zone maps of the stored columns, once the relation is loaded
+	 */
+	private Map<Attribute,ZoneMap> zoneMaps;
+
+	/**
+	 * The partitions of the relation, in storage order; empty if the
+	 * relation is not partitioned
+	 */
+	private List<Partition> partitions;
+
+	/**
+	 * The joint value counts of groups of attributes of the relation
+	 */
+	private List<ColumnGroup> columnGroups;
+
+	/**
+	 * The functional dependencies between attributes of the relation
+	 */
+	private List<FunctionalDependency> dependencies;
+
+	/**
+	 * A random sample of the stored tuples, once the relation is loaded
+	 */
+	private Sample sample;
 	
 	/**
 	 * Create a new named relation with a given name and tuple count
@@ -21,6 +52,107 @@ public class NamedRelation extends Relation {
 	public NamedRelation(String name, int size) {
 		super(size);
 		this.name = name;
+		this.zoneMaps = new HashMap<Attribute,ZoneMap>();
+		this.partitions = new ArrayList<Partition>();
+		this.columnGroups = new ArrayList<ColumnGroup>();
+		this.dependencies = new ArrayList<FunctionalDependency>();
+	}
+
+	/**
+	 * Return the partitions of this relation, in storage order
+	 * @return Partitions, empty if the relation is not partitioned
+	 */
+	public List<Partition> getPartitions() {
+		return this.partitions;
+	}
+
+	/**
+	 * Return true if this relation is partitioned
+	 * @return
+	 */
+	public boolean isPartitioned() {
+		return !this.partitions.isEmpty();
+	}
+
+	/**
+	 * Add a partition to this relation, after those already added
+	 * @param partition Partition
+	 */
+	public void addPartition(Partition partition) {
+		if (isPartitioned() && (partition.getMethod() != this.partitions.get(0).getMethod()
+				|| !partition.getPartitionAttribute().equals(this.partitions.get(0).getPartitionAttribute()))) {
+			throw new IllegalArgumentException("Partitions of " + this.name + " must share a method and attribute");
+		}
+		this.partitions.add(partition);
+	}
+
+	/**
+	 * Return the zone map of a stored column of this relation, or null if
+	 * it has none
+	 * @param attr Attribute of this relation
+	 * @return Zone map
+	 */
+	public ZoneMap getZoneMap(Attribute attr) {
+		return this.zoneMaps.get(attr);
+	}
+
+	/**
+	 * Return the column groups of this relation
+	 * @return Column groups
+	 */
+	public List<ColumnGroup> getColumnGroups() {
+		return this.columnGroups;
+	}
+
+	/**
+	 * Add a column group to this relation
+	 * @param group Column group
+	 */
+	public void addColumnGroup(ColumnGroup group) {
+		this.columnGroups.add(group);
+	}
+
+	/**
+	 * Return the functional dependencies declared on this relation
+	 * @return Functional dependencies, in the order declared
+	 */
+	public List<FunctionalDependency> getDependencies() {
+		return this.dependencies;
+	}
+
+	/**
+	 * Add a functional dependency to this relation
+	 * @param dependency Functional dependency
+	 */
+	public void addDependency(FunctionalDependency dependency) {
+		this.dependencies.add(dependency);
+	}
+
+	/**
+	 * Return the sample of the stored tuples of this relation, or null if
+	 * it has none
+	 * @return Sample
+	 */
+	public Sample getSample() {
+		return this.sample;
+	}
+
+	/**
+	 * Record the sample of the stored tuples of this relation; the
+	 * catalogue does so in Catalogue.setSample()
+	 * @param sample Sample
+	 */
+	void setSample(Sample sample) {
+		this.sample = sample;
+	}
+
+	/**
+	 * Record the zone map of a stored column of this relation
+	 * @param attr Attribute of this relation
+	 * @param zoneMap Zone map
+	 */
+	public void setZoneMap(Attribute attr, ZoneMap zoneMap) {
+		this.zoneMaps.put(attr, zoneMap);
 	}
 
 	/* (non-Javadoc)
@@ -3,48 +3,55 @@
  */
 package sjdb;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.ArrayList;
-import java.util.Iterator;
 
 /**
  * This abstract class represents an operator in a query, and
  * is subclassed by UnaryOperator and BinaryOperator.
+ * 
+ * The inputs of an operator are fixed when it is created. A visitor is
+ * taken over a plan by an explicit stack rather than by recursion, so
+ * that plans of any depth, such as the left-deep products built for
+ * queries over hundreds of relations, can be visited; the stack is reused
+ * from one traversal to the next on the same thread, so a traversal does
+ * not allocate.
  * @author nmg
  *
  */
 public abstract class Operator {
+	private static final Operator[] NO_INPUTS = new Operator[0];
+
+	private static final ThreadLocal<Traversal> TRAVERSALS = ThreadLocal.withInitial(Traversal::new);
+
 	/**
-	 * The list of child operators that feed their outputs to
-	 * this operator.
+	 * The child operators that feed their outputs to this operator.
 	 */
-	protected ArrayList<Operator> inputs;
+	protected final Operator[] inputs;
 	/**
 	 * The relation produced by this operator as output.
 	 */
 	protected Relation output;
-	
-	public Operator() {
-		this.inputs = new ArrayList<Operator>();
-	}
+
+	private final List<Operator> inputList;
 	
 	/**
-	 * Return an arraylist containing the child operators of this
-	 * operator.
-	 * @return Child operators
+	 * Create a new operator
+	 * @param inputs Child operators, in order
 	 */
-	public List<Operator> getInputs() {
-		List<Operator> inputs = new ArrayList<Operator>();
-		inputs.addAll(this.inputs);
-		return inputs;
+	public Operator(Operator... inputs) {
+		this.inputs = (inputs.length == 0) ? NO_INPUTS : inputs.clone();
+		this.inputList = Collections.unmodifiableList(Arrays.asList(this.inputs));
 	}
 	
 	/**
-	 * Add a child operator to this operator
-	 * @param op Child operator
+	 * Return an unmodifiable list of the child operators of this
+	 * operator.
+	 * @return Child operators, empty for a Scan
 	 */
-	protected void addOperator(Operator op) {
-		this.inputs.add(op);
+	public List<Operator> getInputs() {
+		return this.inputList;
 	}
 	
 	/**
@@ -64,13 +71,63 @@ public abstract class Operator {
 	}
 	
 	/**
-	 * Accept a visitor to this operator.
+	 * Accept a visitor to this operator, visiting the plan below it in a
+	 * depth-first, left-to-right traversal, each operator after its inputs.
 	 * @param visitor Visitor to be accepted
 	 */
-	public void accept(PlanVisitor visitor) {
-		Iterator<Operator> iter = this.inputs.iterator();
-		while (iter.hasNext()){
-			iter.next().accept(visitor);
+	public final void accept(PlanVisitor visitor) {
+		Traversal traversal = TRAVERSALS.get();
+
+		if (traversal.busy) {
+			// a visitor taking another visitor over a plan
+			traversal = new Traversal();
+		}
+		traversal.walk(this, visitor);
+	}
+	
+	/**
+	 * Visit this operator alone.
+	 * @param visitor Visitor
+	 */
+	protected abstract void dispatch(PlanVisitor visitor);
+	
+	/**
+	 * The stack of a post-order traversal: the operators on the path from
+	 * the root, each with the number of its inputs visited so far
+	 */
+	private static class Traversal {
+		private Operator[] path = new Operator[16];
+		private int[] visited = new int[16];
+		private boolean busy;
+
+		private void walk(Operator root, PlanVisitor visitor) {
+			int top = 0;
+
+			this.busy = true;
+			this.path[0] = root;
+			this.visited[0] = 0;
+			try {
+				while (top >= 0) {
+					Operator op = this.path[top];
+
+					if (this.visited[top] < op.inputs.length) {
+						Operator input = op.inputs[this.visited[top]++];
+						if (++top == this.path.length) {
+							this.path = Arrays.copyOf(this.path, 2 * top);
+							this.visited = Arrays.copyOf(this.visited, 2 * top);
+						}
+						this.path[top] = input;
+						this.visited[top] = 0;
+					} else {
+						this.path[top--] = null;
+						op.dispatch(visitor);
+					}
+				}
+			} finally {
+				// a visitor that fails leaves operators on the stack
+				Arrays.fill(this.path, 0, top + 1, null);
+				this.busy = false;
+			}
 		}
 	}
 }
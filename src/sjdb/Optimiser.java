@@ -0,0 +1,714 @@
+package sjdb;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * This class takes a canonical query plan and produces an optimised plan.
+ * All operators of the optimised plan are created afresh; none are shared
+ * with the canonical plan.
+ *
+ * The canonical plan is first broken down (by visiting it) into the named
+ * relations it scans, the predicates it applies and the attributes it
+ * projects. The predicates are then rewritten into their transitive
+ * closure (see PredicateClosure), so that constants and join edges implied
+ * by chains of equalities are available. Selects whose attributes all come
+ * from one relation are pushed down onto the Scan of that relation, and
+ * the filtered relations are joined in the order with the lowest cost
+ * under the CostModel.
+ *
+ * Unless the query projects all attributes, each filtered Scan and each
+ * Join is followed by a Project that keeps only the attributes still
+ * needed above it, for later joins or for the final projection, so that
+ * intermediate results are as narrow as possible.
+ *
+ * For up to MEMO_LIMIT relations, join orders are searched in a Memo
+ * (see MemoSearch), seeded with a left-deep join and expanded by the join
+ * commutativity and associativity rules into bushy orders. Beyond that, a
+ * left-deep order is built greedily, and Cartesian products are only
+ * formed where no join predicate connects a subplan to the relations not
+ * yet joined.
+ *
+ * Materialized views registered in the catalogue are matched against the
+ * query before the Memo is searched. A view that joins some of the
+ * query's relations, applies only predicates the query implies, and keeps
+ * the attributes needed above it, is added to the Memo group for those
+ * relations as an alternative leaf: a Scan of the view followed by Selects
+ * for the remaining predicates over them. The search then reads the view
+ * wherever that is cheaper under the CostModel.
+ *
+ * Estimates of subplans are kept in an EstimateCache, which persists
+ * across calls to optimise() and may be shared between optimisers, so
+ * sub-joins common to several queries are estimated only once.
+ *
+ * An ORDER BY is kept as a Top-N operator, and a LIMIT as a Limit
+ * operator, between the joins and the final projection; the attributes
+ * ordered by are kept by every narrowing Project. Under a Limit without an
+ * ordering, the root of the join order is costed for producing only the
+ * limited number of tuples, which favours plans whose large inputs are
+ * pipelined rather than held in memory.
+ *
+ * An Aggregate is placed above the joins. Where its aggregations all read
+ * one input of the topmost Join, that input may instead be partially
+ * aggregated below the Join, grouped by its join and grouping attributes,
+ * with the partial results combined above it; this is done if the
+ * CostModel finds it cheaper, as when many tuples share each join key.
+ *
+ * If the plan is to run on several nodes, the optimised plan is then
+ * distributed over them by a DistributedPlanner, which chooses between
+ * broadcast and shuffle joins and places the Exchange operators.
+ *
+ * Optimised plans may be kept in a PlanStore, which outlives the
+ * optimiser. A query whose plan is in the store is not optimised again,
+ * unless the optimiser has observed cardinality feedback, which the
+ * stored plan may not reflect; plans found within their deadline are put
+ * in the store, unless they read temporary relations, as re-optimised
+ * remainders of queries executed by an AdaptiveExecutor do.
+ *
+ * Optimisation may be given a Deadline. Join ordering checks it between
+ * alternatives and, once it has expired, keeps the best complete plan
+ * found so far; if there is none, the filtered relations are joined in the
+ * order of the query. Either way isTruncated() then returns true.
+ */
+public class Optimiser implements PlanVisitor {
+	/**
+	 * The largest number of relations whose join order is searched in a Memo
+	 */
+	private static final int MEMO_LIMIT = 10;
+
+	private Catalogue catalogue;
+	private CardinalityFeedback feedback;
+	private EstimateCache cache;
+	private Estimator estimator;
+	private CostModel costModel;
+
+	private LinkedHashMap<String, NamedRelation> relations;
+	private LinkedHashMap<String, Predicate> predicates;
+	private List<Attribute> projection;
+	private Limit limit;
+	private Aggregate aggregate;
+	private TopN topN;
+	private PredicateClosure closure;
+	private Deadline deadline;
+	private boolean truncated;
+	private int nodes;
+	private PlanStore store;
+	private long sampleMillis;
+
+	/**
+	 * Create a new optimiser
+	 * @param catalogue System catalogue
+	 */
+	public Optimiser(Catalogue catalogue) {
+		this(catalogue, null);
+	}
+
+	/**
+	 * Create a new optimiser whose estimates are corrected by the
+	 * output sizes observed in executed plans.
+	 * @param catalogue System catalogue
+	 * @param feedback Observed output sizes
+	 */
+	public Optimiser(Catalogue catalogue, CardinalityFeedback feedback) {
+		this(catalogue, feedback, new EstimateCache(catalogue));
+	}
+
+	/**
+	 * Create a new optimiser that shares estimates of common subplans with
+	 * other optimisers, for instance those planning a related workload.
+	 * @param catalogue System catalogue
+	 * @param feedback Observed output sizes, or null
+	 * @param cache Estimates of subplans over the catalogue
+	 */
+	public Optimiser(Catalogue catalogue, CardinalityFeedback feedback, EstimateCache cache) {
+		this.catalogue = catalogue;
+		this.feedback = feedback;
+		this.cache = cache;
+		this.costModel = new CostModel();
+		this.nodes = 1;
+		this.sampleMillis = Estimator.DEFAULT_SAMPLE_MILLIS;
+	}
+
+	/**
+	 * Set the number of nodes that subsequently optimised plans run on
+	 * @param nodes Node count, 1 for a plan without Exchanges
+	 */
+	public void setNodes(int nodes) {
+		this.nodes = nodes;
+	}
+
+	/**
+	 * Set the time the Estimator may spend evaluating the predicates over
+	 * one relation against its sample (see Sample)
+	 * @param millis Time allowed, in milliseconds; 0 never uses samples
+	 */
+	public void setSampleTimeLimit(long millis) {
+		this.sampleMillis = millis;
+	}
+
+	/**
+	 * Keep subsequently optimised plans in a store, and look them up there
+	 * @param store Plan store, or null for none
+	 */
+	public void setPlanStore(PlanStore store) {
+		this.store = store;
+	}
+
+	/**
+	 * Produce an optimised plan equivalent to the given canonical plan.
+	 * @param plan Canonical query plan
+	 * @return Optimised query plan, with estimated outputs
+	 */
+	public Operator optimise(Operator plan) {
+		return optimise(plan, null);
+	}
+
+	/**
+	 * Produce an optimised plan equivalent to the given canonical plan,
+	 * stopping the search for a join order when a deadline expires.
+	 * @param plan Canonical query plan
+	 * @param deadline Deadline, or null for none
+	 * @return Optimised query plan, with estimated outputs
+	 */
+	public Operator optimise(Operator plan, Deadline deadline) {
+		this.deadline = deadline;
+		this.truncated = false;
+		this.relations = new LinkedHashMap<String, NamedRelation>();
+		this.predicates = new LinkedHashMap<String, Predicate>();
+		this.projection = null;
+		this.limit = null;
+		this.aggregate = null;
+		this.topN = null;
+		this.estimator = createEstimator();
+
+		String key = (this.store != null) ? PlanStore.key(plan, this.nodes) : null;
+		if (key != null && (this.feedback == null || this.feedback.size() == 0)) {
+			Operator stored = this.store.get(key);
+			if (stored != null) {
+				return stored;
+			}
+		}
+
+		plan.accept(this);
+		this.closure = new PredicateClosure(this.predicates.values());
+
+		List<Operator> leaves = new ArrayList<Operator>();
+
+		for (NamedRelation reln : this.relations.values()) {
+			leaves.add(pushSelects(new Scan(reln)));
+		}
+
+		Operator result = (leaves.size() <= MEMO_LIMIT) ?
+				orderJoins(leaves) : orderJoinsGreedily(leaves);
+		if (result == null) {
+			result = joinInOrder(leaves);
+		}
+
+		// the final projection replaces any narrowing at the root
+		if (result instanceof Project) {
+			result = ((Project) result).getInput();
+		}
+
+		// predicates over unknown attributes cannot be placed lower down
+		Set<Attribute> attrs = new HashSet<Attribute>();
+		for (NamedRelation reln : this.relations.values()) {
+			attrs.addAll(reln.getAttributes());
+		}
+		for (Predicate pred : this.predicates.values()) {
+			if (!appliesTo(pred, attrs)) {
+				result = new Select(result, pred);
+			}
+		}
+
+		if (this.aggregate != null) {
+			result = aggregate(result);
+		}
+
+		if (this.topN != null) {
+			result = new TopN(result, this.topN.getAttributes(), descending(this.topN), this.topN.getLimit());
+		} else if (this.limit != null) {
+			result = new Limit(result, this.limit.getLimit());
+		}
+
+		if (this.projection != null) {
+			result = new Project(result, this.projection);
+		} else if (this.aggregate == null) {
+			// reordered joins would otherwise change the columns of SELECT *
+			result = new Project(result, attributes(plan));
+		}
+
+		result.accept(createEstimator());
+
+		if (this.nodes > 1) {
+			result = new DistributedPlanner(this.costModel, this.nodes).distribute(result);
+			result.accept(createEstimator());
+		}
+
+		if (key != null && !this.truncated && catalogued()) {
+			this.store.put(key, result);
+		}
+		return result;
+	}
+
+	/**
+	 * Return true if every relation of the query is in the catalogue, and
+	 * so not a temporary result, which a stored plan could not be read
+	 * back against.
+	 */
+	private boolean catalogued() {
+		for (NamedRelation reln : this.relations.values()) {
+			try {
+				if (this.catalogue.getRelation(reln.toString()) != reln) {
+					return false;
+				}
+			} catch (DatabaseException e) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Return the attributes of a canonical plan without a projection or
+	 * an aggregate, in the order of its relations.
+	 */
+	private static List<Attribute> attributes(Operator plan) {
+		if (plan instanceof Scan) {
+			return ((Scan) plan).getRelation().getAttributes();
+		}
+
+		List<Attribute> attrs = new ArrayList<Attribute>();
+		for (Operator input : plan.getInputs()) {
+			attrs.addAll(attributes(input));
+		}
+		return attrs;
+	}
+
+	private Estimator createEstimator() {
+		Estimator estimator = new Estimator(this.feedback, this.cache);
+		estimator.setSampleTimeLimit(this.sampleMillis);
+		return estimator;
+	}
+
+	/**
+	 * Wrap a Scan in Selects for the predicates of the closure over its
+	 * attributes alone, attr=value predicates first.
+	 */
+	private Operator pushSelects(Scan scan) {
+		Operator op = scan;
+
+		for (Predicate pred : this.closure.getSelections(scan.getOutput().getAttributes())) {
+			op = new Select(op, pred);
+		}
+
+		op.accept(this.estimator);
+		return narrow(op);
+	}
+
+	/**
+	 * Add a Project above a subplan that keeps only the attributes needed
+	 * above it: those in the final projection, and those whose equivalence
+	 * class has attributes outside the subplan, and so may join it to
+	 * other relations.
+	 */
+	private Operator narrow(Operator op) {
+		if (this.projection == null) {
+			return op;
+		}
+
+		List<Attribute> attrs = op.getOutput().getAttributes();
+		List<Attribute> keep = new ArrayList<Attribute>();
+
+		for (Attribute attr : attrs) {
+			if (needed(attr) || this.closure.joinsOutside(attr, attrs)) {
+				keep.add(attr);
+			}
+		}
+
+		if (keep.isEmpty() || keep.size() == attrs.size()) {
+			return op;
+		}
+
+		Project project = new Project(op, keep);
+		this.estimator.visit(project);
+		return project;
+	}
+
+	/**
+	 * Return true if an attribute is needed by the operators above the
+	 * joins: the final projection, or the ordering of a Top-N.
+	 */
+	private boolean needed(Attribute attr) {
+		if (this.aggregate != null) {
+			if (this.aggregate.getGroupBy().contains(attr)) {
+				return true;
+			}
+			for (Aggregation agg : this.aggregate.getAggregations()) {
+				if (attr.equals(agg.getArgument())) {
+					return true;
+				}
+			}
+		}
+		return this.projection == null || this.projection.contains(attr)
+				|| (this.topN != null && this.topN.getAttributes().contains(attr));
+	}
+
+	/**
+	 * Aggregate the joined relations, pre-aggregating one input of the
+	 * topmost Join where that is cheaper under the CostModel.
+	 */
+	private Operator aggregate(Operator plan) {
+		Operator best = new Aggregate(plan, this.aggregate.getGroupBy(), this.aggregate.getAggregations());
+		best.accept(createEstimator());
+		double bestCost = this.costModel.cost(best);
+
+		if (!(plan instanceof Join)) {
+			return best;
+		}
+
+		Join join = (Join) plan;
+		for (int side = 0; side < 2; side++) {
+			Operator op = preAggregate(join, side == 0);
+			if (op != null && this.costModel.cost(op) < bestCost) {
+				best = op;
+				bestCost = this.costModel.cost(op);
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Return a plan that computes the query's aggregations over a Join by
+	 * partially aggregating one of its inputs, grouped by the grouping and
+	 * join attributes on that side, and combining the partial results
+	 * above the Join; or null if the aggregations do not all read that
+	 * side. Each partial group is joined to the same tuples as the tuples
+	 * it stands for, so counts and sums combine by summing, minima and
+	 * maxima by taking the minimum and maximum, and averages as the sum of
+	 * the partial sums over the sum of the partial counts.
+	 */
+	private Operator preAggregate(Join join, boolean right) {
+		Operator side = right ? join.getRight() : join.getLeft();
+		List<Attribute> attrs = side.getOutput().getAttributes();
+
+		List<Attribute> groupBy = new ArrayList<Attribute>();
+		for (Attribute attr : attrs) {
+			boolean joined = false;
+			for (Predicate pred : join.getPredicates()) {
+				joined |= attr.equals(pred.getLeftAttribute()) || attr.equals(pred.getRightAttribute());
+			}
+			if (joined || this.aggregate.getGroupBy().contains(attr)) {
+				groupBy.add(attr);
+			}
+		}
+
+		List<Aggregation> partials = new ArrayList<Aggregation>();
+		List<Aggregation> finals = new ArrayList<Aggregation>();
+
+		for (Aggregation agg : this.aggregate.getAggregations()) {
+			if (agg.getWeight() != null || (agg.getArgument() != null && !attrs.contains(agg.getArgument()))) {
+				return null;
+			}
+
+			Attribute partial = new Attribute("pre_" + agg.getOutput().getName());
+			Aggregation.Function function = agg.getFunction();
+
+			if (function == Aggregation.Function.AVG) {
+				partial = new Attribute("pre_" + agg.getOutput().getName() + "_sum");
+				Attribute count = new Attribute("pre_" + agg.getOutput().getName() + "_count");
+				partials.add(new Aggregation(Aggregation.Function.SUM, agg.getArgument(), partial));
+				partials.add(new Aggregation(Aggregation.Function.COUNT, agg.getArgument(), count));
+				finals.add(new Aggregation(Aggregation.Function.AVG, partial, count, agg.getOutput()));
+			} else {
+				partials.add(new Aggregation(function, agg.getArgument(), partial));
+				// counts combine by summing
+				finals.add(new Aggregation((function == Aggregation.Function.COUNT) ?
+						Aggregation.Function.SUM : function, partial, agg.getOutput()));
+			}
+		}
+
+		Operator pre = new Aggregate(side, groupBy, partials);
+		Operator left = right ? join.getLeft() : pre;
+		Operator rightInput = right ? pre : join.getRight();
+		Operator op = new Aggregate(new Join(left, rightInput, join.getPredicates()),
+				this.aggregate.getGroupBy(), finals);
+
+		op.accept(createEstimator());
+		return op;
+	}
+
+	/**
+	 * Return the directions of the attributes ordered by a Top-N operator
+	 */
+	private static List<Boolean> descending(TopN op) {
+		List<Boolean> ret = new ArrayList<Boolean>();
+
+		for (int i = 0; i < op.getAttributes().size(); i++) {
+			ret.add(op.isDescending(i));
+		}
+		return ret;
+	}
+
+	/**
+	 * Find the cheapest join order by searching a Memo over the leaves;
+	 * return null if the deadline expires before any order is costed.
+	 */
+	private Operator orderJoins(List<Operator> leaves) {
+		Memo memo = new Memo(leaves, this.closure);
+		List<String> names = new ArrayList<String>(this.relations.keySet());
+
+		for (MaterializedView view : this.catalogue.getViews()) {
+			Operator leaf = matchView(view);
+
+			if (leaf != null) {
+				BitSet covered = new BitSet();
+				for (String name : view.getBaseRelations()) {
+					covered.set(names.indexOf(name));
+				}
+				memo.add(memo.getGroup(covered), new GroupExpression(leaf));
+			}
+		}
+
+		MemoSearch search = new MemoSearch(memo, this.costModel);
+
+		search.addRule(new JoinCommuteRule());
+		search.addRule(new JoinAssociateRule());
+		search.addImplementation(new ImplementationRule() {
+			public Operator implement(GroupExpression expr, Operator left, Operator right) {
+				return join(left, right, closure.getJoinPredicates(
+						left.getOutput().getAttributes(), right.getOutput().getAttributes()));
+			}
+		});
+
+		search.setDeadline(this.deadline);
+
+		// under a Limit only the first tuples of the joins are pulled
+		Operator result = (this.limit != null && this.topN == null && this.aggregate == null) ?
+				search.optimise(memo.seed(), this.limit.getLimit()) : search.optimise(memo.seed());
+		this.truncated = search.isTruncated();
+		return result;
+	}
+
+	/**
+	 * Return a subplan that reads a materialized view in place of the
+	 * relations it joins, with residual Selects for the predicates of the
+	 * query over those relations that the view does not apply, or null if
+	 * the view cannot stand in for them: if it reads other relations,
+	 * applies a predicate the query does not imply, or lacks an attribute
+	 * needed above it.
+	 */
+	private Operator matchView(MaterializedView view) {
+		Set<Attribute> attrs = new HashSet<Attribute>();
+
+		for (String name : view.getBaseRelations()) {
+			NamedRelation reln = this.relations.get(name);
+			if (reln == null) {
+				return null;
+			}
+			attrs.addAll(reln.getAttributes());
+		}
+
+		for (Predicate pred : view.getPredicates()) {
+			if (!this.closure.implies(pred)) {
+				return null;
+			}
+		}
+
+		List<Attribute> output = view.getAttributes();
+		PredicateClosure viewClosure = new PredicateClosure(view.getPredicates());
+
+		for (Attribute attr : attrs) {
+			if (needed(attr) && !output.contains(attr)) {
+				return null;
+			}
+			if (this.closure.joinsOutside(attr, attrs) && findIn(this.closure, attr, output) == null) {
+				return null;
+			}
+		}
+
+		Operator op = new Scan(view);
+
+		for (Predicate pred : this.closure.getSelections(attrs)) {
+			if (viewClosure.implies(pred)) {
+				continue;
+			}
+
+			// the view may keep an attribute it equates with the one constrained
+			Attribute left = findIn(viewClosure, pred.getLeftAttribute(), output);
+			Attribute right = pred.equalsAttribute() ?
+					findIn(viewClosure, pred.getRightAttribute(), output) : null;
+
+			if (left == null || (pred.equalsAttribute() && right == null)) {
+				return null;
+			}
+			op = new Select(op, pred.equalsAttribute() ? new Predicate(left, right) : pred.onAttribute(left));
+		}
+
+		op.accept(this.estimator);
+		return narrow(op);
+	}
+
+	/**
+	 * Return the given attribute if it is among the candidates, or else a
+	 * candidate that a closure equates with it, or null if there is none.
+	 */
+	private Attribute findIn(PredicateClosure closure, Attribute attr, List<Attribute> candidates) {
+		for (Attribute candidate : candidates) {
+			if (candidate.equals(attr) || closure.equivalent(candidate, attr)) {
+				return candidate;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Build a left-deep join order by repeatedly joining the leaf that
+	 * gives the cheapest subplan, starting from the smallest leaf; return
+	 * null if the deadline expires first.
+	 */
+	private Operator orderJoinsGreedily(List<Operator> leaves) {
+		List<Operator> remaining = new ArrayList<Operator>(leaves);
+		Operator result = remaining.get(0);
+
+		for (Operator leaf : remaining) {
+			if (leaf.getOutput().getTupleCount() < result.getOutput().getTupleCount()) {
+				result = leaf;
+			}
+		}
+		remaining.remove(result);
+
+		while (!remaining.isEmpty()) {
+			if (this.deadline != null && this.deadline.isExpired()) {
+				this.truncated = true;
+				return null;
+			}
+
+			Operator bestJoin = null;
+			Operator bestLeaf = null;
+			double bestCost = 0;
+			boolean bestConnected = false;
+
+			for (Operator leaf : remaining) {
+				List<Predicate> preds = this.closure.getJoinPredicates(
+						result.getOutput().getAttributes(), leaf.getOutput().getAttributes());
+				boolean connected = !preds.isEmpty();
+
+				if (bestConnected && !connected) {
+					continue;
+				}
+
+				Operator candidate = join(result, leaf, preds);
+				double candidateCost = this.costModel.cost(candidate);
+
+				if (bestJoin == null || (connected && !bestConnected) || candidateCost < bestCost) {
+					bestJoin = candidate;
+					bestLeaf = leaf;
+					bestCost = candidateCost;
+					bestConnected = connected;
+				}
+			}
+
+			remaining.remove(bestLeaf);
+			result = bestJoin;
+		}
+
+		return result;
+	}
+
+	/**
+	 * Join the leaves left-deep in the order of the query, without costing.
+	 */
+	private Operator joinInOrder(List<Operator> leaves) {
+		Operator result = leaves.get(0);
+
+		for (int i = 1; i < leaves.size(); i++) {
+			Operator leaf = leaves.get(i);
+			result = join(result, leaf, this.closure.getJoinPredicates(
+					result.getOutput().getAttributes(), leaf.getOutput().getAttributes()));
+		}
+		return result;
+	}
+
+	/**
+	 * Return true if the last call to optimise() stopped searching for a
+	 * join order at its deadline.
+	 * @return
+	 */
+	public boolean isTruncated() {
+		return this.truncated;
+	}
+
+	/**
+	 * Join two subplans on the given predicates, which together form a
+	 * composite join key, or form their product if there are no predicates,
+	 * and narrow the result.
+	 */
+	private Operator join(Operator left, Operator right, List<Predicate> preds) {
+		Operator op;
+
+		if (preds.isEmpty()) {
+			Product product = new Product(left, right);
+			this.estimator.visit(product);
+			op = product;
+		} else {
+			Join join = new Join(left, right, preds);
+			this.estimator.visit(join);
+			op = join;
+		}
+
+		return narrow(op);
+	}
+
+	private boolean appliesTo(Predicate pred, Collection<Attribute> attrs) {
+		return attrs.contains(pred.getLeftAttribute())
+				&& (!pred.equalsAttribute() || attrs.contains(pred.getRightAttribute()));
+	}
+
+	public void visit(Scan op) {
+		NamedRelation reln = (NamedRelation) op.getRelation();
+		this.relations.put(reln.toString(), reln);
+	}
+
+	public void visit(Project op) {
+		this.projection = op.getAttributes();
+	}
+
+	public void visit(Select op) {
+		addPredicate(op.getPredicate());
+	}
+
+	public void visit(Product op) {
+		// products are replaced by joins, or reintroduced where needed
+	}
+
+	public void visit(Join op) {
+		for (Predicate pred : op.getPredicates()) {
+			addPredicate(pred);
+		}
+	}
+
+	public void visit(Limit op) {
+		this.limit = op;
+	}
+
+	public void visit(TopN op) {
+		this.topN = op;
+	}
+
+	public void visit(Aggregate op) {
+		this.aggregate = op;
+	}
+
+	public void visit(Exchange op) {
+		// the distribution of a plan is chosen afresh
+	}
+
+	private void addPredicate(Predicate pred) {
+		this.predicates.put(SubplanKey.canonical(pred), pred);
+	}
+}
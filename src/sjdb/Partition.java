@@ -0,0 +1,254 @@
+package sjdb;
+
+import java.util.List;
+
+/**
+ * This class represents a partition of a named relation: the tuples whose
+ * value of the partitioning attribute lies within the bounds of the
+ * partition. A partition records its own tuple count and attribute
+ * statistics, like any relation.
+ *
+ * The bounds of a partition are given by its method:
+ *
+ * RANGE: values from a low bound (inclusive) to a high bound (exclusive),
+ * ordered as by Predicate.compare;
+ * LIST: the values in a list;
+ * HASH: the values whose hash, modulo a modulus, is a given remainder.
+ *
+ * All partitions of a relation share a method and a partitioning
+ * attribute, and together hold every tuple of the relation.
+ */
+public class Partition extends Relation {
+	/**
+	 * The partitioning methods
+	 */
+	public enum Method {
+		RANGE, LIST, HASH
+	}
+
+	private String name;
+	private Method method;
+	private Attribute attribute;
+	private List<String> bounds;
+
+	/**
+	 * Create a new partition
+	 * @param name The name of the partition
+	 * @param method Partitioning method
+	 * @param attribute Partitioning attribute
+	 * @param bounds For RANGE, the low and high bounds; for LIST, the
+	 * values; for HASH, the modulus and remainder
+	 * @param size The tuple count
+	 */
+	public Partition(String name, Method method, Attribute attribute, List<String> bounds, int size) {
+		super(size);
+
+		int expected = (method == Method.LIST) ? bounds.size() : 2;
+		if (bounds.isEmpty() || bounds.size() != expected) {
+			throw new IllegalArgumentException("Wrong number of bounds for " + method.name() + " partition " + name);
+		}
+		this.name = name;
+		this.method = method;
+		this.attribute = attribute;
+		this.bounds = bounds;
+	}
+
+	public String getName() {
+		return this.name;
+	}
+
+	public Method getMethod() {
+		return this.method;
+	}
+
+	/**
+	 * Return the partitioning attribute
+	 * @return
+	 */
+	public Attribute getPartitionAttribute() {
+		return this.attribute;
+	}
+
+	/**
+	 * Return the bounds of this partition
+	 * @return
+	 */
+	public List<String> getBounds() {
+		return this.bounds;
+	}
+
+	/**
+	 * Return true if a value of the partitioning attribute belongs in this
+	 * partition
+	 * @param value Value
+	 * @return
+	 */
+	public boolean contains(String value) {
+		switch (this.method) {
+		case RANGE:
+			return Predicate.compare(value, this.bounds.get(0)) >= 0
+					&& Predicate.compare(value, this.bounds.get(1)) < 0;
+		case LIST:
+			return this.bounds.contains(value);
+		default:
+			int modulus = Integer.parseInt(this.bounds.get(0));
+			return Math.floorMod(value.hashCode(), modulus) == Integer.parseInt(this.bounds.get(1));
+		}
+	}
+
+	/**
+	 * Return false if no tuple of this partition can satisfy a predicate
+	 * @param pred Predicate
+	 * @return
+	 */
+	public boolean mightMatch(Predicate pred) {
+		if (pred.equalsAttribute() || !pred.getLeftAttribute().equals(this.attribute)) {
+			return true;
+		}
+
+		List<String> values = pred.getValues();
+
+		if (this.method == Method.LIST) {
+			for (String value : this.bounds) {
+				if (pred.test(value)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		switch (pred.getComparison()) {
+		case EQ:
+			return contains(values.get(0));
+		case IN:
+			for (String value : values) {
+				if (contains(value)) {
+					return true;
+				}
+			}
+			return false;
+		default:
+			break;
+		}
+
+		if (this.method == Method.HASH || !ordered(values)) {
+			return true;
+		}
+
+		String low = this.bounds.get(0);
+		String high = this.bounds.get(1);
+
+		switch (pred.getComparison()) {
+		case LT:
+			return Predicate.compare(low, values.get(0)) < 0;
+		case LE:
+			return Predicate.compare(low, values.get(0)) <= 0;
+		case GT:
+		case GE:
+			return Predicate.compare(values.get(0), high) < 0;
+		case BETWEEN:
+			return Predicate.compare(values.get(0), high) < 0 && Predicate.compare(low, values.get(1)) <= 0;
+		default:
+			return true;
+		}
+	}
+
+	/**
+	 * Return true if comparing values with the bounds of this range
+	 * partition orders them as the values of the partition are ordered:
+	 * numbers with numeric bounds, or anything with non-numeric bounds
+	 */
+	private boolean ordered(List<String> values) {
+		if (Predicate.toNumber(this.bounds.get(0)) == null || Predicate.toNumber(this.bounds.get(1)) == null) {
+			return false;
+		}
+		for (String value : values) {
+			if (Predicate.toNumber(value) == null) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Return true if this partition has the same method and bounds as
+	 * another, so that equal values of their partitioning attributes
+	 * belong in both or in neither
+	 * @param other Partition
+	 * @return
+	 */
+	public boolean sameBounds(Partition other) {
+		return this.method == other.method && this.bounds.equals(other.bounds);
+	}
+
+	/**
+	 * Return the number of partition pairs over which a Join may be
+	 * executed partition-wise, or 0 if it may not. Each input must read a
+	 * single partitioned relation, through Selects and Projects only; the
+	 * Join must equate their partitioning attributes; and the partitions
+	 * of the two relations must have the same bounds, pair by pair.
+	 * @param join Join
+	 * @return Number of partitions of each input, or 0
+	 */
+	public static int coPartitions(Join join) {
+		Scan left = partitionedScan(join.getLeft());
+		Scan right = partitionedScan(join.getRight());
+
+		if (left == null || right == null) {
+			return 0;
+		}
+
+		List<Partition> lefts = ((NamedRelation) left.getRelation()).getPartitions();
+		List<Partition> rights = ((NamedRelation) right.getRelation()).getPartitions();
+		Attribute leftKey = lefts.get(0).getPartitionAttribute();
+		Attribute rightKey = rights.get(0).getPartitionAttribute();
+		boolean equated = false;
+
+		for (Predicate pred : join.getPredicates()) {
+			equated |= (pred.getLeftAttribute().equals(leftKey) && pred.getRightAttribute().equals(rightKey))
+					|| (pred.getLeftAttribute().equals(rightKey) && pred.getRightAttribute().equals(leftKey));
+		}
+		if (!equated || lefts.size() != rights.size()) {
+			return 0;
+		}
+		for (int i = 0; i < lefts.size(); i++) {
+			if (!lefts.get(i).sameBounds(rights.get(i))) {
+				return 0;
+			}
+		}
+		return lefts.size();
+	}
+
+	/**
+	 * Return the Scan of a partitioned relation at the bottom of a chain
+	 * of Selects and Projects, or null if there is none
+	 * @param op Operator
+	 * @return Scan
+	 */
+	public static Scan partitionedScan(Operator op) {
+		while (op instanceof Select || op instanceof Project) {
+			op = ((UnaryOperator) op).getInput();
+		}
+		if (op instanceof Scan && ((Scan) op).getRelation() instanceof NamedRelation
+				&& ((NamedRelation) ((Scan) op).getRelation()).isPartitioned()) {
+			return (Scan) op;
+		}
+		return null;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return this.name;
+	}
+
+	/* (non-Javadoc)
+	 * @see sjdb.Relation#render()
+	 */
+	public String render() {
+		return this.name + "[" + this.method.name() + " " + this.attribute.getName() + " "
+				+ String.join(",", this.bounds) + "]:" + super.render();
+	}
+}
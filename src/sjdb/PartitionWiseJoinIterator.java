@@ -0,0 +1,72 @@
+package sjdb;
+
+import java.util.List;
+
+/**
+ * This class executes a hash join of two relations partitioned alike on
+ * the join key one partition pair at a time: the scans below the join
+ * are restricted to each partition in turn, and the join is reopened
+ * for each, so that its hash table holds the build side of a single
+ * partition. As equal key values lie in partitions with the same bounds,
+ * no match is lost.
+ */
+public class PartitionWiseJoinIterator implements TupleIterator {
+	private TupleIterator join;
+	private ScanIterator left;
+	private ScanIterator right;
+	private int partitions;
+	private int partition;
+
+	/**
+	 * Create a new partition-wise join
+	 * @param join Hash join of the two inputs
+	 * @param left Scan of the partitioned relation on the probe side
+	 * @param right Scan of the partitioned relation on the build side
+	 * @param partitions Number of partitions of each relation
+	 */
+	public PartitionWiseJoinIterator(TupleIterator join, ScanIterator left, ScanIterator right, int partitions) {
+		this.join = join;
+		this.left = left;
+		this.right = right;
+		this.partitions = partitions;
+	}
+
+	public void open() {
+		this.partition = 0;
+		openPartition();
+	}
+
+	public Tuple next() {
+		while (this.partition < this.partitions) {
+			Tuple tuple = this.join.next();
+
+			if (tuple != null) {
+				return tuple;
+			}
+			this.join.close();
+			if (++this.partition < this.partitions) {
+				openPartition();
+			}
+		}
+		return null;
+	}
+
+	public void close() {
+		if (this.partition < this.partitions) {
+			this.join.close();
+		}
+		this.partition = this.partitions;
+		this.left.restrictToPartition(-1);
+		this.right.restrictToPartition(-1);
+	}
+
+	public List<Attribute> getAttributes() {
+		return this.join.getAttributes();
+	}
+
+	private void openPartition() {
+		this.left.restrictToPartition(this.partition);
+		this.right.restrictToPartition(this.partition);
+		this.join.open();
+	}
+}
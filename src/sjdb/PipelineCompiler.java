@@ -0,0 +1,337 @@
+package sjdb;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * This class compiles the predicates of a pipeline, a chain of Selects
+ * (and a Project) over a Scan, into a single method handle that tests a
+ * stored tuple against all of them, for a PipelineIterator.
+ *
+ * Each predicate is specialised for the column it reads, with its
+ * positions and constants bound into the handle. On a dictionary-encoded
+ * column, attr="value" becomes a comparison of the tuple's code with the
+ * value's code, looked up once at compile time; other comparisons are
+ * evaluated for every code of the dictionary at compile time and become
+ * a lookup of the code's outcome. Two attributes sharing a dictionary are
+ * compared by code. The predicates are chained so that each is tested
+ * only if those before it held, and a predicate no stored value can
+ * satisfy makes the whole pipeline a constant.
+ *
+ * Compiled pipelines are kept by fingerprint, the stored relation with
+ * the predicates and projection, and so are shared between the executions
+ * of a plan and between plans reading the same pipeline. A kept pipeline
+ * is used only with a table whose columns have the dictionaries it was
+ * compiled for, holding the same number of values. The compiler is
+ * bounded, and evicts the least recently used pipeline when full.
+ */
+public class PipelineCompiler {
+	private static final int DEFAULT_CAPACITY = 256;
+
+	private static final MethodHandle CODE_EQUALS;
+	private static final MethodHandle CODE_OUTCOME;
+	private static final MethodHandle CODES_EQUAL;
+	private static final MethodHandle VALUE_EQUALS;
+	private static final MethodHandle VALUE_IN;
+	private static final MethodHandle VALUES_EQUAL;
+	private static final MethodHandle VALUE_TEST;
+	private static final MethodHandle TRUE = constant(true);
+	private static final MethodHandle FALSE = constant(false);
+
+	static {
+		MethodHandles.Lookup lookup = MethodHandles.lookup();
+		MethodType test = MethodType.methodType(boolean.class, Tuple.class);
+
+		try {
+			CODE_EQUALS = lookup.findStatic(PipelineCompiler.class, "codeEquals",
+					test.appendParameterTypes(int.class, Dictionary.class, int.class, String.class));
+			CODE_OUTCOME = lookup.findStatic(PipelineCompiler.class, "codeOutcome",
+					test.appendParameterTypes(int.class, Dictionary.class, boolean[].class, Predicate.class));
+			CODES_EQUAL = lookup.findStatic(PipelineCompiler.class, "codesEqual",
+					test.appendParameterTypes(int.class, int.class, Dictionary.class));
+			VALUE_EQUALS = lookup.findStatic(PipelineCompiler.class, "valueEquals",
+					test.appendParameterTypes(int.class, String.class));
+			VALUE_IN = lookup.findStatic(PipelineCompiler.class, "valueIn",
+					test.appendParameterTypes(int.class, Set.class));
+			VALUES_EQUAL = lookup.findStatic(PipelineCompiler.class, "valuesEqual",
+					test.appendParameterTypes(int.class, int.class));
+			VALUE_TEST = lookup.findStatic(PipelineCompiler.class, "valueTest",
+					test.appendParameterTypes(int.class, Predicate.class));
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	/**
+	 * A compiled pipeline: the test of its predicates, the positions it
+	 * projects, and the dictionaries of the columns it was compiled for
+	 */
+	static class Compiled {
+		private MethodHandle filter;
+		private int[] positions;
+		private Dictionary[] dictionaries;
+		private int[] sizes;
+
+		private Compiled(MethodHandle filter, int[] positions, Dictionary[] dictionaries) {
+			this.filter = filter;
+			this.positions = positions;
+			this.dictionaries = dictionaries;
+			this.sizes = sizes(dictionaries);
+		}
+
+		/**
+		 * Return true if a stored tuple satisfies the predicates
+		 * @param tuple Stored tuple
+		 * @return
+		 */
+		boolean test(Tuple tuple) {
+			try {
+				return (boolean) this.filter.invokeExact(tuple);
+			} catch (RuntimeException | Error e) {
+				throw e;
+			} catch (Throwable e) {
+				throw new IllegalStateException(e.getMessage(), e);
+			}
+		}
+
+		/**
+		 * Return the positions of the projected attributes in a stored
+		 * tuple, or null if the pipeline does not project
+		 * @return Positions
+		 */
+		int[] getPositions() {
+			return this.positions;
+		}
+	}
+
+	private LinkedHashMap<String, Compiled> pipelines;
+	private long hits;
+	private long misses;
+
+	/**
+	 * Create a new compiler
+	 * @param capacity Maximum number of compiled pipelines retained
+	 */
+	public PipelineCompiler(final int capacity) {
+		this.pipelines = new LinkedHashMap<String, Compiled>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Compiled> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	public PipelineCompiler() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Return the compiled pipeline over a table, compiling it if no
+	 * pipeline with the same fingerprint is kept for the dictionaries of
+	 * the table.
+	 * @param table Table scanned
+	 * @param predicates Predicates over the attributes of the table, in
+	 * the order they are tested
+	 * @param projection Attributes projected, or null for none
+	 * @return Compiled pipeline
+	 */
+	synchronized Compiled compile(Table table, List<Predicate> predicates, List<Attribute> projection) {
+		List<Attribute> attrs = table.getAttributes();
+		Dictionary[] dictionaries = new Dictionary[attrs.size()];
+		for (int i = 0; i < dictionaries.length; i++) {
+			dictionaries[i] = table.getDictionary(attrs.get(i));
+		}
+
+		String key = fingerprint(table, predicates, projection);
+		Compiled compiled = this.pipelines.get(key);
+		if (compiled != null && sameDictionaries(compiled, dictionaries)) {
+			this.hits++;
+			return compiled;
+		}
+		this.misses++;
+
+		MethodHandle filter = TRUE;
+		for (int i = predicates.size() - 1; i >= 0; i--) {
+			MethodHandle test = specialise(predicates.get(i), attrs, dictionaries);
+			if (test == FALSE) {
+				filter = FALSE;
+			} else if (filter != FALSE) {
+				filter = (filter == TRUE) ? test : MethodHandles.guardWithTest(test, filter, FALSE);
+			}
+		}
+
+		int[] positions = null;
+		if (projection != null) {
+			positions = new int[projection.size()];
+			for (int i = 0; i < positions.length; i++) {
+				positions[i] = attrs.indexOf(projection.get(i));
+			}
+		}
+
+		compiled = new Compiled(filter, positions, dictionaries);
+		this.pipelines.put(key, compiled);
+		return compiled;
+	}
+
+	/**
+	 * Return the number of pipelines retained
+	 * @return Pipeline count
+	 */
+	public synchronized int size() {
+		return this.pipelines.size();
+	}
+
+	/**
+	 * Return the number of pipelines found already compiled
+	 * @return Hit count
+	 */
+	public synchronized long getHits() {
+		return this.hits;
+	}
+
+	/**
+	 * Return the number of pipelines compiled
+	 * @return Miss count
+	 */
+	public synchronized long getMisses() {
+		return this.misses;
+	}
+
+	/**
+	 * Return the fingerprint of a pipeline: the relation stored by its
+	 * table, with its attributes in storage order, the predicates in order
+	 * and the projection
+	 */
+	private static String fingerprint(Table table, List<Predicate> predicates, List<Attribute> projection) {
+		StringBuilder key = new StringBuilder(table.getRelation().toString()).append(table.getAttributes());
+		for (Predicate pred : predicates) {
+			key.append(";").append(pred);
+		}
+		return key.append("->").append(projection).toString();
+	}
+
+	/**
+	 * Return true if a compiled pipeline was compiled for the given
+	 * dictionaries, as they are now: codes looked up at compile time
+	 * may since have been added to a shared dictionary
+	 */
+	private static boolean sameDictionaries(Compiled compiled, Dictionary[] dictionaries) {
+		if (compiled.dictionaries.length != dictionaries.length) {
+			return false;
+		}
+		int[] sizes = sizes(dictionaries);
+		for (int i = 0; i < dictionaries.length; i++) {
+			if (compiled.dictionaries[i] != dictionaries[i] || compiled.sizes[i] != sizes[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int[] sizes(Dictionary[] dictionaries) {
+		int[] sizes = new int[dictionaries.length];
+		for (int i = 0; i < sizes.length; i++) {
+			sizes[i] = (dictionaries[i] == null) ? 0 : dictionaries[i].size();
+		}
+		return sizes;
+	}
+
+	/**
+	 * Return a handle testing a predicate on stored tuples, with the
+	 * positions and constants of the predicate bound; FALSE if no stored
+	 * value can satisfy it.
+	 */
+	private static MethodHandle specialise(Predicate pred, List<Attribute> attrs, Dictionary[] dictionaries) {
+		int left = SelectIterator.indexOf(attrs, pred.getLeftAttribute());
+		Dictionary dict = dictionaries[left];
+
+		if (pred.equalsAttribute()) {
+			int right = SelectIterator.indexOf(attrs, pred.getRightAttribute());
+			if (dict != null && dict == dictionaries[right]) {
+				return MethodHandles.insertArguments(CODES_EQUAL, 1, left, right, dict);
+			}
+			return MethodHandles.insertArguments(VALUES_EQUAL, 1, left, right);
+		}
+
+		if (dict == null) {
+			if (pred.getComparison() == Predicate.Comparison.EQ) {
+				return MethodHandles.insertArguments(VALUE_EQUALS, 1, left, pred.getRightValue());
+			}
+			if (pred.getComparison() == Predicate.Comparison.IN) {
+				return MethodHandles.insertArguments(VALUE_IN, 1, left, new HashSet<String>(pred.getValues()));
+			}
+			return MethodHandles.insertArguments(VALUE_TEST, 1, left, pred);
+		}
+
+		// as in SelectIterator, numeric values may be written in several ways
+		if (pred.equalsValue() && Predicate.toNumber(pred.getRightValue()) == null) {
+			int code = dict.lookup(pred.getRightValue());
+			return (code < 0) ? FALSE
+					: MethodHandles.insertArguments(CODE_EQUALS, 1, left, dict, code, pred.getRightValue());
+		}
+
+		boolean[] outcomes = new boolean[dict.size()];
+		boolean any = false;
+		for (int c = 0; c < outcomes.length; c++) {
+			outcomes[c] = pred.test(dict.decode(c));
+			any |= outcomes[c];
+		}
+		return any ? MethodHandles.insertArguments(CODE_OUTCOME, 1, left, dict, outcomes, pred) : FALSE;
+	}
+
+	private static MethodHandle constant(boolean value) {
+		return MethodHandles.dropArguments(MethodHandles.constant(boolean.class, value), 0, Tuple.class);
+	}
+
+	/*
+	 * The tests bound into compiled pipelines. A tuple whose value is not
+	 * in the dictionary compiled for is tested on its decoded value.
+	 */
+
+	private static boolean codeEquals(Tuple tuple, int pos, Dictionary dict, int code, String value) {
+		if (tuple.getDictionary(pos) != dict) {
+			return tuple.get(pos).equals(value);
+		}
+		return tuple.getCode(pos) == code;
+	}
+
+	private static boolean codeOutcome(Tuple tuple, int pos, Dictionary dict, boolean[] outcomes, Predicate pred) {
+		if (tuple.getDictionary(pos) != dict) {
+			return pred.test(tuple.get(pos));
+		}
+		int code = tuple.getCode(pos);
+		// the dictionary may have grown since the pipeline was compiled
+		return (code < outcomes.length) ? outcomes[code] : pred.test(dict.decode(code));
+	}
+
+	private static boolean codesEqual(Tuple tuple, int left, int right, Dictionary dict) {
+		if (tuple.getDictionary(left) != dict || tuple.getDictionary(right) != dict) {
+			return tuple.get(left).equals(tuple.get(right));
+		}
+		return tuple.getCode(left) == tuple.getCode(right);
+	}
+
+	private static boolean valueEquals(Tuple tuple, int pos, String value) {
+		return tuple.get(pos).equals(value);
+	}
+
+	private static boolean valueIn(Tuple tuple, int pos, Set<?> values) {
+		return values.contains(tuple.get(pos));
+	}
+
+	private static boolean valuesEqual(Tuple tuple, int left, int right) {
+		return tuple.get(left).equals(tuple.get(right));
+	}
+
+	private static boolean valueTest(Tuple tuple, int pos, Predicate pred) {
+		return pred.test(tuple.get(pos));
+	}
+}
@@ -0,0 +1,101 @@
+package sjdb;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class executes a pipeline, a chain of Selects and an optional
+ * Project directly above a Scan, as one iterator. The tuples produced by
+ * the scan, which still skips blocks and partitions and applies runtime
+ * filters, are tested against all the predicates at once by a method
+ * handle compiled by a PipelineCompiler, and projected in the same step,
+ * so no tuple passes through an iterator per operator.
+ *
+ * The Executor builds a pipeline one operator at a time, as it visits
+ * them; the pipeline is compiled when it is opened.
+ */
+public class PipelineIterator implements TupleIterator {
+	private ScanIterator scan;
+	private Table table;
+	private PipelineCompiler compiler;
+	private List<Predicate> predicates;
+	private List<Attribute> projection;
+	private boolean decode;
+	private PipelineCompiler.Compiled compiled;
+	private int[] positions;
+
+	/**
+	 * Create a new pipeline over a scan
+	 * @param scan Scan of a table
+	 * @param compiler Compiler of the pipeline
+	 */
+	public PipelineIterator(ScanIterator scan, PipelineCompiler compiler) {
+		this.scan = scan;
+		this.table = scan.getTable();
+		this.compiler = compiler;
+		this.predicates = new ArrayList<Predicate>();
+	}
+
+	/**
+	 * Add the predicate of a Select above those already in the pipeline
+	 * @param pred Predicate over the attributes of the table
+	 * @return This pipeline
+	 */
+	public PipelineIterator addPredicate(Predicate pred) {
+		this.predicates.add(pred);
+		return this;
+	}
+
+	/**
+	 * Project the tuples passing the predicates; as in ProjectIterator,
+	 * attributes not in the table are ignored. A pipeline projects once.
+	 * @param attributes Attributes to be projected
+	 * @param decode True to decode dictionary-encoded values
+	 * @return This pipeline
+	 */
+	public PipelineIterator project(List<Attribute> attributes, boolean decode) {
+		List<Attribute> attrs = this.table.getAttributes();
+
+		this.projection = new ArrayList<Attribute>();
+		for (Attribute attr : attributes) {
+			if (attrs.contains(attr)) {
+				this.projection.add(attrs.get(attrs.indexOf(attr)));
+			}
+		}
+		this.decode = decode;
+		return this;
+	}
+
+	/**
+	 * Return true if this pipeline projects, and so may not be extended
+	 * @return
+	 */
+	public boolean isProjected() {
+		return this.projection != null;
+	}
+
+	public void open() {
+		this.compiled = this.compiler.compile(this.table, this.predicates, this.projection);
+		this.positions = this.compiled.getPositions();
+		this.scan.open();
+	}
+
+	public Tuple next() {
+		Tuple tuple;
+
+		while ((tuple = this.scan.next()) != null) {
+			if (this.compiled.test(tuple)) {
+				return (this.positions == null) ? tuple : tuple.project(this.positions, this.decode);
+			}
+		}
+		return null;
+	}
+
+	public void close() {
+		this.scan.close();
+	}
+
+	public List<Attribute> getAttributes() {
+		return (this.projection == null) ? this.scan.getAttributes() : this.projection;
+	}
+}
@@ -0,0 +1,532 @@
+package sjdb;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * This class converts query plans to and from a compact binary form, in
+ * which they can be kept in a PlanStore or shipped to the nodes of a
+ * Cluster. A plan is written in the order a PlanVisitor visits it, each
+ * operator after its inputs, as a tag byte followed by the operator's
+ * parameters and its estimated output, if it has one; the reader rebuilds
+ * it on a stack, as the Executor does.
+ *
+ * Counts and sizes are written as variable-length integers. Each distinct
+ * string is written once and each distinct Attribute object (with its
+ * statistics) once, and referred to by number after that, so the
+ * attributes shared by predicates, projections and estimated outputs cost
+ * little, and are shared again in the plan read back.
+ *
+ * A Scan is written as the name of the relation it scans, which is looked
+ * up in the catalogue (or the storage) the plan is read against.
+ */
+public class PlanSerializer implements PlanVisitor {
+	/**
+	 * The version of the format written, checked when a plan is read
+	 */
+	public static final int FORMAT = 1;
+
+	private static final int END = 0;
+	private static final int SCAN = 1;
+	private static final int PROJECT = 2;
+	private static final int SELECT = 3;
+	private static final int PRODUCT = 4;
+	private static final int JOIN = 5;
+	private static final int LIMIT = 6;
+	private static final int TOPN = 7;
+	private static final int AGGREGATE = 8;
+	private static final int EXCHANGE = 9;
+
+	/**
+	 * A source of the named relations scanned by a plan being read
+	 */
+	private interface Relations {
+		NamedRelation get(String name) throws DatabaseException;
+	}
+
+	private DataOutputStream out;
+	private HashMap<String, Integer> strings;
+	private IdentityHashMap<Attribute, Integer> attributes;
+
+	private PlanSerializer(DataOutputStream out) {
+		this.out = out;
+		this.strings = new HashMap<String, Integer>();
+		this.attributes = new IdentityHashMap<Attribute, Integer>();
+	}
+
+	/**
+	 * Serialise a query plan
+	 * @param plan Query plan, with or without estimated outputs
+	 * @return Serialised plan
+	 */
+	public static byte[] serialize(Operator plan) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+		try {
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeByte(FORMAT);
+			plan.accept(new PlanSerializer(out));
+			out.writeByte(END);
+			out.flush();
+		} catch (IOException e) {
+			// not thrown by a ByteArrayOutputStream
+			throw new IllegalStateException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Deserialise a query plan, scanning the named relations of a catalogue
+	 * @param bytes Serialised plan
+	 * @param catalogue Catalogue holding the relations scanned
+	 * @return Query plan, whose operators are created afresh
+	 * @throws DatabaseException if a relation scanned is not in the
+	 * catalogue, or the plan cannot be read
+	 */
+	public static Operator deserialize(byte[] bytes, final Catalogue catalogue) throws DatabaseException {
+		return read(bytes, name -> catalogue.getRelation(name));
+	}
+
+	/**
+	 * Deserialise a query plan, scanning the named relations of the tables
+	 * of a storage
+	 * @param bytes Serialised plan
+	 * @param storage Storage holding the relations scanned
+	 * @return Query plan, whose operators are created afresh
+	 * @throws DatabaseException if a relation scanned is not stored, or
+	 * the plan cannot be read
+	 */
+	public static Operator deserialize(byte[] bytes, final Storage storage) throws DatabaseException {
+		return read(bytes, name -> storage.getTable(name).getRelation());
+	}
+
+	/* (non-Javadoc)
+	 * @see sjdb.PlanVisitor#visit(sjdb.Scan)
+	 */
+	public void visit(Scan op) {
+		write(SCAN, op);
+		writeString(((NamedRelation) op.getRelation()).toString());
+	}
+
+	/* (non-Javadoc)
+	 * @see sjdb.PlanVisitor#visit(sjdb.Project)
+	 */
+	public void visit(Project op) {
+		write(PROJECT, op);
+		writeAttributes(op.getAttributes());
+	}
+
+	/* (non-Javadoc)
+	 * @see sjdb.PlanVisitor#visit(sjdb.Select)
+	 */
+	public void visit(Select op) {
+		write(SELECT, op);
+		writePredicate(op.getPredicate());
+	}
+
+	/* (non-Javadoc)
+	 * @see sjdb.PlanVisitor#visit(sjdb.Product)
+	 */
+	public void visit(Product op) {
+		write(PRODUCT, op);
+	}
+
+	/* (non-Javadoc)
+	 * @see sjdb.PlanVisitor#visit(sjdb.Join)
+	 */
+	public void visit(Join op) {
+		write(JOIN, op);
+		writeCount(op.getPredicates().size());
+		for (Predicate pred : op.getPredicates()) {
+			writePredicate(pred);
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see sjdb.PlanVisitor#visit(sjdb.Limit)
+	 */
+	public void visit(Limit op) {
+		write(LIMIT, op);
+		writeInt(op.getLimit());
+	}
+
+	/* (non-Javadoc)
+	 * @see sjdb.PlanVisitor#visit(sjdb.TopN)
+	 */
+	public void visit(TopN op) {
+		write(TOPN, op);
+		writeAttributes(op.getAttributes());
+		for (int i = 0; i < op.getAttributes().size(); i++) {
+			writeBoolean(op.isDescending(i));
+		}
+		writeInt(op.getLimit());
+	}
+
+	/* (non-Javadoc)
+	 * @see sjdb.PlanVisitor#visit(sjdb.Aggregate)
+	 */
+	public void visit(Aggregate op) {
+		write(AGGREGATE, op);
+		writeAttributes(op.getGroupBy());
+		writeCount(op.getAggregations().size());
+		for (Aggregation agg : op.getAggregations()) {
+			writeCount(agg.getFunction().ordinal());
+			writeAttribute(agg.getArgument());
+			writeAttribute(agg.getWeight());
+			writeAttribute(agg.getOutput());
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see sjdb.PlanVisitor#visit(sjdb.Exchange)
+	 */
+	public void visit(Exchange op) {
+		write(EXCHANGE, op);
+		writeCount(op.getKind().ordinal());
+		writeAttributes(op.getKey());
+		writeCount(op.getNodes());
+	}
+
+	/**
+	 * Write the tag and the estimated output of an operator
+	 */
+	private void write(int tag, Operator op) {
+		try {
+			this.out.writeByte(tag);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+
+		Relation output = op.getOutput();
+		writeBoolean(output != null);
+		if (output != null) {
+			writeCount(output.getTupleCount());
+			writeAttributes(output.getAttributes());
+		}
+	}
+
+	private void writePredicate(Predicate pred) {
+		writeCount(pred.getComparison().ordinal());
+		writeAttribute(pred.getLeftAttribute());
+		writeBoolean(pred.equalsAttribute());
+		if (pred.equalsAttribute()) {
+			writeAttribute(pred.getRightAttribute());
+		} else {
+			writeCount(pred.getValues().size());
+			for (String value : pred.getValues()) {
+				writeString(value);
+			}
+		}
+	}
+
+	private void writeAttributes(List<Attribute> attrs) {
+		writeCount(attrs.size());
+		for (Attribute attr : attrs) {
+			writeAttribute(attr);
+		}
+	}
+
+	/**
+	 * Write an attribute as 0 for none, 1 followed by its name and
+	 * statistics when first written, or its number plus 2 after that
+	 */
+	private void writeAttribute(Attribute attr) {
+		if (attr == null) {
+			writeCount(0);
+			return;
+		}
+
+		Integer index = this.attributes.get(attr);
+		if (index != null) {
+			writeCount(index + 2);
+			return;
+		}
+		this.attributes.put(attr, this.attributes.size());
+		writeCount(1);
+		writeString(attr.getName());
+		writeCount(attr.getValueCount());
+		writeCount(attr.getWidth());
+		writeBoolean(attr.hasRange());
+		if (attr.hasRange()) {
+			try {
+				this.out.writeDouble(attr.getMin());
+				this.out.writeDouble(attr.getMax());
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+
+	/**
+	 * Write a string as 0 followed by its characters when first written,
+	 * or its number plus 1 after that
+	 */
+	private void writeString(String value) {
+		Integer index = this.strings.get(value);
+
+		try {
+			if (index != null) {
+				writeCount(index + 1);
+			} else {
+				this.strings.put(value, this.strings.size());
+				writeCount(0);
+				this.out.writeUTF(value);
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private void writeBoolean(boolean value) {
+		try {
+			this.out.writeBoolean(value);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Write an integer that may be negative, such as TopN.UNLIMITED
+	 */
+	private void writeInt(int value) {
+		writeCount((value << 1) ^ (value >> 31));
+	}
+
+	/**
+	 * Write a non-negative integer in seven-bit groups, least significant
+	 * first, each but the last with its top bit set
+	 */
+	private void writeCount(int value) {
+		try {
+			while ((value & ~0x7F) != 0) {
+				this.out.writeByte((value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+			this.out.writeByte(value);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Reader of a serialised plan, holding the strings and attributes read
+	 * so far
+	 */
+	private static class Reader {
+		private DataInputStream in;
+		private Relations relations;
+		private List<String> strings;
+		private List<Attribute> attributes;
+
+		private Reader(DataInputStream in, Relations relations) {
+			this.in = in;
+			this.relations = relations;
+			this.strings = new ArrayList<String>();
+			this.attributes = new ArrayList<Attribute>();
+		}
+
+		private Operator read() throws IOException, DatabaseException {
+			if (this.in.readUnsignedByte() != FORMAT) {
+				throw new IOException("Unknown plan format");
+			}
+
+			Deque<Operator> stack = new ArrayDeque<Operator>();
+			int tag;
+			while ((tag = this.in.readUnsignedByte()) != END) {
+				boolean estimated = this.in.readBoolean();
+				Relation output = estimated ? readRelation() : null;
+				Operator op = readOperator(tag, stack);
+
+				if (estimated) {
+					op.setOutput(output);
+				}
+				stack.push(op);
+			}
+
+			if (stack.size() != 1) {
+				throw new IOException("Plan has " + stack.size() + " roots");
+			}
+			return stack.pop();
+		}
+
+		private Operator readOperator(int tag, Deque<Operator> stack) throws IOException, DatabaseException {
+			Operator right;
+
+			switch (tag) {
+			case SCAN:
+				return new Scan(this.relations.get(readString()));
+			case PROJECT:
+				return new Project(pop(stack), readAttributes());
+			case SELECT:
+				return new Select(pop(stack), readPredicate());
+			case PRODUCT:
+				right = pop(stack);
+				return new Product(pop(stack), right);
+			case JOIN:
+				right = pop(stack);
+				List<Predicate> preds = new ArrayList<Predicate>();
+				for (int i = readCount(); i > 0; i--) {
+					preds.add(readPredicate());
+				}
+				return new Join(pop(stack), right, preds);
+			case LIMIT:
+				return new Limit(pop(stack), readInt());
+			case TOPN: {
+				Operator input = pop(stack);
+				List<Attribute> attrs = readAttributes();
+				List<Boolean> descending = new ArrayList<Boolean>();
+				for (int i = 0; i < attrs.size(); i++) {
+					descending.add(this.in.readBoolean());
+				}
+				return new TopN(input, attrs, descending, readInt());
+			}
+			case AGGREGATE: {
+				Operator input = pop(stack);
+				List<Attribute> groupBy = readAttributes();
+				List<Aggregation> aggs = new ArrayList<Aggregation>();
+				for (int i = readCount(); i > 0; i--) {
+					Aggregation.Function function = readEnum(Aggregation.Function.values());
+					Attribute argument = readAttribute();
+					Attribute weight = readAttribute();
+					aggs.add(new Aggregation(function, argument, weight, readAttribute()));
+				}
+				return new Aggregate(input, groupBy, aggs);
+			}
+			case EXCHANGE: {
+				Operator input = pop(stack);
+				Exchange.Kind kind = readEnum(Exchange.Kind.values());
+				List<Attribute> key = readAttributes();
+				return new Exchange(input, kind, key, readCount());
+			}
+			default:
+				throw new IOException("Unknown operator tag " + tag);
+			}
+		}
+
+		private Operator pop(Deque<Operator> stack) throws IOException {
+			if (stack.isEmpty()) {
+				throw new IOException("Operator is missing an input");
+			}
+			return stack.pop();
+		}
+
+		private Relation readRelation() throws IOException {
+			Relation reln = new Relation(readCount());
+
+			for (Attribute attr : readAttributes()) {
+				reln.addAttribute(attr);
+			}
+			return reln;
+		}
+
+		private Predicate readPredicate() throws IOException {
+			Predicate.Comparison comparison = readEnum(Predicate.Comparison.values());
+			Attribute left = readAttribute();
+
+			if (this.in.readBoolean()) {
+				return new Predicate(left, readAttribute());
+			}
+
+			List<String> values = new ArrayList<String>();
+			for (int i = readCount(); i > 0; i--) {
+				values.add(readString());
+			}
+			try {
+				return new Predicate(left, comparison, values);
+			} catch (IllegalArgumentException e) {
+				throw new IOException(e.getMessage(), e);
+			}
+		}
+
+		private List<Attribute> readAttributes() throws IOException {
+			List<Attribute> attrs = new ArrayList<Attribute>();
+
+			for (int i = readCount(); i > 0; i--) {
+				attrs.add(readAttribute());
+			}
+			return attrs;
+		}
+
+		private Attribute readAttribute() throws IOException {
+			int index = readCount();
+
+			if (index == 0) {
+				return null;
+			}
+			if (index > 1) {
+				if (index - 2 >= this.attributes.size()) {
+					throw new IOException("Unknown attribute " + (index - 2));
+				}
+				return this.attributes.get(index - 2);
+			}
+
+			String name = readString();
+			int values = readCount();
+			Attribute attr = new Attribute(name, values, readCount());
+			if (this.in.readBoolean()) {
+				double min = this.in.readDouble();
+				attr = new Attribute(attr, values, min, this.in.readDouble());
+			}
+			this.attributes.add(attr);
+			return attr;
+		}
+
+		private String readString() throws IOException {
+			int index = readCount();
+
+			if (index == 0) {
+				String value = this.in.readUTF();
+				this.strings.add(value);
+				return value;
+			}
+			if (index - 1 >= this.strings.size()) {
+				throw new IOException("Unknown string " + (index - 1));
+			}
+			return this.strings.get(index - 1);
+		}
+
+		private <E> E readEnum(E[] values) throws IOException {
+			int ordinal = readCount();
+
+			if (ordinal >= values.length) {
+				throw new IOException("Unknown constant " + ordinal);
+			}
+			return values[ordinal];
+		}
+
+		private int readInt() throws IOException {
+			int value = readCount();
+			return (value >>> 1) ^ -(value & 1);
+		}
+
+		private int readCount() throws IOException {
+			int value = 0;
+
+			for (int shift = 0; shift < 32; shift += 7) {
+				int b = this.in.readUnsignedByte();
+				value |= (b & 0x7F) << shift;
+				if ((b & 0x80) == 0) {
+					return value;
+				}
+			}
+			throw new IOException("Malformed integer");
+		}
+	}
+
+	private static Operator read(byte[] bytes, Relations relations) throws DatabaseException {
+		try {
+			return new Reader(new DataInputStream(new ByteArrayInputStream(bytes)), relations).read();
+		} catch (IOException e) {
+			throw new DatabaseException("Cannot read plan: " + e.getMessage(), e);
+		}
+	}
+}
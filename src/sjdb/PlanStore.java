@@ -0,0 +1,218 @@
+package sjdb;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class keeps optimised plans on disk, so that after a restart the
+ * plans of queries already seen are read back rather than optimised
+ * again. Plans are kept in the form written by PlanSerializer, keyed by
+ * their canonical query, and tagged with the fingerprint of the catalogue
+ * they were optimised against (see Catalogue.getFingerprint()); a plan
+ * made for other statistics is discarded when the store is loaded or the
+ * plan looked up, as EstimateCache does with its estimates.
+ *
+ * The store may be shared by optimisers on different threads, is bounded,
+ * and evicts the least recently used plan when full. It is written to its
+ * file by save(), which replaces the file as a whole, so a failed save
+ * leaves the plans saved before it.
+ */
+public class PlanStore {
+	private static final int DEFAULT_CAPACITY = 1024;
+	private static final int MAGIC = 0x534a4450;
+
+	private Catalogue catalogue;
+	private File file;
+	private LinkedHashMap<String, Entry> plans;
+	private long hits;
+	private long misses;
+
+	private static class Entry {
+		private long fingerprint;
+		private byte[] plan;
+
+		private Entry(long fingerprint, byte[] plan) {
+			this.fingerprint = fingerprint;
+			this.plan = plan;
+		}
+	}
+
+	/**
+	 * Create a new, empty store
+	 * @param catalogue Catalogue the plans are optimised against
+	 * @param file File the plans are loaded from and saved to
+	 * @param capacity Maximum number of plans retained
+	 */
+	public PlanStore(Catalogue catalogue, File file, final int capacity) {
+		this.catalogue = catalogue;
+		this.file = file;
+		this.plans = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	public PlanStore(Catalogue catalogue, File file) {
+		this(catalogue, file, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Return the key under which the plan of a query is kept
+	 * @param canonical Canonical plan of the query
+	 * @param nodes Number of nodes the plan is for
+	 * @return Key
+	 */
+	public static String key(Operator canonical, int nodes) {
+		return nodes + ":" + canonical.toString();
+	}
+
+	/**
+	 * Read the plans saved in the file of the store, keeping those made
+	 * for the current contents of the catalogue. A missing file holds no
+	 * plans.
+	 * @return Number of plans kept
+	 * @throws IOException if the file cannot be read
+	 */
+	public synchronized int load() throws IOException {
+		if (!this.file.exists()) {
+			return 0;
+		}
+
+		long current = this.catalogue.getFingerprint();
+		int loaded = 0;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(this.file)))) {
+			if (in.readInt() != MAGIC || in.readUnsignedByte() != PlanSerializer.FORMAT) {
+				throw new IOException(this.file + " is not a plan store");
+			}
+
+			int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				String key = new String(readBytes(in), StandardCharsets.UTF_8);
+				long fingerprint = in.readLong();
+				byte[] plan = readBytes(in);
+
+				if (fingerprint == current) {
+					this.plans.put(key, new Entry(fingerprint, plan));
+					loaded++;
+				}
+			}
+		} catch (EOFException e) {
+			throw new IOException(this.file + " is truncated", e);
+		}
+		return loaded;
+	}
+
+	/**
+	 * Write the plans of the store to its file
+	 * @throws IOException if the file cannot be written
+	 */
+	public synchronized void save() throws IOException {
+		File temp = new File(this.file.getPath() + ".tmp");
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+			out.writeInt(MAGIC);
+			out.writeByte(PlanSerializer.FORMAT);
+			out.writeInt(this.plans.size());
+			for (Map.Entry<String, Entry> entry : this.plans.entrySet()) {
+				writeBytes(out, entry.getKey().getBytes(StandardCharsets.UTF_8));
+				out.writeLong(entry.getValue().fingerprint);
+				writeBytes(out, entry.getValue().plan);
+			}
+		}
+		Files.move(temp.toPath(), this.file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Return the plan kept for a query, or null if there is none for the
+	 * current contents of the catalogue. Each call returns a plan whose
+	 * operators are created afresh.
+	 * @param key Key of the query
+	 * @return Optimised plan, with estimated outputs
+	 */
+	public synchronized Operator get(String key) {
+		Entry entry = this.plans.get(key);
+		Operator plan = null;
+
+		if (entry != null && entry.fingerprint == this.catalogue.getFingerprint()) {
+			try {
+				plan = PlanSerializer.deserialize(entry.plan, this.catalogue);
+			} catch (DatabaseException e) {
+				// unreadable plans are dropped below
+			}
+		}
+		if (plan == null) {
+			if (entry != null) {
+				this.plans.remove(key);
+			}
+			this.misses++;
+			return null;
+		}
+		this.hits++;
+		return plan;
+	}
+
+	/**
+	 * Keep the plan of a query
+	 * @param key Key of the query
+	 * @param plan Optimised plan
+	 */
+	public synchronized void put(String key, Operator plan) {
+		this.plans.put(key, new Entry(this.catalogue.getFingerprint(), PlanSerializer.serialize(plan)));
+	}
+
+	/**
+	 * Return the number of plans in the store
+	 * @return Plan count
+	 */
+	public synchronized int size() {
+		return this.plans.size();
+	}
+
+	/**
+	 * Return the number of lookups that found a plan
+	 * @return Hit count
+	 */
+	public synchronized long getHits() {
+		return this.hits;
+	}
+
+	/**
+	 * Return the number of lookups that found no plan
+	 * @return Miss count
+	 */
+	public synchronized long getMisses() {
+		return this.misses;
+	}
+
+	private static byte[] readBytes(DataInputStream in) throws IOException {
+		int length = in.readInt();
+
+		if (length < 0) {
+			throw new IOException("Negative length in plan store");
+		}
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return bytes;
+	}
+
+	private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+}
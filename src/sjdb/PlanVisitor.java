@@ -31,4 +31,24 @@ public interface PlanVisitor {
 	 * @param op
 	 */
 	public void visit(Join op);
+	/**
+	 * Visit a Limit operator.
+	 * @param op Limit operator to be visited
+	 */
+	public void visit(Limit op);
+	/**
+	 * Visit a Top-N operator.
+	 * @param op Top-N operator to be visited
+	 */
+	public void visit(TopN op);
+	/**
+	 * Visit an Aggregate operator.
+	 * @param op Aggregate operator to be visited
+	 */
+	public void visit(Aggregate op);
+	/**
+	 * Visit an Exchange operator.
+	 * @param op Exchange operator to be visited
+	 */
+	public void visit(Exchange op);
 }
@@ -1,18 +1,47 @@
 package sjdb;
 
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
 /**
- * This class is used to represent the predicates associated with 
- * joins and select operators. Note that, while a string value is
- * required for predicates of the form attr=value, this values is 
- * only used by the toString() method; a future version of
- * Attribute which uses more expressive synopses may change this.
- * 
+ * This class is used to represent the predicates associated with
+ * joins and select operators. Predicates are of the form attr=attr, or
+ * compare an attribute with one or more values:
+ *
+ * attr="value", attr!="value", attr<"value", attr<="value",
+ * attr>"value", attr>="value", attr BETWEEN "low" AND "high" and
+ * attr IN ("value",...,"value")
+ *
+ * Equality (=, != and IN) compares values as strings. Ordering
+ * comparisons (<, <=, >, >= and BETWEEN) compare values numerically
+ * when both are numbers, and lexicographically otherwise.
+ *
  * @author nmg
  */
 public class Predicate {
+	/**
+	 * The comparison performed by a predicate
+	 */
+	public enum Comparison {
+		EQ("="), NE("!="), LT("<"), LE("<="), GT(">"), GE(">="), BETWEEN(" BETWEEN "), IN(" IN ");
+
+		private String symbol;
+
+		private Comparison(String symbol) {
+			this.symbol = symbol;
+		}
+
+		public String toString() {
+			return this.symbol;
+		}
+	}
+
 	private Attribute leftAttribute;
 	private Attribute rightAttribute;
 	private String rightValue;
+	private Comparison comparison;
+	private List<String> values;
 
 	/**
 	 * Create a predicate of the form attr=attr
@@ -22,6 +51,7 @@ public class Predicate {
 	public Predicate(Attribute left, Attribute right) {
 		this.leftAttribute = left;
 		this.rightAttribute = right;
+		this.comparison = Comparison.EQ;
 	}
 
 	/**
@@ -30,8 +60,48 @@ public class Predicate {
 	 * @param value
 	 */
 	public Predicate(Attribute left, String value) {
+		this(left, Comparison.EQ, value);
+	}
+
+	/**
+	 * Create a predicate of the form attr op value, for the comparisons
+	 * =, !=, <, <=, > and >=
+	 * @param left
+	 * @param comparison
+	 * @param value
+	 */
+	public Predicate(Attribute left, Comparison comparison, String value) {
+		this(left, comparison, Collections.singletonList(value));
+	}
+
+	/**
+	 * Create a predicate comparing an attribute with a list of values: the
+	 * low and high bounds for BETWEEN, the members of the list for IN, or
+	 * a single value for the other comparisons
+	 * @param left
+	 * @param comparison
+	 * @param values
+	 */
+	public Predicate(Attribute left, Comparison comparison, List<String> values) {
+		int expected = (comparison == Comparison.BETWEEN) ? 2 : 1;
+
+		if ((comparison == Comparison.IN) ? values.isEmpty() : values.size() != expected) {
+			throw new IllegalArgumentException("Wrong number of values for " + comparison.name());
+		}
 		this.leftAttribute = left;
-		this.rightValue = value;
+		this.comparison = comparison;
+		this.values = values;
+		this.rightValue = values.get(0);
+	}
+
+	/**
+	 * Return a copy of a predicate comparing an attribute with values,
+	 * applied to another attribute
+	 * @param attr
+	 * @return
+	 */
+	public Predicate onAttribute(Attribute attr) {
+		return new Predicate(attr, this.comparison, this.values);
 	}
 
 	/**
@@ -39,9 +109,25 @@ public class Predicate {
 	 * @return
 	 */
 	public boolean equalsValue() {
-		return this.rightValue != null;
+		return this.rightValue != null && this.comparison == Comparison.EQ;
+	}
+
+	/**
+	 * Return true if this predicate is of the form attr=attr
+	 * @return
+	 */
+	public boolean equalsAttribute() {
+		return this.rightAttribute != null;
+	}
+
+	/**
+	 * Return the comparison performed by this predicate
+	 * @return
+	 */
+	public Comparison getComparison() {
+		return this.comparison;
 	}
-	
+
 	/**
 	 * Return ATTR for predicates of the form ATTR=attr or ATTR=value
 	 * @return left attribute
@@ -49,7 +135,7 @@ public class Predicate {
 	public Attribute getLeftAttribute() {
 		return this.leftAttribute;
 	}
-	
+
 	/**
 	 * Return ATTR for predicates of the form attr=ATTR
 	 * @return right attribute
@@ -57,23 +143,103 @@ public class Predicate {
 	public Attribute getRightAttribute() {
 		return this.rightAttribute;
 	}
-	
+
 	/**
-	 * Return VALUE for predicates of the form attr=VALUE
+	 * Return VALUE for predicates of the form attr=VALUE, or the first
+	 * value for other predicates that compare an attribute with values
 	 * @return right value
 	 */
 	public String getRightValue() {
 		return this.rightValue;
 	}
-	
+
+	/**
+	 * Return the values compared with for predicates that are not of the
+	 * form attr=attr
+	 * @return values
+	 */
+	public List<String> getValues() {
+		return this.values;
+	}
+
+	/**
+	 * Return true if an attribute value satisfies this predicate, which
+	 * must not be of the form attr=attr
+	 * @param value
+	 * @return
+	 */
+	public boolean test(String value) {
+		switch (this.comparison) {
+		case EQ:
+			return value.equals(this.rightValue);
+		case NE:
+			return !value.equals(this.rightValue);
+		case LT:
+			return compare(value, this.rightValue) < 0;
+		case LE:
+			return compare(value, this.rightValue) <= 0;
+		case GT:
+			return compare(value, this.rightValue) > 0;
+		case GE:
+			return compare(value, this.rightValue) >= 0;
+		case BETWEEN:
+			return compare(value, this.values.get(0)) >= 0 && compare(value, this.values.get(1)) <= 0;
+		case IN:
+			return this.values.contains(value);
+		}
+		return false;
+	}
+
+	/**
+	 * Compare two values numerically if both are numbers, and
+	 * lexicographically otherwise
+	 * @param left
+	 * @param right
+	 * @return
+	 */
+	public static int compare(String left, String right) {
+		Double l = toNumber(left);
+		Double r = toNumber(right);
+
+		if (l != null && r != null) {
+			return Double.compare(l, r);
+		}
+		return left.compareTo(right);
+	}
+
+	/**
+	 * Return a value as a number, or null if it is not numeric
+	 * @param value
+	 * @return
+	 */
+	public static Double toNumber(String value) {
+		try {
+			return Double.valueOf(value);
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
 	/* (non-Javadoc)
 	 * @see java.lang.Object#toString()
 	 */
 	public String toString() {
-		if (this.rightValue == null) {
-			return this.leftAttribute.toString() + "=" + this.rightAttribute.toString(); 
+		if (this.rightAttribute != null) {
+			return this.leftAttribute.toString() + "=" + this.rightAttribute.toString();
+		} else if (this.comparison == Comparison.BETWEEN) {
+			return this.leftAttribute.toString() + this.comparison + "\"" + this.values.get(0) +
+					"\" AND \"" + this.values.get(1) + "\"";
+		} else if (this.comparison == Comparison.IN) {
+			String ret = this.leftAttribute.toString() + this.comparison + "(";
+			Iterator<String> iter = this.values.iterator();
+
+			ret += "\"" + iter.next() + "\"";
+			while (iter.hasNext()) {
+				ret += ",\"" + iter.next() + "\"";
+			}
+			return ret + ")";
 		} else {
-			return this.leftAttribute.toString() + "=\"" + this.rightValue + "\"";
+			return this.leftAttribute.toString() + this.comparison + "\"" + this.rightValue + "\"";
 		}
 	}
 }
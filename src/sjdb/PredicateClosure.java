@@ -0,0 +1,209 @@
+package sjdb;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * This class computes the transitive closure of the equality predicates
+ * of a query. Predicates of the form attr=attr place their attributes in
+ * the same equivalence class; predicates comparing an attribute with
+ * values (attr="value", attr<"value", attr IN (...), etc.) bind a filter
+ * to the class of their attribute. Every attribute in a class therefore
+ * equals every other, and satisfies every filter bound to it.
+ *
+ * From the classes, the optimiser obtains the predicates to apply at each
+ * point in a plan, rather than using the predicates of the query as
+ * written: the Selects over a single relation (including filters implied
+ * on attributes the query did not constrain directly), and the predicates
+ * that join two subplans (including join edges the query did not state).
+ * Only as many predicates as are needed to equate the attributes of each
+ * class are produced, so that the Estimator does not count the selectivity
+ * of a redundant predicate twice.
+ */
+public class PredicateClosure {
+	private HashMap<Attribute, Attribute> parent;
+	private LinkedHashMap<Attribute, List<Attribute>> members;
+	private HashMap<Attribute, LinkedHashMap<String, Predicate>> filters;
+
+	/**
+	 * Compute the equivalence classes of the given predicates
+	 * @param predicates Equality predicates
+	 */
+	public PredicateClosure(Collection<Predicate> predicates) {
+		this.parent = new LinkedHashMap<Attribute, Attribute>();
+
+		for (Predicate pred : predicates) {
+			if (pred.equalsAttribute()) {
+				union(pred.getLeftAttribute(), pred.getRightAttribute());
+			} else {
+				find(pred.getLeftAttribute());
+			}
+		}
+
+		this.members = new LinkedHashMap<Attribute, List<Attribute>>();
+		this.filters = new HashMap<Attribute, LinkedHashMap<String, Predicate>>();
+
+		for (Attribute attr : this.parent.keySet()) {
+			this.members.computeIfAbsent(find(attr), k -> new ArrayList<Attribute>()).add(attr);
+		}
+		for (Predicate pred : predicates) {
+			if (!pred.equalsAttribute()) {
+				// filters are the same if they differ only in their attribute
+				String filter = pred.getComparison().name() + pred.getValues();
+				this.filters.computeIfAbsent(find(pred.getLeftAttribute()),
+						k -> new LinkedHashMap<String, Predicate>()).put(filter, pred);
+			}
+		}
+	}
+
+	/**
+	 * Return the representative of the class of an attribute
+	 * @param attr Attribute
+	 * @return Representative attribute
+	 */
+	public Attribute find(Attribute attr) {
+		Attribute up = this.parent.get(attr);
+
+		if (up == null) {
+			this.parent.put(attr, attr);
+			return attr;
+		}
+		if (!up.equals(attr)) {
+			up = find(up);
+			this.parent.put(attr, up);
+		}
+		return up;
+	}
+
+	private void union(Attribute left, Attribute right) {
+		Attribute l = find(left);
+		Attribute r = find(right);
+
+		if (!l.equals(r)) {
+			this.parent.put(r, l);
+		}
+	}
+
+	/**
+	 * Return true if two attributes are known to be equal
+	 * @param left
+	 * @param right
+	 * @return
+	 */
+	public boolean equivalent(Attribute left, Attribute right) {
+		return this.parent.containsKey(left) && this.parent.containsKey(right)
+				&& find(left).equals(find(right));
+	}
+
+	/**
+	 * Return true if a predicate holds whenever the predicates of this
+	 * closure do: if it equates two attributes of one class, or applies a
+	 * filter bound to the class of its attribute.
+	 * @param pred Predicate
+	 * @return
+	 */
+	public boolean implies(Predicate pred) {
+		if (pred.equalsAttribute()) {
+			return equivalent(pred.getLeftAttribute(), pred.getRightAttribute());
+		}
+		if (!this.parent.containsKey(pred.getLeftAttribute())) {
+			return false;
+		}
+		LinkedHashMap<String, Predicate> bound = this.filters.get(find(pred.getLeftAttribute()));
+		return bound != null && bound.containsKey(pred.getComparison().name() + pred.getValues());
+	}
+
+	/**
+	 * Return the predicates to be applied to a single relation with the
+	 * given attributes: for each class with attributes in the relation, one
+	 * predicate per bound filter, and attr=attr predicates equating those
+	 * attributes. The attr=value predicates come first, followed by the
+	 * other filters.
+	 * @param attrs Attributes of the relation
+	 * @return Selection predicates
+	 */
+	public List<Predicate> getSelections(Collection<Attribute> attrs) {
+		List<Predicate> values = new ArrayList<Predicate>();
+		List<Predicate> comparisons = new ArrayList<Predicate>();
+		List<Predicate> equalities = new ArrayList<Predicate>();
+
+		for (Attribute rep : this.members.keySet()) {
+			List<Attribute> present = present(rep, attrs);
+
+			if (present.isEmpty()) {
+				continue;
+			}
+			if (this.filters.containsKey(rep)) {
+				for (Predicate filter : this.filters.get(rep).values()) {
+					Predicate pred = filter.onAttribute(present.get(0));
+					(pred.equalsValue() ? values : comparisons).add(pred);
+				}
+			}
+			for (int i = 1; i < present.size(); i++) {
+				equalities.add(new Predicate(present.get(0), present.get(i)));
+			}
+		}
+
+		values.addAll(comparisons);
+		values.addAll(equalities);
+		return values;
+	}
+
+	/**
+	 * Return the predicates that join two subplans, each of whose
+	 * attributes have already been equated within it: one attr=attr
+	 * predicate for each class with attributes on both sides.
+	 * @param left Attributes of the left subplan
+	 * @param right Attributes of the right subplan
+	 * @return Join predicates
+	 */
+	public List<Predicate> getJoinPredicates(Collection<Attribute> left, Collection<Attribute> right) {
+		List<Predicate> preds = new ArrayList<Predicate>();
+
+		for (Attribute rep : this.members.keySet()) {
+			List<Attribute> inLeft = present(rep, left);
+			List<Attribute> inRight = present(rep, right);
+
+			if (!inLeft.isEmpty() && !inRight.isEmpty()) {
+				preds.add(new Predicate(inLeft.get(0), inRight.get(0)));
+			}
+		}
+
+		return preds;
+	}
+
+	/**
+	 * Return true if an attribute may still be needed to join a subplan
+	 * with the given attributes to relations outside it; that is, if its
+	 * class has attributes outside the subplan.
+	 * @param attr Attribute of the subplan
+	 * @param attrs Attributes of the subplan
+	 * @return
+	 */
+	public boolean joinsOutside(Attribute attr, Collection<Attribute> attrs) {
+		if (!this.parent.containsKey(attr)) {
+			return false;
+		}
+		for (Attribute member : this.members.get(find(attr))) {
+			if (!attrs.contains(member)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private List<Attribute> present(Attribute rep, Collection<Attribute> attrs) {
+		List<Attribute> present = new ArrayList<Attribute>();
+
+		for (Attribute attr : this.members.get(rep)) {
+			if (attrs.contains(attr)) {
+				present.add(attr);
+			}
+		}
+
+		return present;
+	}
+}
@@ -16,10 +16,9 @@ public class Product extends BinaryOperator {
 	}
 	
 	/* (non-Javadoc)
-	 * @see sjdb.BinaryOperator#accept(sjdb.OperatorVisitor)
+	 * @see sjdb.Operator#dispatch(sjdb.PlanVisitor)
 	 */
-	public void accept(PlanVisitor visitor) {
-		super.accept(visitor);
+	protected void dispatch(PlanVisitor visitor) {
 		visitor.visit(this);
 	}
 
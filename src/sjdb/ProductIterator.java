@@ -0,0 +1,82 @@
+package sjdb;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class executes a Product operator as a nested loop, buffering the
+ * tuples of the right input off the heap, in a TupleBuffer in the
+ * MemoryArena of the query, until the product is closed.
+ */
+public class ProductIterator implements TupleIterator {
+	private TupleIterator left;
+	private TupleIterator right;
+	private List<Attribute> attributes;
+	private MemoryArena arena;
+	private TupleBuffer buffer;
+	private Tuple current;
+	private int position;
+
+	/**
+	 * Create a new product of two input iterators
+	 * @param left Left child iterator
+	 * @param right Right child iterator
+	 */
+	public ProductIterator(TupleIterator left, TupleIterator right) {
+		this(left, right, new MemoryArena());
+	}
+
+	/**
+	 * Create a new product of two input iterators
+	 * @param left Left child iterator
+	 * @param right Right child iterator
+	 * @param arena Memory arena of the query
+	 */
+	public ProductIterator(TupleIterator left, TupleIterator right, MemoryArena arena) {
+		this.left = left;
+		this.right = right;
+		this.arena = arena;
+		this.attributes = new ArrayList<Attribute>(left.getAttributes());
+		this.attributes.addAll(right.getAttributes());
+	}
+
+	public void open() {
+		this.buffer = new TupleBuffer(this.arena);
+
+		this.right.open();
+		Tuple tuple;
+		while ((tuple = this.right.next()) != null) {
+			this.buffer.add(tuple);
+		}
+		this.right.close();
+
+		this.left.open();
+		this.current = null;
+		this.position = 0;
+	}
+
+	public Tuple next() {
+		while (this.current == null || this.position == this.buffer.size()) {
+			this.current = this.left.next();
+			this.position = 0;
+
+			if (this.current == null || this.buffer.size() == 0) {
+				return null;
+			}
+		}
+
+		return this.current.concat(this.buffer.get(this.position++));
+	}
+
+	public void close() {
+		this.left.close();
+		if (this.buffer != null) {
+			this.buffer.release();
+		}
+		this.buffer = null;
+	}
+
+	public List<Attribute> getAttributes() {
+		return this.attributes;
+	}
+}
@@ -0,0 +1,98 @@
+package sjdb;
+
+import java.util.List;
+
+/**
+ * This class wraps the iterator executing an operator and records the
+ * number of tuples and bytes it produces and the time spent inside it.
+ * Times are inclusive of the time spent in child iterators.
+ */
+public class ProfilingIterator implements TupleIterator {
+	private TupleIterator input;
+	private boolean opened;
+	private boolean exhausted;
+	private long tuples;
+	private long bytes;
+	private long nanos;
+
+	/**
+	 * Create a new profiling wrapper
+	 * @param input Iterator to be profiled
+	 */
+	public ProfilingIterator(TupleIterator input) {
+		this.input = input;
+	}
+
+	public void open() {
+		long start = System.nanoTime();
+		this.opened = true;
+		this.input.open();
+		this.nanos += System.nanoTime() - start;
+	}
+
+	public Tuple next() {
+		long start = System.nanoTime();
+		Tuple tuple = this.input.next();
+		this.nanos += System.nanoTime() - start;
+
+		if (tuple != null) {
+			this.tuples++;
+			this.bytes += tuple.getByteSize();
+		} else {
+			this.exhausted = true;
+		}
+
+		return tuple;
+	}
+
+	public void close() {
+		long start = System.nanoTime();
+		this.input.close();
+		this.nanos += System.nanoTime() - start;
+	}
+
+	public List<Attribute> getAttributes() {
+		return this.input.getAttributes();
+	}
+
+	/**
+	 * Return true if the profiled iterator was opened during execution
+	 * @return
+	 */
+	public boolean wasOpened() {
+		return this.opened;
+	}
+
+	/**
+	 * Return true if the profiled iterator produced all of its tuples,
+	 * rather than being closed early, as below a Limit
+	 * @return
+	 */
+	public boolean wasExhausted() {
+		return this.exhausted;
+	}
+
+	/**
+	 * Return the number of tuples produced
+	 * @return Tuple count
+	 */
+	public long getTupleCount() {
+		return this.tuples;
+	}
+
+	/**
+	 * Return the number of bytes produced
+	 * @return Byte count
+	 */
+	public long getByteCount() {
+		return this.bytes;
+	}
+
+	/**
+	 * Return the time spent in the profiled iterator and its children
+	 * @return Elapsed time in nanoseconds
+	 */
+	public long getElapsedNanos() {
+		return this.nanos;
+	}
+}
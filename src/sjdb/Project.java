@@ -29,11 +29,9 @@ public class Project extends UnaryOperator {
 	}
 	
 	/* (non-Javadoc)
-	 * @see sjdb.UnaryOperator#accept(sjdb.OperatorVisitor)
+	 * @see sjdb.Operator#dispatch(sjdb.PlanVisitor)
 	 */
-	public void accept(PlanVisitor visitor) {
-		// depth-first traversal - accept the 
-		super.accept(visitor);
+	protected void dispatch(PlanVisitor visitor) {
 		visitor.visit(this);
 	}
 
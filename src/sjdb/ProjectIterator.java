@@ -0,0 +1,78 @@
+package sjdb;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class executes a Project operator by copying the projected values
+ * of each input tuple into a narrower tuple.
+ *
+ * As in Estimator.visit(Project), projected attributes that do not occur
+ * in the input are ignored.
+ *
+ * Dictionary-encoded values stay encoded, unless the project decodes them
+ * (as the final Project of a plan does).
+ */
+public class ProjectIterator implements TupleIterator {
+	private TupleIterator input;
+	private List<Attribute> attributes;
+	private int[] positions;
+	private boolean decode;
+
+	/**
+	 * Create a new project over an input iterator
+	 * @param input Child iterator
+	 * @param attributes Attributes to be projected
+	 */
+	public ProjectIterator(TupleIterator input, List<Attribute> attributes) {
+		this(input, attributes, false);
+	}
+
+	/**
+	 * Create a new project over an input iterator
+	 * @param input Child iterator
+	 * @param attributes Attributes to be projected
+	 * @param decode True to decode dictionary-encoded values
+	 */
+	public ProjectIterator(TupleIterator input, List<Attribute> attributes, boolean decode) {
+		this.input = input;
+		this.decode = decode;
+		this.attributes = new ArrayList<Attribute>();
+
+		List<Attribute> inputAttrs = input.getAttributes();
+		for (Attribute attr : attributes) {
+			if (inputAttrs.contains(attr)) {
+				this.attributes.add(inputAttrs.get(inputAttrs.indexOf(attr)));
+			}
+		}
+	}
+
+	public void open() {
+		List<Attribute> inputAttrs = this.input.getAttributes();
+
+		this.positions = new int[this.attributes.size()];
+		for (int i = 0; i < this.positions.length; i++) {
+			this.positions[i] = inputAttrs.indexOf(this.attributes.get(i));
+		}
+
+		this.input.open();
+	}
+
+	public Tuple next() {
+		Tuple tuple = this.input.next();
+
+		if (tuple == null) {
+			return null;
+		}
+
+		return tuple.project(this.positions, this.decode);
+	}
+
+	public void close() {
+		this.input.close();
+	}
+
+	public List<Attribute> getAttributes() {
+		return this.attributes;
+	}
+}
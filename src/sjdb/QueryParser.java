@@ -19,27 +19,48 @@ import java.util.regex.Matcher;
  * FROM <relation name>,<relation name>,...,<relation name>
  * WHERE <predicate>,<predicate>,...,<predicate>
  * 
- * where <predicate> is of one of the following two forms:
+ * where <predicate> is of one of the following forms:
  * 
  * <attribute name>="<value>"
  * <attribute name>=<attribute name>
+ * <attribute name><op>"<value>"   (where <op> is one of != < <= > >=)
+ * <attribute name> BETWEEN "<value>" AND "<value>"
+ * <attribute name> IN ("<value>","<value>",...,"<value>")
+ * 
+ * Numeric values may be written without quotes.
  * 
  * The WHERE line (corresponding to the select operators) is optional and 
- * may be omitted; the other lines are required.
+ * may be omitted; the other lines are required. It may be followed by
+ * the optional lines:
+ * 
+ * GROUP BY <attribute name>,...,<attribute name>
+ * ORDER BY <attribute name> [ASC|DESC],...,<attribute name> [ASC|DESC]
+ * LIMIT <n>
+ * 
+ * The SELECT line may include aggregate functions, COUNT(*) or
+ * <function>(<attribute name>) where <function> is one of COUNT, SUM,
+ * MIN, MAX and AVG, each optionally followed by AS <attribute name>; the
+ * result is otherwise named as by Aggregation.defaultName(), such as
+ * sum_age. ORDER BY may refer to the results by name.
  * 
  * To form the canonical query, a left-deep tree of cartesian
  * products over scans over the named relations is built, following by a series
  * of select with the given predicates, and then a single project 
- * with the given attributes.
+ * with the given attributes. A GROUP BY, or any aggregate function, adds
+ * an Aggregate operator above the selects. An ORDER BY adds a Top-N operator below the
+ * project, limited by the LIMIT if there is one; a LIMIT alone adds a
+ * Limit operator there instead.
  * 
  * Note that the author of this class was extremely lazy, and so the parsing 
- * is unforgiving and may be sensitive to extraneous whitespace. In particular, 
- * values in predicates that contain spaces (or for that matter commas) will 
- * break the parsing of the WHERE clause.
+ * is unforgiving and may be sensitive to extraneous whitespace. Quoted values
+ * in the WHERE clause may contain spaces and commas, but not quotes.
  * 
  * @author nmg
  */
 public class QueryParser {
+	private static final Pattern AGGREGATION =
+			Pattern.compile("(COUNT|SUM|MIN|MAX|AVG)\\((\\*|\\w+)\\)(?:\\s+AS\\s+(\\w+))?");
+
 	private BufferedReader reader;
 	private Catalogue catalogue;
 	static Set<String> relations;
@@ -81,11 +102,10 @@ public class QueryParser {
 			lines.add(line);
 		}
 
-		if(lines.size() == 0) return parseProject(projectLine, product);
-
 		base = product;
+		String whereLine = null, groupLine = null, orderLine = null, limitLine = null;
 
-		for(int i = 0; i < lines.size()-1; i++) {
+		for(int i = 0; i < lines.size(); i++) {
 
 			line = lines.get(i);
 
@@ -99,18 +119,132 @@ public class QueryParser {
 
 				relations.add(relationName);
 				base = parseJoin(line, base);
+			} else if(line.startsWith("WHERE")) {
+				whereLine = line;
+			} else if(line.startsWith("GROUP BY")) {
+				groupLine = line;
+			} else if(line.startsWith("ORDER BY")) {
+				orderLine = line;
+			} else if(line.startsWith("LIMIT")) {
+				limitLine = line;
 			}
 		}
 
-		String lastLine = lines.get(lines.size()-1);
+		if(whereLine != null) {
+			base = parseSelect(whereLine, base);
+		}
+
+		List<Aggregation> aggregations = parseAggregations(projectLine);
+
+		if(groupLine != null || !aggregations.isEmpty()) {
+			base = new Aggregate(base, parseGroupBy(groupLine), aggregations);
+		}
+
+		int limit = (limitLine == null) ? TopN.UNLIMITED : parseLimit(limitLine);
 
-		if(lastLine.startsWith("WHERE")) {
-			base = parseSelect(lastLine, base);
+		if(orderLine != null) {
+			base = parseOrder(orderLine, base, limit);
+		} else if(limitLine != null) {
+			base = new Limit(base, limit);
 		}
 
 		return parseProject(projectLine, base);
 	}
 
+	/**
+	 * Parse a "GROUP BY ..." line, which may be null.
+	 * @param line
+	 * @return
+	 */
+	private List<Attribute> parseGroupBy(String line) {
+		List<Attribute> attributes = new ArrayList<>();
+
+		if (line != null) {
+			for (String name : line.split("GROUP BY\\s+")[1].split("\\s*,\\s*")) {
+				attributes.add(new Attribute(name.trim()));
+			}
+		}
+		return attributes;
+	}
+
+	/**
+	 * Parse the aggregate functions in a "SELECT ..." line, of the form
+	 * FUNCTION(<attribute name>) or COUNT(*), optionally followed by
+	 * AS <attribute name>.
+	 * @param line
+	 * @return
+	 */
+	private List<Aggregation> parseAggregations(String line) {
+		List<Aggregation> aggregations = new ArrayList<>();
+		String[] items = line.split("SELECT\\s+")[1].split("\\s*,\\s*");
+
+		for (String item : items) {
+			Aggregation agg = parseAggregation(item.trim());
+			if (agg != null) {
+				aggregations.add(agg);
+			}
+		}
+		return aggregations;
+	}
+
+	/**
+	 * Parse an aggregate function, or return null if the item is not one.
+	 * @param item
+	 * @return
+	 */
+	private Aggregation parseAggregation(String item) {
+		Matcher m = AGGREGATION.matcher(item);
+
+		if (!m.matches()) {
+			return null;
+		}
+
+		Aggregation.Function function = Aggregation.Function.valueOf(m.group(1));
+		Attribute argument = m.group(2).equals("*") ? null : new Attribute(m.group(2));
+		String name = (m.group(3) != null) ? m.group(3) : Aggregation.defaultName(function, argument);
+		return new Aggregation(function, argument, new Attribute(name));
+	}
+
+	/**
+	 * Parse a "LIMIT n" line.
+	 * @param line
+	 * @return
+	 */
+	private int parseLimit(String line) {
+		Matcher m = Pattern.compile("LIMIT\\s+(\\d+)\\s*").matcher(line);
+
+		if (!m.matches()) {
+			throw new IllegalArgumentException("Invalid LIMIT " + line);
+		}
+		return Integer.parseInt(m.group(1));
+	}
+
+	/**
+	 * Parse an "ORDER BY ..." line and build the corresponding Top-N
+	 * operator.
+	 * @param line
+	 * @param op
+	 * @param limit
+	 * @return
+	 */
+	private Operator parseOrder(String line, Operator op, int limit) {
+		String[] keys = line.split("ORDER BY\\s+");
+		List<Attribute> attributes = new ArrayList<>();
+		List<Boolean> descending = new ArrayList<>();
+
+		for (String key : keys[1].split("\\s*,\\s*")) {
+			Matcher m = Pattern.compile("(\\w+)(?:\\s+(ASC|DESC))?\\s*").matcher(key);
+
+			if (!m.matches()) {
+				throw new IllegalArgumentException("Invalid ORDER BY attribute " + key);
+			}
+			attributes.add(new Attribute(m.group(1)));
+			descending.add("DESC".equals(m.group(2)));
+		}
+
+		return new TopN(op, attributes, descending, limit);
+	}
+
 	public String getJoinRelation(String line) {
 
 		String[] relationship = line.split("JOIN\\s+"); // get relation to join
@@ -130,21 +264,23 @@ public class QueryParser {
 
 		Operator right = buildScan(relPred[0]); // get Scan of relationship
 
+		List<Predicate> joinPredicates = new ArrayList<>();
+
 		for(String re: predicates) {
-			base = buildJoin(re, base, right);
+			joinPredicates.add(buildJoinPredicate(re));
 		}
 
-		return base;
+		return new Join(base, right, joinPredicates); // one join on the composite key
 	}
 
-	private Operator buildJoin(String pred, Operator left, Operator right) {
+	private Predicate buildJoinPredicate(String pred) {
 		Pattern p = Pattern.compile("(\\w+)=(\\w+)");
 		Matcher m = p.matcher(pred);
 
 		if (m.matches()) {
 			Attribute leftAttr = new Attribute(m.group(1));
 			Attribute rightAttr = new Attribute(m.group(2));
-			return new Join(left, right, new Predicate(leftAttr, rightAttr));
+			return new Predicate(leftAttr, rightAttr);
 
 		} else {
 			throw new IllegalArgumentException("Invalid JOIN predicate statement");
@@ -216,17 +352,48 @@ public class QueryParser {
 
 		String[] prds = line.split("WHERE\\s+");
 
-		String[] pred = prds[1].split("\\s*,\\s*");
+		List<String> pred = splitList(prds[1]);
 
 		Operator ret = op;
 		
-		for (int i=0; i<pred.length; i++) {
-			ret = buildSelect(pred[i].trim(), ret);
+		for (int i=0; i<pred.size(); i++) {
+			ret = buildSelect(pred.get(i).trim(), ret);
 		}
 		
 		return ret;
 	}
 	
+	/**
+	 * Split a comma-separated list, ignoring commas within quotes or 
+	 * parentheses.
+	 * @param line
+	 * @return
+	 */
+	static List<String> splitList(String line) {
+		List<String> items = new ArrayList<>();
+		int depth = 0;
+		boolean quoted = false;
+		int start = 0;
+		
+		for (int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+			
+			if (c == '"') {
+				quoted = !quoted;
+			} else if (!quoted && c == '(') {
+				depth++;
+			} else if (!quoted && c == ')') {
+				depth--;
+			} else if (!quoted && depth == 0 && c == ',') {
+				items.add(line.substring(start, i).trim());
+				start = i + 1;
+			}
+		}
+		items.add(line.substring(start).trim());
+		
+		return items;
+	}
+	
 	/**
 	 * Build a chain of select operators.
 	 * @param pred
@@ -234,20 +401,56 @@ public class QueryParser {
 	 * @return
 	 */
 	private Operator buildSelect(String pred, Operator op) {
-		Pattern p = Pattern.compile("(\\w+)=\"(\\w+)\"");
-		Matcher m = p.matcher(pred);
+		String value = "(?:\"([^\"]*)\"|([\\w.+-]+))";
+		Matcher between = Pattern.compile(
+				"(\\w+)\\s+BETWEEN\\s+" + value + "\\s+AND\\s+" + value).matcher(pred);
+		Matcher in = Pattern.compile("(\\w+)\\s+IN\\s*\\((.*)\\)").matcher(pred);
+		Matcher cmp = Pattern.compile("(\\w+)\\s*(!=|<=|>=|<|>|=)\\s*" + value).matcher(pred);
 		Predicate ret;
 		
-		if (m.matches()) {
-			ret = new Predicate(new Attribute(m.group(1)), m.group(2));
+		if (between.matches()) {
+			List<String> bounds = Arrays.asList(literal(between.group(2), between.group(3)),
+					literal(between.group(4), between.group(5)));
+			ret = new Predicate(new Attribute(between.group(1)), Predicate.Comparison.BETWEEN, bounds);
+		} else if (in.matches()) {
+			List<String> values = new ArrayList<>();
+			for (String item : splitList(in.group(2))) {
+				values.add(item.replaceAll("^\"|\"$", ""));
+			}
+			ret = new Predicate(new Attribute(in.group(1)), Predicate.Comparison.IN, values);
+		} else if (cmp.matches()) {
+			Attribute left = new Attribute(cmp.group(1));
+			
+			if (cmp.group(2).equals("=") && cmp.group(3) == null 
+					&& Predicate.toNumber(cmp.group(4)) == null) {
+				ret = new Predicate(left, new Attribute(cmp.group(4)));  // attr=attr
+			} else {
+				ret = new Predicate(left, comparison(cmp.group(2)), literal(cmp.group(3), cmp.group(4)));
+			}
 		} else {
-			String[] atts = pred.split("=");
-			ret = new Predicate(new Attribute(atts[0]), new Attribute(atts[1]));
+			throw new IllegalArgumentException("Invalid WHERE predicate " + pred);
 		}
 		
 		return new Select(op, ret);
 	}
 	
+	/**
+	 * Return the value matched by either the quoted or the unquoted 
+	 * alternative of a value pattern.
+	 */
+	private String literal(String quoted, String unquoted) {
+		return (quoted != null) ? quoted : unquoted;
+	}
+	
+	private Predicate.Comparison comparison(String symbol) {
+		for (Predicate.Comparison c : Predicate.Comparison.values()) {
+			if (c.toString().equals(symbol)) {
+				return c;
+			}
+		}
+		throw new IllegalArgumentException("Invalid comparison " + symbol);
+	}
+	
 	/**
 	 * Parse a "SELECT ..." line and build the corresponding project operator.
 	 * @param line
@@ -263,7 +466,8 @@ public class QueryParser {
 			ArrayList<Attribute> attributes = new ArrayList<Attribute>();
 
 			for (int i=0; i<attr.length; i++) {
-				attributes.add(new Attribute(attr[i].trim()));
+				Aggregation agg = parseAggregation(attr[i].trim());
+				attributes.add((agg != null) ? agg.getOutput() : new Attribute(attr[i].trim()));
 			}
 
 			return new Project(op, attributes);
@@ -56,7 +56,7 @@ public class Relation {
 			// If the attribute has more distinct values than there are tuples
 			// in this relation, limit the distinct values to the number of
 			// tuples
-			this.attributes.add(new Attribute(attribute.getName(), this.size));
+			this.attributes.add(new Attribute(attribute, this.size));
 		} else {
 			this.attributes.add(attribute);	
 		}
@@ -71,6 +71,19 @@ public class Relation {
 		return size;
 	}
 	
+	/**
+	 * Return the average width of a tuple of this relation, in bytes
+	 * 
+	 * @return the sum of the widths of the attributes
+	 */
+	public int getTupleWidth() {
+		int width = 0;
+		for (Attribute attr : this.attributes) {
+			width += attr.getWidth();
+		}
+		return width;
+	}
+	
 	
 	/**
 	 * Render this relation and its statistics in a form suitable for debugging 
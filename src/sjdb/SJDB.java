@@ -3,6 +3,7 @@
  */
 package sjdb;
 import java.io.*;
+import java.util.Arrays;
 
 /**
  * @author nmg
@@ -33,8 +34,68 @@ public class SJDB {
 		plan.accept(est);
 		
 		// create optimised plan
-//		Optimiser opt = new Optimiser(cat);
-//		Operator optPlan = opt.optimise(plan);
+		CardinalityFeedback feedback = new CardinalityFeedback();
+		Optimiser opt = new Optimiser(cat, feedback);
+		
+		// plans kept from earlier runs over the same catalogue are reused
+		PlanStore store = null;
+		int plans = Arrays.asList(args).indexOf("-plans");
+		if (plans >= 0) {
+			store = new PlanStore(cat, new File(args[plans + 1]));
+			store.load();
+			opt.setPlanStore(store);
+		}
+		Deadline deadline = null;
+		int timeout = Arrays.asList(args).indexOf("-timeout");
+		if (timeout >= 0) {
+			deadline = new Deadline(Long.parseLong(args[timeout + 1]));
+		}
+		Operator optPlan = opt.optimise(plan, deadline);
+		if (opt.isTruncated()) {
+			System.err.println("optimisation truncated at deadline");
+		}
+		
+		// EXPLAIN ANALYZE: execute the plan over data generated from the
+		// catalogue statistics, and compare estimated and actual cardinalities;
+		// the observed output sizes then feed back into re-optimisation
+		if (Arrays.asList(args).contains("-analyze")) {
+			Storage storage = new Storage();
+			new DataGenerator(cat).populate(storage);
+			System.out.print(new ExplainAnalyzer(storage, feedback).explain(optPlan));
+			
+			optPlan = opt.optimise(plan);
+			System.out.print(new ExplainAnalyzer(storage, feedback).explain(optPlan));
+		}
+		
+		// execute the plan adaptively, re-optimising the rest of the query
+		// where the size of a hash join's build side is far from its estimate
+		if (Arrays.asList(args).contains("-adaptive")) {
+			Storage storage = new Storage();
+			new DataGenerator(cat).populate(storage);
+			AdaptiveExecutor adaptive = new AdaptiveExecutor(opt, storage);
+			int tuples = adaptive.execute(plan).size();
+			System.out.println(tuples + " tuples; re-optimised " + adaptive.getReoptimisationCount()
+					+ " times at " + adaptive.getCheckpointCount() + " checkpoints");
+		}
+		
+		// execute the plan within a budget granted from a pool of memory,
+		// spilling buffered tuples to disk beyond it
+		int memory = Arrays.asList(args).indexOf("-memory");
+		if (memory >= 0) {
+			Storage storage = new Storage();
+			new DataGenerator(cat).populate(storage);
+			MemoryBroker broker = new MemoryBroker(Long.parseLong(args[memory + 1]));
+			Executor executor = new Executor(storage);
+			executor.setMemoryBroker(broker);
+			int tuples = executor.execute(optPlan).size();
+			System.out.println(tuples + " tuples; granted " + executor.getGrant().getBytes() + " of "
+					+ executor.getGrant().getEstimate() + " bytes estimated; spilled "
+					+ executor.getSpilledBytes() + " bytes");
+		}
+
+		if (store != null) {
+			store.save();
+		}
 	}
 
 }
@@ -0,0 +1,129 @@
+package sjdb;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * This class holds a uniform random sample of the stored tuples of a named
+ * relation, drawn by reservoir sampling in one pass over the table when
+ * its statistics are collected. The Estimator evaluates conjunctions of
+ * predicates over one relation against the sample, which captures
+ * correlations between attributes that multiplying the selectivities of
+ * the predicates would miss.
+ *
+ * Sampled tuples are held as their decoded values, so the sample does not
+ * depend on the dictionaries of the table.
+ */
+public class Sample {
+	/**
+	 * The number of tuples sampled from a relation, unless it is smaller
+	 */
+	public static final int DEFAULT_SIZE = 1024;
+
+	/**
+	 * The number of sampled tuples tested between checks of the deadline
+	 */
+	private static final int CHECK_INTERVAL = 64;
+
+	private List<Attribute> attributes;
+	private List<String[]> rows;
+	private int population;
+
+	/**
+	 * Draw a sample of a stored relation
+	 * @param tuples Stored tuples
+	 * @param attributes Attributes of the stored tuples, in order
+	 * @param size Largest number of tuples sampled
+	 * @param random Source of randomness
+	 */
+	public Sample(List<Tuple> tuples, List<Attribute> attributes, int size, Random random) {
+		this.attributes = new ArrayList<Attribute>(attributes);
+		this.rows = new ArrayList<String[]>(Math.min(size, tuples.size()));
+		this.population = tuples.size();
+
+		for (int i = 0; i < tuples.size(); i++) {
+			if (i < size) {
+				this.rows.add(decode(tuples.get(i)));
+			} else {
+				int j = random.nextInt(i + 1);
+				if (j < size) {
+					this.rows.set(j, decode(tuples.get(i)));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Return the number of sampled tuples
+	 * @return Tuple count
+	 */
+	public int size() {
+		return this.rows.size();
+	}
+
+	/**
+	 * Return the number of tuples the sample was drawn from
+	 * @return Tuple count
+	 */
+	public int getPopulation() {
+		return this.population;
+	}
+
+	/**
+	 * Count the sampled tuples that satisfy every one of a list of
+	 * predicates over the attributes of the relation
+	 * @param preds Predicates
+	 * @param deadline Deadline for counting, or null for none
+	 * @return Number of matching tuples, or -1 if a predicate refers to an
+	 * attribute not sampled or the deadline expired first
+	 */
+	public int count(List<Predicate> preds, Deadline deadline) {
+		int[] left = new int[preds.size()];
+		int[] right = new int[preds.size()];
+
+		for (int i = 0; i < left.length; i++) {
+			Predicate pred = preds.get(i);
+			left[i] = this.attributes.indexOf(pred.getLeftAttribute());
+			right[i] = pred.equalsAttribute() ? this.attributes.indexOf(pred.getRightAttribute()) : 0;
+			if (left[i] < 0 || right[i] < 0) {
+				return -1;
+			}
+		}
+
+		int matches = 0;
+		for (int r = 0; r < this.rows.size(); r++) {
+			if (deadline != null && r % CHECK_INTERVAL == 0 && deadline.isExpired()) {
+				return -1;
+			}
+			if (matches(this.rows.get(r), preds, left, right)) {
+				matches++;
+			}
+		}
+		return matches;
+	}
+
+	private static boolean matches(String[] row, List<Predicate> preds, int[] left, int[] right) {
+		for (int i = 0; i < left.length; i++) {
+			Predicate pred = preds.get(i);
+			String value = row[left[i]];
+
+			if (value == null) {
+				return false;
+			}
+			if (pred.equalsAttribute() ? !value.equals(row[right[i]]) : !pred.test(value)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private String[] decode(Tuple tuple) {
+		String[] values = new String[tuple.size()];
+
+		for (int i = 0; i < values.length; i++) {
+			values[i] = tuple.get(i);
+		}
+		return values;
+	}
+}
@@ -1,6 +1,5 @@
 package sjdb;
 
-import java.util.List;
 import java.util.Iterator;
 
 /**
@@ -28,15 +27,6 @@ public class Scan extends Operator {
 		}
 	}
 
-	/* (non-Javadoc)
-	 * @see sjdb.Operator#getInputs()
-	 */
-	@Override
-	public List<Operator> getInputs() {
-		// TODO Auto-generated method stub
-		return null;
-	}
-
 	/**
 	 * Return the named relation to be scanned
 	 * @return Named relation to be scanned
@@ -54,9 +44,9 @@ public class Scan extends Operator {
 	}
 	
 	/* (non-Javadoc)
-	 * @see sjdb.Operator#accept(sjdb.OperatorVisitor)
+	 * @see sjdb.Operator#dispatch(sjdb.PlanVisitor)
 	 */
-	public void accept(PlanVisitor visitor) {
+	protected void dispatch(PlanVisitor visitor) {
 		visitor.visit(this);
 	}
 }
@@ -0,0 +1,261 @@
+package sjdb;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class executes a Scan operator by reading the tuples of a stored
+ * table. Runtime filters pushed down from the hash joins above the Scan
+ * drop tuples whose join key values cannot match, before they are
+ * passed on.
+ *
+ * Predicates of the Selects directly above the Scan may also be pushed
+ * down; the Scan then skips each block of tuples whose zone maps show
+ * that no tuple in it can satisfy them all. The Selects still evaluate
+ * their predicates on the tuples that are read.
+ *
+ * A scan of a partitioned table reads only the partitions whose bounds
+ * do not rule out the pushed predicates, and may be restricted to a single
+ * partition, as by a partition-wise join. The counts of skipped blocks and
+ * tuples cover every execution of the scan, including those of the tuples
+ * of pruned partitions.
+ */
+public class ScanIterator implements TupleIterator {
+	private Table table;
+	private int position;
+	private List<BloomFilter> filters;
+	private List<Integer> positions;
+	private List<ZoneMap> zones;
+	private List<Predicate> zonePredicates;
+	private List<Predicate> predicates;
+	private int partition;
+	private int[] ranges;
+	private int range;
+	private int blockCount;
+	private int blocksSkipped;
+	private int tuplesSkipped;
+	private int partitionCount;
+	private int partitionsPruned;
+
+	/**
+	 * Create a new scan over a stored table
+	 * @param table Table to be scanned
+	 */
+	public ScanIterator(Table table) {
+		this.table = table;
+		this.position = -1;
+		this.filters = new ArrayList<BloomFilter>();
+		this.positions = new ArrayList<Integer>();
+		this.zones = new ArrayList<ZoneMap>();
+		this.zonePredicates = new ArrayList<Predicate>();
+		this.predicates = new ArrayList<Predicate>();
+		this.partition = -1;
+	}
+
+	/**
+	 * Drop the tuples whose value of an attribute is not in a filter
+	 * @param attr Attribute of the scanned table
+	 * @param filter Runtime filter
+	 */
+	public void addFilter(Attribute attr, BloomFilter filter) {
+		this.filters.add(filter);
+		this.positions.add(SelectIterator.indexOf(getAttributes(), attr));
+	}
+
+	/**
+	 * Skip the blocks in which no tuple can satisfy a predicate, and the
+	 * partitions whose bounds rule it out. The predicate is ignored if it
+	 * is not a comparison with values, or if neither an up to date zone
+	 * map of its attribute nor the partitions of the table can rule it out.
+	 * @param pred Predicate comparing an attribute of the table with values
+	 */
+	public void addPredicate(Predicate pred) {
+		if (pred.equalsAttribute()) {
+			return;
+		}
+
+		ZoneMap zone = this.table.getRelation().getZoneMap(pred.getLeftAttribute());
+		int blocks = (this.table.size() + ZoneMap.BLOCK_SIZE - 1) / ZoneMap.BLOCK_SIZE;
+		boolean used = false;
+
+		if (zone != null && this.table.hasZoneMaps() && zone.getBlockCount() == blocks) {
+			this.zones.add(zone);
+			this.zonePredicates.add(pred);
+			used = true;
+		}
+		if (this.table.isPartitioned()
+				&& this.table.getRelation().getPartitions().get(0).getPartitionAttribute().equals(pred.getLeftAttribute())) {
+			used = true;
+		}
+		if (used) {
+			this.predicates.add(pred);
+		}
+	}
+
+	/**
+	 * Read only the tuples of one partition of the table, on subsequent
+	 * executions of this scan
+	 * @param partition Partition number, in the order of the named
+	 * relation, or -1 to read every partition
+	 */
+	public void restrictToPartition(int partition) {
+		this.partition = partition;
+	}
+
+	public void open() {
+		List<int[]> ranges = new ArrayList<int[]>();
+
+		if (!this.table.isPartitioned()) {
+			ranges.add(new int[] { 0, this.table.size() });
+		} else {
+			List<Partition> partitions = this.table.getRelation().getPartitions();
+
+			for (int i = 0; i < partitions.size(); i++) {
+				if (this.partition >= 0 && this.partition != i) {
+					continue;
+				}
+				int start = this.table.getPartitionStart(i);
+				int end = this.table.getPartitionEnd(i);
+
+				this.partitionCount++;
+				if (pruned(partitions.get(i))) {
+					this.partitionsPruned++;
+					this.tuplesSkipped += end - start;
+				} else {
+					ranges.add(new int[] { start, end });
+				}
+			}
+		}
+
+		this.ranges = new int[2 * ranges.size()];
+		for (int i = 0; i < ranges.size(); i++) {
+			this.ranges[2 * i] = ranges.get(i)[0];
+			this.ranges[2 * i + 1] = ranges.get(i)[1];
+		}
+		this.range = 0;
+		this.position = this.ranges.length > 0 ? this.ranges[0] : 0;
+	}
+
+	private boolean pruned(Partition partition) {
+		for (Predicate pred : this.predicates) {
+			if (!partition.mightMatch(pred)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public Tuple next() {
+		List<Tuple> tuples = this.table.getTuples();
+
+		while (this.range < this.ranges.length) {
+			int start = this.ranges[this.range];
+			int end = this.ranges[this.range + 1];
+
+			if (this.position >= end) {
+				this.range += 2;
+				if (this.range < this.ranges.length) {
+					this.position = this.ranges[this.range];
+				}
+				continue;
+			}
+
+			if (this.position % ZoneMap.BLOCK_SIZE == 0 || this.position == start) {
+				// a partition need not start at a block boundary
+				int block = this.position / ZoneMap.BLOCK_SIZE;
+				this.blockCount++;
+
+				if (!ZoneMap.mightMatch(this.zones, this.zonePredicates, block)) {
+					int skip = Math.min(end, (block + 1) * ZoneMap.BLOCK_SIZE);
+					this.blocksSkipped++;
+					this.tuplesSkipped += skip - this.position;
+					this.position = skip;
+					continue;
+				}
+			}
+
+			Tuple tuple = tuples.get(this.position++);
+
+			if (passes(tuple)) {
+				return tuple;
+			}
+		}
+		return null;
+	}
+
+	public void close() {
+		this.position = -1;
+	}
+
+	public List<Attribute> getAttributes() {
+		return this.table.getAttributes();
+	}
+
+	/**
+	 * Return the table scanned
+	 * @return Table
+	 */
+	public Table getTable() {
+		return this.table;
+	}
+
+	/**
+	 * Return the predicates by which this scan skips blocks or partitions
+	 * @return Pushed predicates
+	 */
+	public List<Predicate> getPredicates() {
+		return this.predicates;
+	}
+
+	/**
+	 * Return the number of blocks reached by this scan, whether read or
+	 * skipped
+	 * @return Block count
+	 */
+	public int getBlockCount() {
+		return this.blockCount;
+	}
+
+	/**
+	 * Return the number of blocks skipped by this scan
+	 * @return Skipped block count
+	 */
+	public int getBlocksSkipped() {
+		return this.blocksSkipped;
+	}
+
+	/**
+	 * Return the number of partitions reached by this scan, whether read
+	 * or pruned
+	 * @return Partition count, 0 if the table is not partitioned
+	 */
+	public int getPartitionCount() {
+		return this.partitionCount;
+	}
+
+	/**
+	 * Return the number of partitions pruned by this scan
+	 * @return Pruned partition count
+	 */
+	public int getPartitionsPruned() {
+		return this.partitionsPruned;
+	}
+
+	/**
+	 * Return the number of tuples in the blocks and partitions skipped by
+	 * this scan
+	 * @return Skipped tuple count
+	 */
+	public int getTuplesSkipped() {
+		return this.tuplesSkipped;
+	}
+
+	private boolean passes(Tuple tuple) {
+		for (int i = 0; i < this.filters.size(); i++) {
+			if (!this.filters.get(i).mightContain(tuple.get(this.positions.get(i)))) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
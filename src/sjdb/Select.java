@@ -22,8 +22,10 @@ public class Select extends UnaryOperator {
 		return this.predicate;
 	}
 	
-	public void accept(PlanVisitor visitor) {
-		super.accept(visitor);
+	/* (non-Javadoc)
+	 * @see sjdb.Operator#dispatch(sjdb.PlanVisitor)
+	 */
+	protected void dispatch(PlanVisitor visitor) {
 		visitor.visit(this);
 	}
 	
@@ -0,0 +1,126 @@
+package sjdb;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This class executes a Select operator by discarding the tuples of its
+ * input that do not satisfy the predicate.
+ *
+ * On a dictionary-encoded attribute, attr="value" looks the value up in
+ * the dictionary once and then compares codes; other comparisons are
+ * evaluated once per distinct code and remembered. Two attributes that
+ * share a dictionary are compared by code.
+ */
+public class SelectIterator implements TupleIterator {
+	private TupleIterator input;
+	private Predicate predicate;
+	private int left;
+	private int right;
+	private Dictionary dictionary;
+	private int code;
+	private byte[] outcomes;
+
+	/**
+	 * Create a new select over an input iterator
+	 * @param input Child iterator
+	 * @param predicate Predicate to be satisfied
+	 */
+	public SelectIterator(TupleIterator input, Predicate predicate) {
+		this.input = input;
+		this.predicate = predicate;
+	}
+
+	public void open() {
+		List<Attribute> attrs = this.input.getAttributes();
+
+		this.left = indexOf(attrs, this.predicate.getLeftAttribute());
+		this.right = this.predicate.equalsAttribute() ?
+				indexOf(attrs, this.predicate.getRightAttribute()) : -1;
+
+		this.input.open();
+	}
+
+	public Tuple next() {
+		Tuple tuple;
+
+		while ((tuple = this.input.next()) != null) {
+			if (matches(tuple)) {
+				return tuple;
+			}
+		}
+
+		return null;
+	}
+
+	private boolean matches(Tuple tuple) {
+		Dictionary dict = tuple.getDictionary(this.left);
+
+		if (this.right >= 0) {
+			if (dict != null && dict == tuple.getDictionary(this.right)) {
+				return tuple.getCode(this.left) == tuple.getCode(this.right);
+			}
+			return tuple.get(this.left).equals(tuple.get(this.right));
+		}
+
+		if (dict == null) {
+			return this.predicate.test(tuple.get(this.left));
+		}
+		if (dict != this.dictionary) {
+			bind(dict);
+		}
+
+		int c = tuple.getCode(this.left);
+		if (this.code != -2) {
+			return c == this.code;
+		}
+		if (c >= this.outcomes.length) {
+			// the dictionary has grown since it was bound
+			this.outcomes = Arrays.copyOf(this.outcomes, dict.size());
+		}
+		if (this.outcomes[c] == 0) {
+			this.outcomes[c] = this.predicate.test(dict.decode(c)) ? (byte) 1 : (byte) 2;
+		}
+		return this.outcomes[c] == 1;
+	}
+
+	/**
+	 * Prepare to evaluate the predicate on values encoded in a dictionary:
+	 * for attr="value" with a non-numeric value, find the code to match
+	 * (-1 if the value is absent); otherwise set code to -2 and evaluate the
+	 * predicate per code, as numeric values may be written in several ways.
+	 */
+	private void bind(Dictionary dict) {
+		this.dictionary = dict;
+		this.code = -2;
+		this.outcomes = new byte[dict.size()];
+
+		if (this.predicate.equalsValue() && Predicate.toNumber(this.predicate.getRightValue()) == null) {
+			this.code = dict.lookup(this.predicate.getRightValue());
+		}
+	}
+
+	public void close() {
+		this.input.close();
+	}
+
+	public List<Attribute> getAttributes() {
+		return this.input.getAttributes();
+	}
+
+	/**
+	 * Return the position of an attribute in a schema
+	 * @param attrs Schema
+	 * @param attr Attribute to be found (compared by name)
+	 * @return Position of the attribute
+	 */
+	static int indexOf(List<Attribute> attrs, Attribute attr) {
+		int index = attrs.indexOf(attr);
+
+		if (index < 0) {
+			throw new IllegalArgumentException("Attribute " + attr + " Not Found In " + attrs);
+		}
+
+		return index;
+	}
+}
@@ -0,0 +1,64 @@
+package sjdb;
+
+import java.util.Collection;
+import java.util.HashMap;
+
+/**
+ * This class holds the stored data for the database, as a directory
+ * of Tables indexed by the name of the named relation they store.
+ *
+ * Statistics about the stored relations remain on the NamedRelations
+ * in the Catalogue; storage holds tuples only.
+ */
+public class Storage {
+	private HashMap<String, Table> tables;
+
+	public Storage() {
+		this.tables = new HashMap<String, Table>();
+	}
+
+	/**
+	 * Create a new, empty table for the given named relation and add it
+	 * to the directory, replacing any existing table for that relation.
+	 * @param relation Named relation to be stored
+	 * @return New table
+	 */
+	public Table createTable(NamedRelation relation) {
+		Table table = new Table(relation);
+		tables.put(relation.toString(), table);
+		return table;
+	}
+
+	/**
+	 * Remove the table for the named relation with the given name from
+	 * the directory, if there is one.
+	 * @param name Name of the named relation
+	 */
+	public void dropTable(String name) {
+		tables.remove(name);
+	}
+
+	/**
+	 * Return every stored table
+	 * @return Tables
+	 */
+	public Collection<Table> getTables() {
+		return tables.values();
+	}
+
+	/**
+	 * Return the table storing the named relation with the given name.
+	 * @param name Name of the named relation
+	 * @return Table
+	 * @throws DatabaseException if no table is stored for the relation
+	 */
+	public Table getTable(String name) throws DatabaseException {
+		Table table = tables.get(name);
+
+		if (table==null) {
+			throw new DatabaseException("Table for " + name + " not found");
+		}
+
+		return table;
+	}
+}
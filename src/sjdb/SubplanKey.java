@@ -0,0 +1,118 @@
+package sjdb;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.TreeSet;
+
+/**
+ * This class identifies a subplan by the set of named relations it reads
+ * and the set of predicates it applies, independently of the order in
+ * which the joins and selects are performed. Subplans with the same key
+ * produce the same tuples.
+ */
+public class SubplanKey {
+	private TreeSet<String> relations;
+	private TreeSet<String> predicates;
+	private int hash;
+
+	private SubplanKey(TreeSet<String> relations, TreeSet<String> predicates) {
+		this.relations = relations;
+		this.predicates = predicates;
+		this.hash = 31 * relations.hashCode() + predicates.hashCode();
+	}
+
+	/**
+	 * Return the key of a scan of the given named relation
+	 * @param relation Scanned relation
+	 * @return Key
+	 */
+	public static SubplanKey of(Relation relation) {
+		TreeSet<String> relations = new TreeSet<String>();
+		relations.add(relation.toString());
+		return new SubplanKey(relations, new TreeSet<String>());
+	}
+
+	/**
+	 * Return the key of the subplan that applies a predicate to this one
+	 * @param predicate Predicate applied
+	 * @return Key
+	 */
+	public SubplanKey with(Predicate predicate) {
+		TreeSet<String> predicates = new TreeSet<String>(this.predicates);
+		predicates.add(canonical(predicate));
+		return new SubplanKey(this.relations, predicates);
+	}
+
+	/**
+	 * Return the key of the subplan that combines this one with another
+	 * @param other Other subplan
+	 * @return Key
+	 */
+	public SubplanKey union(SubplanKey other) {
+		TreeSet<String> relations = new TreeSet<String>(this.relations);
+		TreeSet<String> predicates = new TreeSet<String>(this.predicates);
+		relations.addAll(other.relations);
+		predicates.addAll(other.predicates);
+		return new SubplanKey(relations, predicates);
+	}
+
+	/**
+	 * Return the key of the subplan that aggregates this one. Its tuples
+	 * are unlike those of any scan, so it is keyed as a single relation
+	 * named by the aggregation and this key.
+	 * @param aggregate Aggregate operator applied
+	 * @return Key
+	 */
+	public SubplanKey aggregate(Aggregate aggregate) {
+		TreeSet<String> relations = new TreeSet<String>();
+		relations.add("AGGREGATE[" + aggregate.renderAggregations() + "]" + this.relations + this.predicates);
+		return new SubplanKey(relations, new TreeSet<String>());
+	}
+
+	/**
+	 * Return true if this subplan reads any of the given relations
+	 * @param relations Names of relations
+	 * @return
+	 */
+	boolean readsAny(Collection<String> relations) {
+		return !Collections.disjoint(this.relations, relations);
+	}
+
+	/**
+	 * Render a predicate so that a=b and b=a are rendered alike
+	 * @param predicate Predicate
+	 * @return Canonical rendering
+	 */
+	static String canonical(Predicate predicate) {
+		if (!predicate.equalsAttribute()) {
+			return predicate.toString();
+		}
+		String[] names = { predicate.getLeftAttribute().getName(),
+				predicate.getRightAttribute().getName() };
+		Arrays.sort(names);
+		return names[0] + "=" + names[1];
+	}
+
+	@Override
+	public int hashCode() {
+		return this.hash;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof SubplanKey)) {
+			return false;
+		}
+		SubplanKey rhs = (SubplanKey) obj;
+
+		return this.hash == rhs.hash && this.relations.equals(rhs.relations) && this.predicates.equals(rhs.predicates);
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		return this.relations + "" + this.predicates;
+	}
+}
@@ -0,0 +1,169 @@
+package sjdb;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class holds the stored tuples of a named relation. The order of
+ * the attributes in a stored tuple follows the order of the attributes
+ * on the named relation in the catalogue.
+ *
+ * Once loaded, a table may be dictionary-encoded column by column; the
+ * stored tuples then hold codes for the encoded columns. Building the
+ * zone maps of a table publishes them on its named relation, where both
+ * the scans and the optimiser find them.
+ *
+ * The tuples of a partitioned relation are stored partition by partition,
+ * so that a scan may read only some of the partitions.
+ */
+public class Table {
+	private NamedRelation relation;
+	private List<Tuple> tuples;
+	private Dictionary[] dictionaries;
+	private List<Integer> partitionEnds;
+	private boolean zoned;
+
+	/**
+	 * Create a new, empty table for the given named relation
+	 * @param relation Named relation stored in this table
+	 */
+	public Table(NamedRelation relation) {
+		this.relation = relation;
+		this.tuples = new ArrayList<Tuple>();
+		this.partitionEnds = new ArrayList<Integer>();
+	}
+
+	/**
+	 * Return the named relation stored in this table
+	 * @return Named relation
+	 */
+	public NamedRelation getRelation() {
+		return this.relation;
+	}
+
+	/**
+	 * Return the attributes of the stored tuples, in storage order
+	 * @return Attributes
+	 */
+	public List<Attribute> getAttributes() {
+		return this.relation.getAttributes();
+	}
+
+	/**
+	 * Append a tuple to this table
+	 * @param tuple Tuple to append
+	 */
+	public void addTuple(Tuple tuple) {
+		this.tuples.add(tuple);
+	}
+
+	/**
+	 * Mark the end of the tuples of the current partition; the tuples
+	 * added next belong to the next partition of the named relation
+	 */
+	public void endPartition() {
+		this.partitionEnds.add(this.tuples.size());
+	}
+
+	/**
+	 * Return the position of the first tuple of a partition
+	 * @param partition Partition number, in the order of the named relation
+	 * @return Position of the first tuple
+	 */
+	public int getPartitionStart(int partition) {
+		return (partition == 0) ? 0 : this.partitionEnds.get(partition - 1);
+	}
+
+	/**
+	 * Return the position after the last tuple of a partition
+	 * @param partition Partition number, in the order of the named relation
+	 * @return Position after the last tuple
+	 */
+	public int getPartitionEnd(int partition) {
+		return this.partitionEnds.get(partition);
+	}
+
+	/**
+	 * Return true if the tuples of this table are stored partition by
+	 * partition, following the partitions of its named relation
+	 * @return
+	 */
+	public boolean isPartitioned() {
+		return this.relation.isPartitioned() && this.partitionEnds.size() == this.relation.getPartitions().size();
+	}
+
+	/**
+	 * Dictionary-encode the stored tuples. Dictionaries may be shared with
+	 * columns of other tables over the same domain.
+	 * @param dictionaries Dictionary for each attribute, in storage order,
+	 * or null for an attribute to be left plain
+	 */
+	public void encode(Dictionary[] dictionaries) {
+		this.dictionaries = dictionaries.clone();
+		List<Tuple> encoded = new ArrayList<Tuple>(this.tuples.size());
+
+		for (Tuple tuple : this.tuples) {
+			String[] values = new String[this.dictionaries.length];
+			int[] codes = new int[this.dictionaries.length];
+
+			for (int i = 0; i < values.length; i++) {
+				if (this.dictionaries[i] != null) {
+					codes[i] = this.dictionaries[i].encode(tuple.get(i));
+				} else {
+					values[i] = tuple.get(i);
+				}
+			}
+			encoded.add(new Tuple(values, codes, this.dictionaries));
+		}
+
+		this.tuples = encoded;
+	}
+
+	/**
+	 * Return the dictionary of an attribute, or null if it is not encoded
+	 * @param attr Attribute
+	 * @return Dictionary
+	 */
+	public Dictionary getDictionary(Attribute attr) {
+		int index = getAttributes().indexOf(attr);
+		return (this.dictionaries == null || index < 0) ? null : this.dictionaries[index];
+	}
+
+	/**
+	 * Compute the zone map of every column from the stored tuples, in
+	 * their current order, and record them on the named relation
+	 */
+	public void buildZoneMaps() {
+		List<Attribute> attributes = getAttributes();
+
+		for (int i = 0; i < attributes.size(); i++) {
+			this.relation.setZoneMap(attributes.get(i), new ZoneMap(this.tuples, i));
+		}
+		this.zoned = true;
+	}
+
+	/**
+	 * Return true if the zone maps on the named relation were built from
+	 * this table, rather than from another table storing the same relation
+	 * @return
+	 */
+	public boolean hasZoneMaps() {
+		return this.zoned;
+	}
+
+	/**
+	 * Return the stored tuples
+	 * @return Tuples, in insertion order
+	 */
+	public List<Tuple> getTuples() {
+		return this.tuples;
+	}
+
+	/**
+	 * Return the number of stored tuples
+	 * @return Tuple count
+	 */
+	public int size() {
+		return this.tuples.size();
+	}
+}
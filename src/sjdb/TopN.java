@@ -0,0 +1,97 @@
+package sjdb;
+
+import java.util.List;
+
+/**
+ * This class represents a Top-N operator, which orders the tuples of its
+ * input by a list of attributes and passes on only the first of them. With
+ * no limit it sorts its whole input. Values are ordered as by
+ * Predicate.compare: numerically when both are numbers, and
+ * lexicographically otherwise.
+ */
+public class TopN extends UnaryOperator {
+	/**
+	 * The limit of a Top-N operator that passes on all of its input
+	 */
+	public static final int UNLIMITED = -1;
+
+	private List<Attribute> attributes;
+	private List<Boolean> descending;
+	private int limit;
+
+	/**
+	 * Create a new Top-N operator.
+	 * @param input Child operator
+	 * @param attributes Attributes to order by, most significant first
+	 * @param descending For each attribute, true if it is ordered from
+	 * the greatest value down
+	 * @param limit Number of tuples to be passed on, or UNLIMITED
+	 */
+	public TopN(Operator input, List<Attribute> attributes, List<Boolean> descending, int limit) {
+		super(input);
+		this.attributes = attributes;
+		this.descending = descending;
+		this.limit = limit;
+	}
+
+	/**
+	 * Return the attributes ordered by, most significant first
+	 * @return Attributes
+	 */
+	public List<Attribute> getAttributes() {
+		return this.attributes;
+	}
+
+	/**
+	 * Return true if an attribute ordered by is ordered from the greatest
+	 * value down
+	 * @param i Position of the attribute in getAttributes()
+	 * @return
+	 */
+	public boolean isDescending(int i) {
+		return this.descending.get(i);
+	}
+
+	/**
+	 * Return the number of tuples passed on by this operator
+	 * @return Limit, or UNLIMITED
+	 */
+	public int getLimit() {
+		return this.limit;
+	}
+
+	/**
+	 * Return true if this operator passes on only some of its input
+	 * @return
+	 */
+	public boolean hasLimit() {
+		return this.limit != UNLIMITED;
+	}
+
+	/* (non-Javadoc)
+	 * @see sjdb.Operator#dispatch(sjdb.PlanVisitor)
+	 */
+	protected void dispatch(PlanVisitor visitor) {
+		visitor.visit(this);
+	}
+
+	/**
+	 * Render the ordering and limit of this operator
+	 * @return
+	 */
+	public String renderOrder() {
+		String ret = "";
+
+		for (int i = 0; i < this.attributes.size(); i++) {
+			ret += (i == 0 ? "" : ",") + this.attributes.get(i).getName() + (isDescending(i) ? " DESC" : "");
+		}
+		return hasLimit() ? ret + ";" + this.limit : ret;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		return "TOPN [" + renderOrder() + "] (" + getInput().toString() + ")";
+	}
+}
@@ -0,0 +1,98 @@
+package sjdb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * This class executes a Top-N operator. With a limit of n, it keeps the n
+ * best tuples seen so far in a heap whose root is the worst of them, so
+ * each input tuple is compared with the root and either discarded or
+ * swapped in; only n tuples are ever held. With no limit, it sorts its
+ * whole input.
+ */
+public class TopNIterator implements TupleIterator {
+	private TupleIterator input;
+	private TopN op;
+	private Comparator<Tuple> order;
+	private List<Tuple> result;
+	private int position;
+
+	/**
+	 * Create a new Top-N over an input iterator
+	 * @param input Child iterator
+	 * @param op Top-N operator giving the order and limit
+	 */
+	public TopNIterator(TupleIterator input, TopN op) {
+		this.input = input;
+		this.op = op;
+	}
+
+	public void open() {
+		this.order = comparator(this.input.getAttributes());
+		this.input.open();
+
+		if (this.op.hasLimit()) {
+			PriorityQueue<Tuple> heap = new PriorityQueue<Tuple>(Math.max(1, this.op.getLimit()),
+					this.order.reversed());
+			Tuple tuple;
+
+			while ((tuple = this.input.next()) != null) {
+				if (heap.size() < this.op.getLimit()) {
+					heap.add(tuple);
+				} else if (!heap.isEmpty() && this.order.compare(tuple, heap.peek()) < 0) {
+					heap.poll();
+					heap.add(tuple);
+				}
+			}
+			this.result = new ArrayList<Tuple>(heap);
+		} else {
+			this.result = new ArrayList<Tuple>();
+			Tuple tuple;
+
+			while ((tuple = this.input.next()) != null) {
+				this.result.add(tuple);
+			}
+		}
+
+		this.input.close();
+		Collections.sort(this.result, this.order);
+		this.position = 0;
+	}
+
+	public Tuple next() {
+		return (this.position < this.result.size()) ? this.result.get(this.position++) : null;
+	}
+
+	public void close() {
+		this.result = null;
+	}
+
+	public List<Attribute> getAttributes() {
+		return this.input.getAttributes();
+	}
+
+	/**
+	 * Return the order of the Top-N operator over tuples with the given
+	 * attributes
+	 */
+	private Comparator<Tuple> comparator(List<Attribute> attrs) {
+		int[] positions = new int[this.op.getAttributes().size()];
+
+		for (int i = 0; i < positions.length; i++) {
+			positions[i] = SelectIterator.indexOf(attrs, this.op.getAttributes().get(i));
+		}
+
+		return (a, b) -> {
+			for (int i = 0; i < positions.length; i++) {
+				int c = Predicate.compare(a.get(positions[i]), b.get(positions[i]));
+				if (c != 0) {
+					return this.op.isDescending(i) ? -c : c;
+				}
+			}
+			return 0;
+		};
+	}
+}
@@ -0,0 +1,23 @@
+package sjdb;
+
+/**
+ * This is an interface for the transformation rules applied while
+ * exploring a Memo. A transformation rule derives new expressions that are
+ * logically equivalent to an existing one, and adds them to the Memo.
+ */
+public interface TransformationRule {
+	/**
+	 * Return true if this rule applies to an expression.
+	 * @param expr Expression
+	 * @return
+	 */
+	public boolean matches(GroupExpression expr);
+	/**
+	 * Add the expressions derived from an expression to the Memo. The child
+	 * groups of the expression have already been explored.
+	 * @param expr Expression matched by this rule
+	 * @param group Group containing the expression
+	 * @param memo Memo
+	 */
+	public void apply(GroupExpression expr, Group group, Memo memo);
+}
@@ -0,0 +1,180 @@
+package sjdb;
+
+/**
+ * This class represents a single tuple produced while executing a query
+ * plan. Values are held positionally; the attribute at each position is
+ * given by the schema of the TupleIterator that produced the tuple.
+ *
+ * Values read from dictionary-encoded columns are held as int codes, with
+ * the dictionary of each position, and are only decoded when get() is
+ * called; operators that compare values use the codes where they can.
+ */
+public class Tuple {
+	/**
+	 * The size in bytes of an encoded value
+	 */
+	public static final int CODE_WIDTH = 4;
+
+	private String[] values;
+	private int[] codes;
+	private Dictionary[] dictionaries;
+
+	/**
+	 * Create a new tuple holding the given values
+	 * @param values Attribute values, in schema order
+	 */
+	public Tuple(String[] values) {
+		this.values = values;
+	}
+
+	/**
+	 * Create a new tuple holding values that may be encoded. At each
+	 * position with a dictionary, the value is given by the code; at the
+	 * others, it is given by the plain value.
+	 * @param values Plain values, in schema order (may be null where encoded)
+	 * @param codes Codes, in schema order
+	 * @param dictionaries Dictionaries, in schema order (null where plain)
+	 */
+	public Tuple(String[] values, int[] codes, Dictionary[] dictionaries) {
+		this.values = values;
+		this.codes = codes;
+		this.dictionaries = dictionaries;
+	}
+
+	/**
+	 * Return the value at the given position, decoding it if necessary
+	 * @param index Position in the schema
+	 * @return Attribute value
+	 */
+	public String get(int index) {
+		if (this.dictionaries != null && this.dictionaries[index] != null) {
+			return this.dictionaries[index].decode(this.codes[index]);
+		}
+		return this.values[index];
+	}
+
+	/**
+	 * Return the dictionary of the value at the given position, or null if
+	 * the value is not encoded
+	 * @param index Position in the schema
+	 * @return Dictionary
+	 */
+	public Dictionary getDictionary(int index) {
+		return (this.dictionaries == null) ? null : this.dictionaries[index];
+	}
+
+	/**
+	 * Return the code of the encoded value at the given position
+	 * @param index Position in the schema
+	 * @return Code in the dictionary of the position
+	 */
+	public int getCode(int index) {
+		return this.codes[index];
+	}
+
+	/**
+	 * Return the number of values in this tuple
+	 * @return Tuple arity
+	 */
+	public int size() {
+		return (this.values != null) ? this.values.length : this.codes.length;
+	}
+
+	/**
+	 * Create a new tuple holding the values at the given positions of this
+	 * tuple, still encoded unless decoding is requested.
+	 * @param positions Positions to be kept, in order
+	 * @param decode True to decode the values
+	 * @return Projected tuple
+	 */
+	public Tuple project(int[] positions, boolean decode) {
+		if (decode || this.dictionaries == null) {
+			String[] projected = new String[positions.length];
+			for (int i = 0; i < positions.length; i++) {
+				projected[i] = get(positions[i]);
+			}
+			return new Tuple(projected);
+		}
+
+		String[] values = new String[positions.length];
+		int[] codes = new int[positions.length];
+		Dictionary[] dictionaries = new Dictionary[positions.length];
+
+		for (int i = 0; i < positions.length; i++) {
+			int p = positions[i];
+			dictionaries[i] = this.dictionaries[p];
+			if (dictionaries[i] != null) {
+				codes[i] = this.codes[p];
+			} else {
+				values[i] = this.values[p];
+			}
+		}
+		return new Tuple(values, codes, dictionaries);
+	}
+
+	/**
+	 * Create a new tuple holding the values of this tuple followed by
+	 * the values of another.
+	 * @param other Tuple to append
+	 * @return Concatenated tuple
+	 */
+	public Tuple concat(Tuple other) {
+		int n = size();
+		int m = other.size();
+
+		if (this.dictionaries == null && other.dictionaries == null) {
+			String[] joined = new String[n + m];
+			System.arraycopy(this.values, 0, joined, 0, n);
+			System.arraycopy(other.values, 0, joined, n, m);
+			return new Tuple(joined);
+		}
+
+		String[] values = new String[n + m];
+		int[] codes = new int[n + m];
+		Dictionary[] dictionaries = new Dictionary[n + m];
+		copyInto(values, codes, dictionaries, 0);
+		other.copyInto(values, codes, dictionaries, n);
+		return new Tuple(values, codes, dictionaries);
+	}
+
+	private void copyInto(String[] values, int[] codes, Dictionary[] dictionaries, int offset) {
+		int n = size();
+
+		if (this.values != null) {
+			System.arraycopy(this.values, 0, values, offset, n);
+		}
+		if (this.dictionaries != null) {
+			System.arraycopy(this.codes, 0, codes, offset, n);
+			System.arraycopy(this.dictionaries, 0, dictionaries, offset, n);
+		}
+	}
+
+	/**
+	 * Return the number of bytes occupied by the values of this tuple,
+	 * counting one byte per character of a plain value, none for a missing
+	 * value, and CODE_WIDTH bytes per encoded value.
+	 * @return Tuple size in bytes
+	 */
+	public int getByteSize() {
+		int bytes = 0;
+		for (int i = 0; i < size(); i++) {
+			if (getDictionary(i) != null) {
+				bytes += CODE_WIDTH;
+			} else if (this.values[i] != null) {
+				bytes += this.values[i].length();
+			}
+		}
+		return bytes;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		String[] decoded = new String[size()];
+		for (int i = 0; i < decoded.length; i++) {
+			decoded[i] = get(i);
+		}
+		return String.join(",", decoded);
+	}
+}
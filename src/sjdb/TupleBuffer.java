@@ -0,0 +1,360 @@
+package sjdb;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * This class holds a sequence of tuples off the heap, in pages allocated
+ * from a MemoryArena, so that a buffered input holds a few pages rather
+ * than an object per tuple and value. Tuples are appended, and read back
+ * by their position in the sequence as new Tuple objects.
+ *
+ * Each tuple is written as its number of values followed by each value:
+ * a dictionary-encoded value as the number of its dictionary in this
+ * buffer and its code, so it is read back still encoded; any other value
+ * as its characters. The position of each tuple in its page is kept in an
+ * off-heap index.
+ *
+ * If its arena has no room within its budget for another page, the buffer
+ * writes its last page to a temporary file and reuses it. A spilled
+ * buffer is meant to be read in order: a tuple on a spilled page is read
+ * back by reading the whole page into a buffer kept for the purpose, so
+ * reading in order reads each page from disk once, while reading at
+ * random may read a page for every tuple. A spilled buffer that is to be
+ * read at random, as the build side of a hash join, is first loaded back
+ * into memory by load(); the hash join and aggregate partition their
+ * inputs by hash when they outgrow their budget, so that each partition
+ * is written and read in order, and loaded whole only to be joined.
+ */
+public class TupleBuffer {
+	/**
+	 * The size of a page, in bytes; a larger tuple takes a page of its own
+	 */
+	static final int PAGE_SIZE = 1 << 16;
+
+	private static final byte MISSING = 0;
+	private static final byte PLAIN = 1;
+	private static final byte ENCODED = 2;
+
+	private MemoryArena arena;
+	private int pageSize;
+	private boolean pinned;
+	private List<ByteBuffer> pages;
+	private List<Long> offsets;
+	private List<Integer> lengths;
+	private FileChannel spill;
+	private ByteBuffer reread;
+	private int rereadPage;
+	private ByteBuffer index;
+	private int size;
+	private long bytes;
+	private List<Dictionary> dictionaries;
+	private IdentityHashMap<Dictionary, Integer> dictionaryNumbers;
+
+	/**
+	 * Create a new, empty buffer
+	 * @param arena Arena of the pages
+	 */
+	public TupleBuffer(MemoryArena arena) {
+		this(arena, PAGE_SIZE);
+	}
+
+	/**
+	 * Create a new, empty buffer with pages of a given size, as for the
+	 * many partitions of a spilled input
+	 * @param arena Arena of the pages
+	 * @param pageSize Size of a page, in bytes
+	 */
+	public TupleBuffer(MemoryArena arena, int pageSize) {
+		this.arena = arena;
+		this.pageSize = pageSize;
+		this.pages = new ArrayList<ByteBuffer>();
+		this.offsets = new ArrayList<Long>();
+		this.lengths = new ArrayList<Integer>();
+		this.rereadPage = -1;
+		this.dictionaries = new ArrayList<Dictionary>();
+		this.dictionaryNumbers = new IdentityHashMap<Dictionary, Integer>();
+	}
+
+	/**
+	 * Keep every page of this buffer in memory, regardless of the budget
+	 * of the arena, as for a buffer read at random whose size is bounded
+	 * by its owner
+	 * @return This buffer
+	 */
+	public TupleBuffer pin() {
+		this.pinned = true;
+		return this;
+	}
+
+	/**
+	 * Append a tuple
+	 * @param tuple Tuple
+	 * @return Position of the tuple
+	 */
+	public int add(Tuple tuple) {
+		int n = tuple.size();
+		int bytes = 2;
+
+		for (int i = 0; i < n; i++) {
+			if (tuple.getDictionary(i) != null) {
+				bytes += 7;
+			} else {
+				bytes += 1 + ((tuple.get(i) == null) ? 0 : 4 + 2 * tuple.get(i).length());
+			}
+		}
+
+		ByteBuffer page = this.pages.isEmpty() ? null : this.pages.get(this.pages.size() - 1);
+		if (page == null || page.remaining() < bytes) {
+			if (page != null && !this.pinned && page.capacity() >= bytes && !this.arena.hasRoom(Math.max(this.pageSize, bytes))) {
+				spill(page);
+			} else {
+				page = this.arena.allocate(Math.max(this.pageSize, bytes));
+			}
+			this.pages.add(page);
+			this.offsets.add(null);
+			this.lengths.add(0);
+		}
+
+		if (this.index == null || this.index.capacity() < 8 * (this.size + 1)) {
+			ByteBuffer grown = this.arena.allocate(Math.max(8 * 64, 2 * ((this.index == null) ? 0 : this.index.capacity())));
+			if (this.index != null) {
+				this.index.clear();
+				grown.put(this.index);
+				this.arena.release(this.index);
+			}
+			this.index = grown;
+		}
+		this.index.putLong(8 * this.size, ((long) (this.pages.size() - 1) << 32) | page.position());
+
+		page.putShort((short) n);
+		for (int i = 0; i < n; i++) {
+			Dictionary dict = tuple.getDictionary(i);
+			String value;
+
+			if (dict != null) {
+				page.put(ENCODED);
+				page.putShort((short) dictionaryNumber(dict));
+				page.putInt(tuple.getCode(i));
+			} else if ((value = tuple.get(i)) == null) {
+				page.put(MISSING);
+			} else {
+				page.put(PLAIN);
+				page.putInt(value.length());
+				for (int c = 0; c < value.length(); c++) {
+					page.putChar(value.charAt(c));
+				}
+			}
+		}
+		this.bytes += bytes;
+		return this.size++;
+	}
+
+	/**
+	 * Read back a tuple
+	 * @param position Position of the tuple
+	 * @return Tuple, created afresh
+	 */
+	public Tuple get(int position) {
+		long address = this.index.getLong(8 * position);
+		ByteBuffer page = page((int) (address >>> 32));
+		int offset = (int) address;
+
+		int n = page.getShort(offset);
+		offset += 2;
+
+		String[] values = new String[n];
+		int[] codes = null;
+		Dictionary[] dicts = null;
+
+		for (int i = 0; i < n; i++) {
+			byte tag = page.get(offset++);
+
+			if (tag == ENCODED) {
+				if (codes == null) {
+					codes = new int[n];
+					dicts = new Dictionary[n];
+				}
+				dicts[i] = this.dictionaries.get(page.getShort(offset));
+				codes[i] = page.getInt(offset + 2);
+				offset += 6;
+			} else if (tag == PLAIN) {
+				char[] chars = new char[page.getInt(offset)];
+				offset += 4;
+				for (int c = 0; c < chars.length; c++) {
+					chars[c] = page.getChar(offset);
+					offset += 2;
+				}
+				values[i] = new String(chars);
+			}
+		}
+
+		return (codes == null) ? new Tuple(values) : new Tuple(values, codes, dicts);
+	}
+
+	/**
+	 * Return the number of tuples held
+	 * @return Tuple count
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * Return the number of bytes taken by the tuples held
+	 * @return Byte count
+	 */
+	public long getByteCount() {
+		return this.bytes;
+	}
+
+	/**
+	 * Read any spilled pages back into memory, regardless of the budget of
+	 * the arena, so that the tuples may be read at random without reading
+	 * from disk
+	 */
+	public void load() {
+		if (this.spill == null) {
+			return;
+		}
+		for (int i = 0; i < this.pages.size(); i++) {
+			if (this.pages.get(i) == null) {
+				ByteBuffer page = this.arena.allocate(Math.max(this.pageSize, this.lengths.get(i)));
+				read(i, page);
+				page.position(page.limit()).limit(page.capacity());
+				this.pages.set(i, page);
+				this.offsets.set(i, null);
+			}
+		}
+		this.arena.release(this.reread);
+		this.reread = null;
+		this.rereadPage = -1;
+		closeSpill();
+	}
+
+	/**
+	 * Return the pages and index of this buffer to its arena; the buffer
+	 * is then empty.
+	 */
+	public void release() {
+		for (ByteBuffer page : this.pages) {
+			this.arena.release(page);
+		}
+		this.arena.release(this.index);
+		this.arena.release(this.reread);
+		this.pages.clear();
+		this.offsets.clear();
+		this.lengths.clear();
+		this.index = null;
+		this.reread = null;
+		this.rereadPage = -1;
+		this.size = 0;
+		this.bytes = 0;
+		closeSpill();
+	}
+
+	/**
+	 * Return true if any page of this buffer has been spilled to disk
+	 * @return
+	 */
+	public boolean isSpilled() {
+		return this.spill != null;
+	}
+
+	/**
+	 * Write the last page to the spill file, and clear it for reuse
+	 */
+	private void spill(ByteBuffer page) {
+		int last = this.pages.size() - 1;
+
+		try {
+			if (this.spill == null) {
+				this.spill = FileChannel.open(Files.createTempFile("sjdb", ".spill"), StandardOpenOption.READ,
+						StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+			}
+			long offset = this.spill.size();
+			page.flip();
+			while (page.hasRemaining()) {
+				this.spill.write(page, offset + page.position());
+			}
+			this.offsets.set(last, offset);
+			this.lengths.set(last, page.limit());
+			this.arena.recordSpill(page.limit());
+		} catch (IOException e) {
+			throw new IllegalStateException("Cannot spill tuples to disk", e);
+		}
+
+		this.pages.set(last, null);
+		page.clear();
+	}
+
+	/**
+	 * Return a page, reading it back from the spill file if necessary
+	 */
+	private ByteBuffer page(int number) {
+		ByteBuffer page = this.pages.get(number);
+		if (page != null) {
+			return page;
+		}
+		if (this.rereadPage == number) {
+			return this.reread;
+		}
+
+		int length = this.lengths.get(number);
+		if (this.reread == null || this.reread.capacity() < length) {
+			this.arena.release(this.reread);
+			this.reread = this.arena.allocate(Math.max(this.pageSize, length));
+		}
+		read(number, this.reread);
+		this.rereadPage = number;
+		return this.reread;
+	}
+
+	/**
+	 * Read a spilled page from the spill file into a buffer, up to its
+	 * length
+	 */
+	private void read(int number, ByteBuffer page) {
+		long offset = this.offsets.get(number);
+
+		page.clear().limit(this.lengths.get(number));
+		try {
+			while (page.hasRemaining()) {
+				if (this.spill.read(page, offset + page.position()) < 0) {
+					throw new IOException("Spill file truncated");
+				}
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("Cannot read spilled tuples", e);
+		}
+	}
+
+	private void closeSpill() {
+		if (this.spill != null) {
+			try {
+				this.spill.close();
+			} catch (IOException e) {
+				throw new IllegalStateException("Cannot delete spill file", e);
+			} finally {
+				this.spill = null;
+			}
+		}
+	}
+
+	private int dictionaryNumber(Dictionary dict) {
+		Integer number = this.dictionaryNumbers.get(dict);
+
+		if (number == null) {
+			number = this.dictionaries.size();
+			this.dictionaries.add(dict);
+			this.dictionaryNumbers.put(dict, number);
+		}
+		return number;
+	}
+}
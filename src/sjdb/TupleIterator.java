@@ -0,0 +1,30 @@
+package sjdb;
+
+import java.util.List;
+
+/**
+ * This is an interface for the iterators that execute a query plan. Each
+ * operator in a plan is executed by one iterator, which pulls tuples from
+ * the iterators executing its child operators.
+ */
+public interface TupleIterator {
+	/**
+	 * Prepare this iterator (and its children) to produce tuples.
+	 */
+	public void open();
+	/**
+	 * Return the next tuple, or null when this iterator is exhausted.
+	 * @return Next tuple
+	 */
+	public Tuple next();
+	/**
+	 * Release any resources held by this iterator (and its children).
+	 */
+	public void close();
+	/**
+	 * Return the attributes of the tuples produced by this iterator, in
+	 * tuple order.
+	 * @return Schema of the produced tuples
+	 */
+	public List<Attribute> getAttributes();
+}
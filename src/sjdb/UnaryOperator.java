@@ -12,8 +12,7 @@ public abstract class UnaryOperator extends Operator {
 	 * 
 	 */
 	public UnaryOperator(Operator input) {
-		super();	
-		this.inputs.add(input);
+		super(input);
 		this.output = null;
 	}
 
@@ -22,14 +21,6 @@ public abstract class UnaryOperator extends Operator {
 	 * @return Child operator
 	 */
 	public Operator getInput() {
-		return this.inputs.get(0);
-	}
-
-	/* (non-Javadoc)
-	 * @see sjdb.Operator#accept(sjdb.OperatorVisitor)
-	 */
-	public void accept(PlanVisitor visitor) {
-		super.accept(visitor);
-		// depth-first traversal - accept the 
+		return this.inputs[0];
 	}
 }
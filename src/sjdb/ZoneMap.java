@@ -0,0 +1,205 @@
+package sjdb;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * This class holds the zone map of a stored column: for each block of
+ * BLOCK_SIZE consecutive tuples, the least and greatest value and the
+ * number of null values. A Scan uses the zone maps of the attributes of
+ * the predicates pushed to it to skip blocks that cannot hold a matching
+ * tuple, which pays off when a table is clustered on those attributes.
+ *
+ * Values are ordered as by Predicate.compare. A block whose values are
+ * all numeric is ordered numerically, and so can only be skipped for
+ * comparisons with numbers; a block whose values are all non-numeric is
+ * ordered lexicographically; a block with both kinds of value is never
+ * skipped.
+ */
+public class ZoneMap {
+	/**
+	 * The number of tuples in a block
+	 */
+	public static final int BLOCK_SIZE = 64;
+
+	private static final byte NUMERIC = 0;
+	private static final byte TEXT = 1;
+	private static final byte MIXED = 2;
+
+	private String[] min;
+	private String[] max;
+	private byte[] kind;
+	private int[] nulls;
+
+	/**
+	 * Compute the zone map of a column
+	 * @param tuples Stored tuples
+	 * @param position Position of the column in the tuples
+	 */
+	public ZoneMap(List<Tuple> tuples, int position) {
+		int blocks = (tuples.size() + BLOCK_SIZE - 1) / BLOCK_SIZE;
+
+		this.min = new String[blocks];
+		this.max = new String[blocks];
+		this.kind = new byte[blocks];
+		this.nulls = new int[blocks];
+
+		for (int i = 0; i < tuples.size(); i++) {
+			int block = i / BLOCK_SIZE;
+			String value = tuples.get(i).get(position);
+
+			if (value == null) {
+				this.nulls[block]++;
+				continue;
+			}
+
+			byte k = (Predicate.toNumber(value) != null) ? NUMERIC : TEXT;
+			if (this.min[block] == null) {
+				this.kind[block] = k;
+				this.min[block] = value;
+				this.max[block] = value;
+			} else if (this.kind[block] != k) {
+				this.kind[block] = MIXED;
+			} else {
+				if (Predicate.compare(value, this.min[block]) < 0) {
+					this.min[block] = value;
+				}
+				if (Predicate.compare(value, this.max[block]) > 0) {
+					this.max[block] = value;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Return the number of blocks in the column
+	 * @return
+	 */
+	public int getBlockCount() {
+		return this.min.length;
+	}
+
+	/**
+	 * Return the number of null values in a block
+	 * @param block Block number
+	 * @return
+	 */
+	public int getNullCount(int block) {
+		return this.nulls[block];
+	}
+
+	/**
+	 * Return false if no value in a block can satisfy a predicate on the
+	 * column
+	 * @param block Block number
+	 * @param pred Predicate comparing the column with values
+	 * @return
+	 */
+	public boolean mightMatch(int block, Predicate pred) {
+		if (this.min[block] == null) {
+			return false;
+		}
+		if (this.kind[block] == MIXED) {
+			return true;
+		}
+
+		List<String> values = pred.getValues();
+
+		switch (pred.getComparison()) {
+		case EQ:
+			return inRange(block, values.get(0), values.get(0));
+		case NE:
+			return !(this.min[block].equals(values.get(0)) && this.max[block].equals(values.get(0)));
+		case LT:
+			return !ordered(block, values.get(0)) || Predicate.compare(this.min[block], values.get(0)) < 0;
+		case LE:
+			return !ordered(block, values.get(0)) || Predicate.compare(this.min[block], values.get(0)) <= 0;
+		case GT:
+			return !ordered(block, values.get(0)) || Predicate.compare(this.max[block], values.get(0)) > 0;
+		case GE:
+			return !ordered(block, values.get(0)) || Predicate.compare(this.max[block], values.get(0)) >= 0;
+		case BETWEEN:
+			return inRange(block, values.get(0), values.get(1));
+		case IN:
+			for (String value : values) {
+				if (inRange(block, value, value)) {
+					return true;
+				}
+			}
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Return false if no value in a block can lie between two bounds
+	 */
+	private boolean inRange(int block, String low, String high) {
+		if (!ordered(block, low) || !ordered(block, high)) {
+			return true;
+		}
+		return Predicate.compare(this.max[block], low) >= 0 && Predicate.compare(this.min[block], high) <= 0;
+	}
+
+	/**
+	 * Return true if comparing the values of a block with a value orders
+	 * them as the bounds of the block are ordered
+	 */
+	private boolean ordered(int block, String value) {
+		return this.kind[block] == TEXT || Predicate.toNumber(value) != null;
+	}
+
+	/**
+	 * Return the fraction of the blocks of a stored relation that a Scan
+	 * must read to find the tuples satisfying all of the given predicates,
+	 * or 1 if the relation has no zone maps
+	 * @param relation Stored named relation
+	 * @param predicates Predicates comparing attributes of the relation
+	 * with values
+	 * @return Fraction of blocks read
+	 */
+	public static double blockFraction(NamedRelation relation, Collection<Predicate> predicates) {
+		List<ZoneMap> zones = new ArrayList<ZoneMap>();
+		List<Predicate> pushed = new ArrayList<Predicate>();
+
+		for (Predicate pred : predicates) {
+			ZoneMap zone = pred.equalsAttribute() ? null : relation.getZoneMap(pred.getLeftAttribute());
+			if (zone != null) {
+				zones.add(zone);
+				pushed.add(pred);
+			}
+		}
+		if (zones.isEmpty() || zones.get(0).getBlockCount() == 0) {
+			return 1;
+		}
+
+		int blocks = zones.get(0).getBlockCount();
+		int read = 0;
+
+		for (int block = 0; block < blocks; block++) {
+			if (mightMatch(zones, pushed, block)) {
+				read++;
+			}
+		}
+
+		return read / (double) blocks;
+	}
+
+	/**
+	 * Return false if no tuple in a block can satisfy all of the given
+	 * predicates
+	 * @param zones Zone map of the attribute of each predicate
+	 * @param predicates Predicates
+	 * @param block Block number
+	 * @return
+	 */
+	public static boolean mightMatch(List<ZoneMap> zones, List<Predicate> predicates, int block) {
+		for (int i = 0; i < zones.size(); i++) {
+			if (!zones.get(i).mightMatch(block, predicates.get(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
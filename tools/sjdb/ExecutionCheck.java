@@ -0,0 +1,206 @@
+package sjdb;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * This class checks that optimised plans produce the same tuples as the
+ * canonical plans of the same queries, when executed over data generated
+ * from a catalogue: on one node, compiled into pipelines, adaptively, on a
+ * Cluster, within a MemoryBroker pool so small that every join and
+ * aggregate spills, after a round trip through a PlanSerializer and a
+ * PlanStore file, and once more after the cardinalities observed in a
+ * first execution have been fed back to the optimiser.
+ *
+ * The queries are those in the data directory, q1.txt onwards, and a
+ * few joins, aggregates and limits of the sample schema. Each catalogue
+ * in the data directory is checked in turn. The results of a query with
+ * a LIMIT but no ORDER BY may be any tuples of the query without the
+ * limit, so only their number and membership are compared. Each query is
+ * executed several times on the cluster, as its nodes run concurrently.
+ *
+ * Usage: java sjdb.ExecutionCheck [data directory]
+ * compiled with the sources: javac -d out src/sjdb/*.java tools/sjdb/*.java
+ * The exit status is 1 if any check fails.
+ */
+public class ExecutionCheck {
+	private static final String[] CATALOGUES = { "cat.txt", "catp.txt", "catv.txt" };
+
+	private static final String[] QUERIES = {
+		"SELECT projname, deptname\nFROM Project\nJOIN Department ON dept=deptid\nLIMIT 3\n",
+		"SELECT projname, persname, deptname\nFROM Person\nJOIN Project ON persid=projid\nJOIN Department ON dept=deptid\n",
+		"SELECT persname, deptname\nFROM Person, Department\nWHERE age>60\n",
+		"SELECT *\nFROM Person, Project, Department\nWHERE persid=manager, dept=deptid\n",
+		"SELECT age, COUNT(*), AVG(persid), MIN(persname), MAX(persname), SUM(persid)\nFROM Person\nGROUP BY age\n",
+		"SELECT age, persid, persname, COUNT(*)\nFROM Person\nGROUP BY age, persid, persname\n",
+		"SELECT COUNT(*), MIN(age), MAX(age)\nFROM Person\n",
+		"SELECT COUNT(*)\nFROM Person\nWHERE age>1000\n",
+		"SELECT deptname, COUNT(*)\nFROM Project\nJOIN Department ON dept=deptid\nGROUP BY deptname\n",
+		"SELECT persid, persname\nFROM Person\nORDER BY persid DESC\nLIMIT 5\n",
+		"SELECT persname\nFROM Person\nWHERE age>30\nLIMIT 10\n",
+	};
+
+	/**
+	 * The number of nodes of the cluster
+	 */
+	private static final int NODES = 3;
+
+	/**
+	 * The number of times each query is executed on the cluster
+	 */
+	private static final int CLUSTER_RUNS = 5;
+
+	private int checks;
+	private int failures;
+
+	public static void main(String[] args) throws Exception {
+		File dir = new File((args.length > 0) ? args[0] : "data");
+		ExecutionCheck check = new ExecutionCheck();
+
+		for (String catalogue : CATALOGUES) {
+			check.checkCatalogue(dir, catalogue);
+		}
+
+		System.out.println(check.checks + " checks, " + check.failures + " failed");
+		if (check.failures > 0) {
+			System.exit(1);
+		}
+	}
+
+	private void checkCatalogue(File dir, String catalogue) throws Exception {
+		Catalogue cat = new Catalogue();
+		new CatalogueParser(new File(dir, catalogue).getPath(), cat).parse();
+		Storage storage = new Storage();
+		new DataGenerator(cat).populate(storage);
+		Cluster cluster = new Cluster(storage, NODES);
+		PipelineCompiler compiler = new PipelineCompiler();
+		File plans = File.createTempFile("plans", ".txt");
+		plans.deleteOnExit();
+
+		List<String> queries = new ArrayList<String>();
+		for (int i = 1; new File(dir, "q" + i + ".txt").exists(); i++) {
+			queries.add(read(new File(dir, "q" + i + ".txt")));
+		}
+		Collections.addAll(queries, QUERIES);
+
+		for (int i = 0; i < queries.size(); i++) {
+			String query = queries.get(i);
+			String name = catalogue + " query " + (i + 1);
+			List<String> expected = rows(new Executor(storage).execute(parse(cat, query)));
+
+			// a LIMIT without an ORDER BY may keep any of the tuples
+			List<String> unlimited = null;
+			if (query.contains("LIMIT") && !query.contains("ORDER BY")) {
+				unlimited = rows(new Executor(storage).execute(parse(cat, query.replaceAll("LIMIT.*\n?", ""))));
+			}
+
+			Operator plan = new Optimiser(cat).optimise(parse(cat, query));
+			compare(name + " on one node", expected, unlimited, rows(new Executor(storage).execute(plan)));
+
+			Executor pipelined = new Executor(storage);
+			pipelined.setCodeGeneration(compiler);
+			compare(name + " compiled into pipelines", expected, unlimited, rows(pipelined.execute(plan)));
+
+			AdaptiveExecutor adaptive = new AdaptiveExecutor(new Optimiser(cat), storage);
+			compare(name + " adaptively", expected, unlimited, rows(adaptive.execute(parse(cat, query))));
+
+			Operator serialized = PlanSerializer.deserialize(PlanSerializer.serialize(plan), storage);
+			compare(name + " serialised", expected, unlimited, rows(new Executor(storage).execute(serialized)));
+
+			// the plan saved by one optimiser is reused by another from the file
+			PlanStore saved = new PlanStore(cat, plans);
+			Optimiser saving = new Optimiser(cat);
+			saving.setPlanStore(saved);
+			saving.optimise(parse(cat, query));
+			saved.save();
+			PlanStore loaded = new PlanStore(cat, plans);
+			loaded.load();
+			Optimiser loading = new Optimiser(cat);
+			loading.setPlanStore(loaded);
+			Operator stored = loading.optimise(parse(cat, query));
+			if (loaded.getHits() == 0) {
+				fail(name + " from a plan store", "the saved plan was not reused");
+			}
+			compare(name + " from a plan store", expected, unlimited, rows(new Executor(storage).execute(stored)));
+
+			// a second optimisation uses the cardinalities observed in the first execution
+			CardinalityFeedback feedback = new CardinalityFeedback();
+			Optimiser learning = new Optimiser(cat, feedback);
+			new ExplainAnalyzer(storage, feedback).explain(learning.optimise(parse(cat, query)));
+			Operator learned = learning.optimise(parse(cat, query));
+			compare(name + " with cardinality feedback", expected, unlimited,
+					rows(new Executor(storage).execute(learned)));
+
+			Optimiser distributed = new Optimiser(cat);
+			distributed.setNodes(NODES);
+			for (int run = 0; run < CLUSTER_RUNS; run++) {
+				List<String> actual;
+				try {
+					actual = rows(cluster.execute(distributed.optimise(parse(cat, query))));
+				} catch (RuntimeException e) {
+					fail(name + " on a cluster", e.toString());
+					continue;
+				}
+				compare(name + " on a cluster", expected, unlimited, actual);
+			}
+
+			Executor brokered = new Executor(storage);
+			brokered.setMemoryBroker(new MemoryBroker(1));
+			compare(name + " within a tiny memory pool", expected, unlimited, rows(brokered.execute(plan)));
+		}
+	}
+
+	/**
+	 * Compare the tuples of a plan with those of the canonical plan, or,
+	 * for a limit, with the tuples of the canonical plan without it
+	 */
+	private void compare(String name, List<String> expected, List<String> unlimited, List<String> actual) {
+		this.checks++;
+
+		if (unlimited == null && !actual.equals(expected)) {
+			fail(name, "expected " + expected.size() + " tuples " + expected + " but got " + actual.size()
+					+ " " + actual);
+		} else if (unlimited != null && (actual.size() != expected.size() || !unlimited.containsAll(actual))) {
+			fail(name, "expected " + expected.size() + " tuples of " + unlimited.size() + " but got " + actual);
+		}
+	}
+
+	private void fail(String name, String message) {
+		this.failures++;
+		System.out.println("FAILED " + name + ": " + message);
+	}
+
+	private static Operator parse(Catalogue cat, String query) throws Exception {
+		return new QueryParser(cat, new StringReader(query)).parse();
+	}
+
+	private static String read(File file) throws Exception {
+		StringBuilder text = new StringBuilder();
+		char[] chars = new char[4096];
+		int n;
+
+		try (Reader in = new FileReader(file)) {
+			while ((n = in.read(chars)) > 0) {
+				text.append(chars, 0, n);
+			}
+		}
+		return text.toString();
+	}
+
+	/**
+	 * Return the tuples of a result as strings, in order
+	 */
+	private static List<String> rows(List<Tuple> tuples) {
+		List<String> rows = new ArrayList<String>();
+		for (Tuple tuple : tuples) {
+			rows.add(tuple.toString());
+		}
+		Collections.sort(rows);
+		return rows;
+	}
+}